@@ -0,0 +1,108 @@
+import common.digest.DigestAlgorithm;
+
+import java.util.Random;
+
+/**
+ * Benchmark that compares the throughput of the digest algorithms that peers can negotiate,
+ * when the data is handed to the digest in buffers of several sizes. The data is held in
+ * memory, so the benchmark measures the digest rather than the storage.
+ * <p>
+ * Usage: DigestBenchmark [total size], where the size is given like '256M' or '1G'. Each
+ * algorithm is warmed up before it is measured, so that the JIT has compiled it.
+ *
+ * @author 200008575
+ */
+public class DigestBenchmark {
+    /**
+     * The number of times each measurement is repeated, the fastest run is reported.
+     */
+    private static final int ITERATIONS = 5;
+
+    /**
+     * The buffer sizes that the data is hashed in.
+     */
+    private static final int[] BUFFER_SIZES = {1024, 8 * 1024, 64 * 1024, 256 * 1024, 1024 * 1024};
+
+    public static void main(String[] args) {
+        var total = args.length > 0 ? parseSize(args[0]) : 256L * 1024 * 1024;
+
+        var data = new byte[BUFFER_SIZES[BUFFER_SIZES.length - 1]];
+        new Random(42).nextBytes(data);
+
+        System.out.printf("%-8s", "Buffer");
+
+        for (var algorithm : DigestAlgorithm.values()) {
+            System.out.printf(" %12s", algorithm.getName() + " MB/s");
+        }
+
+        System.out.println();
+
+        for (var algorithm : DigestAlgorithm.values()) {
+            measure(algorithm, data, 64 * 1024, total);
+        }
+
+        for (var bufferSize : BUFFER_SIZES) {
+            System.out.printf("%-8s", bufferSize / 1024 + "K");
+
+            for (var algorithm : DigestAlgorithm.values()) {
+                System.out.printf(" %12.1f", measure(algorithm, data, bufferSize, total));
+            }
+
+            System.out.println();
+        }
+    }
+
+    /**
+     * Method to hash the given amount of data several times and return the best throughput.
+     *
+     * @param algorithm  - The digest algorithm.
+     * @param data       - The data that is hashed repeatedly.
+     * @param bufferSize - The number of bytes that are handed to the digest at a time.
+     * @param total      - The number of bytes that are hashed by each run.
+     * @return The best throughput in megabytes per second.
+     */
+    private static double measure(DigestAlgorithm algorithm, byte[] data, int bufferSize, long total) {
+        var best = Long.MAX_VALUE;
+        var digest = algorithm.create();
+        var sink = 0;
+
+        for (int i = 0; i < ITERATIONS; i++) {
+            var start = System.nanoTime();
+
+            for (long hashed = 0; hashed < total; hashed += bufferSize) {
+                digest.update(data, 0, bufferSize);
+            }
+
+            // Use the digest, so that the work can't be optimised away.
+            sink += digest.digest()[0];
+
+            best = Math.min(best, System.nanoTime() - start);
+        }
+
+        if (sink == Integer.MIN_VALUE) {
+            System.out.println();
+        }
+
+        return (total / (1024.0 * 1024.0)) / (best / 1e9);
+    }
+
+    /**
+     * Method to parse a size such as '10M' or '1G' into a number of bytes.
+     *
+     * @param size - The size string.
+     * @return The number of bytes.
+     */
+    private static long parseSize(String size) {
+        var unit = Character.toUpperCase(size.charAt(size.length() - 1));
+        var multiplier = 1L;
+
+        switch (unit) {
+            case 'K': multiplier = 1024L; break;
+            case 'M': multiplier = 1024L * 1024; break;
+            case 'G': multiplier = 1024L * 1024 * 1024; break;
+            default: return Long.parseLong(size);
+        }
+
+        return Long.parseLong(size.substring(0, size.length() - 1)) * multiplier;
+    }
+}
@@ -0,0 +1,406 @@
+import client.Client;
+import com.fasterxml.jackson.core.JsonToken;
+import common.Configuration;
+import common.protocol.Command;
+import common.protocol.FrameReader;
+import common.protocol.FrameWriter;
+import common.protocol.ResponseType;
+import common.resources.FileEntry;
+import interfaces.IResponseChannel;
+import server.RequestDispatcher;
+import server.UploadIndex;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.stream.Stream;
+
+/**
+ * Benchmark that compares the cost of a request in the JSON and the binary protocol. Every
+ * request is encoded as the client does, dispatched straight to a {@link RequestDispatcher}
+ * whose response is captured rather than sent, and the response is then decoded as the
+ * client does. The benchmark prints the time taken and the bytes allocated per request on
+ * the server and on the client, so it measures the parsing and the encoding rather than the
+ * network.
+ * <p>
+ * Usage: ProtocolBenchmark [entries], where entries is the number of files in the folder
+ * that is listed (100 by default). The folder is created in the temporary folder and is set
+ * as the upload folder whilst the benchmark runs.
+ *
+ * @author 200008575
+ */
+public class ProtocolBenchmark {
+    /**
+     * The number of requests that are dispatched before measuring, so that the JIT has
+     * compiled the request path.
+     */
+    private static final int WARMUP = 20000;
+
+    /**
+     * The number of requests that are measured.
+     */
+    private static final int ITERATIONS = 100000;
+
+    public static void main(String[] args) throws Exception {
+        var entries = args.length > 0 ? Integer.parseInt(args[0]) : 100;
+
+        var config = Configuration.getInstance();
+        var previous = config.get("upload");
+        var folder = Files.createTempDirectory("protocol-benchmark");
+
+        try {
+            for (int i = 0; i < entries; i++) {
+                Files.write(folder.resolve(String.format("file-%05d.txt", i)), new byte[i % 1024]);
+            }
+
+            config.set("upload", folder.toString());
+
+            // The index answers listings from memory, as it does when a server is running.
+            var index = UploadIndex.getInstance();
+            index.start();
+
+            while (!index.isReady()) {
+                Thread.sleep(10);
+            }
+
+            var channel = new CapturingChannel();
+            var json = new RequestDispatcher();
+            var binary = new RequestDispatcher();
+
+            binary.dispatch("Protocol binary", channel);
+
+            // The digest of the file is computed once and then served from the digest cache.
+            json.dispatch("GetMeta file-00001.txt", channel);
+
+            System.out.printf("%-24s %-7s %12s %14s %12s %14s %14s%n", "Request", "Format", "server ns", "server bytes", "client ns", "client bytes", "response bytes");
+
+            for (var request : new String[]{"List", "GetMeta file-00001.txt", "GetMeta missing.txt"}) {
+                var words = request.split(" ", 2);
+                var command = Command.valueOf(words[0]);
+                var arguments = Arrays.copyOfRange(words, 1, words.length);
+
+                measure(request, "json", new Protocol() {
+                    @Override
+                    public byte[] encode() {
+                        return String.format("%s %s", command, String.join(" ", arguments)).getBytes(StandardCharsets.UTF_8);
+                    }
+
+                    @Override
+                    public void dispatch(byte[] request) throws IOException {
+                        json.dispatch(new String(request, StandardCharsets.UTF_8).trim(), channel);
+                    }
+
+                    @Override
+                    public Object decode() throws IOException {
+                        return Client.mapper.readTree(channel.buffer, 0, channel.length);
+                    }
+                }, channel);
+
+                var writer = new FrameWriter();
+
+                measure(request, "binary", new Protocol() {
+                    @Override
+                    public byte[] encode() {
+                        writer.begin(command.getOpcode()).writeString(String.join(" ", arguments)).end();
+                        return writer.getBuffer();
+                    }
+
+                    @Override
+                    public void dispatch(byte[] request) throws IOException {
+                        binary.dispatch(new FrameReader(request[0], request, FrameWriter.HEADER_SIZE, FrameReader.getLength(request, 0)), channel);
+                    }
+
+                    @Override
+                    public Object decode() throws IOException {
+                        var length = FrameReader.getLength(channel.buffer, 0);
+
+                        return Client.decodeFrame(new FrameReader(channel.buffer[0] & 0xFF, channel.buffer, FrameWriter.HEADER_SIZE, length));
+                    }
+                }, channel);
+            }
+
+            index.stop();
+
+            codec(entries);
+        } finally {
+            config.set("upload", previous);
+
+            try (Stream<Path> paths = Files.walk(folder)) {
+                paths.sorted(Comparator.reverseOrder()).forEach(path -> path.toFile().delete());
+            }
+        }
+
+        System.exit(0);
+    }
+
+    /**
+     * Method to send a request many times in a protocol and print how long it took and how
+     * many bytes were allocated per request, on the server and on the client.
+     *
+     * @param request  - The request line, which is printed.
+     * @param format   - The name of the protocol, which is printed.
+     * @param protocol - The protocol that the request is sent in.
+     * @param channel  - The channel that the responses are captured by.
+     * @throws IOException if the request couldn't be answered.
+     */
+    private static void measure(String request, String format, Protocol protocol, CapturingChannel channel) throws IOException {
+        var encoded = protocol.encode();
+
+        for (int i = 0; i < WARMUP; i++) {
+            protocol.dispatch(protocol.encode());
+            protocol.decode();
+        }
+
+        var threads = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        var thread = Thread.currentThread().getId();
+
+        // The server and the client are measured in loops of their own, so that reading the
+        // clock and the allocation counter isn't part of what is measured.
+        var allocated = threads.getThreadAllocatedBytes(thread);
+        var start = System.nanoTime();
+
+        for (int i = 0; i < ITERATIONS; i++) {
+            protocol.dispatch(encoded);
+        }
+
+        var serverNanos = System.nanoTime() - start;
+        var serverBytes = threads.getThreadAllocatedBytes(thread) - allocated;
+
+        allocated = threads.getThreadAllocatedBytes(thread);
+        start = System.nanoTime();
+
+        for (int i = 0; i < ITERATIONS; i++) {
+            protocol.encode();
+            protocol.decode();
+        }
+
+        var clientNanos = System.nanoTime() - start;
+        var clientBytes = threads.getThreadAllocatedBytes(thread) - allocated;
+
+        System.out.printf("%-24s %-7s %12d %14d %12d %14d %14d%n", request, format, serverNanos / ITERATIONS, serverBytes / ITERATIONS, clientNanos / ITERATIONS, clientBytes / ITERATIONS, channel.length);
+    }
+
+    /**
+     * Method to measure the parsing and the encoding alone, without looking up the files. A
+     * 'GetMeta' request is parsed, it's response is encoded and then read field by field, as
+     * is a listing of the given number of entries. JSON is read with a streaming parser, so
+     * neither format builds a tree of nodes.
+     *
+     * @param entries - The number of entries in the listing.
+     * @throws IOException if a message couldn't be encoded or decoded.
+     */
+    private static void codec(int entries) throws IOException {
+        var digest = new byte[16];
+        var root = new byte[32];
+        var names = new String[entries];
+
+        for (int i = 0; i < entries; i++) {
+            names[i] = String.format("file-%05d.txt", i);
+        }
+
+        var factory = Client.mapper.getFactory();
+        var buffer = new ByteArrayOutputStream(64 * 1024);
+        var generator = factory.createGenerator(buffer);
+        var writer = new FrameWriter();
+        var requestLine = "GetMeta folder/file-00001.txt";
+
+        // The request frame is only read, so it's encoded once.
+        var request = new FrameWriter().begin(Command.GetMeta.getOpcode()).writeString("folder/file-00001.txt");
+        request.end();
+
+        var frame = Arrays.copyOf(request.getBuffer(), request.size());
+
+        Codec jsonMeta = () -> {
+            var words = requestLine.split(" ");
+            Command.valueOf(words[0]);
+            var path = String.join(" ", Arrays.copyOfRange(words, 1, words.length));
+
+            buffer.reset();
+            generator.writeStartObject();
+            generator.writeStringField("path", path);
+            generator.writeBinaryField("digest", digest);
+            generator.writeStringField("algorithm", "md5");
+            generator.writeNumberField("size", 1024L);
+            generator.writeNumberField("chunkSize", 1048576);
+            generator.writeBinaryField("root", root);
+            generator.writeStringField("type", "File");
+            generator.writeStringField("fileName", "file-00001.txt");
+            generator.writeBooleanField("status", true);
+            generator.writeEndObject();
+            generator.flush();
+
+            var count = 0L;
+
+            try (var parser = factory.createParser(buffer.toByteArray())) {
+                while (parser.nextToken() != null) {
+                    if (parser.currentToken() == JsonToken.VALUE_STRING) {
+                        count += parser.getText().length();
+                    } else if (parser.currentToken() == JsonToken.VALUE_NUMBER_INT) {
+                        count += parser.getLongValue();
+                    }
+                }
+            }
+
+            return count;
+        };
+
+        Codec binaryMeta = () -> {
+            var reader = new FrameReader(frame[0], frame, FrameWriter.HEADER_SIZE, FrameReader.getLength(frame, 0));
+            Command.fromOpcode(reader.getOpcode());
+            var path = reader.readString();
+
+            writer.begin(ResponseType.METADATA.getOpcode()).writeString(path).writeDigest(digest).writeString("md5").writeLong(1024L)
+                    .writeInt(1048576).writeDigest(root).writeString("file-00001.txt").end();
+
+            var response = new FrameReader(writer.getBuffer()[0], writer.getBuffer(), FrameWriter.HEADER_SIZE, writer.size() - FrameWriter.HEADER_SIZE);
+
+            return response.readString().length() + response.readDigest().length + response.readString().length()
+                    + response.readLong() + response.readInt() + response.readDigest().length + response.readString().length();
+        };
+
+        Codec jsonList = () -> {
+            buffer.reset();
+            generator.writeStartObject();
+            generator.writeArrayFieldStart("files");
+
+            for (var name : names) {
+                generator.writeStartObject();
+                generator.writeStringField("type", "File");
+                generator.writeStringField("path", name);
+                generator.writeEndObject();
+            }
+
+            generator.writeEndArray();
+            generator.writeBooleanField("status", true);
+            generator.writeEndObject();
+            generator.flush();
+
+            var count = 0L;
+
+            try (var parser = factory.createParser(buffer.toByteArray())) {
+                while (parser.nextToken() != null) {
+                    if (parser.currentToken() == JsonToken.VALUE_STRING) {
+                        count += parser.getText().length();
+                    }
+                }
+            }
+
+            return count;
+        };
+
+        Codec binaryList = () -> {
+            writer.begin(ResponseType.LISTING.getOpcode()).writeInt(names.length);
+
+            for (var name : names) {
+                writer.writeByte(0).writeString(name);
+            }
+
+            writer.end();
+
+            var response = new FrameReader(writer.getBuffer()[0], writer.getBuffer(), FrameWriter.HEADER_SIZE, writer.size() - FrameWriter.HEADER_SIZE);
+            var count = 0L;
+
+            for (int i = response.readInt(); i > 0; i--) {
+                count += response.readByte() + response.readString().length();
+            }
+
+            return count;
+        };
+
+        System.out.println();
+        System.out.printf("%-24s %-7s %12s %14s%n", "Codec only", "Format", "ns", "bytes");
+
+        measure("GetMeta", "json", jsonMeta);
+        measure("GetMeta", "binary", binaryMeta);
+        measure(String.format("List (%d entries)", entries), "json", jsonList);
+        measure(String.format("List (%d entries)", entries), "binary", binaryList);
+    }
+
+    /**
+     * Method to run a codec many times and print how long it took and how many bytes were
+     * allocated per run.
+     *
+     * @param name   - The name of the message, which is printed.
+     * @param format - The name of the protocol, which is printed.
+     * @param codec  - The codec.
+     * @throws IOException if a message couldn't be encoded or decoded.
+     */
+    private static void measure(String name, String format, Codec codec) throws IOException {
+        var sink = 0L;
+
+        for (int i = 0; i < WARMUP; i++) {
+            sink += codec.run();
+        }
+
+        var threads = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        var thread = Thread.currentThread().getId();
+
+        var allocated = threads.getThreadAllocatedBytes(thread);
+        var start = System.nanoTime();
+
+        for (int i = 0; i < ITERATIONS; i++) {
+            sink += codec.run();
+        }
+
+        var elapsed = System.nanoTime() - start;
+        allocated = threads.getThreadAllocatedBytes(thread) - allocated;
+
+        // The sum of the decoded values is used, so that the JIT can't drop the decoding.
+        System.out.printf("%-24s %-7s %12d %14d%s%n", name, format, elapsed / ITERATIONS, allocated / ITERATIONS, sink == 42 ? " " : "");
+    }
+
+    /**
+     * A request that is parsed, and a response that is encoded and then decoded.
+     */
+    private interface Codec {
+        long run() throws IOException;
+    }
+
+    /**
+     * The steps of a request in one of the protocols.
+     */
+    private interface Protocol {
+        byte[] encode();
+
+        void dispatch(byte[] request) throws IOException;
+
+        Object decode() throws IOException;
+    }
+
+    /**
+     * Channel that keeps a copy of the last response, so that it can be decoded.
+     */
+    private static class CapturingChannel implements IResponseChannel {
+        private byte[] buffer = new byte[64 * 1024];
+        private int length = 0;
+
+        @Override
+        public void writeLine(String line) {
+            var bytes = line.getBytes(StandardCharsets.UTF_8);
+            this.writeLine(bytes, 0, bytes.length);
+        }
+
+        @Override
+        public void writeLine(byte[] bytes, int offset, int length) {
+            if (length > this.buffer.length) {
+                this.buffer = new byte[length];
+            }
+
+            System.arraycopy(bytes, offset, this.buffer, 0, length);
+            this.length = length;
+        }
+
+        @Override
+        public void writeFile(FileEntry fileEntry, long offset, long length) {
+        }
+
+        @Override
+        public void writeBytes(byte[] bytes, int offset, int length) {
+        }
+    }
+}
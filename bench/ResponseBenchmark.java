@@ -0,0 +1,141 @@
+import common.Configuration;
+import common.resources.FileEntry;
+import interfaces.IResponseChannel;
+import server.RequestDispatcher;
+import server.UploadIndex;
+
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.stream.Stream;
+
+/**
+ * Benchmark that measures how many bytes the server allocates, and how long it takes, to
+ * answer 'List' and 'GetMeta' requests. The requests are dispatched straight to a
+ * {@link RequestDispatcher} whose responses are discarded, so the benchmark measures the
+ * parsing of the request and the generation of the response rather than the network.
+ * <p>
+ * Usage: ResponseBenchmark [entries], where entries is the number of files in the folder
+ * that is listed (100 by default). The folder is created in the temporary folder and is set
+ * as the upload folder whilst the benchmark runs.
+ *
+ * @author 200008575
+ */
+public class ResponseBenchmark {
+    /**
+     * The number of requests that are dispatched before measuring, so that the JIT has
+     * compiled the request path.
+     */
+    private static final int WARMUP = 20000;
+
+    /**
+     * The number of requests that are measured.
+     */
+    private static final int ITERATIONS = 100000;
+
+    public static void main(String[] args) throws Exception {
+        var entries = args.length > 0 ? Integer.parseInt(args[0]) : 100;
+
+        var config = Configuration.getInstance();
+        var previous = config.get("upload");
+        var folder = Files.createTempDirectory("response-benchmark");
+
+        try {
+            for (int i = 0; i < entries; i++) {
+                Files.write(folder.resolve(String.format("file-%05d.txt", i)), new byte[i % 1024]);
+            }
+
+            config.set("upload", folder.toString());
+
+            // The index answers listings from memory, as it does when a server is running.
+            var index = UploadIndex.getInstance();
+            index.start();
+
+            while (!index.isReady()) {
+                Thread.sleep(10);
+            }
+
+            var dispatcher = new RequestDispatcher();
+            var channel = new DiscardingChannel();
+
+            // The digest of the file is computed once and then served from the digest cache.
+            dispatcher.dispatch("GetMeta file-00001.txt", channel);
+
+            System.out.printf("%-24s %14s %12s %14s%n", "Request", "bytes/request", "ns/request", "response bytes");
+
+            measure(dispatcher, channel, "List");
+            measure(dispatcher, channel, "GetMeta file-00001.txt");
+            measure(dispatcher, channel, "GetMeta missing.txt");
+
+            index.stop();
+        } finally {
+            config.set("upload", previous);
+
+            try (Stream<Path> paths = Files.walk(folder)) {
+                paths.sorted(Comparator.reverseOrder()).forEach(path -> path.toFile().delete());
+            }
+        }
+
+        System.exit(0);
+    }
+
+    /**
+     * Method to dispatch a request many times and print how many bytes were allocated and
+     * how long it took per request.
+     *
+     * @param dispatcher - The dispatcher that answers the request.
+     * @param channel    - The channel that the responses are discarded by.
+     * @param request    - The request line.
+     * @throws IOException if the request couldn't be answered.
+     */
+    private static void measure(RequestDispatcher dispatcher, DiscardingChannel channel, String request) throws IOException {
+        for (int i = 0; i < WARMUP; i++) {
+            dispatcher.dispatch(request, channel);
+        }
+
+        var threads = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        var thread = Thread.currentThread().getId();
+
+        channel.written = 0;
+
+        var allocated = threads.getThreadAllocatedBytes(thread);
+        var start = System.nanoTime();
+
+        for (int i = 0; i < ITERATIONS; i++) {
+            dispatcher.dispatch(request, channel);
+        }
+
+        var elapsed = System.nanoTime() - start;
+        allocated = threads.getThreadAllocatedBytes(thread) - allocated;
+
+        System.out.printf("%-24s %14d %12d %14d%n", request, allocated / ITERATIONS, elapsed / ITERATIONS, channel.written / ITERATIONS);
+    }
+
+    /**
+     * Channel that counts the bytes of the responses and then discards them.
+     */
+    private static class DiscardingChannel implements IResponseChannel {
+        private long written = 0;
+
+        @Override
+        public void writeLine(String line) {
+            this.written += line.length() + System.lineSeparator().length();
+        }
+
+        public void writeLine(byte[] bytes, int offset, int length) {
+            this.written += length;
+        }
+
+        @Override
+        public void writeFile(FileEntry fileEntry, long offset, long length) {
+            this.written += length;
+        }
+
+        @Override
+        public void writeBytes(byte[] bytes, int offset, int length) {
+            this.written += length;
+        }
+    }
+}
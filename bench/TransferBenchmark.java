@@ -0,0 +1,187 @@
+import common.FileTransfer;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Random;
+import java.util.concurrent.Callable;
+
+/**
+ * Benchmark that compares the throughput of sending a file over a loopback socket
+ * with the zero-copy transfer, the pooled buffer copy and the original 1KB buffer
+ * copy that the 'Get' command used.
+ * <p>
+ * Usage: TransferBenchmark [sizes...], where sizes are given like '1M', '100M' or '10G'.
+ * Sizes that don't fit into the free space of the temporary folder are skipped.
+ *
+ * @author 200008575
+ */
+public class TransferBenchmark {
+    /**
+     * The number of times each transfer is repeated, the fastest run is reported.
+     */
+    private static final int ITERATIONS = 3;
+
+    public static void main(String[] args) throws Exception {
+        var sizes = args.length > 0 ? args : new String[]{"1M", "10M", "100M", "1G", "10G"};
+
+        try (var server = ServerSocketChannel.open()) {
+            server.bind(new InetSocketAddress("127.0.0.1", 0));
+
+            var sink = new Thread(() -> drain(server), "Sink");
+            sink.setDaemon(true);
+            sink.start();
+
+            System.out.printf("%-8s %16s %16s %16s%n", "Size", "zero-copy MB/s", "pooled MB/s", "1KB copy MB/s");
+
+            for (var size : sizes) {
+                var bytes = parseSize(size);
+                var file = Files.createTempFile("transfer-benchmark", ".bin");
+
+                try {
+                    if (file.getParent().toFile().getUsableSpace() < bytes) {
+                        System.out.printf("%-8s skipped, not enough free space%n", size);
+                        continue;
+                    }
+
+                    createFile(file, bytes);
+
+                    var address = server.getLocalAddress();
+
+                    var zeroCopy = measure(bytes, () -> {
+                        try (var channel = FileChannel.open(file, StandardOpenOption.READ);
+                             var socket = SocketChannel.open(address)) {
+                            return FileTransfer.transfer(channel, 0, channel.size(), socket);
+                        }
+                    });
+
+                    var pooled = measure(bytes, () -> {
+                        try (var channel = FileChannel.open(file, StandardOpenOption.READ);
+                             var socket = SocketChannel.open(address)) {
+                            return FileTransfer.copy(channel, 0, channel.size(), socket);
+                        }
+                    });
+
+                    var legacy = measure(bytes, () -> {
+                        try (InputStream in = Files.newInputStream(file);
+                             var socket = SocketChannel.open(address)) {
+                            OutputStream out = socket.socket().getOutputStream();
+
+                            byte[] buffer = new byte[1024];
+                            long total = 0;
+                            int count;
+
+                            while ((count = in.read(buffer)) != -1) {
+                                out.write(buffer, 0, count);
+                                total += count;
+                            }
+
+                            return total;
+                        }
+                    });
+
+                    System.out.printf("%-8s %16.1f %16.1f %16.1f%n", size, zeroCopy, pooled, legacy);
+                } finally {
+                    Files.deleteIfExists(file);
+                }
+            }
+        }
+    }
+
+    /**
+     * Method to run a transfer several times and return the best throughput.
+     *
+     * @param bytes    - The number of bytes that each transfer sends.
+     * @param transfer - The transfer to run.
+     * @return The best throughput in megabytes per second.
+     */
+    private static double measure(long bytes, Callable<Long> transfer) throws Exception {
+        var best = Long.MAX_VALUE;
+
+        for (int i = 0; i < ITERATIONS; i++) {
+            var start = System.nanoTime();
+            var sent = transfer.call();
+            var elapsed = System.nanoTime() - start;
+
+            if (sent != bytes) {
+                throw new IllegalStateException("Transfer sent " + sent + " of " + bytes + " bytes.");
+            }
+
+            best = Math.min(best, elapsed);
+        }
+
+        return (bytes / (1024.0 * 1024.0)) / (best / 1e9);
+    }
+
+    /**
+     * Method that accepts connections and discards everything that is sent on them.
+     *
+     * @param server - The server channel to accept connections on.
+     */
+    private static void drain(ServerSocketChannel server) {
+        var buffer = ByteBuffer.allocateDirect(FileTransfer.BUFFER_SIZE);
+
+        try {
+            while (true) {
+                try (var socket = server.accept()) {
+                    while (socket.read(buffer.clear()) != -1) {
+                        // discard the data.
+                    }
+                }
+            }
+        } catch (IOException e) {
+            // The benchmark finished and closed the server.
+        }
+    }
+
+    /**
+     * Method to fill a file with random data.
+     *
+     * @param file  - The file to write.
+     * @param bytes - The size of the file.
+     */
+    private static void createFile(Path file, long bytes) throws IOException {
+        var block = new byte[1024 * 1024];
+        new Random(42).nextBytes(block);
+
+        try (var channel = FileChannel.open(file, StandardOpenOption.WRITE)) {
+            var written = 0L;
+
+            while (written < bytes) {
+                var buffer = ByteBuffer.wrap(block, 0, (int) Math.min(block.length, bytes - written));
+
+                while (buffer.hasRemaining()) {
+                    written += channel.write(buffer);
+                }
+            }
+        }
+    }
+
+    /**
+     * Method to parse a size such as '10M' or '1G' into a number of bytes.
+     *
+     * @param size - The size string.
+     * @return The number of bytes.
+     */
+    private static long parseSize(String size) {
+        var unit = Character.toUpperCase(size.charAt(size.length() - 1));
+        var multiplier = 1L;
+
+        switch (unit) {
+            case 'K': multiplier = 1024L; break;
+            case 'M': multiplier = 1024L * 1024; break;
+            case 'G': multiplier = 1024L * 1024 * 1024; break;
+            default: return Long.parseLong(size);
+        }
+
+        return Long.parseLong(size.substring(0, size.length() - 1)) * multiplier;
+    }
+}
@@ -1,5 +1,5 @@
 import cli.Commander;
-import client.Downloader;
+import client.DownloadManager;
 import common.Configuration;
 import common.Networking;
 import server.PeerReceiver;
@@ -113,7 +113,7 @@ public class FileShareMain {
             }
 
             // Clean-up any unfinished downloads that are currently active...
-            commander.getDownloadMap().values().forEach(item -> item.forEach(Downloader::stop));
+            DownloadManager.getInstance().stopAll();
         } catch (NumberFormatException e) {
             System.out.println("Port argument must be an integer.");
             System.out.println("Usage: FileShareMain <port> [-noBroadcast]");
@@ -1,27 +1,43 @@
 package cli;
 
-import cli.printers.ResourceTable;
+import cli.printers.SearchResultTable;
+import cli.printers.StreamedResourceTable;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.node.ObjectNode;
 import client.Client;
+import client.ConnectionPool;
+import client.DownloadManager;
 import client.Downloader;
 import client.DownloaderStatus;
+import common.BandwidthLimiter;
 import common.Configuration;
 import common.Networking;
 import common.ResourceLoader;
+import common.TaskRunner;
+import common.digest.DigestAlgorithm;
 import common.protocol.Command;
 import server.PeerRecord;
 import server.Server;
+import server.UploadScheduler;
 
 import java.io.IOException;
 import java.net.ConnectException;
 import java.net.InetAddress;
+import java.net.SocketTimeoutException;
 import java.net.UnknownHostException;
 import java.nio.file.InvalidPathException;
 import java.util.ArrayList;
 import java.util.Arrays;
-import java.util.HashMap;
+import java.util.Comparator;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
 
 /**
  * Singleton class that is responsible for handling the command line
@@ -30,6 +46,28 @@ import java.util.concurrent.ConcurrentHashMap;
  * @author 200008575
  */
 public class Commander {
+    /**
+     * Number that represents how long (in milliseconds) other peers are given to answer
+     * whether they hold a resource that is being downloaded.
+     */
+    private static final int LOCATE_TIMEOUT = 2000;
+
+    /**
+     * The number of best matches across every peer that are printed once a search of all
+     * peers has finished.
+     */
+    private static final int BEST_MATCHES = 10;
+
+    /**
+     * The order that the results of several peers are merged in, the best match first. Results
+     * are ranked by the score that their peer gave them, and then by the shorter path.
+     */
+    private static final Comparator<JsonNode> RESULT_ORDER = Comparator
+            .comparingInt((JsonNode item) -> -item.path("score").asInt())
+            .thenComparingInt(item -> item.path("path").asText().length())
+            .thenComparing(item -> item.path("path").asText())
+            .thenComparing(item -> item.path("peer").asText());
+
     /**
      * A reference to the server object
      */
@@ -58,9 +96,9 @@ public class Commander {
     private final Configuration config = Configuration.getInstance();
 
     /**
-     * This is an internal list of download instances that are being orchestrated by the server
+     * The manager that queues the downloads which are requested by the CLI.
      */
-    private final Map<String, List<Downloader>> downloadMap = new HashMap<>();
+    private final DownloadManager downloadManager = DownloadManager.getInstance();
 
     /**
      * Variable that holds the reference of this object that is used
@@ -179,6 +217,12 @@ public class Commander {
 
                     this.client.sendCommand(Command.AddPeer, selfPeer);
 
+                    // Agree on the fastest digest algorithm that both peers support.
+                    this.client.negotiate();
+
+                    // Switch the connection to frames if the peer supports the binary protocol.
+                    this.client.negotiateFormat();
+
                 } catch (IllegalArgumentException e) {
                     // If the address is invalid, the message will be returned
                     return e.getMessage();
@@ -204,7 +248,18 @@ public class Commander {
                 }
 
                 try {
-                    this.config.set(command[1], command[2]);
+                    // The bandwidth limits, upload settings and download queue limits are validated
+                    // and applied to running transfers straight away.
+                    if (command[1].startsWith("limit.")) {
+                        BandwidthLimiter.getInstance().setLimit(command[1], command[2]);
+                    } else if (command[1].startsWith("upload.")) {
+                        UploadScheduler.getInstance().set(command[1], command[2]);
+                    } else if (command[1].startsWith("download.active")) {
+                        this.downloadManager.set(command[1], command[2]);
+                    } else {
+                        this.config.set(command[1], command[2]);
+                    }
+
                     break;
                 } catch (IllegalArgumentException e) {
                     return e.getMessage();
@@ -215,15 +270,16 @@ public class Commander {
                     return "Not connected to any peer.";
                 }
 
-                var response = this.client.sendCommand(Command.List, Arrays.copyOfRange(command, 1, command.length));
+                // The entries are printed as they are received, so that listing a huge folder
+                // doesn't have to wait for, or hold, the whole listing.
+                var table = new StreamedResourceTable();
+                var response = this.client.streamList(String.join(" ", Arrays.copyOfRange(command, 1, command.length)), table::printRow);
 
                 // Check to ensure that the client sent, and received a response. If something
                 // didn't go to accord on the way, the response object should be a null. Hence,
                 // it's ok to skip printing the response and to move on.
                 if (response != null && response.get("status").asBoolean()) {
-                    var printer = new ResourceTable(response);
-
-                    printer.print();  // Use a printer function provided by resource list.
+                    table.finish();
                 }
                 if (response != null && !response.get("status").asBoolean()) {
                     // If the request failed to get metadata for any reason, we should notify the client
@@ -235,6 +291,74 @@ public class Commander {
 
                 break;
             }
+            case "tree": {
+                if (this.client == null) {
+                    return "Not connected to any peer.";
+                }
+
+                // The command is of the form 'tree <depth|-> <glob|-> [path]', so that the path can
+                // still contain spaces.
+                if (command.length < 3) {
+                    return "Usage: tree <depth|-> <glob|-> [path]";
+                }
+
+                int depth;
+
+                try {
+                    depth = command[1].equals("-") ? 0 : Integer.parseInt(command[1]);
+                } catch (NumberFormatException e) {
+                    return "Usage: tree <depth|-> <glob|-> [path]";
+                }
+
+                var table = new StreamedResourceTable();
+                var glob = command[2].equals("-") ? null : command[2];
+                var response = this.client.streamTree(String.join(" ", Arrays.copyOfRange(command, 3, command.length)), depth, glob, table::printRow);
+
+                if (response == null) {
+                    // Set this connection as a 'dead' connection in knownPeers
+                    this.knownPeers.get(this.client.getAddress()).setAlive(false);
+                } else if (!response.get("status").asBoolean()) {
+                    return response.path("message").asText();
+                } else {
+                    table.finish();
+                }
+
+                break;
+            }
+            case "search": {
+                if (this.client == null) {
+                    return "Not connected to any peer.";
+                }
+
+                if (command.length < 2) {
+                    return "Usage: search <query>";
+                }
+
+                var response = this.client.sendCommand(Command.Search, Arrays.copyOfRange(command, 1, command.length));
+
+                if (response == null) {
+                    // Set this connection as a 'dead' connection in knownPeers
+                    this.knownPeers.get(this.client.getAddress()).setAlive(false);
+                } else if (!response.get("status").asBoolean()) {
+                    return response.path("message").asText();
+                } else {
+                    var table = new SearchResultTable();
+
+                    response.path("files").forEach(table::printRow);
+                    table.finish(response.path("total").asLong());
+                    SearchResultTable.printFacets(response.path("facets"));
+                }
+
+                break;
+            }
+            case "searchall": {
+                if (command.length < 2) {
+                    return "Usage: searchall <query>";
+                }
+
+                this.searchAll(String.join(" ", Arrays.copyOfRange(command, 1, command.length)));
+                break;
+            }
             case "peers": {
                 this.knownPeers.values().forEach((item) -> System.out.println(item.toString()));
                 break;
@@ -246,66 +370,48 @@ public class Commander {
 
                 // We'll first need to query the metadata on this file from the server.
                 // We need to get the size of the file to check that it will fit onto
-                // our local machine, and we need to get the computed MD5 hash so we can
+                // our local machine, and we need to get the computed digest so we can
                 // later verify the integrity of the file...
                 var response = this.client.sendCommand(Command.GetMeta, Arrays.copyOfRange(command, 1, command.length));
 
                 if (response != null && response.get("status").asBoolean()) {
                     var size = response.get("size").asLong();
 
-                    var clientDownloads = this.downloadMap.get(this.client.getAddress());
-
-                    // Check whether we have any ongoing downloads on the current client connection
-                    if (clientDownloads != null && clientDownloads.size() > 0) {
-                        boolean isBeingDownloaded = false;
-
-
-                        // if the hash and path of the resource matches the current GetMeta request, we'll abort
-                        // this request and notify the user that they are already downloading the resource
-                        for (var download : clientDownloads) {
-                            if (download.getPath().equals(response.get("path").asText())) {
-                                isBeingDownloaded = true;
-                                break;
-                            }
-                        }
-
-                        if (isBeingDownloaded) {
-                            return "Resource already being downloaded. Use 'status' to check progress";
-                        }
+                    // Abort the request if the resource is already queued or being downloaded from
+                    // this peer, and notify the user.
+                    if (this.downloadManager.isPending(this.client.getAddress(), response.get("path").asText())) {
+                        return "Resource already being downloaded. Use 'status' to check progress";
                     }
 
                     // we need to check that the partition or disk that the download folder
                     // is present on has enough free space (initially) to save the file.
                     // Otherwise, we won't be able to write the file onto the storage.
                     try {
-                        var downloadPath = Downloader.getPathForResource(response.get("fileName").asText());
+                        var downloadFolder = Downloader.getPathForResource(response.get("fileName").asText()).getParent();
 
                         // Ensure that the download folder exists.
-                        if (!downloadPath.getParent().toFile().exists()) {
+                        if (!downloadFolder.toFile().exists()) {
                             return "Download folder doesn't exist. Aborting download!";
                         }
 
                         // This is of course a very edge case scenario, but nevertheless a potential issue...
-                        if (downloadPath.getParent().toFile().getFreeSpace() < size) {
+                        if (downloadFolder.toFile().getFreeSpace() < size) {
                             return "Not enough space on download folder drive to download file.";
                         }
 
-                        // spin up a downloader instance and start downloading the resource.
-                        var downloader = new Downloader(
+                        // Queue the download, it is started once the limits on active downloads allow
+                        // it. Any other peer that holds the same resource is then also used to download it.
+                        var entry = this.downloadManager.enqueue(
                                 this.client.getHost(), this.client.getPort(),
-                                downloadPath,
-                                response
+                                response, 0,
+                                downloader -> this.addSwarmSources(downloader, response)
                         );
 
-                        downloader.start();
-
-                        // append the downloader thread to our downloader list
-                        this.downloadMap.putIfAbsent(this.client.getAddress(), new ArrayList<>());
-                        this.downloadMap.get(this.client.getAddress()).add(downloader);
+                        if (entry.getStatus() == DownloaderStatus.QUEUED) {
+                            System.out.printf("Queued download #%d, use 'queue' to see it's position.%n", entry.getId());
+                        }
                     } catch (InvalidPathException e) { // This is thrown when the download folder doesn't exist
                         return "Download folder doesn't exist. Aborting download!";
-                    } catch (IOException e) {
-                        return "Couldn't establish connection with peer.";
                     }
                 } else if (response != null && !response.get("status").asBoolean()) {
 
@@ -319,39 +425,56 @@ public class Commander {
 
                 break;
             }
-            // Command to print the working status of any on-going downloads that are occurring.
-            case "status": {
-                if (this.downloadMap.size() == 0) {
-                    return "No active downloads.";
+            // Command to change the bandwidth limits whilst transfers are running.
+            case "limit": {
+                var limiter = BandwidthLimiter.getInstance();
+
+                if (command.length == 1) {
+                    return limiter.getStatusString();
                 }
 
-                for (var host : this.downloadMap.keySet()) {
-                    var completedDownloads = new ArrayList<Downloader>();
+                // The direction may be preceded by 'peer' to change the limit of each peer
+                // rather than the limit that is shared by every peer.
+                var perPeer = command.length == 4 && command[1].equals("peer");
+                var direction = command[perPeer ? 2 : 1];
 
-                    for (var download : this.downloadMap.get(host)) {
-                        System.out.println(download.getProgressString());
+                if ((command.length != 3 && !perPeer) || !(direction.equals("upload") || direction.equals("download"))) {
+                    return "Usage: limit [peer] [upload|download] <rate>";
+                }
 
-                        var status = download.getStatus();
+                try {
+                    limiter.setLimit(perPeer ? "limit.peer." + direction : "limit." + direction, command[command.length - 1]);
+                    return limiter.getStatusString();
+                } catch (IllegalArgumentException e) {
+                    return e.getMessage();
+                }
+            }
+            // Command to print the working status of any on-going downloads that are occurring.
+            case "status": {
+                System.out.println(ConnectionPool.getInstance().getStatusString());
+                System.out.println(BandwidthLimiter.getInstance().getStatusString());
+                System.out.println(UploadScheduler.getInstance().getStatusString());
 
-                        // Remove the downloader instance from the list when it finished or failed
-                        // because of a timeout, or just failed for some unknown I/O reason.
-                        if (status.equals(DownloaderStatus.FINISHED) ||
-                                status.equals(DownloaderStatus.FAILED) ||
-                                status.equals(DownloaderStatus.FAILED_TIMEOUT)) {
-                            completedDownloads.add(download);
-                        }
-                    }
+                System.out.println(this.downloadManager.getStatusString());
 
-                    this.downloadMap.get(host).removeAll(completedDownloads);
+                var active = this.downloadManager.getActive();
 
-                    // Remove the host entry if all of the downloads on this host finished.
-                    if (this.downloadMap.get(host).size() == 0) {
-                        this.downloadMap.remove(host);
-                    }
+                if (active.isEmpty()) {
+                    return "No active downloads.";
                 }
 
+                active.forEach(entry -> System.out.println(entry.getProgressString()));
+
                 break;
             }
+            // Command to list and reorder the queued downloads, and to cancel downloads.
+            case "queue": {
+                return this.handleQueue(command);
+            }
+            // Command to print how many tasks the execution backend is running.
+            case "tasks": {
+                return TaskRunner.getInstance().getStatusString();
+            }
             case "help": {
                 // print out help string.
                 return this.helpText;
@@ -366,6 +489,245 @@ public class Commander {
         return "";
     }
 
+    /**
+     * Method to run the 'queue' command, which lists the queued downloads or the history of
+     * finished downloads, changes the priority of a queued download, or cancels a download.
+     *
+     * @param command - The command and it's arguments.
+     * @return A string denoting the error message (if any) with the command.
+     */
+    private String handleQueue(String[] command) {
+        var usage = "Usage: queue [history | top <id> | priority <id> <priority> | cancel <id>]";
+
+        if (command.length == 1 || command[1].equals("history")) {
+            if (command.length > 2) {
+                return usage;
+            }
+
+            var entries = command.length == 1 ? this.downloadManager.getQueued() : this.downloadManager.getHistory();
+
+            if (entries.isEmpty()) {
+                return command.length == 1 ? "No queued downloads." : "No finished downloads.";
+            }
+
+            entries.forEach(entry -> System.out.println(entry.getProgressString()));
+            return "";
+        }
+
+        try {
+            boolean found;
+
+            switch (command[1]) {
+                case "top":
+                    if (command.length != 3) {
+                        return usage;
+                    }
+
+                    found = this.downloadManager.moveToTop(Integer.parseInt(command[2]));
+                    break;
+                case "priority":
+                    if (command.length != 4) {
+                        return usage;
+                    }
+
+                    found = this.downloadManager.setPriority(Integer.parseInt(command[2]), Integer.parseInt(command[3]));
+                    break;
+                case "cancel":
+                    if (command.length != 3) {
+                        return usage;
+                    }
+
+                    // A download that has started can also be cancelled, but not reordered.
+                    if (this.downloadManager.cancel(Integer.parseInt(command[2]))) {
+                        return "";
+                    }
+
+                    return String.format("No queued or active download #%s.", command[2]);
+                default:
+                    return usage;
+            }
+
+            return found ? "" : String.format("No queued download #%s.", command[2]);
+        } catch (NumberFormatException e) {
+            return usage;
+        }
+    }
+
+    /**
+     * Method to ask every other known peer whether it holds a resource with the same size
+     * and digest, using the {@link Command} 'Locate' request. The peers are asked in parallel,
+     * and the peers that hold the resource are added as sources to the downloader. Peers that
+     * don't answer within {@link #LOCATE_TIMEOUT} milliseconds are left out.
+     *
+     * @param downloader - The downloader of the resource.
+     * @param metadata   - The metadata of the resource, which holds the size and digest.
+     */
+    private void addSwarmSources(Downloader downloader, JsonNode metadata) {
+        var size = metadata.get("size").asText();
+        var digest = metadata.get("digest").asText();
+        var algorithm = metadata.path("algorithm").asText(DigestAlgorithm.MD5.getName());
+
+        List<CompletableFuture<Void>> lookups = new ArrayList<>();
+
+        for (var peer : this.knownPeers.values()) {
+            if (peer.isSelf() || !peer.isAlive()) {
+                continue;
+            }
+
+            lookups.add(CompletableFuture.runAsync(() -> {
+                var addr = Networking.parseAddressFromString(peer.getAddress());
+                var host = addr.getAddress().getHostAddress();
+
+                // The peer that the download was requested from is already it's first source.
+                if (host.equals(downloader.getHost()) && addr.getPort() == downloader.getPort()) {
+                    return;
+                }
+
+                try {
+                    var locator = new Client(host, addr.getPort());
+                    // The algorithm is only named if it isn't MD5, since older peers only
+                    // understand MD5 digests.
+                    var response = algorithm.equals(DigestAlgorithm.MD5.getName()) ?
+                            locator.sendCommand(Command.Locate, size, digest) :
+                            locator.sendCommand(Command.Locate, size, digest, algorithm);
+
+                    locator.cleanup();
+
+                    if (response != null && response.path("status").asBoolean()) {
+                        downloader.addSource(host, addr.getPort(), response.get("path").asText());
+                    }
+                } catch (IOException e) {
+                    // The peer can't be reached, so the download continues without it.
+                }
+            }, TaskRunner.getInstance()));
+        }
+
+        try {
+            CompletableFuture.allOf(lookups.toArray(new CompletableFuture<?>[0])).get(LOCATE_TIMEOUT, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException | ExecutionException | TimeoutException e) {
+            // Start the download with the peers that have answered so far.
+        }
+    }
+
+    /**
+     * Method to search every other live peer at once with the {@link Command} 'Search' request.
+     * Every peer is asked on it's own connection in parallel, and the results of each peer are
+     * printed as soon as the peer answers, so the search takes as long as the slowest peer that
+     * answers rather than as long as all of the peers together. Peers that don't answer within
+     * 'search.timeout' milliseconds are left out, and peers that can't be reached are marked as
+     * dead. Once every peer has answered or the time is up, the best matches of all of the peers
+     * are printed.
+     *
+     * @param query - The query that every peer is sent.
+     */
+    private void searchAll(String query) {
+        var timeout = config.getInt("search.timeout");
+        var start = System.currentTimeMillis();
+        var deadline = start + timeout;
+
+        BlockingQueue<PeerAnswer> answers = new LinkedBlockingQueue<>();
+        List<PeerRecord> pending = new ArrayList<>();
+
+        for (var peer : this.knownPeers.values()) {
+            if (peer.isSelf() || !peer.isAlive()) {
+                continue;
+            }
+
+            pending.add(peer);
+
+            TaskRunner.getInstance().execute(() -> {
+                var answer = new PeerAnswer(peer);
+
+                try {
+                    var addr = Networking.parseAddressFromString(peer.getAddress());
+                    var searcher = new Client(addr.getAddress().getHostAddress(), addr.getPort());
+
+                    try {
+                        // A read of a peer that is slower than the deadline is abandoned.
+                        searcher.setTimeout(timeout);
+                        answer.response = searcher.request(Command.Search, query);
+                    } finally {
+                        searcher.cleanup();
+                    }
+                } catch (SocketTimeoutException e) {
+                    answer.timedOut = true;
+                } catch (IOException e) {
+                    // The peer can't be reached, which is reported once the answer is taken.
+                }
+
+                answers.add(answer);
+            });
+        }
+
+        if (pending.isEmpty()) {
+            System.out.println("No other live peers to search.");
+            return;
+        }
+
+        var table = new SearchResultTable(true);
+        List<JsonNode> results = new ArrayList<>();
+        List<String> failures = new ArrayList<>();
+        var total = 0L;
+        var answered = 0;
+
+        try {
+            while (!pending.isEmpty()) {
+                var answer = answers.poll(Math.max(0, deadline - System.currentTimeMillis()), TimeUnit.MILLISECONDS);
+
+                if (answer == null) {
+                    break;
+                }
+
+                pending.remove(answer.peer);
+
+                var address = answer.peer.getAddress();
+
+                if (answer.response == null) {
+                    if (!answer.timedOut) {
+                        // Set this connection as a 'dead' connection in knownPeers
+                        answer.peer.setAlive(false);
+                    }
+
+                    failures.add(String.format("%s (%s)", address, answer.timedOut ? "timed out" : "unreachable"));
+                    continue;
+                }
+
+                if (!answer.response.path("status").asBoolean()) {
+                    failures.add(String.format("%s (%s)", address, answer.response.path("message").asText()));
+                    continue;
+                }
+
+                // The results of the peer are printed straight away, best match first.
+                List<JsonNode> found = new ArrayList<>();
+
+                answer.response.path("files").forEach(item -> found.add(((ObjectNode) item).put("peer", address)));
+                found.sort(RESULT_ORDER);
+                found.forEach(table::printRow);
+
+                results.addAll(found);
+                total += answer.response.path("total").asLong();
+                answered++;
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+
+        pending.forEach(peer -> failures.add(String.format("%s (timed out)", peer.getAddress())));
+        table.finish(total);
+
+        // The results of every peer are ranked together, to show the best matches overall.
+        if (results.size() > 1 && answered > 1) {
+            var best = new SearchResultTable(true);
+
+            System.out.println("Best matches:");
+            results.stream().sorted(RESULT_ORDER).limit(BEST_MATCHES).forEach(best::printRow);
+            best.finish(total);
+        }
+
+        System.out.printf("%d of %d peers answered in %d ms%n", answered, answered + failures.size(), System.currentTimeMillis() - start);
+        failures.forEach(failure -> System.out.println("No results from " + failure));
+    }
+
     /**
      * Method that is used to add a new Peer to the knownPeer list. Put the
      * peer connection, or put if the Peer object mismatches with the current
@@ -384,16 +746,6 @@ public class Commander {
     }
 
 
-    /**
-     * Method to get the active ongoing downloads
-     *
-     * @return A list of Downloader objects
-     */
-    public Map<String, List<Downloader>> getDownloadMap() {
-        return this.downloadMap;
-    }
-
-
     /**
      * Method to get the stored knownPeers
      *
@@ -402,4 +754,28 @@ public class Commander {
     public Map<String, PeerRecord> getKnownPeers() {
         return this.knownPeers;
     }
+
+    /**
+     * Class that holds the answer of a peer to a search of every peer.
+     */
+    private static class PeerAnswer {
+        /**
+         * The peer that was searched.
+         */
+        private final PeerRecord peer;
+
+        /**
+         * The response of the peer, or null if the peer couldn't be reached or didn't answer.
+         */
+        private JsonNode response = null;
+
+        /**
+         * Whether the peer didn't answer in time.
+         */
+        private boolean timedOut = false;
+
+        PeerAnswer(PeerRecord peer) {
+            this.peer = peer;
+        }
+    }
 }
@@ -0,0 +1,172 @@
+package cli.printers;
+
+import com.fasterxml.jackson.databind.JsonNode;
+
+/**
+ * Class used to print to the CLI the results of a search as a table, with the type, size
+ * and path of every matching resource, and the peer that holds it when several peers were
+ * searched. The rows are printed as they are given, so results can be shown as soon as
+ * they arrive.
+ *
+ * @author 200008575
+ * */
+public class SearchResultTable {
+    /**
+     * The width of the type column, which fits the longest type name.
+     * */
+    private static final int TYPE_WIDTH = "Directory".length();
+
+    /**
+     * The width of the size column.
+     * */
+    private static final int SIZE_WIDTH = 9;
+
+    /**
+     * The width of the peer column, which fits an IPv4 address with a port.
+     * */
+    private static final int PEER_WIDTH = "255.255.255.255:65535".length();
+
+    /**
+     * The width of the separator rows.
+     * */
+    private static final int ROW_LENGTH = 60;
+
+    /**
+     * The units that sizes are printed in.
+     * */
+    private static final String[] UNITS = {"B", "KB", "MB", "GB", "TB"};
+
+    /**
+     * The format of every line of the table.
+     * */
+    private static final String TABLE_FORMAT = "| %-" + TYPE_WIDTH + "s | %" + SIZE_WIDTH + "s | %s%n";
+
+    /**
+     * The format of every line of the table when the peer column is shown.
+     * */
+    private static final String PEER_TABLE_FORMAT = "| %-" + PEER_WIDTH + "s | %-" + TYPE_WIDTH + "s | %" + SIZE_WIDTH + "s | %s%n";
+
+    /**
+     * Whether the rows show the peer that holds each result.
+     * */
+    private final boolean showPeer;
+
+    /**
+     * The width of the separator rows of this table.
+     * */
+    private final int rowLength;
+
+    /**
+     * The number of rows that were printed.
+     * */
+    private long count = 0;
+
+    /**
+     * SearchResultTable constructor for the results of a single peer.
+     * */
+    public SearchResultTable() {
+        this(false);
+    }
+
+    /**
+     * SearchResultTable constructor
+     *
+     * @param showPeer - Whether the rows show the 'peer' field of each result.
+     * */
+    public SearchResultTable(boolean showPeer) {
+        this.showPeer = showPeer;
+        this.rowLength = showPeer ? ROW_LENGTH + PEER_WIDTH + 3 : ROW_LENGTH;
+    }
+
+    /**
+     * Method to print a result as a row, the header of the table is printed before the
+     * first row.
+     *
+     * @param item - The result that was received from the peer.
+     * */
+    public void printRow(JsonNode item) {
+        if (this.count == 0) {
+            this.printLine("Peer", "Type", "Size", "Path");
+            System.out.println("-".repeat(this.rowLength));
+        }
+
+        var size = item.has("size") ? formatSize(item.get("size").asLong()) : "";
+
+        this.printLine(item.path("peer").asText(), item.path("type").asText(), size, item.path("path").asText());
+        this.count++;
+    }
+
+    /**
+     * Method to finish off the table once every result was printed.
+     *
+     * @param total - The number of matches, which may be more than the printed results.
+     * */
+    public void finish(long total) {
+        if (this.count == 0) {
+            System.out.println("No matches");
+            return;
+        }
+
+        System.out.println("-".repeat(this.rowLength));
+        System.out.printf("Showing %d of %d matches%n", this.count, total);
+    }
+
+    /**
+     * Method to print a line of the table, the peer is left out if the peer column isn't shown.
+     * */
+    private void printLine(String peer, String type, String size, String path) {
+        if (this.showPeer) {
+            System.out.printf(PEER_TABLE_FORMAT, peer, type, size, path);
+        } else {
+            System.out.printf(TABLE_FORMAT, type, size, path);
+        }
+    }
+
+    /**
+     * Method to print the facets of a search, which are the number of matching files by
+     * their extension and by their size.
+     *
+     * @param facets - The facets that were received from the peer.
+     * */
+    public static void printFacets(JsonNode facets) {
+        var extensions = new StringBuilder();
+
+        facets.path("extensions").fields().forEachRemaining(item -> {
+            var name = item.getKey().isEmpty() ? "(none)" : item.getKey();
+
+            extensions.append(extensions.length() == 0 ? "" : ", ").append(name).append(" (").append(item.getValue().asLong()).append(")");
+        });
+
+        var sizes = new StringBuilder();
+
+        facets.path("sizes").fields().forEachRemaining(item -> {
+            sizes.append(sizes.length() == 0 ? "" : ", ").append(item.getKey()).append(" (").append(item.getValue().asLong()).append(")");
+        });
+
+        if (extensions.length() > 0) {
+            System.out.println("Extensions: " + extensions);
+        }
+
+        if (sizes.length() > 0) {
+            System.out.println("Sizes: " + sizes);
+        }
+    }
+
+    /**
+     * Method to format a number of bytes with the largest unit that keeps it above one.
+     *
+     * @param size - The number of bytes.
+     * @return The formatted size.
+     * */
+    static String formatSize(long size) {
+        var value = (double) size;
+        var unit = 0;
+
+        while (value >= 1024 && unit < UNITS.length - 1) {
+            value /= 1024;
+            unit++;
+        }
+
+        return unit == 0 ? size + " B" : String.format("%.1f %s", value, UNITS[unit]);
+    }
+}
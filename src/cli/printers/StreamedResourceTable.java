@@ -0,0 +1,62 @@
+package cli.printers;
+
+import com.fasterxml.jackson.databind.JsonNode;
+
+/**
+ * Class used to print to the CLI a table of resources as they are received from the peer,
+ * rather than after the whole listing was received. Unlike {@link ResourceTable}, the width
+ * of the columns can't depend on the entries, so the type column is as wide as the longest
+ * type and the filename column isn't padded.
+ *
+ * @author 200008575
+ * */
+public class StreamedResourceTable {
+    /**
+     * The width of the type column, which fits the longest type name.
+     * */
+    private static final int TYPE_WIDTH = "Directory".length();
+
+    /**
+     * The width of the separator rows.
+     * */
+    private static final int ROW_LENGTH = 40;
+
+    /**
+     * The format of every line of the table.
+     * */
+    private static final String TABLE_FORMAT = "| %-" + TYPE_WIDTH + "s | %s%n";
+
+    /**
+     * The number of rows that were printed.
+     * */
+    private long count = 0;
+
+    /**
+     * Method to print a resource as a row, the header of the table is printed before the
+     * first row.
+     *
+     * @param item - The resource that was received from the peer.
+     * */
+    public void printRow(JsonNode item) {
+        if (this.count == 0) {
+            System.out.printf(TABLE_FORMAT, "Type", "Filename");
+            System.out.println("-".repeat(ROW_LENGTH));
+        }
+
+        System.out.printf(TABLE_FORMAT, item.path("type").asText(), item.path("path").asText());
+        this.count++;
+    }
+
+    /**
+     * Method to finish off the table once every resource was printed.
+     * */
+    public void finish() {
+        if (this.count == 0) {
+            System.out.println("No files");
+            return;
+        }
+
+        System.out.println("-".repeat(ROW_LENGTH));
+        System.out.printf("%d entries%n", this.count);
+    }
+}
@@ -0,0 +1,287 @@
+package client;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import common.BaseConnection;
+import common.TaskRunner;
+import common.protocol.Command;
+
+import java.io.IOException;
+import java.net.SocketException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * Client class that sends requests to the connected peer without waiting for the response
+ * to the previous request. Every request is wrapped in a {@link Command} 'Tagged' request
+ * with an id, the peer processes the requests of the connection at the same time and tags
+ * every response with the id of it's request, so a slow request doesn't hold up the
+ * requests that were sent after it.
+ * <p>
+ * Responses are read by a background task and complete the future of their request, which
+ * happens on that task, so dependent stages that block should use the async variants of
+ * the {@link CompletableFuture} methods. The futures don't time out by themselves, a caller
+ * that needs a deadline can use {@link CompletableFuture#orTimeout}.
+ * <p>
+ * The first request is sent on it's own to find out if the peer supports tagged requests.
+ * A peer that doesn't is sent one untagged request at a time, in the order they were made.
+ *
+ * @author 200008575
+ * */
+public class AsyncClient extends BaseConnection {
+    /**
+     * The requests that have been sent with a tag, mapped by their id.
+     * */
+    private final Map<Long, Request> pending = new HashMap<>();
+
+    /**
+     * The requests that wait to be sent until the peer has answered the request in flight,
+     * whilst it's unknown if the peer supports tagged requests, or if it doesn't.
+     * */
+    private final Deque<Request> queued = new ArrayDeque<>();
+
+    /**
+     * The request that has been sent on it's own, or null if there isn't one.
+     * */
+    private Request current = null;
+
+    /**
+     * Whether the peer supports tagged requests, or null if it isn't known yet.
+     * */
+    private Boolean multiplexed = null;
+
+    /**
+     * The id of the next request.
+     * */
+    private long nextId = 1;
+
+    /**
+     * Whether the connection was closed.
+     * */
+    private boolean closed = false;
+
+    /**
+     * AsyncClient constructor, which starts the task that reads the responses.
+     *
+     * @param host - The hostname of the peer
+     * @param port - The port on the hostname of the peer
+     * @throws IOException if the peer couldn't be reached.
+     * */
+    public AsyncClient(String host, int port) throws IOException {
+        super(host, port);
+
+        // A response may take longer than the usual timeout, and a partly read line would be
+        // lost if the read timed out, so the reader waits for as long as the connection is open.
+        this.setTimeout(0);
+
+        TaskRunner.getInstance().spawnDedicated(String.format("AsyncClient-%s:%d", host, port), this::readResponses);
+    }
+
+    /**
+     * Method to send a command with additional arguments to the connected peer without
+     * waiting for the response.
+     *
+     * @param command - The base command that is used for the request.
+     * @param args    - The arguments that are sent with the base command.
+     * @return A future that is completed with the deserialized response, or completed
+     * exceptionally with an {@link IOException} if the connection was lost.
+     * @throws IllegalArgumentException if the response to the command isn't a single line.
+     * */
+    public CompletableFuture<JsonNode> send(Command command, String... args) {
+        if (!command.isTaggable()) {
+            throw new IllegalArgumentException(String.format("Command '%s' can't be sent asynchronously.", command));
+        }
+
+        var request = new Request(String.format("%s %s", command, String.join(" ", args)));
+
+        synchronized (this) {
+            if (this.closed) {
+                request.future.completeExceptionally(new SocketException("Connection closed."));
+                return request.future;
+            }
+
+            if (Boolean.TRUE.equals(this.multiplexed)) {
+                this.tag(request);
+            } else if (this.current != null) {
+                this.queued.add(request);
+                return request.future;
+            } else {
+                this.current = request;
+
+                // The first request is tagged to find out if the peer supports tagged requests.
+                if (this.multiplexed == null) {
+                    this.tag(request);
+                }
+            }
+        }
+
+        // The request is written outside of the lock, so that the responses are still read
+        // whilst the write waits for the peer.
+        this.write(request);
+        return request.future;
+    }
+
+    /**
+     * Method to check if the peer answers the requests of the connection at the same time.
+     *
+     * @return Whether the peer supports tagged requests, false if it isn't known yet.
+     * */
+    public synchronized boolean isMultiplexed() {
+        return Boolean.TRUE.equals(this.multiplexed);
+    }
+
+    /**
+     * Method to get the number of requests that haven't been answered yet.
+     *
+     * @return The number of requests.
+     * */
+    public synchronized int getPendingCount() {
+        return this.pending.size() + this.queued.size() + (this.current != null && this.current.id < 0 ? 1 : 0);
+    }
+
+    /**
+     * Method to close the connection, any request that hasn't been answered fails.
+     * */
+    @Override
+    public void cleanup() {
+        this.fail(new SocketException("Connection closed."));
+    }
+
+    /**
+     * Method to give a request an id, and to record it as pending.
+     *
+     * @param request - The request.
+     * */
+    private void tag(Request request) {
+        request.id = this.nextId++;
+        this.pending.put(request.id, request);
+    }
+
+    /**
+     * Method to write a request to the peer, with the tag if it has an id.
+     *
+     * @param request - The request.
+     * */
+    private void write(Request request) {
+        this.printWriter.println(request.id < 0 ? request.line : String.format("%s %d %s", Command.Tagged, request.id, request.line));
+    }
+
+    /**
+     * Method that reads the responses until the connection is closed, and completes the
+     * future of the request that each response answers.
+     * */
+    private void readResponses() {
+        try {
+            String line;
+
+            while ((line = this.bufferedReader.readLine()) != null) {
+                var response = Client.mapper.readTree(line);
+                List<Request> send = Collections.emptyList();
+                Request answered;
+
+                synchronized (this) {
+                    if (response.has("id")) {
+                        answered = this.pending.remove(response.get("id").asLong());
+
+                        // The peer supports tagged requests, so every queued request is sent at once.
+                        if (this.multiplexed == null) {
+                            this.multiplexed = true;
+                            this.current = null;
+
+                            send = new ArrayList<>(this.queued);
+                            this.queued.clear();
+                            send.forEach(this::tag);
+                        }
+                    } else if (this.multiplexed == null && this.current != null) {
+                        // The peer didn't recognise the tagged request, so the request is sent again
+                        // without a tag, and every further request is sent one at a time.
+                        this.multiplexed = false;
+                        this.pending.remove(this.current.id);
+                        this.current.id = -1;
+
+                        answered = null;
+                        send = List.of(this.current);
+                    } else if (this.current != null) {
+                        answered = this.current;
+                        this.current = this.queued.poll();
+
+                        if (this.current != null) {
+                            send = List.of(this.current);
+                        }
+                    } else {
+                        // A line that doesn't answer any request is ignored.
+                        answered = null;
+                    }
+                }
+
+                send.forEach(this::write);
+
+                if (answered != null) {
+                    answered.future.complete(response);
+                }
+            }
+        } catch (IOException e) {
+            // The requests that haven't been answered fail below.
+        }
+
+        this.fail(new SocketException(String.format("Lost Connection to %s:%s", this.host, this.port)));
+    }
+
+    /**
+     * Method to close the connection and fail every request that hasn't been answered.
+     *
+     * @param cause - The exception that the requests fail with.
+     * */
+    private void fail(IOException cause) {
+        List<Request> failed = new ArrayList<>();
+
+        synchronized (this) {
+            if (this.closed) {
+                return;
+            }
+
+            this.closed = true;
+
+            failed.addAll(this.pending.values());
+            failed.addAll(this.queued);
+
+            if (this.current != null && this.current.id < 0) {
+                failed.add(this.current);
+            }
+
+            this.pending.clear();
+            this.queued.clear();
+            this.current = null;
+        }
+
+        // The socket is closed first, since closing the reader waits for the reader task to
+        // return from the read that it's blocked in.
+        try {
+            this.socket.close();
+        } catch (IOException e) {
+            // Ignore since the connection is being discarded anyway.
+        }
+
+        super.cleanup();
+        failed.forEach(request -> request.future.completeExceptionally(cause));
+    }
+
+    /**
+     * Class that holds a request line, the id that it was tagged with, and the future that is
+     * completed with the response.
+     * */
+    private static class Request {
+        private final String line;
+        private final CompletableFuture<JsonNode> future = new CompletableFuture<>();
+        private long id = -1;
+
+        Request(String line) {
+            this.line = line;
+        }
+    }
+}
@@ -0,0 +1,86 @@
+package client;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Class that reads a body of a known length from a connection, and ends once the body was
+ * read rather than at the end of the connection, so that the connection can be used for
+ * the next request.
+ *
+ * @author 200008575
+ */
+class BoundedInputStream extends FilterInputStream {
+    /**
+     * The number of bytes of the body that haven't been read.
+     */
+    private long remaining;
+
+    /**
+     * BoundedInputStream constructor
+     *
+     * @param in     - The stream that the body is read from.
+     * @param length - The number of bytes in the body.
+     */
+    BoundedInputStream(InputStream in, long length) {
+        super(in);
+        this.remaining = length;
+    }
+
+    @Override
+    public int read() throws IOException {
+        if (this.remaining <= 0) {
+            return -1;
+        }
+
+        var value = this.in.read();
+
+        if (value >= 0) {
+            this.remaining--;
+        }
+
+        return value;
+    }
+
+    @Override
+    public int read(byte[] bytes, int offset, int length) throws IOException {
+        if (this.remaining <= 0) {
+            return -1;
+        }
+
+        var count = this.in.read(bytes, offset, (int) Math.min(length, this.remaining));
+
+        if (count > 0) {
+            this.remaining -= count;
+        }
+
+        return count;
+    }
+
+    @Override
+    public long skip(long count) throws IOException {
+        var skipped = this.in.skip(Math.min(count, this.remaining));
+
+        this.remaining -= skipped;
+        return skipped;
+    }
+
+    @Override
+    public int available() throws IOException {
+        return (int) Math.min(this.in.available(), this.remaining);
+    }
+
+    /**
+     * Method to close the body, the underlying stream is left open since the connection
+     * is used for later requests.
+     */
+    @Override
+    public void close() {
+    }
+
+    @Override
+    public boolean markSupported() {
+        return false;
+    }
+}
@@ -3,11 +3,21 @@ package client;
 import com.fasterxml.jackson.databind.JsonNode;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import common.BaseConnection;
+import common.digest.DigestAlgorithm;
 import common.protocol.Command;
+import common.protocol.FrameReader;
+import common.protocol.FrameWriter;
+import common.protocol.ResponseType;
+import common.protocol.WireFormat;
+import common.resources.EntryType;
 
+import java.io.BufferedInputStream;
 import java.io.IOException;
+import java.io.InputStream;
 import java.net.SocketException;
 import java.net.SocketTimeoutException;
+import java.util.Base64;
+import java.util.function.Consumer;
 
 /**
  * Client class that is used to relay requests to the connected
@@ -22,6 +32,23 @@ public class Client extends BaseConnection {
      */
     public final static ObjectMapper mapper = new ObjectMapper();
 
+    /**
+     * The format that requests and responses are sent in, which is lines unless the format
+     * was negotiated with {@link #negotiateFormat()}.
+     * */
+    private WireFormat format = WireFormat.JSON;
+
+    /**
+     * The writer that request frames are encoded with, which is reused for every request.
+     * */
+    private final FrameWriter frameWriter = new FrameWriter();
+
+    /**
+     * The stream that response frames are read from, or null if the connection hasn't been
+     * switched to frames.
+     * */
+    private InputStream frameInput;
+
     /**
      * Client class constructor
      *
@@ -47,20 +74,8 @@ public class Client extends BaseConnection {
      *         peer.
      * */
     public JsonNode sendCommand(Command command, String... args) {
-        JsonNode response = mapper.createObjectNode();
-
-        // Send over command with any additional arguments that are all separated by whitespaces.
-        this.printWriter.println(String.format("%s %s", command, String.join(" ", args)));
-
         try {
-            var content = this.bufferedReader.readLine();
-
-            // If the content returns as null, this means that the socket died...
-            if (content == null) {
-                throw new SocketTimeoutException("Socket timeout out.");
-            }
-
-            response = mapper.readTree(content);
+            return this.request(command, args);
         } catch (SocketException | SocketTimeoutException e) {
             // When the stream throws a SocketException, this means that server
             // unexpectedly severed our connection. This could mean that the server
@@ -74,7 +89,374 @@ public class Client extends BaseConnection {
             e.printStackTrace();
         }
 
+        return mapper.createObjectNode();
+    }
+
+    /**
+     * Method to send a command to the connected peer and wait for the response, without
+     * reporting a failure to the user. This is used by requests that run in the background,
+     * which report failures themselves.
+     *
+     * @param command - The base command that is used for the request
+     * @param args - The arguments that are sent with the base command.
+     *
+     * @return A {@link JsonNode} that represent the deserialized response from the
+     *         peer.
+     * @throws IOException if the connection was lost or the response couldn't be read.
+     * */
+    public JsonNode request(Command command, String... args) throws IOException {
+        if (this.format == WireFormat.BINARY) {
+            try {
+                this.writeFrame(command, args);
+            } catch (IllegalArgumentException e) {
+                return failure(e.getMessage());
+            }
+
+            return this.readResponse();
+        }
+
+        // Send over command with any additional arguments that are all separated by whitespaces.
+        this.printWriter.println(String.format("%s %s", command, String.join(" ", args)));
+
+        return this.readResponse();
+    }
+
+    /**
+     * Method to read the next response of the connected peer, which is a line or a frame
+     * depending on the format of the connection.
+     *
+     * @return A {@link JsonNode} that represent the deserialized response from the
+     *         peer.
+     * @throws IOException if the connection was lost or the response couldn't be read.
+     * */
+    private JsonNode readResponse() throws IOException {
+        if (this.format == WireFormat.BINARY) {
+            var frame = FrameReader.read(this.frameInput, Integer.MAX_VALUE);
+
+            if (frame == null) {
+                throw new SocketException("Connection closed.");
+            }
+
+            return decodeFrame(frame);
+        }
+
+        var content = this.bufferedReader.readLine();
+
+        // If the content returns as null, this means that the socket died...
+        if (content == null) {
+            throw new SocketTimeoutException("Socket timeout out.");
+        }
+
+        return mapper.readTree(content);
+    }
+
+    /**
+     * Method to agree with the connected peer on the format that requests and responses are
+     * sent in, by offering the formats in the 'protocol.formats' setting in order of
+     * preference. Peers that don't support the binary protocol answer that the command isn't
+     * recognised, and the connection keeps using lines.
+     *
+     * @return The format that the connection uses.
+     * */
+    public WireFormat negotiateFormat() {
+        var response = this.sendCommand(Command.Protocol, config.get("protocol.formats").replace(" ", ""));
+
+        if (response == null || !response.path("status").asBoolean()) {
+            return this.format;
+        }
+
+        try {
+            this.format = WireFormat.fromName(response.path("format").asText());
+        } catch (IllegalArgumentException e) {
+            return this.format;
+        }
+
+        // The peer doesn't send anything until the next request, so the reader of lines holds
+        // no bytes of a frame.
+        if (this.format == WireFormat.BINARY && this.frameInput == null) {
+            try {
+                this.frameInput = new BufferedInputStream(this.socket.getInputStream());
+            } catch (IOException e) {
+                this.cleanup();
+            }
+        }
+
+        return this.format;
+    }
+
+    /**
+     * Method to get the format that requests and responses are sent in on the connection.
+     *
+     * @return The format of the connection.
+     * */
+    public WireFormat getFormat() {
+        return this.format;
+    }
+
+    /**
+     * Method to encode a request as a frame and send it to the connected peer. The commands
+     * that have a binary layout are written with typed fields, every other command has it's
+     * arguments written as strings.
+     *
+     * @param command - The base command that is used for the request
+     * @param args - The arguments that are sent with the base command.
+     * @throws IllegalArgumentException if the arguments don't fit the layout of the command.
+     * @throws IOException if the connection was lost.
+     * */
+    private void writeFrame(Command command, String... args) throws IOException {
+        var writer = this.frameWriter.begin(command.getOpcode());
+
+        switch (command) {
+            case GetMeta:
+            case List: {
+                writer.writeString(String.join(" ", args));
+                break;
+            }
+            case Locate: {
+                if (args.length != 2 && args.length != 3) {
+                    throw new IllegalArgumentException("Usage: Locate <size> <digest> [algorithm]");
+                }
+
+                writer.writeLong(Long.parseLong(args[0]))
+                        .writeDigest(decodeDigest(args[1]))
+                        .writeString(args.length == 3 ? args[2] : "");
+                break;
+            }
+            default: {
+                for (var arg : args) {
+                    writer.writeString(arg);
+                }
+
+                break;
+            }
+        }
+
+        writer.end();
+
+        var out = this.socket.getOutputStream();
+        out.write(writer.getBuffer(), 0, writer.size());
+        out.flush();
+    }
+
+    /**
+     * Method to decode a response frame into the same object that the response line of the
+     * command would have been deserialized into, so that callers don't depend on the format
+     * of the connection.
+     *
+     * @param frame - The response frame.
+     * @return A {@link JsonNode} that represent the response.
+     * @throws IOException if the frame isn't a valid response.
+     * */
+    public static JsonNode decodeFrame(FrameReader frame) throws IOException {
+        ResponseType type;
+
+        try {
+            type = ResponseType.fromOpcode(frame.getOpcode());
+        } catch (IllegalArgumentException e) {
+            throw new IOException("Invalid response.", e);
+        }
+
+        try {
+            switch (type) {
+                case JSON: {
+                    return mapper.readTree(frame.getBuffer(), frame.getPosition(), frame.remaining());
+                }
+                case ERROR: {
+                    return failure(frame.readString());
+                }
+                case METADATA: {
+                    var response = mapper.createObjectNode();
+
+                    response.put("path", frame.readString());
+                    response.put("digest", frame.readDigest());
+                    response.put("algorithm", frame.readString());
+                    response.put("size", frame.readLong());
+                    response.put("chunkSize", frame.readInt());
+                    response.put("root", frame.readDigest());
+                    response.put("type", EntryType.File.toString());
+                    response.put("fileName", frame.readString());
+                    response.put("status", true);
+
+                    return response;
+                }
+                case LISTING: {
+                    var response = mapper.createObjectNode();
+                    var files = response.putArray("files");
+                    var types = EntryType.values();
+
+                    for (int count = frame.readInt(); count > 0; count--) {
+                        var entry = files.addObject();
+
+                        entry.put("type", types[Math.min(frame.readByte(), types.length - 1)].toString());
+                        entry.put("path", frame.readString());
+                    }
+
+                    response.put("status", true);
+                    return response;
+                }
+                default: {
+                    throw new IOException("Invalid response.");
+                }
+            }
+        } catch (IllegalArgumentException e) {
+            // The frame is shorter than the fields of it's type.
+            throw new IOException("Invalid response.", e);
+        }
+    }
+
+    /**
+     * Method to decode a Base64 digest into the raw bytes that are written in a frame.
+     *
+     * @param digest - The Base64 encoded digest.
+     * @return The raw bytes of the digest, or null if it isn't valid Base64, which no file
+     *         of the peer matches.
+     * */
+    private static byte[] decodeDigest(String digest) {
+        try {
+            return Base64.getDecoder().decode(digest);
+        } catch (IllegalArgumentException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Method to create the response of a request that failed.
+     *
+     * @param message - The message that describes the error.
+     * @return A {@link JsonNode} with a false status and the message.
+     * */
+    private static JsonNode failure(String message) {
+        var response = mapper.createObjectNode();
+
+        response.put("status", false);
+        response.put("message", message);
+
         return response;
     }
-}
 
+    /**
+     * Method to agree with the connected peer on the algorithm that file digests are computed
+     * with, by offering the algorithms in the 'digest.algorithms' setting in order of
+     * preference. Peers that don't support negotiation use MD5.
+     *
+     * @return The algorithm that the peer will compute digests with.
+     * */
+    public DigestAlgorithm negotiate() {
+        var response = this.sendCommand(Command.Negotiate, config.get("digest.algorithms").replace(" ", ""));
+
+        if (response == null || !response.path("status").asBoolean()) {
+            return DigestAlgorithm.MD5;
+        }
+
+        try {
+            return DigestAlgorithm.fromName(response.path("algorithm").asText());
+        } catch (IllegalArgumentException e) {
+            return DigestAlgorithm.MD5;
+        }
+    }
+
+    /**
+     * Method to list a folder of the connected peer as a stream of entries, which are read
+     * and handed to the consumer one at a time, so that a huge folder is never held in
+     * memory. Peers that don't support streamed listings are sent a 'List' request instead.
+     *
+     * @param folder   - The path of the folder relative to the upload folder of the peer.
+     * @param consumer - The consumer that is given each entry.
+     * @return The response header, or the end line if the folder couldn't be read part way
+     * through, or null if the connection was lost.
+     * */
+    public JsonNode streamList(String folder, Consumer<JsonNode> consumer) {
+        var header = this.sendCommand(Command.ListStream, folder);
+
+        if (header == null) {
+            return null;
+        }
+
+        if (!header.path("status").asBoolean()) {
+            if (!header.path("message").asText().equals("Command not recognised.")) {
+                return header;
+            }
+
+            // The peer doesn't support streamed listings, so the whole listing is fetched at once.
+            var response = this.sendCommand(Command.List, folder);
+
+            if (response != null && response.path("status").asBoolean()) {
+                response.path("files").forEach(consumer);
+            }
+
+            return response;
+        }
+
+        var end = this.readEntries(Command.ListStream, consumer);
+
+        // The end line is only returned if the folder couldn't be read part way through.
+        if (end != null && end.path("status").asBoolean()) {
+            return header;
+        }
+
+        return end;
+    }
+
+    /**
+     * Method to list a whole folder tree of the connected peer as a stream of entries, which
+     * are read and handed to the consumer one at a time. The entries arrive in the order that
+     * the peer finds them, and their paths are relative to the given folder.
+     *
+     * @param folder   - The path of the folder relative to the upload folder of the peer.
+     * @param depth    - The maximum depth of the entries, or 0 to list the whole tree.
+     * @param glob     - The glob that the entries must match, or null for every entry.
+     * @param consumer - The consumer that is given each entry.
+     * @return The end line of the response, which holds the number of entries, or the response
+     * if the request failed, or null if the connection was lost.
+     * */
+    public JsonNode streamTree(String folder, int depth, String glob, Consumer<JsonNode> consumer) {
+        var header = this.sendCommand(Command.ListTree, depth > 0 ? String.valueOf(depth) : "-", glob == null ? "-" : glob, folder);
+
+        if (header == null || !header.path("status").asBoolean()) {
+            return header;
+        }
+
+        return this.readEntries(Command.ListTree, consumer);
+    }
+
+    /**
+     * Method to read the entry lines of a streamed listing until the end line.
+     *
+     * @param command  - The command that the listing was requested with.
+     * @param consumer - The consumer that is given each entry.
+     * @return The end line, or null if the connection was lost.
+     * */
+    private JsonNode readEntries(Command command, Consumer<JsonNode> consumer) {
+        try {
+            while (true) {
+                var entry = this.readResponse();
+
+                if (entry.path("end").asBoolean()) {
+                    return entry;
+                }
+
+                consumer.accept(entry);
+            }
+        } catch (IOException e) {
+            // The connection is cleaned up below, since the rest of the listing can't be read.
+        }
+
+        System.out.printf("Couldn't send '%s' command. Lost Connection to %s:%s%n", command, this.host, this.port);
+        this.cleanup();
+
+        return null;
+    }
+
+    /**
+     * Method to get a single page of the entries of a folder of the connected peer.
+     *
+     * @param folder - The path of the folder relative to the upload folder of the peer.
+     * @param limit  - The maximum number of entries in the page.
+     * @param cursor - The 'next' value of the previous page, or null for the first page.
+     * @return The response, which holds the entries and the cursor of the next page, or null
+     * if the connection was lost.
+     * */
+    public JsonNode listPage(String folder, int limit, String cursor) {
+        return this.sendCommand(Command.ListPage, String.valueOf(limit), cursor == null ? "-" : cursor, folder);
+    }
+}
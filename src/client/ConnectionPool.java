@@ -0,0 +1,288 @@
+package client;
+
+import common.Configuration;
+import common.protocol.Command;
+import common.protocol.WireFormat;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Singleton class that keeps the connections to other peers open between file transfers,
+ * so that downloading many small files or many segments of a file doesn't cost a new TCP
+ * connection for every request.
+ * <p>
+ * Every new connection asks the peer to keep it alive with the {@link Command} 'KeepAlive'
+ * request, and the peer answers with how long the connection may be idle before the peer
+ * closes it. Once a transfer has finished, the connection is returned to the pool, and it's
+ * handed out again until it has been idle for longer than either peer allows. Connections to
+ * peers that don't support keep-alive are closed after every transfer, as before.
+ *
+ * @author 200008575
+ */
+public class ConnectionPool {
+    /**
+     * The maximum number of idle connections that are kept for a single peer.
+     */
+    private static final int MAX_IDLE = 16;
+
+    /**
+     * Number that represents how long (in milliseconds) before the peer would close an idle
+     * connection the connection stops being handed out, so that a connection isn't used
+     * whilst the peer is closing it. Short timeouts use half of the timeout instead.
+     */
+    private static final int TIMEOUT_MARGIN = 1000;
+
+    /**
+     * Instance of the configuration object which is used to get application settings.
+     */
+    private final Configuration config = Configuration.getInstance();
+
+    /**
+     * The idle connections mapped by the address of the peer, with the most recently used
+     * connection first. The map is guarded by the pool's monitor.
+     */
+    private final Map<String, Deque<IdleConnection>> idle = new HashMap<>();
+
+    /**
+     * The number of milliseconds that a connection may be idle mapped by the address of the
+     * peer, which is 0 if the peer doesn't keep connections alive.
+     */
+    private final Map<String, Integer> timeouts = new ConcurrentHashMap<>();
+
+    /**
+     * The number of connections that were opened.
+     */
+    private final AtomicLong opened = new AtomicLong(0);
+
+    /**
+     * The number of times that an idle connection was used again.
+     */
+    private final AtomicLong reused = new AtomicLong(0);
+
+    /**
+     * Variable that holds the reference of this object that is used
+     * when external callers need to access the pool.
+     */
+    private static final ConnectionPool instance = new ConnectionPool();
+
+    /**
+     * ConnectionPool instantiation method.
+     */
+    private ConnectionPool() {
+    }
+
+    /**
+     * Method to get an instance of the ConnectionPool object
+     *
+     * @return A reference of this object.
+     */
+    public static ConnectionPool getInstance() {
+        return instance;
+    }
+
+    /**
+     * Method to take an idle connection to the peer out of the pool. Connections that have
+     * been idle for too long are closed on the way.
+     *
+     * @param host - The hostname of the peer
+     * @param port - The port on the hostname of the peer
+     * @return The connected socket, or null if there is no idle connection to the peer.
+     */
+    public Socket take(String host, int port) {
+        var address = host + ":" + port;
+        var limit = this.getIdleLimit(address);
+        var now = System.currentTimeMillis();
+
+        synchronized (this) {
+            var connections = this.idle.get(address);
+
+            while (connections != null && !connections.isEmpty()) {
+                var connection = connections.pollFirst();
+
+                if (now - connection.since < limit && !connection.socket.isClosed()) {
+                    this.reused.incrementAndGet();
+                    return connection.socket;
+                }
+
+                // The most recently used connection is first, so every other connection has
+                // been idle for longer.
+                connections.forEach(item -> close(item.socket));
+                connections.clear();
+                close(connection.socket);
+            }
+        }
+
+        return null;
+    }
+
+    /**
+     * Method to open a new connection to the peer.
+     *
+     * @param host - The hostname of the peer
+     * @param port - The port on the hostname of the peer
+     * @return The connected socket.
+     * @throws IOException if the peer couldn't be reached.
+     */
+    public Socket open(String host, int port) throws IOException {
+        var socket = new Socket(host, port);
+
+        this.opened.incrementAndGet();
+
+        try {
+            // Requests are single small lines, which are sent straight away.
+            socket.setTcpNoDelay(true);
+        } catch (IOException e) {
+            close(socket);
+            throw e;
+        }
+
+        return socket;
+    }
+
+    /**
+     * Method to ask the peer to keep a new connection alive. The request is only sent, and
+     * the answer is read with {@link #readKeepAlive} ahead of the response to the first
+     * request on the connection, so that asking doesn't cost a round trip, and a peer that
+     * never answers can be given up on like any other stalled request.
+     *
+     * @param host   - The hostname of the peer
+     * @param port   - The port on the hostname of the peer
+     * @param socket - The newly opened socket.
+     * @return Whether the request was sent, in which case the answer must be read.
+     * @throws IOException if the request couldn't be sent.
+     */
+    public boolean requestKeepAlive(String host, int port, Socket socket) throws IOException {
+        // Peers that are known not to keep connections alive aren't asked again.
+        if (config.getInt("keepalive.timeout") <= 0 || this.timeouts.getOrDefault(host + ":" + port, -1) == 0) {
+            return false;
+        }
+
+        socket.getOutputStream().write((Command.KeepAlive + WireFormat.LINE_SEPARATOR).getBytes(StandardCharsets.UTF_8));
+        return true;
+    }
+
+    /**
+     * Method to read the peer's answer to the 'KeepAlive' request, and to remember how long
+     * the peer keeps idle connections open.
+     *
+     * @param host - The hostname of the peer
+     * @param port - The port on the hostname of the peer
+     * @param in   - The stream that the response is read from.
+     * @throws IOException if the connection failed before the answer was received.
+     */
+    public void readKeepAlive(String host, int port, InputStream in) throws IOException {
+        var response = Client.mapper.readTree(RangeFetcher.readLine(in));
+
+        this.timeouts.put(host + ":" + port, response.path("status").asBoolean() ? response.path("timeout").asInt() : 0);
+    }
+
+    /**
+     * Method to return a connection to the pool once it has finished a transfer. The
+     * connection is closed if the peer doesn't keep connections alive, or if the pool already
+     * holds enough idle connections to the peer.
+     *
+     * @param host   - The hostname of the peer
+     * @param port   - The port on the hostname of the peer
+     * @param socket - The connected socket.
+     */
+    public void release(String host, int port, Socket socket) {
+        var address = host + ":" + port;
+
+        if (this.getIdleLimit(address) > 0 && !socket.isClosed()) {
+            synchronized (this) {
+                var connections = this.idle.computeIfAbsent(address, key -> new ArrayDeque<>());
+
+                if (connections.size() < MAX_IDLE) {
+                    connections.addFirst(new IdleConnection(socket));
+                    return;
+                }
+            }
+        }
+
+        close(socket);
+    }
+
+    /**
+     * Method to close every idle connection.
+     */
+    public synchronized void clear() {
+        this.idle.values().forEach(connections -> connections.forEach(item -> close(item.socket)));
+        this.idle.clear();
+    }
+
+    /**
+     * Method to get the number of connections that were opened.
+     *
+     * @return The number of connections.
+     */
+    public long getOpenedCount() {
+        return this.opened.get();
+    }
+
+    /**
+     * Method to get the number of times that an idle connection was used again.
+     *
+     * @return The number of reuses.
+     */
+    public long getReusedCount() {
+        return this.reused.get();
+    }
+
+    /**
+     * Method to get a string that describes the state of the pool.
+     *
+     * @return The status string.
+     */
+    public synchronized String getStatusString() {
+        var count = this.idle.values().stream().mapToInt(Deque::size).sum();
+
+        return String.format("Connections: %d opened, %d reused, %d idle", this.getOpenedCount(), this.getReusedCount(), count);
+    }
+
+    /**
+     * Method to get how long a connection to the peer may be idle before it's no longer
+     * handed out, which is shorter than both the local and the peer's keep-alive timeout.
+     *
+     * @param address - The address of the peer.
+     * @return The number of milliseconds, or 0 or less if connections aren't kept.
+     */
+    private int getIdleLimit(String address) {
+        var timeout = Math.min(config.getInt("keepalive.timeout"), this.timeouts.getOrDefault(address, 0));
+
+        return timeout - Math.min(TIMEOUT_MARGIN, timeout / 2);
+    }
+
+    /**
+     * Method to close a socket, ignoring any errors.
+     *
+     * @param socket - The socket to close.
+     */
+    private static void close(Socket socket) {
+        try {
+            socket.close();
+        } catch (IOException e) {
+            // Ignore since the connection is being discarded anyway.
+        }
+    }
+
+    /**
+     * Class that holds an idle connection and the time since it has been idle.
+     */
+    private static class IdleConnection {
+        private final Socket socket;
+        private final long since = System.currentTimeMillis();
+
+        IdleConnection(Socket socket) {
+            this.socket = socket;
+        }
+    }
+}
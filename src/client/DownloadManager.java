@@ -0,0 +1,646 @@
+package client;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import common.Configuration;
+import common.TaskRunner;
+
+import java.io.IOException;
+import java.nio.file.InvalidPathException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableSet;
+import java.util.TreeSet;
+import java.util.concurrent.Future;
+import java.util.function.BiFunction;
+import java.util.function.Consumer;
+
+/**
+ * Singleton class that queues the downloads which are requested by the CLI, and limits how
+ * many of them run at once. At most 'download.active' downloads are active at once, and at
+ * most 'download.active.peer' of those are from the same peer. A setting of 0 doesn't limit
+ * the downloads.
+ * <p>
+ * The downloads wait in a queue that is ordered by their priority, highest first, and then
+ * by the order that they were requested in. A queued download doesn't hold a connection or
+ * a file until it starts, so a long queue doesn't open a socket for every download. Once a
+ * download finishes, fails or is cancelled it is moved to the history, and the next queued
+ * downloads that are allowed to run are started.
+ *
+ * @author 200008575
+ */
+public class DownloadManager {
+    /**
+     * The number of finished downloads that the history keeps, older downloads are dropped.
+     */
+    private static final int HISTORY_SIZE = 100;
+
+    /**
+     * The order that queued downloads are started in, the highest priority first, and then
+     * the download that was requested first.
+     */
+    private static final Comparator<Entry> ORDER = Comparator
+            .comparingInt((Entry entry) -> -entry.priority)
+            .thenComparingInt(entry -> entry.id);
+
+    /**
+     * Instance of the configuration object which is used to get application settings.
+     */
+    private final Configuration config = Configuration.getInstance();
+
+    /**
+     * The downloads that are waiting to start.
+     */
+    private final NavigableSet<Entry> queue = new TreeSet<>(ORDER);
+
+    /**
+     * The downloads that are running, in the order that they were started.
+     */
+    private final List<Entry> active = new ArrayList<>();
+
+    /**
+     * The number of active downloads mapped by the address of the peer.
+     */
+    private final Map<String, Integer> activePerPeer = new HashMap<>();
+
+    /**
+     * The downloads that have finished, failed or were cancelled, the most recent first.
+     */
+    private final Deque<Entry> history = new ArrayDeque<>();
+
+    /**
+     * The number of downloads that may run at once, or 0 for no limit.
+     */
+    private int maxActive;
+
+    /**
+     * The number of downloads from the same peer that may run at once, or 0 for no limit.
+     */
+    private int maxActivePerPeer;
+
+    /**
+     * The id that is given to the next download.
+     */
+    private int nextId = 1;
+
+    /**
+     * The function that starts the task of a download from it's name and body.
+     */
+    private final BiFunction<String, Runnable, Future<?>> spawner;
+
+    /**
+     * Variable that holds the reference of this object that is used
+     * when external callers need to access the manager.
+     */
+    private static final DownloadManager instance = new DownloadManager();
+
+    /**
+     * DownloadManager instantiation method, which reads the limits from the configuration.
+     */
+    private DownloadManager() {
+        this.spawner = TaskRunner.getInstance()::spawnDedicated;
+        this.reload();
+    }
+
+    /**
+     * DownloadManager constructor, which creates a manager with fixed limits that is separate
+     * from the shared manager.
+     *
+     * @param maxActive        - The number of downloads that may run at once, or 0 for no limit.
+     * @param maxActivePerPeer - The number of downloads from the same peer that may run at once,
+     *                         or 0 for no limit.
+     * @param spawner          - The function that starts the task of a download.
+     */
+    public DownloadManager(int maxActive, int maxActivePerPeer, BiFunction<String, Runnable, Future<?>> spawner) {
+        this.maxActive = Math.max(0, maxActive);
+        this.maxActivePerPeer = Math.max(0, maxActivePerPeer);
+        this.spawner = spawner;
+    }
+
+    /**
+     * Method to get an instance of the DownloadManager object
+     *
+     * @return A reference of this object.
+     */
+    public static DownloadManager getInstance() {
+        return instance;
+    }
+
+    /**
+     * Method to read the limits from the configuration, and to start any queued downloads
+     * that a raised limit now allows.
+     *
+     * @throws IllegalArgumentException if a limit in the configuration is invalid.
+     */
+    public void reload() {
+        var maxActive = Math.max(0, config.getInt("download.active"));
+        var maxActivePerPeer = Math.max(0, config.getInt("download.active.peer"));
+
+        synchronized (this) {
+            this.maxActive = maxActive;
+            this.maxActivePerPeer = maxActivePerPeer;
+
+            this.promote();
+        }
+    }
+
+    /**
+     * Method to change a limit of the manager, which is saved to the configuration and
+     * takes effect straight away. Lowering a limit doesn't stop downloads that are running.
+     *
+     * @param key   - The setting, either 'download.active' or 'download.active.peer'.
+     * @param value - The new value.
+     * @throws IllegalArgumentException if the setting isn't one of the manager's, or the
+     *                                  value is invalid.
+     */
+    public void set(String key, String value) {
+        if (!key.equals("download.active") && !key.equals("download.active.peer")) {
+            throw new IllegalArgumentException(String.format("'%s' isn't a download queue setting.", key));
+        }
+
+        try {
+            Integer.parseInt(value.trim());
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException(String.format("Property '%s' must be an integer.", key));
+        }
+
+        config.set(key, value);
+        this.reload();
+    }
+
+    /**
+     * Method to queue a download of a resource, which is started straight away if the
+     * limits allow it.
+     *
+     * @param host     - The hostname of the peer.
+     * @param port     - The port on the hostname of the peer.
+     * @param info     - Information received from the peer about the resource.
+     * @param priority - The priority of the download, higher priorities start first.
+     * @param setup    - Callback that is run with the downloader before it starts, on the
+     *                 task that runs the download, or null.
+     * @return The queued download.
+     */
+    public synchronized Entry enqueue(String host, int port, JsonNode info, int priority, Consumer<Downloader> setup) {
+        var entry = new Entry(this.nextId++, host, port, info, priority, setup);
+
+        this.queue.add(entry);
+        this.promote();
+
+        return entry;
+    }
+
+    /**
+     * Method to check if a resource of a peer is already queued or being downloaded.
+     *
+     * @param peer - The address of the peer, in the form 'host:port'.
+     * @param path - The path of the resource relative to the peer's upload folder.
+     * @return Whether the resource is queued or active.
+     */
+    public synchronized boolean isPending(String peer, String path) {
+        for (var entries : List.of(this.active, this.queue)) {
+            for (var entry : entries) {
+                if (entry.peer.equals(peer) && entry.path.equals(path)) {
+                    return true;
+                }
+            }
+        }
+
+        return false;
+    }
+
+    /**
+     * Method to change the priority of a queued download.
+     *
+     * @param id       - The id of the download.
+     * @param priority - The new priority.
+     * @return Whether the download was queued, a download that has started can't be moved.
+     */
+    public synchronized boolean setPriority(int id, int priority) {
+        var entry = this.findQueued(id);
+
+        if (entry == null) {
+            return false;
+        }
+
+        // The queue is sorted by the priority, so the entry is re-inserted at it's new place.
+        this.queue.remove(entry);
+        entry.priority = priority;
+        this.queue.add(entry);
+
+        return true;
+    }
+
+    /**
+     * Method to move a queued download to the front of the queue, by giving it a higher
+     * priority than any other queued download.
+     *
+     * @param id - The id of the download.
+     * @return Whether the download was queued.
+     */
+    public synchronized boolean moveToTop(int id) {
+        var first = this.queue.isEmpty() ? null : this.queue.first();
+
+        if (first == null || first.id == id) {
+            return first != null;
+        }
+
+        return this.setPriority(id, first.priority + 1);
+    }
+
+    /**
+     * Method to cancel a download, a queued download is removed from the queue and an
+     * active download is stopped. The partial file of a stopped download is kept, so that
+     * the download can be resumed by requesting it again.
+     *
+     * @param id - The id of the download.
+     * @return Whether the download was queued or active.
+     */
+    public synchronized boolean cancel(int id) {
+        var entry = this.findQueued(id);
+
+        if (entry != null) {
+            this.queue.remove(entry);
+            entry.cancelled = true;
+            this.addToHistory(entry);
+
+            return true;
+        }
+
+        for (var running : this.active) {
+            if (running.id == id) {
+                this.stop(running);
+                return true;
+            }
+        }
+
+        return false;
+    }
+
+    /**
+     * Method to empty the queue and stop every active download, which is used when the
+     * application exits.
+     */
+    public synchronized void stopAll() {
+        for (var entry : this.queue) {
+            entry.cancelled = true;
+            this.addToHistory(entry);
+        }
+
+        this.queue.clear();
+
+        // The list is copied since a download that hasn't begun running is finished here.
+        new ArrayList<>(this.active).forEach(this::stop);
+    }
+
+    /**
+     * Method to get the active downloads.
+     *
+     * @return A copy of the active downloads, in the order that they were started.
+     */
+    public synchronized List<Entry> getActive() {
+        return new ArrayList<>(this.active);
+    }
+
+    /**
+     * Method to get the queued downloads.
+     *
+     * @return A copy of the queued downloads, in the order that they will be started.
+     */
+    public synchronized List<Entry> getQueued() {
+        return new ArrayList<>(this.queue);
+    }
+
+    /**
+     * Method to get the downloads that have finished, failed or were cancelled.
+     *
+     * @return A copy of the history, the most recent download first.
+     */
+    public synchronized List<Entry> getHistory() {
+        return new ArrayList<>(this.history);
+    }
+
+    /**
+     * Method to get a summary of the manager, which is printed by the CLI.
+     *
+     * @return The summary of the manager.
+     */
+    public synchronized String getStatusString() {
+        return String.format("Downloads: %d active (limit %s, %s per peer), %d queued, %d in history",
+                this.active.size(), formatLimit(this.maxActive), formatLimit(this.maxActivePerPeer),
+                this.queue.size(), this.history.size());
+    }
+
+    /**
+     * Method to start the queued downloads that the limits allow, in the order of the queue.
+     * A download whose peer already has as many active downloads as it may have is skipped,
+     * so that it doesn't hold up the downloads from other peers.
+     */
+    private void promote() {
+        var iterator = this.queue.iterator();
+
+        while (iterator.hasNext() && (this.maxActive == 0 || this.active.size() < this.maxActive)) {
+            var entry = iterator.next();
+            var count = this.activePerPeer.getOrDefault(entry.peer, 0);
+
+            if (this.maxActivePerPeer > 0 && count >= this.maxActivePerPeer) {
+                continue;
+            }
+
+            iterator.remove();
+
+            this.active.add(entry);
+            this.activePerPeer.put(entry.peer, count + 1);
+
+            entry.status = DownloaderStatus.NOT_STARTED;
+            entry.task = this.spawner.apply("Downloader-" + entry.fileName, () -> this.run(entry));
+        }
+    }
+
+    /**
+     * Method that runs an active download on it's task. The connection to the peer is only
+     * opened now, and the location of the file is picked, so that an earlier download of the
+     * same name has already created it's file.
+     *
+     * @param entry - The download.
+     */
+    private void run(Entry entry) {
+        try {
+            Downloader downloader;
+
+            synchronized (this) {
+                // The download may have been cancelled before the task began.
+                if (entry.cancelled || entry.finished) {
+                    return;
+                }
+
+                entry.started = true;
+            }
+
+            try {
+                // Resume an earlier partial download of the same resource if there is one,
+                // otherwise pick a new location for the resource.
+                var downloadPath = Downloader.findPartialDownload(entry.info);
+
+                if (downloadPath == null) {
+                    downloadPath = Downloader.getPathForResource(entry.fileName);
+                }
+
+                downloader = new Downloader(entry.host, entry.port, downloadPath, entry.info);
+            } catch (IOException | InvalidPathException e) {
+                entry.status = DownloaderStatus.FAILED;
+                return;
+            }
+
+            synchronized (this) {
+                entry.downloader = downloader;
+
+                if (entry.cancelled) {
+                    downloader.cleanup();
+                    return;
+                }
+            }
+
+            if (entry.setup != null) {
+                entry.setup.accept(downloader);
+            }
+
+            downloader.run();
+        } finally {
+            this.finish(entry);
+        }
+    }
+
+    /**
+     * Method to stop an active download.
+     *
+     * @param entry - The download.
+     */
+    private void stop(Entry entry) {
+        entry.cancelled = true;
+
+        if (entry.downloader != null) {
+            entry.downloader.stop();
+        }
+
+        // A task that hasn't begun running won't run anymore once it is cancelled, so the
+        // download is finished here instead.
+        if (entry.task.cancel(true) && !entry.started) {
+            this.finish(entry);
+        }
+    }
+
+    /**
+     * Method to move a download that is no longer running to the history, and to start the
+     * next queued downloads in it's place.
+     *
+     * @param entry - The download.
+     */
+    private synchronized void finish(Entry entry) {
+        if (entry.finished) {
+            return;
+        }
+
+        entry.finished = true;
+
+        this.active.remove(entry);
+        this.activePerPeer.computeIfPresent(entry.peer, (peer, count) -> count > 1 ? count - 1 : null);
+
+        this.addToHistory(entry);
+        this.promote();
+    }
+
+    /**
+     * Method to add a download to the front of the history, the oldest download is dropped
+     * once the history is full.
+     *
+     * @param entry - The download.
+     */
+    private void addToHistory(Entry entry) {
+        entry.finished = true;
+        this.history.addFirst(entry);
+
+        while (this.history.size() > HISTORY_SIZE) {
+            this.history.removeLast();
+        }
+    }
+
+    /**
+     * Method to find a queued download by it's id.
+     *
+     * @param id - The id of the download.
+     * @return The download, or null if no queued download has the id.
+     */
+    private Entry findQueued(int id) {
+        for (var entry : this.queue) {
+            if (entry.id == id) {
+                return entry;
+            }
+        }
+
+        return null;
+    }
+
+    /**
+     * Method to format a limit of the manager.
+     *
+     * @param limit - The limit.
+     * @return The limit, or 'none' if it doesn't limit the downloads.
+     */
+    private static String formatLimit(int limit) {
+        return limit == 0 ? "none" : String.valueOf(limit);
+    }
+
+    /**
+     * Class that represents a download that is queued, active or in the history.
+     */
+    public static class Entry {
+        /**
+         * The number that identifies the download in the CLI.
+         */
+        private final int id;
+
+        /**
+         * The hostname of the peer.
+         */
+        private final String host;
+
+        /**
+         * The port on the hostname of the peer.
+         */
+        private final int port;
+
+        /**
+         * The address of the peer, in the form 'host:port'.
+         */
+        private final String peer;
+
+        /**
+         * Information received from the peer about the resource.
+         */
+        private final JsonNode info;
+
+        /**
+         * The path of the resource relative to the peer's upload folder.
+         */
+        private final String path;
+
+        /**
+         * Name of the file.
+         */
+        private final String fileName;
+
+        /**
+         * Callback that is run with the downloader before it starts, or null.
+         */
+        private final Consumer<Downloader> setup;
+
+        /**
+         * The priority of the download, which is guarded by the manager.
+         */
+        private int priority;
+
+        /**
+         * The status of the download until it's downloader exists.
+         */
+        private volatile DownloaderStatus status = DownloaderStatus.QUEUED;
+
+        /**
+         * The task that runs the download, or null if it is queued.
+         */
+        private Future<?> task;
+
+        /**
+         * The downloader of the resource, or null if it hasn't been created yet.
+         */
+        private volatile Downloader downloader;
+
+        /**
+         * Whether the task of the download has begun running.
+         */
+        private boolean started = false;
+
+        /**
+         * Whether the download was cancelled.
+         */
+        private volatile boolean cancelled = false;
+
+        /**
+         * Whether the download was moved to the history.
+         */
+        private boolean finished = false;
+
+        Entry(int id, String host, int port, JsonNode info, int priority, Consumer<Downloader> setup) {
+            this.id = id;
+            this.host = host;
+            this.port = port;
+            this.peer = host + ":" + port;
+            this.info = info;
+            this.path = info.get("path").asText();
+            this.fileName = info.get("fileName").asText();
+            this.priority = priority;
+            this.setup = setup;
+        }
+
+        /**
+         * Method to get the number that identifies the download.
+         *
+         * @return The id of the download.
+         */
+        public int getId() {
+            return this.id;
+        }
+
+        /**
+         * Method to get the address of the peer that the download was requested from.
+         *
+         * @return The address, in the form 'host:port'.
+         */
+        public String getPeer() {
+            return this.peer;
+        }
+
+        /**
+         * Method to get the priority of the download.
+         *
+         * @return The priority.
+         */
+        public int getPriority() {
+            return this.priority;
+        }
+
+        /**
+         * Method to get the status of the download.
+         *
+         * @return The status, which is {@link DownloaderStatus#CANCELLED} if the download was
+         * cancelled.
+         */
+        public DownloaderStatus getStatus() {
+            if (this.cancelled) {
+                return DownloaderStatus.CANCELLED;
+            }
+
+            var downloader = this.downloader;
+
+            return downloader != null ? downloader.getStatus() : this.status;
+        }
+
+        /**
+         * Method to get a line that describes the progress of the download.
+         *
+         * @return The id of the download, followed by it's progress.
+         */
+        public String getProgressString() {
+            var downloader = this.downloader;
+
+            if (downloader != null && !this.cancelled) {
+                return String.format("#%-4d %s", this.id, downloader.getProgressString());
+            }
+
+            return String.format("#%-4d [%-21s] %s from %s with status %s (priority %d)", this.id, ">", this.fileName, this.peer, this.getStatus(), this.priority);
+        }
+    }
+}
@@ -0,0 +1,209 @@
+package client;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import common.RangeSet;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.List;
+
+/**
+ * Class that represents the progress of a partially downloaded resource, which is kept in
+ * a sidecar file next to the downloaded file. The state records the digest and size of the
+ * resource and the byte ranges of the file that have been written, so that a download
+ * which failed or was stopped can be resumed by only fetching the missing ranges.
+ *
+ * @author 200008575
+ */
+public class DownloadState {
+    /**
+     * The suffix that is appended to the name of the downloaded file to form the
+     * name of the sidecar file.
+     */
+    public static final String FILE_SUFFIX = ".fileshare-state";
+
+    /**
+     * The path of the sidecar file.
+     */
+    private final Path file;
+
+    /**
+     * The base64 encoded digest of the resource.
+     */
+    private final String digest;
+
+    /**
+     * The size in bytes of the resource.
+     */
+    private final long size;
+
+    /**
+     * The ranges of the downloaded file that have been written.
+     */
+    private final RangeSet completed = new RangeSet();
+
+    /**
+     * Whether the state has changed since it was last saved.
+     */
+    private boolean dirty = false;
+
+    /**
+     * DownloadState class constructor
+     *
+     * @param download - The path of the downloaded file.
+     * @param digest   - The base64 encoded digest of the resource.
+     * @param size     - The size in bytes of the resource.
+     */
+    public DownloadState(Path download, String digest, long size) {
+        this.file = sidecarOf(download);
+        this.digest = digest;
+        this.size = size;
+    }
+
+    /**
+     * Method to get the path of the sidecar file of a downloaded file.
+     *
+     * @param download - The path of the downloaded file.
+     * @return The path of the sidecar file.
+     */
+    public static Path sidecarOf(Path download) {
+        return download.resolveSibling(download.getFileName() + FILE_SUFFIX);
+    }
+
+    /**
+     * Method to load the state of a partial download. The state is only loaded if it
+     * describes the same resource and the partial file still exists.
+     *
+     * @param download - The path of the downloaded file.
+     * @param digest   - The base64 encoded digest of the resource.
+     * @param size     - The size in bytes of the resource.
+     * @return The loaded state, or null if there is no usable state for the resource.
+     */
+    public static DownloadState load(Path download, String digest, long size) {
+        var sidecar = sidecarOf(download);
+
+        if (!Files.isRegularFile(sidecar) || !Files.isRegularFile(download)) {
+            return null;
+        }
+
+        try {
+            var node = Client.mapper.readTree(sidecar.toFile());
+
+            if (!digest.equals(node.path("digest").asText()) || size != node.path("size").asLong()) {
+                return null;
+            }
+
+            var state = new DownloadState(download, digest, size);
+
+            for (JsonNode range : node.path("ranges")) {
+                state.completed.add(range.get(0).asLong(), range.get(1).asLong());
+            }
+
+            return state;
+        } catch (IOException | IllegalArgumentException | NullPointerException e) {
+            // A corrupt state can't be trusted, so the download starts over.
+            return null;
+        }
+    }
+
+    /**
+     * Method to record that a range of the file has been written.
+     *
+     * @param start - The position of the first byte of the range.
+     * @param end   - The position after the last byte of the range.
+     */
+    public synchronized void complete(long start, long end) {
+        this.completed.add(start, end);
+        this.dirty = true;
+    }
+
+    /**
+     * Method to forget all of the written ranges, used when the downloaded file turned
+     * out to be corrupt.
+     */
+    public synchronized void reset() {
+        this.completed.clear();
+        this.dirty = true;
+    }
+
+    /**
+     * Method to write the state to the sidecar file if it has changed.
+     *
+     * @throws IOException if the state couldn't be written.
+     */
+    public void save() throws IOException {
+        var ranges = this.snapshot();
+
+        if (ranges != null) {
+            this.save(ranges);
+        }
+    }
+
+    /**
+     * Method to take the written ranges that should be saved, if the state has changed
+     * since it was last saved.
+     *
+     * @return The written ranges, or null if the state hasn't changed.
+     */
+    public synchronized List<long[]> snapshot() {
+        if (!this.dirty) {
+            return null;
+        }
+
+        this.dirty = false;
+
+        return this.completed.getRanges();
+    }
+
+    /**
+     * Method to write the given ranges to the sidecar file. The state is written to a
+     * temporary file first, so that a crash can't leave a partial state.
+     *
+     * @param ranges - The written ranges, taken by {@link #snapshot()}.
+     * @throws IOException if the state couldn't be written.
+     */
+    public synchronized void save(List<long[]> ranges) throws IOException {
+        var node = Client.mapper.createObjectNode();
+        var array = node.putArray("ranges");
+
+        node.put("digest", this.digest);
+        node.put("size", this.size);
+
+        for (var range : ranges) {
+            array.addArray().add(range[0]).add(range[1]);
+        }
+
+        var temporary = file.resolveSibling(file.getFileName() + ".tmp");
+
+        try {
+            Client.mapper.writeValue(temporary.toFile(), node);
+            Files.move(temporary, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            // Try again at the next save.
+            this.dirty = true;
+            throw e;
+        }
+    }
+
+    /**
+     * Method to delete the sidecar file, once the download has finished.
+     */
+    public void delete() {
+        try {
+            Files.deleteIfExists(file);
+        } catch (IOException e) {
+            System.out.println("Couldn't remove download state.");
+        }
+    }
+
+    /**
+     * Method to get the ranges of the file that have been written.
+     *
+     * @return The written ranges.
+     */
+    public RangeSet getCompleted() {
+        return completed;
+    }
+}
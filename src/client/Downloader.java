@@ -2,29 +2,56 @@ package client;
 
 import com.fasterxml.jackson.databind.JsonNode;
 import common.BaseConnection;
+import common.TaskRunner;
+import common.digest.DigestAlgorithm;
+import common.protocol.ChunkedInputStream;
 import common.protocol.Command;
-import common.resources.FileEntry;
+import common.protocol.Encoding;
+import common.resources.MerkleTree;
 
 import java.io.BufferedOutputStream;
 import java.io.DataInputStream;
 import java.io.DataOutputStream;
+import java.io.EOFException;
 import java.io.File;
 import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
 import java.net.SocketTimeoutException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Base64;
+import java.util.List;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
 import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+import java.util.zip.Inflater;
+import java.util.zip.InflaterInputStream;
 
 /**
- * Downloader class used to start up an isolated connection that will
- * independently download a resource from the peer.
+ * Downloader class used to take a connection from the {@link ConnectionPool} that will
+ * independently download a resource from the peer. The connection is returned to the
+ * pool once the resource was downloaded.
  *
  * @author 200008575
  */
-public class Downloader extends BaseConnection implements Runnable {
+public class Downloader extends PooledConnection implements Runnable {
     /**
      * Name of the file
      */
@@ -41,9 +68,32 @@ public class Downloader extends BaseConnection implements Runnable {
     private final Path downloadLocation;
 
     /**
-     * The thread instance that is used to run the downloader instance on.
+     * The interval in milliseconds at which the throughput of a segmented download is
+     * sampled to decide whether to add another connection.
      */
-    private Thread worker;
+    private static final int SAMPLE_INTERVAL = 500;
+
+    /**
+     * The interval in milliseconds at which the progress of a streamed download is saved.
+     */
+    private static final int CHECKPOINT_INTERVAL = 1000;
+
+    /**
+     * The peers that the resource can be downloaded from, the first source is the peer
+     * that this connection is made to.
+     */
+    private final List<PeerSource> sources = new CopyOnWriteArrayList<>();
+
+    /**
+     * The progress of the download that is kept on disk, so that the download can be
+     * resumed if it fails or is stopped.
+     */
+    private final DownloadState state;
+
+    /**
+     * The task that is used to run the downloader instance on.
+     */
+    private Future<?> worker;
 
     /**
      * Variable to hold the running status of the server. This variable must be atomic
@@ -51,6 +101,11 @@ public class Downloader extends BaseConnection implements Runnable {
      */
     private final AtomicBoolean running = new AtomicBoolean(false);
 
+    /**
+     * Whether the downloader was stopped.
+     */
+    private volatile boolean stopped = false;
+
 
     /**
      * The size of the file download in bytes
@@ -63,16 +118,44 @@ public class Downloader extends BaseConnection implements Runnable {
     private float progress = 0;
 
     /**
-     * The MD5 digest of the file download, which will be used to
+     * The number of bytes of the resource that have been received by ranged fetches.
+     */
+    private final AtomicLong received = new AtomicLong(0);
+
+    /**
+     * The digest of the file download, which will be used to
      * ensure that the file was successfully downloaded and it isn't
      * missing any content.
      */
     private final byte[] digest;
 
+    /**
+     * The algorithm that the digest of the file download was computed with.
+     */
+    private final DigestAlgorithm algorithm;
+
+    /**
+     * The root of the hash tree over the chunks of the resource, or null if the peer
+     * doesn't provide one.
+     */
+    private final byte[] root;
+
+    /**
+     * The number of bytes of the resource that each chunk hash covers.
+     */
+    private final int chunkSize;
+
+    /**
+     * The hash tree of the resource, which is used to verify each chunk as it is written.
+     * This is null if the peer can't provide the chunk hashes, in which case the resource
+     * is only verified by it's digest once it has been written.
+     */
+    private MerkleTree tree;
+
     /**
      * Variable representing the status of the download
      */
-    private DownloaderStatus status = DownloaderStatus.NOT_STARTED;
+    private volatile DownloaderStatus status = DownloaderStatus.NOT_STARTED;
 
 
     /**
@@ -92,6 +175,18 @@ public class Downloader extends BaseConnection implements Runnable {
         this.path = info.get("path").asText();
         this.size = info.get("size").asLong();
         this.digest = Base64.getDecoder().decode(info.get("digest").asText());
+        this.algorithm = DigestAlgorithm.fromName(info.path("algorithm").asText(DigestAlgorithm.MD5.getName()));
+        this.root = info.hasNonNull("root") ? Base64.getDecoder().decode(info.get("root").asText()) : null;
+        this.chunkSize = info.path("chunkSize").asInt(MerkleTree.CHUNK_SIZE);
+
+        this.sources.add(new PeerSource(host, port, this.path));
+
+        // Pick up the progress of an earlier attempt at downloading the resource to the same
+        // location, so that only the missing ranges are fetched.
+        var encodedDigest = info.get("digest").asText();
+        var loaded = DownloadState.load(downloadLocation, encodedDigest, this.size);
+
+        this.state = loaded != null ? loaded : new DownloadState(downloadLocation, encodedDigest, this.size);
     }
 
 
@@ -99,16 +194,20 @@ public class Downloader extends BaseConnection implements Runnable {
      * Method to start the downloader.
      */
     public void start() {
-        worker = new Thread(this);
-        worker.start();
+        worker = TaskRunner.getInstance().spawnDedicated("Downloader-" + this.fileName, this);
     }
 
     /**
-     * Method to stop the downloader.
+     * Method to stop the downloader, which may be called before the downloader runs.
      */
     public void stop() {
+        stopped = true;
         running.set(false);
-        worker.interrupt();
+
+        // The downloader isn't run on it's own task if it was started by the DownloadManager.
+        if (worker != null) {
+            worker.cancel(true);
+        }
     }
 
     /**
@@ -117,46 +216,83 @@ public class Downloader extends BaseConnection implements Runnable {
      * downloaded resource. The method will then send a {@link Command} 'Download'
      * request to the server which will make the server begin writing to a
      * {@link DataOutputStream} that will be read. The file will be downloaded
-     * and written to the given path. After finishing downloading the file, an
-     * MD5 digest of the local file will be computed to check that the downloaded
-     * resource is the same as the remote resource. Due to networking connections, some
-     * packets may of dropped or the resource could of changed during the time of
-     * downloading the file. If the MD5 digests are not equivalent, the downloader
-     * will re-attempt to download the resource until the digests match.
+     * and written to the given path. Whilst the file is downloaded, a digest of the
+     * received bytes is computed by a {@link HashingStage}, with the algorithm that the
+     * peer negotiated, to check that the downloaded resource is the same as the remote
+     * resource. Due to networking connections, some packets may of dropped or the
+     * resource could of changed during the time of downloading the file. If the digests
+     * are not equivalent, the downloader will re-attempt to download the resource, up to
+     * 'download.attempts' times.
      */
     @Override
     public void run() {
         this.running.set(true);
         this.status = DownloaderStatus.STARTED;
 
-        // hold a signature of the 'local' file version
-        byte[] localDigest = new byte[]{};
+        // A downloader that was stopped before it began running isn't started again, so
+        // nothing is requested from the peer.
+        if (this.stopped) {
+            this.running.set(false);
+            this.status = DownloaderStatus.FAILED;
+            this.cleanup();
+            return;
+        }
+
+        var maxAttempts = Math.max(1, config.getInt("download.attempts"));
+
+        try {
+            this.tree = this.fetchTree();
+        } catch (IOException e) {
+            // The chunk hashes don't belong to the resource, so none of it can be trusted.
+            this.status = DownloaderStatus.FAILED;
+            this.cleanup();
+            return;
+        }
 
         // Keep downloading the file until we can be sure that the 'local' version
         // has the same signature as the 'remote' version. Note that if the 'remote'
         // version of file changes, we have to account for this problem and hence
         // we should check for a digest mis-match every time.
         try {
-            while (!Arrays.equals(this.digest, localDigest) && this.running.get()) {
-                // Send a request to the server to send the file as a byte array stream
-                this.printWriter.printf("%s %s%n", Command.Get, this.path);
+            for (var attempt = 1; this.running.get(); attempt++) {
+                // hold a signature of the 'local' file version
+                byte[] localDigest;
 
-                // Download the file using the function
-                var file = downloadFile(downloadLocation.toString());
+                // Large files are split into segments that are fetched over several connections,
+                // otherwise the whole file is streamed over this connection. A partial download
+                // is resumed by fetching the missing ranges as segments, and so is any further
+                // attempt since older peers close this connection after streaming the file.
+                if (this.isSegmented() || this.state.getCompleted().getCovered() > 0 || attempt > 1) {
+                    localDigest = downloadSegments();
+                } else {
+                    localDigest = downloadStream();
+                }
 
-                var fileEntry = new FileEntry(Path.of(file.getAbsolutePath()));
-                fileEntry.load();
+                if (Arrays.equals(this.digest, localDigest)) {
+                    // Set the download status as completed and return the connection to the pool, the
+                    // clean up then only removes the saved progress of the download.
+                    this.status = DownloaderStatus.FINISHED;
+                    this.release();
+                    return;
+                }
 
-                localDigest = fileEntry.getDigest();
+                // If the chunks were verified as they were written, only the chunks that failed
+                // verification are missing and the next attempt fetches just those. Otherwise, the
+                // written ranges can't be trusted, so the whole file is downloaded again.
+                if (this.tree == null || this.state.getCompleted().getCovered() >= this.size) {
+                    this.state.reset();
+                }
 
-                if (!Arrays.equals(this.digest, localDigest)) {
+                if (attempt >= maxAttempts) {
                     this.status = DownloaderStatus.FAILED_MISMATCHING_SIGNATURE;
+                    break;
                 }
             }
 
-            // Set the download status as completed and invoke the supper defined function to clean up
-            // resources that are inherited from the connection base class.
-            this.status = DownloaderStatus.FINISHED;
+            // The download was stopped before it finished.
+            if (this.status == DownloaderStatus.STARTED) {
+                this.status = DownloaderStatus.FAILED;
+            }
         } catch (SocketTimeoutException e) {
 
             // specify that the download failed because the connection with the server timed out.
@@ -169,21 +305,653 @@ public class Downloader extends BaseConnection implements Runnable {
         }
     }
 
+    /**
+     * Method to fetch the chunk hashes of the resource with {@link Command} 'GetHashes' requests,
+     * in pages, and check them against the root that the peer advertised for the resource.
+     *
+     * @return The hash tree of the resource, or null if the peer doesn't provide chunk hashes.
+     * @throws IOException if the connection failed or the hashes don't match the root.
+     */
+    private MerkleTree fetchTree() throws IOException {
+        if (this.root == null) {
+            return null;
+        }
+
+        var leafCount = MerkleTree.getLeafCount(this.size, this.chunkSize);
+        var leaves = new byte[leafCount][];
+        var from = 0;
+
+        while (from < leafCount) {
+            var response = Client.mapper.readTree(this.request(String.format("%s %d %d %s", Command.GetHashes, from, leafCount - from, this.path)));
+
+            // A peer that doesn't support chunk hashes still serves the resource, it just
+            // can't be verified until it has been written.
+            if (!response.path("status").asBoolean()) {
+                return null;
+            }
+
+            var hashes = response.path("hashes");
+
+            if (hashes.size() == 0 || from + hashes.size() > leafCount) {
+                throw new IOException("Invalid chunk hashes.");
+            }
+
+            for (var hash : hashes) {
+                leaves[from++] = hash.binaryValue();
+            }
+        }
+
+        var tree = new MerkleTree(leaves);
+
+        if (!MessageDigest.isEqual(tree.getRoot(), this.root)) {
+            throw new IOException("Chunk hashes don't match the resource.");
+        }
+
+        return tree;
+    }
+
+    /**
+     * Method to download a single range of the resource into the download location, the
+     * range is written at the same offset in the file. The range is fetched with a
+     * {@link Command} 'GetRange' request on a separate connection to the peer, so ranges
+     * can be fetched whilst this connection is in use.
+     *
+     * @param offset - The position of the first byte of the range.
+     * @param length - The number of bytes in the range.
+     * @return The number of bytes that were written.
+     * @throws IOException if the range couldn't be fetched or written.
+     */
+    public long downloadRange(long offset, long length) throws IOException {
+        try (var file = FileChannel.open(downloadLocation, StandardOpenOption.CREATE, StandardOpenOption.WRITE)) {
+            return this.fetchRange(new RangeFetcher(this.host, this.port), this.path, offset, length, file, null);
+        }
+    }
+
+    /**
+     * Method to add another peer that holds the same resource, so that the resource can be
+     * downloaded from several peers at once. The peer may hold the resource under a
+     * different path.
+     *
+     * @param host - The hostname of the peer
+     * @param port - The port on the hostname of the peer
+     * @param path - The path of the resource relative to the peer's upload folder.
+     */
+    public void addSource(String host, int port, String path) {
+        this.sources.add(new PeerSource(host, port, path));
+    }
+
+    /**
+     * Method to fetch a range of the resource into an open file, the received bytes are
+     * added onto the progress of the download.
+     *
+     * @param fetcher - The connection that is used to fetch the range.
+     * @param path    - The path of the resource on the peer.
+     * @param offset  - The position of the first byte of the range.
+     * @param length  - The number of bytes in the range.
+     * @param file    - The file that the range is written to.
+     * @param tap     - Consumer of the received bytes in order, or null.
+     * @return The number of bytes that were written.
+     * @throws IOException if the range couldn't be fetched or written. The bytes of a
+     *                     partially fetched range are removed from the progress.
+     */
+    private long fetchRange(RangeFetcher fetcher, String path, long offset, long length, FileChannel file, Consumer<ByteBuffer> tap) throws IOException {
+        var fetched = new AtomicLong(0);
+
+        try {
+            return fetcher.fetch(path, offset, length, file, count -> {
+                fetched.addAndGet(count);
+                this.addProgress(count);
+            }, tap);
+        } catch (IOException e) {
+            this.addProgress(-fetched.get());
+            throw e;
+        }
+    }
+
+    /**
+     * Method to add received bytes onto the progress of the download.
+     *
+     * @param count - The number of bytes that were received.
+     */
+    private void addProgress(long count) {
+        var total = this.received.addAndGet(count);
+
+        // Chunks that are fetched again can briefly count twice, so the progress is capped.
+        this.progress = this.size == 0 ? 100f : Math.min(100f, ((float) total / this.size) * 100f);
+    }
+
+    /**
+     * Method to check if the resource should be downloaded in segments, which is the case
+     * when the resource spans several segments and it can be fetched over more than one
+     * connection.
+     *
+     * @return Whether the resource is downloaded in segments.
+     */
+    private boolean isSegmented() {
+        return this.size > config.getInt("download.segment.size") &&
+                (config.getInt("download.segments") > 1 || this.sources.size() > 1);
+    }
+
+    /**
+     * Method to download the resource in segments over several connections, possibly to
+     * several peers. The file is preallocated, and the segments are taken off a shared
+     * queue by workers that each write into their own region of the file using 'GetRange'
+     * requests. Since workers take a new segment as soon as they finish one, faster peers
+     * end up serving more of the resource.
+     * <p>
+     * The download starts with a single connection to every peer and the throughput is
+     * sampled regularly. A connection is added to the peer with the best throughput for as
+     * long as the last added connection increased the throughput (up to 'download.segments'
+     * connections per peer), since on high latency links a single connection is limited by
+     * it's congestion window rather than the peer.
+     *
+     * @return The digest of the downloaded file, which is computed as the segments are written.
+     * @throws IOException if the segments couldn't be downloaded from any peer.
+     */
+    private byte[] downloadSegments() throws IOException {
+        long segmentSize = Math.max(1, config.getInt("download.segment.size"));
+
+        // Segments are made of whole chunks when the chunks are verified, so that each chunk
+        // is hashed by a single fetch.
+        if (this.tree != null) {
+            segmentSize = ((segmentSize + this.chunkSize - 1) / this.chunkSize) * this.chunkSize;
+        }
+        var maxConnections = Math.max(1, config.getInt("download.segments"));
+
+        var pending = new ConcurrentLinkedQueue<Segment>();
+        Set<Segment> inFlight = ConcurrentHashMap.newKeySet();
+
+        // Only the ranges that weren't written by an earlier attempt are fetched.
+        for (var range : this.state.getCompleted().missing(this.size)) {
+            var start = range[0];
+            var end = range[1];
+
+            // A gap that starts or ends part way through a chunk is widened to whole chunks,
+            // since a chunk can only be verified in full.
+            if (this.tree != null) {
+                start = (start / this.chunkSize) * this.chunkSize;
+                end = Math.min(this.size, ((end + this.chunkSize - 1) / this.chunkSize) * this.chunkSize);
+            }
+
+            for (long offset = start; offset < end; offset += segmentSize) {
+                pending.add(new Segment(offset, Math.min(segmentSize, end - offset)));
+            }
+        }
+
+        this.received.set(0);
+        this.addProgress(this.state.getCompleted().getCovered());
+        this.sources.forEach(PeerSource::reset);
+
+        List<Future<?>> workers = new ArrayList<>();
+
+        var hasher = new HashingStage(this.algorithm, "Downloader-" + this.fileName + "-hash");
+
+        try (var file = FileChannel.open(downloadLocation, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            // Preallocate the file by writing it's last byte, so every segment writes into an
+            // existing region of the file.
+            if (file.size() > this.size) {
+                file.truncate(this.size);
+            } else if (file.size() < this.size && this.size > 0) {
+                file.write(ByteBuffer.allocate(1), this.size - 1);
+            }
+
+            try {
+                // Hash the part of the file that was written by an earlier attempt, the rest is
+                // hashed as the segments are written.
+                hasher.advanceTo(file, this.state.getCompleted().prefixEnd());
+
+                this.runSegmentWorkers(file, hasher, pending, inFlight, workers, maxConnections);
+
+                // The digest is complete as soon as the last segment is written.
+                hasher.advanceTo(file, this.size);
+
+                return hasher.finish();
+            } finally {
+                workers.forEach(task -> task.cancel(true));
+                inFlight.forEach(Segment::abort);
+                hasher.cancel();
+
+                // Record the segments that were written, even if the download failed.
+                this.checkpoint(file);
+            }
+        }
+    }
+
+    /**
+     * Method that runs the workers of a segmented download until all of the segments are
+     * written, and regularly saves the progress of the download.
+     *
+     * @param file           - The file that the segments are written to.
+     * @param hasher         - The stage that computes the digest of the file.
+     * @param pending        - The queue of segments that haven't been fetched.
+     * @param inFlight       - The segments that are being fetched.
+     * @param workers        - The list that the started workers are added to.
+     * @param maxConnections - The maximum number of connections to a single peer.
+     * @throws IOException if the segments couldn't be downloaded from any peer.
+     */
+    private void runSegmentWorkers(FileChannel file, HashingStage hasher, Queue<Segment> pending, Set<Segment> inFlight, List<Future<?>> workers, int maxConnections) throws IOException {
+        for (var source : this.sources) {
+            workers.add(this.spawnWorker(source, hasher, pending, inFlight, file));
+        }
+
+        var growing = true;
+        var lastReceived = 0L;
+        var bestRate = 0L;
+
+        while (this.running.get()) {
+            var live = workers.stream().filter(task -> !task.isDone()).count();
+
+            if (pending.isEmpty() && live == 0) {
+                break;
+            }
+
+            // Replace the workers that have failed with a worker on the best remaining peer,
+            // unless every peer has been dropped.
+            if (live == 0) {
+                var source = this.bestSource(maxConnections);
+
+                if (source == null) {
+                    throw new IOException("Couldn't download segments of the resource from any peer.");
+                }
+
+                workers.add(this.spawnWorker(source, hasher, pending, inFlight, file));
+            }
+
+            try {
+                Thread.sleep(SAMPLE_INTERVAL);
+            } catch (InterruptedException e) {
+                throw new InterruptedIOException("Download was stopped.");
+            }
+
+            this.checkpoint(file);
+
+            var total = this.received.get();
+            var rate = total - lastReceived;
+            lastReceived = total;
+
+            // Keep adding connections whilst each one improves the throughput, once it levels
+            // off the link is saturated and more connections would only add overhead.
+            if (growing && !pending.isEmpty()) {
+                var source = this.bestSource(maxConnections);
+
+                if (source != null && rate > bestRate + bestRate / 10) {
+                    bestRate = rate;
+                    workers.add(this.spawnWorker(source, hasher, pending, inFlight, file));
+                } else {
+                    growing = false;
+                }
+            }
+        }
+
+        // Wait for the workers to finish before the file is closed.
+        for (var task : workers) {
+            try {
+                task.get();
+            } catch (InterruptedException e) {
+                throw new InterruptedIOException("Download was stopped.");
+            } catch (ExecutionException | CancellationException e) {
+                throw new IOException("Segment worker failed.", e);
+            }
+        }
+    }
+
+    /**
+     * Method to save the progress of the download. The written data is forced onto the
+     * storage first, so that the saved state never claims data that could be lost in a crash.
+     *
+     * @param file - The file that the resource is written to.
+     */
+    private void checkpoint(FileChannel file) {
+        // The ranges are taken before the file is forced, since ranges that are completed
+        // afterwards may not have reached the storage yet.
+        var ranges = this.state.snapshot();
+
+        if (ranges == null) {
+            return;
+        }
+
+        try {
+            file.force(false);
+            this.state.save(ranges);
+        } catch (IOException e) {
+            System.out.println("Couldn't save download progress.");
+        }
+    }
+
+    /**
+     * Method to start a worker that fetches segments of the resource from a peer until
+     * there are no segments left, or until the peer fails.
+     * <p>
+     * When the queue is empty, the worker may take over an in-flight segment from a peer
+     * that is much slower, so that a slow or stalled peer can't hold up the end of the
+     * download. The slower fetch is aborted, and whichever fetch finishes first counts.
+     *
+     * @param source   - The peer that the worker fetches from.
+     * @param hasher   - The stage that computes the digest of the file.
+     * @param pending  - The queue of segments that haven't been fetched.
+     * @param inFlight - The segments that are being fetched.
+     * @param file     - The file that the segments are written to.
+     * @return The task that the worker runs on.
+     */
+    private Future<?> spawnWorker(PeerSource source, HashingStage hasher, Queue<Segment> pending, Set<Segment> inFlight, FileChannel file) {
+        var name = String.format("Downloader-%s-%s:%d", this.fileName, source.getHost(), source.getPort());
+
+        source.getConnections().incrementAndGet();
+
+        return TaskRunner.getInstance().spawnDedicated(name, () -> {
+            try {
+                while (this.running.get() && !source.isDropped()) {
+                    var segment = pending.poll();
+
+                    if (segment == null) {
+                        segment = takeOver(source, inFlight);
+                    }
+
+                    if (segment == null) {
+                        if (pending.isEmpty() && inFlight.isEmpty()) {
+                            return;
+                        }
+
+                        // Wait for the in-flight segments, one of them may turn out to be slow
+                        // enough to take over.
+                        Thread.sleep(SAMPLE_INTERVAL);
+                        continue;
+                    }
+
+                    inFlight.add(segment);
+
+                    RangeFetcher fetcher = null;
+                    var started = System.nanoTime();
+                    var leafHasher = this.tree == null ? null : new MerkleTree.LeafHasher(this.chunkSize);
+
+                    try {
+                        fetcher = new RangeFetcher(source.getHost(), source.getPort());
+                        segment.assign(source, fetcher);
+
+                        var written = this.fetchRange(fetcher, source.getPath(), segment.offset, segment.length, file,
+                                leafHasher == null ? null : leafHasher::update);
+
+                        if (written < segment.length) {
+                            this.addProgress(-written);
+                            throw new EOFException("Peer sent less of the resource than was requested.");
+                        }
+
+                        if (segment.done.compareAndSet(false, true)) {
+                            inFlight.remove(segment);
+                            source.record(written, System.nanoTime() - started);
+
+                            // A peer that sent a corrupted chunk is counted as failing, so a peer
+                            // that keeps sending corrupted chunks is dropped.
+                            if (!this.completeSegment(segment, leafHasher, pending)) {
+                                source.fail();
+                            }
+
+                            advanceHasher(hasher, file);
+                        } else {
+                            // Another peer finished the segment first, so these bytes were
+                            // already counted.
+                            this.addProgress(-written);
+                        }
+                    } catch (IOException e) {
+                        // A segment that was taken over by a faster peer isn't a failure of this peer.
+                        if (fetcher != null && !segment.isFetchedBy(fetcher)) {
+                            continue;
+                        }
+
+                        // Put the segment back for another worker, this worker stops since it's
+                        // connection to the peer is likely to fail again.
+                        inFlight.remove(segment);
+
+                        if (!segment.done.get()) {
+                            pending.add(segment);
+                        }
+
+                        source.fail();
+                        return;
+                    }
+                }
+            } catch (InterruptedException e) {
+                // The download was stopped.
+            } finally {
+                source.getConnections().decrementAndGet();
+            }
+        });
+    }
+
+    /**
+     * Method to record a fetched segment as written. If the chunks are verified, only the
+     * chunks whose hash matches the hash tree are recorded, and every other chunk is queued
+     * to be fetched again on it's own.
+     *
+     * @param segment    - The segment that was fetched.
+     * @param leafHasher - The hashes of the chunks of the segment, or null if the chunks
+     *                   aren't verified.
+     * @param pending    - The queue of segments that haven't been fetched.
+     * @return Whether every chunk of the segment was verified.
+     */
+    private boolean completeSegment(Segment segment, MerkleTree.LeafHasher leafHasher, Queue<Segment> pending) {
+        var end = segment.offset + segment.length;
+
+        if (leafHasher == null) {
+            this.state.complete(segment.offset, end);
+            return true;
+        }
+
+        var leaves = leafHasher.finish();
+        var first = (int) (segment.offset / this.chunkSize);
+        var verified = true;
+
+        for (int i = 0; i < leaves.size(); i++) {
+            var chunkStart = segment.offset + (long) i * this.chunkSize;
+            var chunkEnd = Math.min(chunkStart + this.chunkSize, end);
+
+            if (MessageDigest.isEqual(leaves.get(i), this.tree.getLeaf(first + i))) {
+                this.state.complete(chunkStart, chunkEnd);
+            } else {
+                this.addProgress(-(chunkEnd - chunkStart));
+                pending.add(new Segment(chunkStart, chunkEnd - chunkStart));
+
+                verified = false;
+            }
+        }
+
+        return verified;
+    }
+
+    /**
+     * Method to record the part of a streamed download that has been written. If the chunks
+     * are verified, only the chunks whose hash matches the hash tree are recorded, so that a
+     * later attempt fetches just the corrupted chunks.
+     *
+     * @param total      - The number of bytes that have been written.
+     * @param leafHasher - The hashes of the chunks that have been written, or null if the
+     *                   chunks aren't verified.
+     */
+    private void completeStreamed(long total, MerkleTree.LeafHasher leafHasher) {
+        if (leafHasher == null) {
+            this.state.complete(0, total);
+            return;
+        }
+
+        var leaves = leafHasher.getLeaves();
+
+        for (int i = 0; i < leaves.size(); i++) {
+            if (MessageDigest.isEqual(leaves.get(i), this.tree.getLeaf(i))) {
+                var chunkStart = (long) i * this.chunkSize;
+
+                this.state.complete(chunkStart, Math.min(chunkStart + this.chunkSize, this.size));
+            }
+        }
+    }
+
+    /**
+     * Method to hand the part of the file that has been written without gaps to the
+     * hashing stage.
+     *
+     * @param hasher - The stage that computes the digest of the file.
+     * @param file   - The file that the segments are written to.
+     */
+    private void advanceHasher(HashingStage hasher, FileChannel file) {
+        try {
+            hasher.advanceTo(file, this.state.getCompleted().prefixEnd());
+        } catch (IOException e) {
+            // The failure of the stage is reported when the digest is taken.
+        }
+    }
+
+    /**
+     * Method to pick an in-flight segment that the given peer is expected to fetch in less
+     * than half the time that the current peer needs to finish it, and take it over.
+     *
+     * @param source   - The peer that would take over the segment.
+     * @param inFlight - The segments that are being fetched.
+     * @return The segment that was taken over, or null if no segment is worth taking over.
+     */
+    private static Segment takeOver(PeerSource source, Set<Segment> inFlight) {
+        var rate = source.getRate();
+
+        if (rate <= 0) {
+            return null;
+        }
+
+        Segment slowest = null;
+        var slowestTime = 0.0;
+        var now = System.nanoTime();
+
+        for (var segment : inFlight) {
+            var owner = segment.source;
+
+            if (segment.done.get() || owner == null || owner == source) {
+                continue;
+            }
+
+            // Estimate how long the current peer needs to finish the segment from it's
+            // average throughput. A peer that hasn't finished any segment yet is assumed
+            // to be stalled.
+            var elapsed = (now - segment.started) / 1e6;
+            var remainingTime = owner.getRate() <= 0 ? Double.MAX_VALUE :
+                    Math.max(0, segment.length - owner.getRate() * elapsed) / owner.getRate();
+
+            if (remainingTime > 2 * segment.length / rate && remainingTime > slowestTime) {
+                slowest = segment;
+                slowestTime = remainingTime;
+            }
+        }
+
+        return slowest != null && slowest.abort() ? slowest : null;
+    }
+
+    /**
+     * Method to pick the peer that a new connection should be opened to, which is the peer
+     * with the best throughput per connection that hasn't reached the connection limit.
+     *
+     * @param maxConnections - The maximum number of connections to a single peer.
+     * @return The peer, or null if there is no peer that can take another connection.
+     */
+    private PeerSource bestSource(int maxConnections) {
+        PeerSource best = null;
+        var bestRate = -1.0;
+
+        for (var source : this.sources) {
+            var connections = source.getConnections().get();
+
+            if (source.isDropped() || connections >= maxConnections) {
+                continue;
+            }
+
+            var rate = source.getRate() / Math.max(1, connections);
+
+            if (rate > bestRate) {
+                best = source;
+                bestRate = rate;
+            }
+        }
+
+        return best;
+    }
+
+    /**
+     * Method to request the whole file over this connection and to download it. The file is
+     * requested with 'GetEncoded', and if the 'transfer.compression' setting is enabled the
+     * peer may deflate it, in which case the stream is inflated as it's received. The header
+     * tells how the end of the file is marked, so that the connection can be used again. A
+     * peer that doesn't support encodings rejects the request without closing the connection,
+     * in which case the file is requested with 'Get' instead.
+     *
+     * @return The digest of the downloaded file, which is computed as the file is received.
+     */
+    private byte[] downloadStream() throws IOException {
+        var accepted = Boolean.parseBoolean(BaseConnection.config.get("transfer.compression")) ?
+                Encoding.DEFLATE.getName() + "," + Encoding.IDENTITY.getName() : Encoding.IDENTITY.getName();
+
+        // The header is read byte by byte, so that none of the file is buffered by a reader.
+        var header = Client.mapper.readTree(this.request(String.format("%s %s %s", Command.GetEncoded, accepted, this.path)));
+        var in = this.getInput();
+
+        if (!header.path("status").asBoolean()) {
+            if (!header.path("message").asText().equals("Command not recognised.")) {
+                throw new IOException(header.path("message").asText("Couldn't get the file."));
+            }
+
+            // The peer closes the connection after the file, since the end of the file is
+            // denoted by the end of the stream.
+            this.printWriter.printf("%s %s%n", Command.Get, this.path);
+
+            return downloadFile(downloadLocation.toString(), in);
+        }
+
+        // The body is either of a known length, framed into chunks if it's compressed as it's
+        // sent on a connection that is kept alive, or otherwise ended by the end of the stream.
+        var length = header.path("length").asLong(-1);
+        InputStream body = in;
+
+        if (length >= 0) {
+            body = new BoundedInputStream(in, length);
+        } else if (header.path("framing").asText().equals("chunked")) {
+            body = new ChunkedInputStream(in);
+        }
+
+        byte[] digest;
+
+        if (Encoding.fromName(header.path("encoding").asText()) == Encoding.IDENTITY) {
+            digest = downloadFile(downloadLocation.toString(), body);
+        } else {
+            var inflater = new Inflater();
+
+            try {
+                digest = downloadFile(downloadLocation.toString(), new InflaterInputStream(body, inflater, 64 * 1024));
+            } finally {
+                inflater.end();
+            }
+        }
+
+        // Read whatever is left of the body, such as the end of the chunks, so that the next
+        // request on the connection starts at a response.
+        if (body != in) {
+            body.transferTo(OutputStream.nullOutputStream());
+        }
+
+        return digest;
+    }
+
     /**
      * Method to read the file from the socket connection. The method
      * will write the received byte array to the path that is given
      * to the method.
      *
-     * @param to - The path of the file that the byte array will be written to.
+     * @param to     - The path of the file that the byte array will be written to.
+     * @param source - The stream that the contents of the file are read from.
      *
-     * @return A {@link File} representing where the file was downloaded to.
+     * @return The digest of the downloaded file, which is computed as the file is received.
      */
-    private File downloadFile(String to) throws IOException {
+    private byte[] downloadFile(String to, InputStream source) throws IOException {
         // Use a small temporary buffer to hold the data which will be
         // immediately written to the file.
-        var fileBuffer = new byte[4096];
+        var fileBuffer = new byte[64 * 1024];
 
         var file = new File(to);
+        var hasher = new HashingStage(this.algorithm, "Downloader-" + this.fileName + "-hash");
+        var leafHasher = this.tree == null ? null : new MerkleTree.LeafHasher(this.chunkSize);
 
         // This is the 'try-with-resources' statement that will automatically close any resources
         // once the try block finishes executing. A good description of the syntax is present on
@@ -193,17 +961,51 @@ public class Downloader extends BaseConnection implements Runnable {
                 var bufferedOutputStream = new BufferedOutputStream(fileOutputStream)
         ) {
 
-            // Again, probably better to store these objects references in the support class
-            DataInputStream dis = new DataInputStream(this.socket.getInputStream());
+            DataInputStream dis = new DataInputStream(source);
 
             int count;
-            int total = 0;
+            long total = 0;
+            long lastCheckpoint = System.currentTimeMillis();
+
+            try {
+                while ((count = dis.read(fileBuffer)) > 0) {
+                    bufferedOutputStream.write(fileBuffer, 0, count);
+                    hasher.update(fileBuffer, 0, count);
+
+                    if (leafHasher != null) {
+                        leafHasher.update(fileBuffer, 0, count);
+                    }
+
+                    total += count;
+                    this.progress = Math.min(100f, ((float) total / this.size) * 100f);
+
+                    // Regularly record how much of the file has been written, so that the download
+                    // can be resumed from this point if the connection drops.
+                    if (System.currentTimeMillis() - lastCheckpoint > CHECKPOINT_INTERVAL) {
+                        bufferedOutputStream.flush();
+                        this.completeStreamed(total, leafHasher);
+                        this.checkpoint(fileOutputStream.getChannel());
 
-            while ((count = dis.read(fileBuffer)) > 0) {
-                bufferedOutputStream.write(fileBuffer, 0, count);
+                        lastCheckpoint = System.currentTimeMillis();
+                    }
+                }
+
+                // The peer closed the connection before the whole file was sent.
+                if (total < this.size) {
+                    throw new EOFException("Connection closed before the file was received.");
+                }
+            } catch (IOException e) {
+                bufferedOutputStream.flush();
+                this.completeStreamed(total, leafHasher);
+                this.checkpoint(fileOutputStream.getChannel());
+
+                throw e;
+            }
 
-                total += count;
-                this.progress = ((float) total / this.size) * 100f;
+            // The last chunk is only complete once the whole file has been received.
+            if (leafHasher != null) {
+                leafHasher.finish();
+                this.completeStreamed(total, leafHasher);
             }
 
             // @Workaround: What if the file that was being downloaded has a size of zero?
@@ -215,9 +1017,12 @@ public class Downloader extends BaseConnection implements Runnable {
 
             // finally, write it to the output stream...
             bufferedOutputStream.flush();
-        }
 
-        return file;
+            return hasher.finish();
+        } finally {
+            // Stop the hashing stage if the download failed, this does nothing once the digest was taken.
+            hasher.cancel();
+        }
     }
 
 
@@ -245,21 +1050,60 @@ public class Downloader extends BaseConnection implements Runnable {
         var count = 1;
 
         while (fileOutputURI.toFile().exists()) {
-            var sepIndex = originalFileOutputUri.toString().lastIndexOf('.');
+            fileOutputURI = getSuffixedPath(originalFileOutputUri, count);
+            count++;
+        }
 
-            // file doesn't have an extension
-            if (sepIndex == -1) {
-                fileOutputURI = Path.of(String.format("%s (%s)", originalFileOutputUri, count));
-            } else {
-                var basename = originalFileOutputUri.toString().substring(0, sepIndex);
-                var extension = originalFileOutputUri.toString().substring(sepIndex + 1);
+        return fileOutputURI;
+    }
+
+    /**
+     * Method to find a partial download of the given resource in the 'download' folder,
+     * which is a file at one of the paths that {@link #getPathForResource(String)} would
+     * have picked, that has a saved state for the same resource.
+     *
+     * @param info - Information received from the peer about the resource.
+     * @return The path of the partial download, or null if there is none.
+     */
+    public static Path findPartialDownload(JsonNode info) {
+        var originalFileOutputUri = Paths.get(BaseConnection.config.get("download"), info.get("fileName").asText());
+        var fileOutputURI = originalFileOutputUri;
+
+        var digest = info.get("digest").asText();
+        var size = info.get("size").asLong();
+        var count = 1;
 
-                fileOutputURI = Path.of(String.format("%s (%s).%s", basename, count, extension));
+        while (fileOutputURI.toFile().exists()) {
+            if (DownloadState.load(fileOutputURI, digest, size) != null) {
+                return fileOutputURI;
             }
+
+            fileOutputURI = getSuffixedPath(originalFileOutputUri, count);
             count++;
         }
 
-        return fileOutputURI;
+        return null;
+    }
+
+    /**
+     * Method to add a numbered suffix onto the name of a file, before it's extension.
+     *
+     * @param original - The original path of the file.
+     * @param count    - The number of the suffix.
+     * @return The path with the suffix.
+     */
+    private static Path getSuffixedPath(Path original, int count) {
+        var sepIndex = original.toString().lastIndexOf('.');
+
+        // file doesn't have an extension
+        if (sepIndex == -1) {
+            return Path.of(String.format("%s (%s)", original, count));
+        }
+
+        var basename = original.toString().substring(0, sepIndex);
+        var extension = original.toString().substring(sepIndex + 1);
+
+        return Path.of(String.format("%s (%s).%s", basename, count, extension));
     }
 
     /**
@@ -304,19 +1148,35 @@ public class Downloader extends BaseConnection implements Runnable {
     }
 
     /**
-     * Method to clean up any resources that the downloader still has open. The method will
-     * also delete the file that it was writing the resource to if the status of the
-     * downloader hasn't finished. It is deleted because that means that the resource didn't
-     * finish downloading when the downloading unexpectedly stopped.
+     * Method to clean up any resources that the downloader still has open. If the download
+     * didn't finish but some of the resource was written, the file and it's saved state are
+     * kept so that the download can be resumed. Otherwise, the method will delete the file
+     * that it was writing the resource to if the status of the downloader hasn't finished.
      */
     @Override
     public void cleanup() {
         super.cleanup();
 
+        if (this.status.equals(DownloaderStatus.FINISHED)) {
+            this.state.delete();
+            return;
+        }
+
+        if (this.state.getCompleted().getCovered() > 0) {
+            try {
+                this.state.save();
+                return;
+            } catch (IOException e) {
+                System.out.println("Couldn't save download progress.");
+            }
+        }
+
+        this.state.delete();
+
         // if the file didn't finish downloading, we need to remove it from the filesystem
         var file = downloadLocation.toFile();
 
-        if (file.exists() && !this.status.equals(DownloaderStatus.FINISHED)) {
+        if (file.exists()) {
             // We might have to delete any leftover resources that we're left by
             // writing an incomplete version of the file..
             boolean deleted = downloadLocation.toFile().delete();
@@ -326,4 +1186,84 @@ public class Downloader extends BaseConnection implements Runnable {
             }
         }
     }
-}
\ No newline at end of file
+
+    /**
+     * Class that represents a segment of the resource and the fetch that is currently
+     * downloading it.
+     */
+    private static class Segment {
+        /**
+         * The position of the first byte of the segment.
+         */
+        private final long offset;
+
+        /**
+         * The number of bytes in the segment.
+         */
+        private final long length;
+
+        /**
+         * Whether the segment has been written to the file.
+         */
+        private final AtomicBoolean done = new AtomicBoolean(false);
+
+        /**
+         * The peer that the segment is being fetched from.
+         */
+        private volatile PeerSource source;
+
+        /**
+         * The connection that the segment is being fetched on.
+         */
+        private volatile RangeFetcher fetcher;
+
+        /**
+         * The time in nanoseconds when the current fetch started.
+         */
+        private volatile long started;
+
+        Segment(long offset, long length) {
+            this.offset = offset;
+            this.length = length;
+        }
+
+        /**
+         * Method to record that the segment is being fetched on the given connection.
+         *
+         * @param source  - The peer that the segment is fetched from.
+         * @param fetcher - The connection that the segment is fetched on.
+         */
+        synchronized void assign(PeerSource source, RangeFetcher fetcher) {
+            this.source = source;
+            this.fetcher = fetcher;
+            this.started = System.nanoTime();
+        }
+
+        /**
+         * Method to check if the segment is still being fetched on the given connection.
+         *
+         * @param fetcher - The connection to check.
+         * @return Whether the connection is the current fetch of the segment.
+         */
+        synchronized boolean isFetchedBy(RangeFetcher fetcher) {
+            return this.fetcher == fetcher;
+        }
+
+        /**
+         * Method to abort the current fetch of the segment by closing it's connection.
+         *
+         * @return Whether the segment still needs to be fetched.
+         */
+        synchronized boolean abort() {
+            if (done.get() || this.fetcher == null) {
+                return false;
+            }
+
+            this.fetcher.cleanup();
+            this.fetcher = null;
+            this.source = null;
+
+            return true;
+        }
+    }
+}
@@ -6,10 +6,12 @@ package client;
  * @author 200008575
  * */
 public enum DownloaderStatus {
+    QUEUED,
     NOT_STARTED,
     STARTED,
     FINISHED,
     FAILED,
     FAILED_TIMEOUT,
-    FAILED_MISMATCHING_SIGNATURE
+    FAILED_MISMATCHING_SIGNATURE,
+    CANCELLED
 }
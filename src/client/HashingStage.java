@@ -0,0 +1,228 @@
+package client;
+
+import common.TaskRunner;
+import common.digest.DigestAlgorithm;
+import interfaces.IDigest;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Class that computes the digest of a resource whilst it is being downloaded, so that the
+ * downloaded file doesn't have to be read back to verify it. The digest is computed on it's
+ * own task, so that hashing doesn't hold up reading from the socket. The bytes are handed to
+ * the stage in the order of the file, either directly as they are received or by reading the
+ * file up to a position once every byte before that position has been written.
+ * <p>
+ * The stage holds a bounded queue of work, so a download that outpaces the hashing is
+ * slowed down rather than buffering the resource in memory.
+ *
+ * @author 200008575
+ */
+public class HashingStage {
+    /**
+     * The maximum number of pieces of work that are queued for the stage.
+     */
+    private static final int QUEUE_CAPACITY = 64;
+
+    /**
+     * The size of the chunks that the stage reads from the file and copies received bytes into.
+     */
+    private static final int CHUNK_SIZE = 64 * 1024;
+
+    /**
+     * The interval in milliseconds at which a blocked submission checks if the stage failed.
+     */
+    private static final int POLL_INTERVAL = 100;
+
+    /**
+     * The digest that is being computed.
+     */
+    private final IDigest md;
+
+    /**
+     * The queue of work for the stage, which is run in order.
+     */
+    private final BlockingQueue<Runnable> tasks = new ArrayBlockingQueue<>(QUEUE_CAPACITY);
+
+    /**
+     * Chunks that the stage has finished hashing, which are reused for received bytes.
+     */
+    private final BlockingQueue<byte[]> freeChunks = new ArrayBlockingQueue<>(QUEUE_CAPACITY);
+
+    /**
+     * The computed digest, or the error that stopped the stage.
+     */
+    private final CompletableFuture<byte[]> result = new CompletableFuture<>();
+
+    /**
+     * The task that the stage runs on.
+     */
+    private final Future<?> worker;
+
+    /**
+     * The number of bytes that have been hashed, this is only accessed by the stage.
+     */
+    private long position = 0;
+
+    /**
+     * HashingStage class constructor
+     *
+     * @param algorithm - The digest algorithm.
+     * @param name      - The name of the task that the stage runs on.
+     */
+    public HashingStage(DigestAlgorithm algorithm, String name) {
+        this.md = algorithm.create();
+        this.worker = TaskRunner.getInstance().spawnDedicated(name, this::run);
+    }
+
+    /**
+     * Method that runs the queued work until the digest is computed or the stage fails.
+     */
+    private void run() {
+        try {
+            while (!result.isDone()) {
+                tasks.take().run();
+            }
+        } catch (InterruptedException e) {
+            result.completeExceptionally(new InterruptedIOException("Hashing was stopped."));
+        } catch (RuntimeException e) {
+            result.completeExceptionally(e);
+        }
+    }
+
+    /**
+     * Method to hash the next bytes of the resource. The bytes are copied, so the caller
+     * can reuse the buffer straight away.
+     *
+     * @param buffer - The buffer that holds the bytes.
+     * @param offset - The position of the first byte in the buffer.
+     * @param length - The number of bytes.
+     * @throws IOException if the stage has failed or the caller was interrupted.
+     */
+    public void update(byte[] buffer, int offset, int length) throws IOException {
+        while (length > 0) {
+            var chunk = freeChunks.poll();
+
+            if (chunk == null) {
+                chunk = new byte[CHUNK_SIZE];
+            }
+
+            var count = Math.min(length, chunk.length);
+            var copy = chunk;
+
+            System.arraycopy(buffer, offset, copy, 0, count);
+
+            this.submit(() -> {
+                md.update(copy, 0, count);
+                position += count;
+
+                freeChunks.offer(copy);
+            });
+
+            offset += count;
+            length -= count;
+        }
+    }
+
+    /**
+     * Method to hash the file from the bytes that were hashed so far up to the given position.
+     * This is used when the file is written out of order, once every byte before the position
+     * has been written. Positions that were already hashed are ignored.
+     *
+     * @param file - The file that is being downloaded.
+     * @param end  - The position up to which the file has been written.
+     * @throws IOException if the stage has failed or the caller was interrupted.
+     */
+    public void advanceTo(FileChannel file, long end) throws IOException {
+        this.submit(() -> {
+            var buffer = ByteBuffer.allocate(CHUNK_SIZE);
+
+            try {
+                while (position < end) {
+                    buffer.clear().limit((int) Math.min(CHUNK_SIZE, end - position));
+
+                    var count = file.read(buffer, position);
+
+                    if (count < 0) {
+                        throw new IOException("File ended before it was hashed.");
+                    }
+
+                    md.update(buffer.flip());
+                    position += count;
+                }
+            } catch (IOException e) {
+                result.completeExceptionally(e);
+            }
+        });
+    }
+
+    /**
+     * Method to wait for all of the queued work and get the digest.
+     *
+     * @return The digest of the hashed bytes.
+     * @throws IOException if the stage failed or the caller was interrupted.
+     */
+    public byte[] finish() throws IOException {
+        this.submit(() -> result.complete(md.digest()));
+
+        return this.await();
+    }
+
+    /**
+     * Method to wait for the stage to finish.
+     *
+     * @return The digest of the hashed bytes.
+     * @throws IOException if the stage failed or the caller was interrupted.
+     */
+    private byte[] await() throws IOException {
+        try {
+            return result.get();
+        } catch (InterruptedException | CancellationException e) {
+            throw new InterruptedIOException("Hashing was stopped.");
+        } catch (ExecutionException e) {
+            throw new IOException("Couldn't compute digest.", e.getCause());
+        }
+    }
+
+    /**
+     * Method to stop the stage, any queued work is discarded.
+     */
+    public void cancel() {
+        result.cancel(false);
+        worker.cancel(true);
+    }
+
+    /**
+     * Method to queue work for the stage, waiting for space in the queue if the stage is
+     * behind.
+     *
+     * @param task - The work to queue.
+     * @throws IOException if the stage has failed or the caller was interrupted.
+     */
+    private void submit(Runnable task) throws IOException {
+        try {
+            while (!tasks.offer(task, POLL_INTERVAL, TimeUnit.MILLISECONDS)) {
+                if (result.isDone()) {
+                    break;
+                }
+            }
+        } catch (InterruptedException e) {
+            throw new InterruptedIOException("Hashing was stopped.");
+        }
+
+        // The stage won't run any more work once it has failed.
+        if (result.isCompletedExceptionally()) {
+            this.await();
+        }
+    }
+}
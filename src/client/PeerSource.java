@@ -0,0 +1,149 @@
+package client;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Class that represents a peer that a resource can be downloaded from. A resource may be
+ * held by several peers under different paths, so each source records the path of the
+ * resource on that peer. The source also tracks the throughput and the failures of the
+ * peer, which are used to decide how much of the resource is fetched from it.
+ *
+ * @author 200008575
+ */
+public class PeerSource {
+    /**
+     * The number of failed fetches after which the peer is no longer used.
+     */
+    private static final int MAX_FAILURES = 3;
+
+    /**
+     * The weight of the latest sample in the throughput average.
+     */
+    private static final double SAMPLE_WEIGHT = 0.3;
+
+    /**
+     * The hostname of the peer
+     */
+    private final String host;
+
+    /**
+     * The port on the hostname of the peer
+     */
+    private final int port;
+
+    /**
+     * Path of the resource relative to the upload folder on the peer's end
+     */
+    private final String path;
+
+    /**
+     * The average throughput of the peer in bytes per millisecond, or zero if no
+     * fetch from the peer has finished yet.
+     */
+    private volatile double rate = 0;
+
+    /**
+     * The number of fetches from the peer that failed.
+     */
+    private final AtomicInteger failures = new AtomicInteger(0);
+
+    /**
+     * The number of connections that are currently fetching from the peer.
+     */
+    private final AtomicInteger connections = new AtomicInteger(0);
+
+    /**
+     * PeerSource class constructor
+     *
+     * @param host - The hostname of the peer
+     * @param port - The port on the hostname of the peer
+     * @param path - The path of the resource on the peer
+     */
+    public PeerSource(String host, int port, String path) {
+        this.host = host;
+        this.port = port;
+        this.path = path;
+    }
+
+    /**
+     * Method to record a finished fetch from the peer into the average throughput.
+     *
+     * @param bytes - The number of bytes that were fetched.
+     * @param nanos - The time in nanoseconds that the fetch took.
+     */
+    public synchronized void record(long bytes, long nanos) {
+        var sample = bytes / Math.max(1e-3, nanos / 1e6);
+
+        this.rate = this.rate == 0 ? sample : this.rate * (1 - SAMPLE_WEIGHT) + sample * SAMPLE_WEIGHT;
+    }
+
+    /**
+     * Method to record a failed fetch from the peer.
+     */
+    public void fail() {
+        failures.incrementAndGet();
+    }
+
+    /**
+     * Method to forget the recorded throughput and failures, used when a download
+     * is restarted.
+     */
+    public synchronized void reset() {
+        this.rate = 0;
+        this.failures.set(0);
+    }
+
+    /**
+     * Method to check if the peer has failed too often to be used.
+     *
+     * @return Whether the peer is dropped from the download.
+     */
+    public boolean isDropped() {
+        return failures.get() >= MAX_FAILURES;
+    }
+
+    /**
+     * Method to get the average throughput of the peer.
+     *
+     * @return The throughput in bytes per millisecond, or zero if unknown.
+     */
+    public double getRate() {
+        return rate;
+    }
+
+    /**
+     * Method to get the counter of connections that are fetching from the peer.
+     *
+     * @return The connection counter.
+     */
+    public AtomicInteger getConnections() {
+        return connections;
+    }
+
+    /**
+     * Method to get the host of the peer
+     *
+     * @return The host.
+     */
+    public String getHost() {
+        return host;
+    }
+
+    /**
+     * Method to get the port of the peer
+     *
+     * @return The port number.
+     */
+    public int getPort() {
+        return port;
+    }
+
+    /**
+     * Method to get the path of the resource on the peer
+     *
+     * @return The resources path
+     */
+    public String getPath() {
+        return path;
+    }
+}
@@ -0,0 +1,246 @@
+package client;
+
+import common.BandwidthLimiter;
+import common.BaseConnection;
+import common.Throttle;
+
+import java.io.BufferedInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.Socket;
+import java.net.SocketTimeoutException;
+
+/**
+ * Abstract base class for a connection to a peer that is taken from the {@link ConnectionPool}
+ * and returned to it once it's no longer needed, so that the next transfer from the same
+ * peer can use the connection again.
+ * <p>
+ * A connection that was idle in the pool may have been closed by the peer in the meantime,
+ * so a request that fails on such a connection before any of the response arrived is sent
+ * once more on a new connection.
+ *
+ * @author 200008575
+ */
+public abstract class PooledConnection extends BaseConnection {
+    /**
+     * The size of the buffer that responses are read through.
+     */
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    /**
+     * The pool that the connection is returned to.
+     */
+    private final ConnectionPool pool = ConnectionPool.getInstance();
+
+    /**
+     * Lock that guards the state of the connection, since a connection can be aborted by
+     * another thread whilst it's in use.
+     */
+    private final Object lock = new Object();
+
+    /**
+     * The throttle that limits how fast responses are read from the peer.
+     */
+    private final Throttle throttle;
+
+    /**
+     * The stream that responses are read from. Responses are read as bytes rather than with
+     * the reader of the base connection, since the reader would decode the start of a file
+     * that follows a header into characters.
+     */
+    private InputStream input;
+
+    /**
+     * Whether the socket was taken from the pool rather than opened for this connection.
+     */
+    private boolean reused;
+
+    /**
+     * Whether the answer to the 'KeepAlive' request that was sent on a new connection still
+     * has to be read ahead of the next response.
+     */
+    private boolean negotiating = false;
+
+    /**
+     * Whether the socket was returned to the pool.
+     */
+    private boolean released = false;
+
+    /**
+     * Whether the socket was closed.
+     */
+    private boolean closed = false;
+
+    /**
+     * PooledConnection constructor, which takes an idle connection to the peer from the
+     * pool or opens a new one.
+     *
+     * @param host - The hostname of the peer
+     * @param port - The port on the hostname of the peer
+     * @throws IOException if the peer couldn't be reached.
+     */
+    protected PooledConnection(String host, int port) throws IOException {
+        this(host, port, ConnectionPool.getInstance().take(host, port));
+    }
+
+    /**
+     * PooledConnection constructor
+     *
+     * @param host - The hostname of the peer
+     * @param port - The port on the hostname of the peer
+     * @param idle - The idle connection that was taken from the pool, or null to open one.
+     * @throws IOException if the peer couldn't be reached.
+     */
+    private PooledConnection(String host, int port, Socket idle) throws IOException {
+        super(host, port, idle != null ? idle : ConnectionPool.getInstance().open(host, port));
+
+        this.reused = idle != null;
+        this.throttle = BandwidthLimiter.getInstance().forDownload(this.socket.getInetAddress().getHostAddress());
+        this.input = this.openInput(this.socket);
+
+        if (!this.reused) {
+            try {
+                this.negotiating = this.pool.requestKeepAlive(host, port, this.socket);
+            } catch (IOException e) {
+                this.cleanup();
+                throw e;
+            }
+        }
+    }
+
+    /**
+     * Method to send a request and read the header line of the response, without reading
+     * any of the body that follows the header. The body is read from {@link #getInput()}.
+     *
+     * @param request - The request line, excluding the line separator.
+     * @return The header line of the response.
+     * @throws IOException if the connection failed before the header was received.
+     */
+    protected String request(String request) throws IOException {
+        try {
+            this.printWriter.println(request);
+
+            if (this.printWriter.checkError()) {
+                throw new IOException("Connection closed before the request was sent.");
+            }
+
+            return this.readResponse();
+        } catch (IOException e) {
+            // A peer that is slow to answer didn't close the connection.
+            if (!this.reused || e instanceof SocketTimeoutException) {
+                throw e;
+            }
+
+            // The peer most likely closed the connection whilst it was idle in the pool.
+            this.reconnect();
+            this.printWriter.println(request);
+
+            return this.readResponse();
+        }
+    }
+
+    /**
+     * Method to read the header line of the next response, after the answer to the
+     * 'KeepAlive' request if the connection is new.
+     *
+     * @return The header line of the response.
+     * @throws IOException if the connection failed before the header was received.
+     */
+    private String readResponse() throws IOException {
+        if (this.negotiating) {
+            this.pool.readKeepAlive(this.host, this.port, this.input);
+            this.negotiating = false;
+        }
+
+        return RangeFetcher.readLine(this.input);
+    }
+
+    /**
+     * Method to get the stream that the body of a response is read from.
+     *
+     * @return The input stream of the connection.
+     */
+    protected InputStream getInput() {
+        return this.input;
+    }
+
+    /**
+     * Method to create the stream that responses are read from, which is limited by the
+     * download limits. The throttle sits beneath the buffer, so tokens are taken once per
+     * buffer fill rather than once per read.
+     *
+     * @param socket - The socket of the connection.
+     * @return The stream.
+     * @throws IOException if the socket is closed.
+     */
+    private InputStream openInput(Socket socket) throws IOException {
+        return new BufferedInputStream(new ThrottledInputStream(socket.getInputStream(), this.throttle), BUFFER_SIZE);
+    }
+
+    /**
+     * Method to replace the socket with a new connection to the peer.
+     *
+     * @throws IOException if the peer couldn't be reached, or the connection was closed.
+     */
+    private void reconnect() throws IOException {
+        var socket = this.pool.open(this.host, this.port);
+
+        synchronized (this.lock) {
+            if (this.closed || this.released) {
+                socket.close();
+                throw new IOException("Connection closed.");
+            }
+
+            this.socket.close();
+            this.attach(socket);
+            this.input = this.openInput(socket);
+            this.reused = false;
+        }
+
+        this.negotiating = this.pool.requestKeepAlive(this.host, this.port, socket);
+    }
+
+    /**
+     * Method to return the connection to the pool once every response was read in full. The
+     * connection must not be used after it has been released.
+     *
+     * @return Whether the connection was returned, false if it was closed instead.
+     */
+    public boolean release() {
+        synchronized (this.lock) {
+            if (this.closed || this.released) {
+                return false;
+            }
+
+            // The unread answer to the 'KeepAlive' request would be taken as the response to
+            // the next request on the connection.
+            if (this.negotiating) {
+                this.closed = true;
+                super.cleanup();
+                return false;
+            }
+
+            this.released = true;
+        }
+
+        this.pool.release(this.host, this.port, this.socket);
+        return true;
+    }
+
+    /**
+     * Method used to close the connection. A connection that was returned to the pool isn't
+     * closed, since the socket may already be in use by another connection.
+     */
+    @Override
+    public void cleanup() {
+        synchronized (this.lock) {
+            if (this.closed || this.released) {
+                return;
+            }
+
+            this.closed = true;
+        }
+
+        super.cleanup();
+    }
+}
@@ -0,0 +1,157 @@
+package client;
+
+import common.protocol.Command;
+
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.util.function.Consumer;
+import java.util.function.LongConsumer;
+
+/**
+ * Class that is used to fetch a single range of a resource from a peer, by sending a
+ * {@link Command} 'GetRange' request on a connection from the {@link ConnectionPool}. The
+ * peer responds with a header line that describes the range it will send, followed by the
+ * raw bytes of the range. The bytes are written at the same offset in the target file, so
+ * that ranges can be fetched in any order.
+ *
+ * @author 200008575
+ */
+public class RangeFetcher extends PooledConnection {
+    /**
+     * The size of the buffer that is used to copy the range into the file.
+     */
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    /**
+     * The maximum length of the header line, to guard against a peer that never
+     * sends a line separator.
+     */
+    private static final int MAX_HEADER_LENGTH = 64 * 1024;
+
+    /**
+     * RangeFetcher class constructor
+     *
+     * @param host - The hostname of the peer
+     * @param port - The port on the hostname of the peer
+     */
+    public RangeFetcher(String host, int port) throws IOException {
+        super(host, port);
+    }
+
+    /**
+     * Method to fetch a range of a resource and write it into the target file at the same
+     * offset. The connection is returned to the pool once the whole range was received, and
+     * closed otherwise.
+     *
+     * @param path     - The path of the resource relative to the peer's upload folder.
+     * @param offset   - The position of the first byte of the range.
+     * @param length   - The number of bytes in the range.
+     * @param target   - The file that the range is written to.
+     * @param progress - Callback that is invoked with the number of bytes of every write.
+     * @return The number of bytes that were written, which is less than the requested
+     * length if the range goes past the end of the resource.
+     * @throws IOException if the peer refused the request or the connection dropped
+     *                     before the whole range was received.
+     */
+    public long fetch(String path, long offset, long length, FileChannel target, LongConsumer progress) throws IOException {
+        return this.fetch(path, offset, length, target, progress, null);
+    }
+
+    /**
+     * Method to fetch a range of a resource and write it into the target file at the same
+     * offset, whilst handing every received block of bytes to a consumer, for example to
+     * hash the range without reading it back from the file.
+     *
+     * @param path     - The path of the resource relative to the peer's upload folder.
+     * @param offset   - The position of the first byte of the range.
+     * @param length   - The number of bytes in the range.
+     * @param target   - The file that the range is written to.
+     * @param progress - Callback that is invoked with the number of bytes of every write.
+     * @param tap      - Consumer of the received bytes in order, or null. The buffer is only
+     *                 valid during the call.
+     * @return The number of bytes that were written.
+     * @throws IOException if the peer refused the request or the connection dropped
+     *                     before the whole range was received.
+     */
+    public long fetch(String path, long offset, long length, FileChannel target, LongConsumer progress, Consumer<ByteBuffer> tap) throws IOException {
+        var received = false;
+
+        try {
+            var header = Client.mapper.readTree(this.request(String.format("%s %d %d %s", Command.GetRange, offset, length, path)));
+            var in = this.getInput();
+
+            if (header == null || !header.path("status").asBoolean()) {
+                throw new IOException(header == null ? "Invalid response." : header.path("message").asText());
+            }
+
+            var expected = header.get("length").asLong();
+            var position = header.get("offset").asLong();
+
+            var buffer = new byte[BUFFER_SIZE];
+            long total = 0;
+
+            while (total < expected) {
+                var count = in.read(buffer, 0, (int) Math.min(buffer.length, expected - total));
+
+                if (count < 0) {
+                    throw new EOFException("Connection closed before the range was received.");
+                }
+
+                // Use positional writes, so that other fetchers can write to the same file.
+                var wrapped = ByteBuffer.wrap(buffer, 0, count);
+
+                while (wrapped.hasRemaining()) {
+                    target.write(wrapped, position + total + wrapped.position());
+                }
+
+                if (tap != null) {
+                    tap.accept(ByteBuffer.wrap(buffer, 0, count));
+                }
+
+                total += count;
+                progress.accept(count);
+            }
+
+            received = true;
+            return total;
+        } finally {
+            if (!received || !this.release()) {
+                this.cleanup();
+            }
+        }
+    }
+
+    /**
+     * Method to read a single line from the input stream without reading past the end
+     * of the line.
+     *
+     * @param in - The stream to read from.
+     * @return The line, excluding the line separator.
+     * @throws IOException if the stream ended before the line did.
+     */
+    static String readLine(InputStream in) throws IOException {
+        var line = new ByteArrayOutputStream();
+        int value;
+
+        while ((value = in.read()) != '\n') {
+            if (value < 0) {
+                throw new EOFException("Connection closed before the response was received.");
+            }
+
+            if (line.size() > MAX_HEADER_LENGTH) {
+                throw new IOException("Response header is too long.");
+            }
+
+            if (value != '\r') {
+                line.write(value);
+            }
+        }
+
+        return line.toString(Charset.defaultCharset());
+    }
+}
@@ -0,0 +1,67 @@
+package client;
+
+import common.Throttle;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Class that reads from a connection no faster than a {@link Throttle} allows. Tokens are
+ * taken for the bytes once they have been read, and the reader waits whilst the throttle is
+ * in debt, so the peer is slowed down by the socket's receive window filling up.
+ *
+ * @author 200008575
+ */
+class ThrottledInputStream extends FilterInputStream {
+    /**
+     * The throttle that limits how fast the connection is read.
+     */
+    private final Throttle throttle;
+
+    /**
+     * ThrottledInputStream constructor
+     *
+     * @param in       - The stream of the connection.
+     * @param throttle - The throttle that limits how fast the connection is read.
+     */
+    ThrottledInputStream(InputStream in, Throttle throttle) {
+        super(in);
+        this.throttle = throttle;
+    }
+
+    @Override
+    public int read() throws IOException {
+        var value = this.in.read();
+
+        if (value >= 0) {
+            this.throttle.acquire(1);
+        }
+
+        return value;
+    }
+
+    @Override
+    public int read(byte[] bytes, int offset, int length) throws IOException {
+        var count = this.in.read(bytes, offset, length);
+
+        if (count > 0) {
+            this.throttle.acquire(count);
+        }
+
+        return count;
+    }
+
+    @Override
+    public long skip(long count) throws IOException {
+        var skipped = this.in.skip(count);
+
+        this.throttle.acquire(skipped);
+        return skipped;
+    }
+
+    @Override
+    public boolean markSupported() {
+        return false;
+    }
+}
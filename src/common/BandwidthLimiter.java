@@ -0,0 +1,264 @@
+package common;
+
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Singleton class that holds the token buckets which limit how fast files are sent to and
+ * received from other peers. There is a bucket for all uploads and one for all downloads,
+ * and a bucket per peer in each direction which is shared by every connection to the peer,
+ * so a peer can't get around it's limit by opening more connections.
+ * <p>
+ * The rates are read from the 'limit.upload', 'limit.download', 'limit.peer.upload' and
+ * 'limit.peer.download' settings in bytes per second, which may use the units K, M and G.
+ * A rate of 0 doesn't limit the transfers. The rates can be changed whilst transfers are
+ * running, and take effect straight away.
+ *
+ * @author 200008575
+ */
+public class BandwidthLimiter {
+    /**
+     * The maximum number of peers that buckets are kept for, the buckets are dropped once
+     * there are more, since a dropped bucket only forgets how much the peer has transferred
+     * in the last moments.
+     */
+    private static final int MAX_PEERS = 1024;
+
+    /**
+     * Instance of the configuration object which is used to get application settings.
+     */
+    private final Configuration config = Configuration.getInstance();
+
+    /**
+     * The bucket that is shared by every upload.
+     */
+    private final TokenBucket upload = new TokenBucket(0);
+
+    /**
+     * The bucket that is shared by every download.
+     */
+    private final TokenBucket download = new TokenBucket(0);
+
+    /**
+     * The upload buckets mapped by the host of the peer.
+     */
+    private final Map<String, TokenBucket> peerUploads = new ConcurrentHashMap<>();
+
+    /**
+     * The download buckets mapped by the host of the peer.
+     */
+    private final Map<String, TokenBucket> peerDownloads = new ConcurrentHashMap<>();
+
+    /**
+     * The rate of the upload bucket of each peer.
+     */
+    private volatile long peerUploadRate = 0;
+
+    /**
+     * The rate of the download bucket of each peer.
+     */
+    private volatile long peerDownloadRate = 0;
+
+    /**
+     * Variable that holds the reference of this object that is used
+     * when external callers need to access the limiter.
+     */
+    private static final BandwidthLimiter instance = new BandwidthLimiter();
+
+    /**
+     * BandwidthLimiter instantiation method, which reads the rates from the configuration.
+     */
+    private BandwidthLimiter() {
+        this.reload();
+    }
+
+    /**
+     * Method to get an instance of the BandwidthLimiter object
+     *
+     * @return A reference of this object.
+     */
+    public static BandwidthLimiter getInstance() {
+        return instance;
+    }
+
+    /**
+     * Method to get the throttle for sending files to a peer.
+     *
+     * @param host - The host of the peer.
+     * @return The throttle, which is limited by the peer's and the global upload rate.
+     */
+    public Throttle forUpload(String host) {
+        return new Throttle(getBucket(this.peerUploads, host, this.peerUploadRate), this.upload);
+    }
+
+    /**
+     * Method to get the throttle for receiving files from a peer.
+     *
+     * @param host - The host of the peer.
+     * @return The throttle, which is limited by the peer's and the global download rate.
+     */
+    public Throttle forDownload(String host) {
+        return new Throttle(getBucket(this.peerDownloads, host, this.peerDownloadRate), this.download);
+    }
+
+    /**
+     * Method to change a rate, which is saved to the configuration and takes effect straight
+     * away for every transfer.
+     *
+     * @param key  - The setting of the rate, for example 'limit.upload'.
+     * @param rate - The rate, in bytes per second with an optional unit.
+     * @throws IllegalArgumentException if the setting isn't a rate, or the rate is invalid.
+     */
+    public void setLimit(String key, String rate) {
+        if (!key.startsWith("limit.")) {
+            throw new IllegalArgumentException(String.format("'%s' isn't a bandwidth limit.", key));
+        }
+
+        var parsed = parseRate(rate);
+
+        config.set(key, String.valueOf(parsed));
+        this.reload();
+    }
+
+    /**
+     * Method to read the rates from the configuration and apply them to every bucket.
+     *
+     * @throws IllegalArgumentException if a rate in the configuration is invalid.
+     */
+    public synchronized void reload() {
+        this.upload.setRate(parseRate(config.get("limit.upload")));
+        this.download.setRate(parseRate(config.get("limit.download")));
+
+        this.peerUploadRate = parseRate(config.get("limit.peer.upload"));
+        this.peerDownloadRate = parseRate(config.get("limit.peer.download"));
+
+        this.peerUploads.values().forEach(bucket -> bucket.setRate(this.peerUploadRate));
+        this.peerDownloads.values().forEach(bucket -> bucket.setRate(this.peerDownloadRate));
+    }
+
+    /**
+     * Method to get the rate of the bucket that is shared by every upload.
+     *
+     * @return The rate in bytes per second, or 0 if uploads aren't limited.
+     */
+    public long getUploadRate() {
+        return this.upload.getRate();
+    }
+
+    /**
+     * Method to get the rate of the bucket that is shared by every download.
+     *
+     * @return The rate in bytes per second, or 0 if downloads aren't limited.
+     */
+    public long getDownloadRate() {
+        return this.download.getRate();
+    }
+
+    /**
+     * Method to get the rate of the upload bucket of each peer.
+     *
+     * @return The rate in bytes per second, or 0 if uploads to a peer aren't limited.
+     */
+    public long getPeerUploadRate() {
+        return this.peerUploadRate;
+    }
+
+    /**
+     * Method to get the rate of the download bucket of each peer.
+     *
+     * @return The rate in bytes per second, or 0 if downloads from a peer aren't limited.
+     */
+    public long getPeerDownloadRate() {
+        return this.peerDownloadRate;
+    }
+
+    /**
+     * Method to get a summary of the limits, which is printed by the CLI.
+     *
+     * @return The summary of the limits.
+     */
+    public String getStatusString() {
+        return String.format("Limits: upload %s (%s per peer), download %s (%s per peer)",
+                formatRate(this.getUploadRate()), formatRate(this.peerUploadRate),
+                formatRate(this.getDownloadRate()), formatRate(this.peerDownloadRate));
+    }
+
+    /**
+     * Method to parse a rate such as '512K' or '10M' into a number of bytes per second. The
+     * units are powers of 1024, and 'off' is the same as 0.
+     *
+     * @param rate - The rate string.
+     * @return The number of bytes per second, 0 for no limit.
+     * @throws IllegalArgumentException if the rate is invalid.
+     */
+    public static long parseRate(String rate) {
+        var value = rate.trim().toUpperCase(Locale.ROOT);
+
+        if (value.equals("OFF")) {
+            return 0;
+        }
+
+        var multiplier = 1L;
+
+        if (!value.isEmpty()) {
+            switch (value.charAt(value.length() - 1)) {
+                case 'K': multiplier = 1024L; break;
+                case 'M': multiplier = 1024L * 1024; break;
+                case 'G': multiplier = 1024L * 1024 * 1024; break;
+                default: break;
+            }
+        }
+
+        try {
+            var number = Double.parseDouble(multiplier == 1 ? value : value.substring(0, value.length() - 1));
+
+            if (number < 0 || Double.isNaN(number) || Double.isInfinite(number)) {
+                throw new NumberFormatException();
+            }
+
+            return (long) (number * multiplier);
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException(String.format("Invalid rate '%s'.", rate));
+        }
+    }
+
+    /**
+     * Method to format a rate with the largest unit that keeps it above one.
+     *
+     * @param rate - The rate in bytes per second.
+     * @return The formatted rate, or 'off' if the rate isn't limited.
+     */
+    private static String formatRate(long rate) {
+        if (rate == 0) {
+            return "off";
+        }
+
+        var units = new String[]{"B/s", "KB/s", "MB/s", "GB/s"};
+        var value = (double) rate;
+        var unit = 0;
+
+        while (value >= 1024 && unit < units.length - 1) {
+            value /= 1024;
+            unit++;
+        }
+
+        return unit == 0 ? rate + " B/s" : String.format("%.1f %s", value, units[unit]);
+    }
+
+    /**
+     * Method to get the bucket of a peer, creating it if there isn't one.
+     *
+     * @param buckets - The buckets mapped by the host of the peer.
+     * @param host    - The host of the peer.
+     * @param rate    - The rate of a new bucket.
+     * @return The bucket of the peer.
+     */
+    private static TokenBucket getBucket(Map<String, TokenBucket> buckets, String host, long rate) {
+        if (buckets.size() > MAX_PEERS && !buckets.containsKey(host)) {
+            buckets.clear();
+        }
+
+        return buckets.computeIfAbsent(host, key -> new TokenBucket(rate));
+    }
+}
@@ -6,6 +6,7 @@ import java.io.InputStreamReader;
 import java.io.OutputStreamWriter;
 import java.io.PrintWriter;
 import java.net.Socket;
+import java.net.SocketException;
 
 /**
  * Abstract base class for a generic connection that involves a socket connection.
@@ -57,15 +58,18 @@ public abstract class BaseConnection {
      * to use.
      */
     public BaseConnection(String host, int port) throws IOException {
+        this(host, port, new Socket(host, port));
+    }
+
+    /**
+     * Constructor method for a BaseConnection over a socket that is already connected to
+     * the given peer, for example a socket that was kept open by a connection pool.
+     */
+    public BaseConnection(String host, int port, Socket socket) throws IOException {
         this.host = host;
         this.port = port;
 
-        this.socket = new Socket(host, port);
-        this.socket.setSoTimeout(CONNECTION_TIMEOUT); // set the connection timeout to our defined time.
-
-        // open the socket streams
-        this.bufferedReader = new BufferedReader(new InputStreamReader(socket.getInputStream()));
-        this.printWriter = new PrintWriter(new OutputStreamWriter(socket.getOutputStream()), true);
+        this.attach(socket);
     }
 
     /**
@@ -83,6 +87,21 @@ public abstract class BaseConnection {
 
     }
 
+    /**
+     * Method to make the connection use the given socket, and to open the socket streams.
+     *
+     * @param socket - The connected socket.
+     * @throws IOException if the socket streams couldn't be opened.
+     */
+    protected final void attach(Socket socket) throws IOException {
+        this.socket = socket;
+        this.socket.setSoTimeout(CONNECTION_TIMEOUT); // set the connection timeout to our defined time.
+
+        // open the socket streams
+        this.bufferedReader = new BufferedReader(new InputStreamReader(socket.getInputStream()));
+        this.printWriter = new PrintWriter(new OutputStreamWriter(socket.getOutputStream()), true);
+    }
+
     /**
      * Method used to clean up any resources when closing the connection.
      */
@@ -96,6 +115,17 @@ public abstract class BaseConnection {
         }
     }
 
+    /**
+     * Method to change how long (in milliseconds) a read from the connection may block
+     * before it fails, instead of {@link #CONNECTION_TIMEOUT}.
+     *
+     * @param timeout - The timeout in milliseconds.
+     * @throws SocketException if the timeout couldn't be set.
+     */
+    public void setTimeout(int timeout) throws SocketException {
+        this.socket.setSoTimeout(timeout);
+    }
+
     /**
      * Method to get the port number of the current connection.
      *
@@ -0,0 +1,92 @@
+package common;
+
+import java.nio.ByteBuffer;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Class that holds a pool of large direct buffers which are reused by transfers
+ * instead of allocating a new buffer for each transfer. Direct buffers are used
+ * since the JDK would otherwise copy a heap buffer into a temporary direct buffer
+ * on every channel read and write.
+ *
+ * @author 200008575
+ */
+public class BufferPool {
+    /**
+     * The size (in bytes) of each buffer in the pool.
+     */
+    private final int bufferSize;
+
+    /**
+     * The maximum number of idle buffers that the pool holds onto.
+     */
+    private final int capacity;
+
+    /**
+     * The idle buffers that are ready to be acquired.
+     */
+    private final Queue<ByteBuffer> buffers = new ConcurrentLinkedQueue<>();
+
+    /**
+     * The number of idle buffers in the pool.
+     */
+    private final AtomicInteger size = new AtomicInteger(0);
+
+    /**
+     * Constructor method for the BufferPool class.
+     *
+     * @param bufferSize - The size (in bytes) of each buffer.
+     * @param capacity   - The maximum number of idle buffers that are kept.
+     */
+    public BufferPool(int bufferSize, int capacity) {
+        this.bufferSize = bufferSize;
+        this.capacity = capacity;
+    }
+
+    /**
+     * Method to acquire a cleared buffer from the pool. If the pool is empty, a new
+     * buffer is allocated.
+     *
+     * @return A cleared buffer.
+     */
+    public ByteBuffer acquire() {
+        var buffer = buffers.poll();
+
+        if (buffer == null) {
+            return ByteBuffer.allocateDirect(bufferSize);
+        }
+
+        size.decrementAndGet();
+        return buffer.clear();
+    }
+
+    /**
+     * Method to return a buffer into the pool. If the pool is full, the buffer is
+     * left to the garbage collector.
+     *
+     * @param buffer - The buffer that is no longer being used.
+     */
+    public void release(ByteBuffer buffer) {
+        if (buffer == null || buffer.capacity() != bufferSize) {
+            return;
+        }
+
+        if (size.incrementAndGet() > capacity) {
+            size.decrementAndGet();
+            return;
+        }
+
+        buffers.add(buffer);
+    }
+
+    /**
+     * Method to get the size of the buffers in the pool.
+     *
+     * @return The buffer size in bytes.
+     */
+    public int getBufferSize() {
+        return bufferSize;
+    }
+}
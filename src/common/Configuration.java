@@ -50,13 +50,15 @@ public class Configuration {
         try (var defaultProperties = ResourceLoader.load("resources/config.properties")) {
             this.properties = new Properties();
 
+            // load the properties from the jar provided configuration file first so that
+            // any keys which were added after the user's configuration file was written
+            // still have a default value.
+            properties.load(defaultProperties);
+
             var file = new File(this.location);
 
             if (file.exists() && file.canRead() && file.canWrite()) {
                 properties.load(new FileInputStream(file));
-            } else {
-                // load the properties from the jar provided configuration file
-                properties.load(defaultProperties);
             }
 
             // If download folder doesn't exist or is set to nothing, then set it as the users home directory
@@ -115,17 +117,38 @@ public class Configuration {
             throw new IllegalArgumentException("Cannot access configuration property that doesn't exist.");
         }
 
+        // ensure that the passed value which is a path exists, only the 'upload' and
+        // 'download' keys hold paths.
+        if (key.equals("upload") || key.equals("download")) {
+            var path = Paths.get(value);
+
+            if (Files.notExists(path)) {
+                throw new IllegalArgumentException(String.format("Folder '%s' doesn't exist.", value));
+            }
+        }
+
         this.properties.setProperty(key, value);
 
         // save the properties to config file.
-        // ensure that the passed value which is a path exists...
-        var path = Paths.get(value);
+        this.save();
+    }
 
-        if (Files.notExists(path)) {
-            throw new IllegalArgumentException(String.format("Folder '%s' doesn't exist.", value));
-        }
+    /**
+     * Method to get a key that is represented in the properties object as an integer.
+     *
+     * @param key The name of the key to be accessed.
+     * @return The integer value that is held by the key.
+     * @throws IllegalArgumentException if the key doesn't exist in the properties
+     *                                  object, or if the value isn't an integer.
+     */
+    public int getInt(String key) {
+        var value = this.get(key);
 
-        this.save();
+        try {
+            return Integer.parseInt(value.trim());
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException(String.format("Property '%s' must be an integer.", key));
+        }
     }
 
     /**
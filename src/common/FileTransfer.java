@@ -0,0 +1,208 @@
+package common;
+
+import java.io.IOException;
+import java.net.Socket;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+
+/**
+ * Class that holds utility methods to send a region of a file to a peer. When the
+ * socket is backed by a channel, the region is sent with {@link FileChannel#transferTo}
+ * which lets the operating system copy the file straight from the page cache into the
+ * socket without copying it through user space. Otherwise, the region is copied
+ * through a large pooled buffer.
+ *
+ * @author 200008575
+ */
+public class FileTransfer {
+    /**
+     * The size of the buffers that are used when zero-copy transfers aren't available.
+     */
+    public static final int BUFFER_SIZE = 256 * 1024;
+
+    /**
+     * Pool of buffers that are used when zero-copy transfers aren't available.
+     */
+    public static final BufferPool pool = new BufferPool(BUFFER_SIZE, 64);
+
+    /**
+     * Whether zero-copy transfers are enabled, this is read from the 'transfer.zerocopy'
+     * setting.
+     */
+    private static final boolean zeroCopy = Boolean.parseBoolean(Configuration.getInstance().get("transfer.zerocopy"));
+
+    /**
+     * Method to check if zero-copy transfers are enabled.
+     *
+     * @return Whether zero-copy transfers are enabled.
+     */
+    public static boolean isZeroCopyEnabled() {
+        return zeroCopy;
+    }
+
+    /**
+     * Method to send a region of a file to a socket. A zero-copy transfer is used if it's
+     * enabled and the socket was created from a channel.
+     *
+     * @param file     - The file that is being sent.
+     * @param position - The position in the file of the first byte to send.
+     * @param count    - The number of bytes to send.
+     * @param socket   - The socket that the file is sent to.
+     * @return The number of bytes that were sent, which is less than the count if the
+     * file was truncated whilst it was being sent.
+     * @throws IOException if reading the file or writing to the socket fails.
+     */
+    public static long send(FileChannel file, long position, long count, Socket socket) throws IOException {
+        return send(file, position, count, socket, null);
+    }
+
+    /**
+     * Method to send a region of a file to a socket, without exceeding the rate of a
+     * throttle. The region is sent in chunks that the throttle takes tokens for, so that
+     * a zero-copy transfer still sends large chunks at once.
+     *
+     * @param file     - The file that is being sent.
+     * @param position - The position in the file of the first byte to send.
+     * @param count    - The number of bytes to send.
+     * @param socket   - The socket that the file is sent to.
+     * @param throttle - The throttle that limits the transfer, or null for no limit.
+     * @return The number of bytes that were sent, which is less than the count if the
+     * file was truncated whilst it was being sent.
+     * @throws IOException if reading the file or writing to the socket fails.
+     */
+    public static long send(FileChannel file, long position, long count, Socket socket, Throttle throttle) throws IOException {
+        var channel = socket.getChannel();
+
+        if (zeroCopy && channel != null) {
+            return transfer(file, position, count, channel, throttle);
+        }
+
+        return copy(file, position, count, Channels.newChannel(socket.getOutputStream()), throttle);
+    }
+
+    /**
+     * Method to send a region of a file to a blocking channel with a zero-copy transfer.
+     *
+     * @param file     - The file that is being sent.
+     * @param position - The position in the file of the first byte to send.
+     * @param count    - The number of bytes to send.
+     * @param target   - The blocking channel that the file is sent to.
+     * @return The number of bytes that were sent.
+     * @throws IOException if reading the file or writing to the channel fails.
+     */
+    public static long transfer(FileChannel file, long position, long count, WritableByteChannel target) throws IOException {
+        return transfer(file, position, count, target, null);
+    }
+
+    /**
+     * Method to send a region of a file to a blocking channel with a zero-copy transfer,
+     * without exceeding the rate of a throttle.
+     *
+     * @param file     - The file that is being sent.
+     * @param position - The position in the file of the first byte to send.
+     * @param count    - The number of bytes to send.
+     * @param target   - The blocking channel that the file is sent to.
+     * @param throttle - The throttle that limits the transfer, or null for no limit.
+     * @return The number of bytes that were sent.
+     * @throws IOException if reading the file or writing to the channel fails.
+     */
+    public static long transfer(FileChannel file, long position, long count, WritableByteChannel target, Throttle throttle) throws IOException {
+        var sent = 0L;
+
+        // A single transferTo call may send fewer bytes than requested, for example Linux
+        // limits a single call to ~2GB, hence we have to loop until the region is sent.
+        while (sent < count) {
+            var length = chunk(throttle, count - sent);
+            var transferred = file.transferTo(position + sent, length, target);
+
+            // The target is blocking, so a zero return means that the end of the file was reached.
+            if (transferred <= 0) {
+                break;
+            }
+
+            if (throttle != null) {
+                throttle.acquire(transferred);
+            }
+
+            sent += transferred;
+        }
+
+        return sent;
+    }
+
+    /**
+     * Method to send a region of a file to a blocking channel by copying it through a
+     * pooled buffer.
+     *
+     * @param file     - The file that is being sent.
+     * @param position - The position in the file of the first byte to send.
+     * @param count    - The number of bytes to send.
+     * @param target   - The blocking channel that the file is sent to.
+     * @return The number of bytes that were sent.
+     * @throws IOException if reading the file or writing to the channel fails.
+     */
+    public static long copy(FileChannel file, long position, long count, WritableByteChannel target) throws IOException {
+        return copy(file, position, count, target, null);
+    }
+
+    /**
+     * Method to send a region of a file to a blocking channel by copying it through a
+     * pooled buffer, without exceeding the rate of a throttle.
+     *
+     * @param file     - The file that is being sent.
+     * @param position - The position in the file of the first byte to send.
+     * @param count    - The number of bytes to send.
+     * @param target   - The blocking channel that the file is sent to.
+     * @param throttle - The throttle that limits the transfer, or null for no limit.
+     * @return The number of bytes that were sent.
+     * @throws IOException if reading the file or writing to the channel fails.
+     */
+    public static long copy(FileChannel file, long position, long count, WritableByteChannel target, Throttle throttle) throws IOException {
+        var buffer = pool.acquire();
+        var sent = 0L;
+
+        try {
+            while (sent < count) {
+                buffer.clear();
+                buffer.limit((int) Math.min(buffer.capacity(), count - sent));
+
+                var read = file.read(buffer, position + sent);
+
+                // The file was truncated whilst it was being sent.
+                if (read == -1) {
+                    break;
+                }
+
+                buffer.flip();
+
+                while (buffer.hasRemaining()) {
+                    target.write(buffer);
+                }
+
+                // Tokens are taken once per buffer, the bucket only makes the thread sleep
+                // once enough is owed, so a fast limit doesn't sleep after every buffer.
+                if (throttle != null) {
+                    throttle.acquire(read);
+                }
+
+                sent += read;
+            }
+        } finally {
+            pool.release(buffer);
+        }
+
+        return sent;
+    }
+
+    /**
+     * Method to get how many bytes to send with a single transferTo call.
+     *
+     * @param throttle  - The throttle that limits the transfer, or null for no limit.
+     * @param remaining - The number of bytes that are left to send.
+     * @return The number of bytes.
+     */
+    private static long chunk(Throttle throttle, long remaining) {
+        return throttle == null ? remaining : Math.min(remaining, throttle.getChunkSize());
+    }
+}
@@ -0,0 +1,150 @@
+package common;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Class that holds a set of byte ranges, for example the parts of a file that have
+ * been downloaded. Ranges are half-open intervals [start, end), and overlapping or
+ * adjacent ranges are merged so that the set always holds the fewest ranges.
+ *
+ * @author 200008575
+ */
+public class RangeSet {
+    /**
+     * The ranges in the set, mapped from the start to the end of each range.
+     */
+    private final TreeMap<Long, Long> ranges = new TreeMap<>();
+
+    /**
+     * Method to add a range into the set.
+     *
+     * @param start - The position of the first byte of the range.
+     * @param end   - The position after the last byte of the range.
+     * @throws IllegalArgumentException if the range is negative or ends before it starts.
+     */
+    public synchronized void add(long start, long end) {
+        if (start < 0 || end < start) {
+            throw new IllegalArgumentException("Invalid range.");
+        }
+
+        if (start == end) {
+            return;
+        }
+
+        // Merge with a range that starts before this range and reaches into it.
+        var before = ranges.floorEntry(start);
+
+        if (before != null && before.getValue() >= start) {
+            start = before.getKey();
+            end = Math.max(end, before.getValue());
+        }
+
+        // Merge with all of the ranges that start within this range.
+        var overlapping = ranges.subMap(start, true, end, true);
+
+        for (var entry : overlapping.entrySet()) {
+            end = Math.max(end, entry.getValue());
+        }
+
+        overlapping.clear();
+        ranges.put(start, end);
+    }
+
+    /**
+     * Method to check if a range is fully contained in the set.
+     *
+     * @param start - The position of the first byte of the range.
+     * @param end   - The position after the last byte of the range.
+     * @return Whether every byte of the range is in the set.
+     */
+    public synchronized boolean contains(long start, long end) {
+        if (start == end) {
+            return true;
+        }
+
+        var entry = ranges.floorEntry(start);
+
+        return entry != null && entry.getValue() >= end;
+    }
+
+    /**
+     * Method to get the ranges that are missing from the set between zero and the given size.
+     *
+     * @param size - The size of the whole range, for example the size of the file.
+     * @return The missing ranges in order, as pairs of start and end positions.
+     */
+    public synchronized List<long[]> missing(long size) {
+        List<long[]> gaps = new ArrayList<>();
+        long position = 0;
+
+        for (var entry : ranges.entrySet()) {
+            if (entry.getKey() >= size) {
+                break;
+            }
+
+            if (entry.getKey() > position) {
+                gaps.add(new long[]{position, entry.getKey()});
+            }
+
+            position = Math.max(position, entry.getValue());
+        }
+
+        if (position < size) {
+            gaps.add(new long[]{position, size});
+        }
+
+        return gaps;
+    }
+
+    /**
+     * Method to get the end of the range that starts at zero, which is the position up to
+     * which every byte is in the set.
+     *
+     * @return The end of the range that starts at zero, or zero if there is no such range.
+     */
+    public synchronized long prefixEnd() {
+        var first = ranges.get(0L);
+
+        return first == null ? 0 : first;
+    }
+
+    /**
+     * Method to get the number of bytes that are covered by the set.
+     *
+     * @return The total length of the ranges.
+     */
+    public synchronized long getCovered() {
+        long total = 0;
+
+        for (var entry : ranges.entrySet()) {
+            total += entry.getValue() - entry.getKey();
+        }
+
+        return total;
+    }
+
+    /**
+     * Method to get a copy of the ranges in the set.
+     *
+     * @return The ranges in order, as pairs of start and end positions.
+     */
+    public synchronized List<long[]> getRanges() {
+        List<long[]> copy = new ArrayList<>();
+
+        for (Map.Entry<Long, Long> entry : ranges.entrySet()) {
+            copy.add(new long[]{entry.getKey(), entry.getValue()});
+        }
+
+        return copy;
+    }
+
+    /**
+     * Method to remove all of the ranges from the set.
+     */
+    public synchronized void clear() {
+        ranges.clear();
+    }
+}
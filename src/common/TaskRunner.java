@@ -0,0 +1,363 @@
+package common;
+
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Singleton class that is the single factory for the threads that the application
+ * runs connection handlers, downloaders and scheduled tasks on. The execution
+ * backend is chosen by the 'execution.mode' setting:
+ * <ul>
+ *     <li>platform - every task runs on it's own platform thread.</li>
+ *     <li>virtual  - every task runs on it's own virtual thread. If the JDK doesn't
+ *                    support virtual threads, the bounded backend is used instead.</li>
+ *     <li>bounded  - tasks run on a fixed size pool of 'execution.threads' platform
+ *                    threads, and any further tasks are queued.</li>
+ * </ul>
+ * Long lived tasks that block on the network or on other tasks, such as connection handlers
+ * and downloaders, are started with {@link #spawnDedicated(String, Runnable)}. In the bounded
+ * mode they run on a separate pool of at most 'execution.dedicated' platform threads, so that
+ * they can't fill up the pool and leave the short tasks that they wait on stuck in the queue.
+ * Once every dedicated thread is in use, further long lived tasks wait for one to finish.
+ *
+ * @author 200008575
+ */
+public class TaskRunner implements Executor {
+    /**
+     * The executor that tasks are submitted to.
+     */
+    private final ExecutorService executor;
+
+    /**
+     * The executor that long lived tasks are submitted to. This is the same as the
+     * executor unless the runner is in bounded mode.
+     */
+    private final ExecutorService dedicatedExecutor;
+
+    /**
+     * The number of threads that short tasks run on in bounded mode, or 0 if every short task
+     * gets a thread of it's own.
+     */
+    private final int poolSize;
+
+    /**
+     * The name of the mode that the runner ended up using.
+     */
+    private final String mode;
+
+    /**
+     * Whether the runner is using virtual threads.
+     */
+    private final boolean isVirtual;
+
+    /**
+     * The number of tasks that have been submitted but haven't finished yet.
+     */
+    private final AtomicInteger liveCount = new AtomicInteger(0);
+
+    /**
+     * The number of tasks that have finished, either by completing or by being cancelled.
+     */
+    private final AtomicLong finishedCount = new AtomicLong(0);
+
+    /**
+     * The number of short tasks that have been submitted but haven't finished yet, which in
+     * bounded mode tells whether a thread of the pool is free.
+     */
+    private final AtomicInteger pooledCount = new AtomicInteger(0);
+
+    /**
+     * Variable that holds the reference of this object that is used
+     * when external callers need to access the task runner.
+     */
+    private static final TaskRunner instance = new TaskRunner(Configuration.getInstance());
+
+    /**
+     * TaskRunner instantiation method.
+     *
+     * @param config - The configuration that is used to select the execution mode.
+     */
+    private TaskRunner(Configuration config) {
+        var requestedMode = config.get("execution.mode");
+        var threads = Math.max(1, config.getInt("execution.threads"));
+        var dedicatedThreads = Math.max(1, config.getInt("execution.dedicated"));
+
+        ExecutorService virtualExecutor = null;
+
+        if (requestedMode.equals("virtual")) {
+            virtualExecutor = newVirtualThreadExecutor();
+
+            if (virtualExecutor == null) {
+                System.out.println("Virtual threads aren't supported by this JDK, using bounded execution mode.");
+            }
+        }
+
+        if (virtualExecutor != null) {
+            this.executor = virtualExecutor;
+            this.mode = "virtual";
+        } else if (requestedMode.equals("platform")) {
+            this.executor = Executors.newCachedThreadPool(newPlatformThreadFactory("Worker"));
+            this.mode = "platform";
+        } else {
+            this.executor = new ThreadPoolExecutor(
+                    threads, threads,
+                    60, TimeUnit.SECONDS,
+                    new LinkedBlockingQueue<>(),
+                    newPlatformThreadFactory("Worker")
+            );
+            this.mode = "bounded";
+        }
+
+        this.isVirtual = this.mode.equals("virtual");
+
+        if (this.mode.equals("bounded")) {
+            var dedicated = new ThreadPoolExecutor(
+                    dedicatedThreads, dedicatedThreads,
+                    60, TimeUnit.SECONDS,
+                    new LinkedBlockingQueue<>(),
+                    newPlatformThreadFactory("Dedicated")
+            );
+
+            // Long lived tasks come and go with connections, so the threads that are left idle
+            // are stopped rather than kept for the peak number of connections.
+            dedicated.allowCoreThreadTimeOut(true);
+
+            this.dedicatedExecutor = dedicated;
+            this.poolSize = threads;
+        } else {
+            this.dedicatedExecutor = this.executor;
+            this.poolSize = 0;
+        }
+    }
+
+    /**
+     * Method to get an instance of the TaskRunner object
+     *
+     * @return A reference of this object.
+     */
+    public static TaskRunner getInstance() {
+        return instance;
+    }
+
+    /**
+     * Method to submit a short task to the runner. The task must not wait on other tasks of
+     * the runner, since in bounded mode it may hold one of the only threads that they could
+     * run on. The returned future can be used to check if the task is still running and to
+     * interrupt it.
+     *
+     * @param name - The name of the thread whilst it runs the task.
+     * @param task - The task that will be run.
+     * @return A {@link Future} that represents the task.
+     */
+    public Future<?> spawn(String name, Runnable task) {
+        this.pooledCount.incrementAndGet();
+
+        return this.submit(this.executor, this.pooledCount, name, task);
+    }
+
+    /**
+     * Method to submit a short task to the runner only if a thread can take it straight away,
+     * rather than it being queued behind other tasks. This is for a task that the caller may
+     * have to wait on, which the caller can run itself if the task isn't submitted.
+     *
+     * @param name - The name of the thread whilst it runs the task.
+     * @param task - The task that will be run.
+     * @return A {@link Future} that represents the task, or null if every thread is busy.
+     */
+    public Future<?> trySpawn(String name, Runnable task) {
+        int count;
+
+        do {
+            count = this.pooledCount.get();
+
+            if (this.poolSize > 0 && count >= this.poolSize) {
+                return null;
+            }
+        } while (!this.pooledCount.compareAndSet(count, count + 1));
+
+        return this.submit(this.executor, this.pooledCount, name, task);
+    }
+
+    /**
+     * Method to submit a long lived task to the runner, such as a connection handler or a
+     * download that waits on it's own subtasks. The task always gets a thread of it's own,
+     * even in bounded mode, so it is never queued behind other tasks.
+     *
+     * @param name - The name of the thread whilst it runs the task.
+     * @param task - The task that will be run.
+     * @return A {@link Future} that represents the task.
+     */
+    public Future<?> spawnDedicated(String name, Runnable task) {
+        return this.submit(this.dedicatedExecutor, null, name, task);
+    }
+
+    /**
+     * Method to submit a named task to an executor and to keep count of it.
+     *
+     * @param target  - The executor that runs the task.
+     * @param pending - The count of the tasks of the executor that is lowered once the task
+     *                finishes, or null if the tasks of the executor aren't counted.
+     * @param name    - The name of the thread whilst it runs the task.
+     * @param task    - The task that will be run.
+     * @return A {@link Future} that represents the task.
+     */
+    private Future<?> submit(ExecutorService target, AtomicInteger pending, String name, Runnable task) {
+        var future = new FutureTask<Void>(() -> {
+            var thread = Thread.currentThread();
+            var previousName = thread.getName();
+
+            thread.setName(name);
+
+            try {
+                task.run();
+            } finally {
+                thread.setName(previousName);
+            }
+        }, null) {
+            @Override
+            protected void done() {
+                if (pending != null) {
+                    pending.decrementAndGet();
+                }
+
+                liveCount.decrementAndGet();
+                finishedCount.incrementAndGet();
+            }
+        };
+
+        liveCount.incrementAndGet();
+        target.execute(future);
+
+        return future;
+    }
+
+    /**
+     * Method to run an unnamed task on the runner.
+     *
+     * @param task - The task that will be run.
+     */
+    @Override
+    public void execute(Runnable task) {
+        this.spawn(Thread.currentThread().getName() + "-task", task);
+    }
+
+    /**
+     * Method to get a thread factory for services that manage their own threads, such
+     * as a scheduler. The threads are virtual if the runner is using virtual threads.
+     *
+     * @param name - The prefix of the names of the created threads.
+     * @return A {@link ThreadFactory} that matches the execution mode.
+     */
+    public ThreadFactory getThreadFactory(String name) {
+        if (this.isVirtual) {
+            var factory = newVirtualThreadFactory(name);
+
+            if (factory != null) {
+                return factory;
+            }
+        }
+
+        return newPlatformThreadFactory(name);
+    }
+
+    /**
+     * Method to get the name of the execution mode the runner is using.
+     *
+     * @return The execution mode.
+     */
+    public String getMode() {
+        return mode;
+    }
+
+    /**
+     * Method to get the number of tasks that have been submitted and haven't finished.
+     *
+     * @return The number of live tasks.
+     */
+    public int getLiveCount() {
+        return liveCount.get();
+    }
+
+    /**
+     * Method to get the number of tasks that have finished.
+     *
+     * @return The number of finished tasks.
+     */
+    public long getFinishedCount() {
+        return finishedCount.get();
+    }
+
+    /**
+     * Method to get a string that describes the state of the runner.
+     *
+     * @return The status string.
+     */
+    public String getStatusString() {
+        return String.format("Execution mode '%s' with %d live tasks, %d finished tasks", mode, getLiveCount(), getFinishedCount());
+    }
+
+    /**
+     * Method to create a thread factory of daemon platform threads that are named by
+     * a prefix and a counter.
+     *
+     * @param name - The prefix of the thread names.
+     * @return The thread factory.
+     */
+    private static ThreadFactory newPlatformThreadFactory(String name) {
+        var counter = new AtomicInteger(0);
+
+        return (runnable) -> {
+            var thread = new Thread(runnable, name + "-" + counter.getAndIncrement());
+            thread.setDaemon(true);
+
+            return thread;
+        };
+    }
+
+    /**
+     * Method to create an executor that starts a virtual thread for every task. Virtual
+     * threads are looked up reflectively so that the application can still be compiled
+     * and run on older JDKs.
+     *
+     * @return The executor, or null if the JDK doesn't support virtual threads.
+     */
+    private static ExecutorService newVirtualThreadExecutor() {
+        try {
+            var method = Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+
+            return (ExecutorService) method.invoke(null);
+        } catch (ReflectiveOperationException | UnsupportedOperationException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Method to create a thread factory of virtual threads, see {@link #newVirtualThreadExecutor()}.
+     *
+     * @param name - The prefix of the thread names.
+     * @return The thread factory, or null if the JDK doesn't support virtual threads.
+     */
+    private static ThreadFactory newVirtualThreadFactory(String name) {
+        try {
+            // The builder implementation class isn't public, so the methods are looked up on
+            // the public 'Thread.Builder' interface.
+            var builderClass = Class.forName("java.lang.Thread$Builder");
+            var builder = Thread.class.getMethod("ofVirtual").invoke(null);
+
+            builder = builderClass.getMethod("name", String.class, long.class).invoke(builder, name + "-", 0L);
+
+            return (ThreadFactory) builderClass.getMethod("factory").invoke(builder);
+        } catch (ReflectiveOperationException | UnsupportedOperationException e) {
+            return null;
+        }
+    }
+}
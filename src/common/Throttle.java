@@ -0,0 +1,135 @@
+package common;
+
+import java.io.InterruptedIOException;
+
+/**
+ * Class that limits a transfer by several {@link TokenBucket} objects at once, such as the
+ * bucket of the peer that the transfer is with and the bucket that is shared by every peer.
+ * A transfer may only go as fast as the slowest of the buckets allows. The buckets are held
+ * directly, so that a transfer doesn't look them up for every chunk.
+ *
+ * @author 200008575
+ */
+public class Throttle {
+    /**
+     * The buckets that the transfer takes tokens from.
+     */
+    private final TokenBucket[] buckets;
+
+    /**
+     * Throttle constructor
+     *
+     * @param buckets - The buckets that the transfer takes tokens from.
+     */
+    public Throttle(TokenBucket... buckets) {
+        this.buckets = buckets;
+    }
+
+    /**
+     * Method to check if any of the buckets limits the rate.
+     *
+     * @return Whether the transfer is limited.
+     */
+    public boolean isLimited() {
+        for (var bucket : this.buckets) {
+            if (bucket.isLimited()) {
+                return true;
+            }
+        }
+
+        return false;
+    }
+
+    /**
+     * Method to get how many bytes the transfer should take tokens for at once, which is the
+     * smallest chunk of any of the buckets.
+     *
+     * @return The number of bytes, or {@link Long#MAX_VALUE} if the transfer isn't limited.
+     */
+    public long getChunkSize() {
+        var size = Long.MAX_VALUE;
+
+        for (var bucket : this.buckets) {
+            size = Math.min(size, bucket.getChunkSize());
+        }
+
+        return size;
+    }
+
+    /**
+     * Method to take tokens from every bucket without waiting, the tokens are only taken if
+     * none of the buckets is in debt.
+     *
+     * @param bytes - The number of bytes that will be transferred.
+     * @return Whether the tokens were granted.
+     */
+    public boolean tryAcquire(long bytes) {
+        for (int i = 0; i < this.buckets.length; i++) {
+            if (!this.buckets[i].tryAcquire(bytes)) {
+                // Return the tokens that were already taken from the other buckets.
+                for (int j = 0; j < i; j++) {
+                    this.buckets[j].refund(bytes);
+                }
+
+                return false;
+            }
+        }
+
+        return true;
+    }
+
+    /**
+     * Method to take tokens from every bucket, and to wait until none of the buckets is in
+     * debt anymore.
+     *
+     * @param bytes - The number of bytes that will be or have been transferred.
+     * @throws InterruptedIOException if the thread was interrupted whilst waiting.
+     */
+    public void acquire(long bytes) throws InterruptedIOException {
+        TokenBucket.sleep(this.reserve(bytes));
+    }
+
+    /**
+     * Method to take tokens from every bucket without waiting, even if the buckets go into
+     * debt. The bytes should only be transferred once the returned delay has passed, which
+     * queues the transfers that share a bucket in the order that they took the tokens.
+     *
+     * @param bytes - The number of bytes that will be transferred.
+     * @return How long to wait in nanoseconds until none of the buckets is in debt.
+     */
+    public long reserve(long bytes) {
+        var delay = 0L;
+
+        for (var bucket : this.buckets) {
+            delay = Math.max(delay, bucket.take(bytes));
+        }
+
+        return delay;
+    }
+
+    /**
+     * Method to return the tokens that were taken for bytes that weren't transferred.
+     *
+     * @param bytes - The number of bytes.
+     */
+    public void refund(long bytes) {
+        for (var bucket : this.buckets) {
+            bucket.refund(bytes);
+        }
+    }
+
+    /**
+     * Method to get how long it takes until none of the buckets is in debt anymore.
+     *
+     * @return The time in nanoseconds, 0 if tokens can be taken straight away.
+     */
+    public long getDelayNanos() {
+        var delay = 0L;
+
+        for (var bucket : this.buckets) {
+            delay = Math.max(delay, bucket.getDelayNanos());
+        }
+
+        return delay;
+    }
+}
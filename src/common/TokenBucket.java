@@ -0,0 +1,287 @@
+package common;
+
+import java.io.InterruptedIOException;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Class that limits the rate at which bytes are transferred with a token bucket. The bucket
+ * is refilled with tokens at the rate, and every byte that is transferred takes a token. The
+ * bucket holds at most a short burst worth of tokens, so that an idle transfer can't save up
+ * tokens and then exceed the rate for a long time.
+ * <p>
+ * Whole chunks are granted whilst there are any tokens left, so the bucket can go into debt,
+ * which is paid back by waiting before the next chunk. Transfers therefore take tokens once
+ * per chunk rather than once per buffer, and a blocking transfer only sleeps once it owes
+ * enough tokens for the sleep to be worth it, which keeps the overhead low at high rates.
+ *
+ * @author 200008575
+ */
+public class TokenBucket {
+    /**
+     * Number that represents how long (in nanoseconds) the rate is allowed to be exceeded
+     * for, which is the number of tokens that the bucket holds at most.
+     */
+    private static final long BURST_NANOS = 50_000_000L;
+
+    /**
+     * The least number of tokens that the bucket holds at most, so that a low rate still
+     * allows a reasonably sized chunk.
+     */
+    private static final long MIN_BURST = 64 * 1024;
+
+    /**
+     * Number that represents the least time (in nanoseconds) that a blocking transfer sleeps
+     * for, a smaller debt is carried over to the next chunk instead.
+     */
+    private static final long MIN_SLEEP_NANOS = 1_000_000L;
+
+    /**
+     * Number that represents the duration (in nanoseconds) of the transfer that is granted
+     * as a single chunk.
+     */
+    private static final long CHUNK_NANOS = 20_000_000L;
+
+    /**
+     * The smallest chunk, which is small enough for low rates to stay smooth.
+     */
+    private static final long MIN_CHUNK = 8 * 1024;
+
+    /**
+     * The largest chunk, which is large enough that a transfer at 10 Gbps only takes tokens
+     * a few hundred times a second.
+     */
+    private static final long MAX_CHUNK = 4 * 1024 * 1024;
+
+    /**
+     * The rate in bytes per second, or 0 if the rate isn't limited.
+     */
+    private volatile long rate;
+
+    /**
+     * The maximum number of tokens that the bucket holds.
+     */
+    private long capacity;
+
+    /**
+     * The number of tokens in the bucket, which is negative if the bucket is in debt.
+     */
+    private long tokens;
+
+    /**
+     * The time in nanoseconds when the bucket was last refilled.
+     */
+    private long refilled = System.nanoTime();
+
+    /**
+     * TokenBucket constructor
+     *
+     * @param rate - The rate in bytes per second, or 0 for no limit.
+     */
+    public TokenBucket(long rate) {
+        this.setRate(rate);
+
+        // A new bucket starts full, so the first chunk of a transfer isn't held up.
+        this.tokens = this.capacity;
+    }
+
+    /**
+     * Method to change the rate, which takes effect straight away.
+     *
+     * @param rate - The rate in bytes per second, or 0 for no limit.
+     * @throws IllegalArgumentException if the rate is negative.
+     */
+    public synchronized void setRate(long rate) {
+        if (rate < 0) {
+            throw new IllegalArgumentException("Rate can't be negative.");
+        }
+
+        this.refill(System.nanoTime());
+        this.rate = rate;
+        this.capacity = Math.max(MIN_BURST, (long) (rate * (BURST_NANOS / 1e9)));
+
+        // A full bucket starts at the new capacity, and any debt is forgiven if the limit is removed.
+        this.tokens = rate == 0 ? this.capacity : Math.min(this.tokens, this.capacity);
+    }
+
+    /**
+     * Method to get the rate.
+     *
+     * @return The rate in bytes per second, or 0 if the rate isn't limited.
+     */
+    public long getRate() {
+        return this.rate;
+    }
+
+    /**
+     * Method to check if the rate is limited.
+     *
+     * @return Whether the rate is limited.
+     */
+    public boolean isLimited() {
+        return this.rate > 0;
+    }
+
+    /**
+     * Method to get how many bytes a transfer should take tokens for at once.
+     *
+     * @return The number of bytes, or {@link Long#MAX_VALUE} if the rate isn't limited.
+     */
+    public long getChunkSize() {
+        var rate = this.rate;
+
+        if (rate == 0) {
+            return Long.MAX_VALUE;
+        }
+
+        return Math.max(MIN_CHUNK, Math.min(MAX_CHUNK, (long) (rate * (CHUNK_NANOS / 1e9))));
+    }
+
+    /**
+     * Method to take tokens for a transfer without waiting. The tokens are granted if the
+     * bucket isn't in debt, even if it holds fewer tokens than are asked for.
+     *
+     * @param bytes - The number of bytes that will be transferred.
+     * @return Whether the tokens were granted.
+     */
+    public boolean tryAcquire(long bytes) {
+        if (this.rate == 0) {
+            return true;
+        }
+
+        synchronized (this) {
+            this.refill(System.nanoTime());
+
+            if (this.tokens <= 0) {
+                return false;
+            }
+
+            this.tokens -= bytes;
+            return true;
+        }
+    }
+
+    /**
+     * Method to take tokens for a transfer, and to wait for as long as the bucket is in debt
+     * afterwards, so that the transfer doesn't exceed the rate.
+     *
+     * @param bytes - The number of bytes that will be or have been transferred.
+     * @throws InterruptedIOException if the thread was interrupted whilst waiting.
+     */
+    public void acquire(long bytes) throws InterruptedIOException {
+        sleep(this.take(bytes));
+    }
+
+    /**
+     * Method to take tokens for a transfer without waiting, even if the bucket goes into debt.
+     *
+     * @param bytes - The number of bytes that will be or have been transferred.
+     * @return How long to wait in nanoseconds until the bucket is out of debt.
+     */
+    long take(long bytes) {
+        if (this.rate == 0) {
+            return 0;
+        }
+
+        synchronized (this) {
+            this.refill(System.nanoTime());
+            this.tokens -= bytes;
+
+            return this.getDelay();
+        }
+    }
+
+    /**
+     * Method to return the tokens that were taken for bytes that weren't transferred.
+     *
+     * @param bytes - The number of bytes.
+     */
+    public void refund(long bytes) {
+        if (this.rate == 0 || bytes <= 0) {
+            return;
+        }
+
+        synchronized (this) {
+            this.tokens = Math.min(this.capacity, this.tokens + bytes);
+        }
+    }
+
+    /**
+     * Method to get how long it takes until the bucket is out of debt.
+     *
+     * @return The time in nanoseconds, 0 if the bucket isn't in debt.
+     */
+    public synchronized long getDelayNanos() {
+        if (this.rate == 0) {
+            return 0;
+        }
+
+        this.refill(System.nanoTime());
+        return this.getDelay();
+    }
+
+    /**
+     * Method to get how long it takes to earn the tokens that the bucket owes.
+     *
+     * @return The time in nanoseconds, 0 if the bucket isn't in debt.
+     */
+    private long getDelay() {
+        return this.tokens >= 0 ? 0 : (long) Math.ceil(-this.tokens * 1e9 / this.rate);
+    }
+
+    /**
+     * Method to add the whole tokens that were earned since the bucket was last refilled. The
+     * time that earned a fraction of a token is carried over to the next refill, so that
+     * frequent refills don't lose tokens.
+     *
+     * @param now - The current time in nanoseconds.
+     */
+    private void refill(long now) {
+        var elapsed = now - this.refilled;
+
+        if (this.rate == 0) {
+            this.refilled = now;
+            return;
+        }
+
+        if (elapsed <= 0) {
+            return;
+        }
+
+        var earned = (long) (elapsed * (this.rate / 1e9));
+
+        // A full bucket doesn't earn any more tokens, so there is nothing to carry over.
+        if (earned >= this.capacity - this.tokens) {
+            this.tokens = this.capacity;
+            this.refilled = now;
+            return;
+        }
+
+        if (earned > 0) {
+            this.tokens += earned;
+            this.refilled = Math.min(now, this.refilled + (long) Math.ceil(earned * 1e9 / this.rate));
+        }
+    }
+
+    /**
+     * Method to wait for a debt to be paid back, a short debt is carried over instead.
+     *
+     * @param delay - The time in nanoseconds.
+     * @throws InterruptedIOException if the thread was interrupted whilst waiting.
+     */
+    static void sleep(long delay) throws InterruptedIOException {
+        if (delay < MIN_SLEEP_NANOS) {
+            return;
+        }
+
+        var deadline = System.nanoTime() + delay;
+
+        // The park may return early, so it's repeated until the deadline.
+        for (var left = delay; left > 0; left = deadline - System.nanoTime()) {
+            LockSupport.parkNanos(left);
+
+            if (Thread.currentThread().isInterrupted()) {
+                throw new InterruptedIOException("Interrupted whilst waiting for bandwidth.");
+            }
+        }
+    }
+}
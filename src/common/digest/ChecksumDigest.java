@@ -0,0 +1,48 @@
+package common.digest;
+
+import interfaces.IDigest;
+
+import java.nio.ByteBuffer;
+import java.util.zip.Checksum;
+
+/**
+ * Class that computes a digest with a 32-bit {@link Checksum}, such as CRC32C which
+ * modern JVMs compute with CPU instructions. The digest is the checksum in big-endian
+ * order.
+ *
+ * @author 200008575
+ * */
+class ChecksumDigest implements IDigest {
+    /**
+     * The checksum that computes the algorithm.
+     * */
+    private final Checksum checksum;
+
+    /**
+     * ChecksumDigest class constructor
+     *
+     * @param checksum - The checksum that computes the algorithm.
+     * */
+    ChecksumDigest(Checksum checksum) {
+        this.checksum = checksum;
+    }
+
+    @Override
+    public void update(byte[] buffer, int offset, int length) {
+        checksum.update(buffer, offset, length);
+    }
+
+    @Override
+    public void update(ByteBuffer buffer) {
+        checksum.update(buffer);
+    }
+
+    @Override
+    public byte[] digest() {
+        var value = (int) checksum.getValue();
+
+        checksum.reset();
+
+        return ByteBuffer.allocate(Integer.BYTES).putInt(value).array();
+    }
+}
@@ -0,0 +1,133 @@
+package common.digest;
+
+import interfaces.IDigest;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.zip.CRC32C;
+
+/**
+ * Enum to represent the algorithms that can be used to compute the digest of a file. MD5
+ * is the algorithm that every peer supports, and the other algorithms are used when both
+ * peers agree on them with the {@link common.protocol.Command} 'Negotiate' request.
+ * <p>
+ * SHA-256 is a cryptographic hash that modern JVMs accelerate with CPU instructions, whilst
+ * CRC32C and XXH64 are much faster checksums that detect corruption but not tampering. The
+ * tree digest is the root of the {@link common.resources.MerkleTree} of the file, which is
+ * built from SHA-256 hashes of it's chunks, so the chunks of a large file can be hashed on
+ * every core.
+ *
+ * @author 200008575
+ * */
+public enum DigestAlgorithm {
+    MD5("md5"),
+    SHA256("sha256"),
+    CRC32C("crc32c"),
+    XXH64("xxh64"),
+    TREE("sha256tree");
+
+    /**
+     * The name of the algorithm that is used in requests and responses.
+     * */
+    private final String name;
+
+    /**
+     * DigestAlgorithm constructor
+     *
+     * @param name - The name of the algorithm that is used in requests and responses.
+     * */
+    DigestAlgorithm(String name) {
+        this.name = name;
+    }
+
+    /**
+     * Method to get the name of the algorithm that is used in requests and responses.
+     *
+     * @return The name of the algorithm.
+     * */
+    public String getName() {
+        return this.name;
+    }
+
+    /**
+     * Method to create a new digest that computes this algorithm.
+     *
+     * @return A new digest.
+     * */
+    public IDigest create() {
+        switch (this) {
+            case SHA256:
+                return new MessageDigestAdapter("SHA-256");
+            case CRC32C:
+                return new ChecksumDigest(new CRC32C());
+            case XXH64:
+                return new XXHash64();
+            case TREE:
+                return new TreeDigest();
+            default:
+                return new MessageDigestAdapter("MD5");
+        }
+    }
+
+    /**
+     * Method to get an algorithm by the name that is used in requests and responses.
+     *
+     * @param name - The name of the algorithm.
+     * @return The algorithm.
+     * @throws IllegalArgumentException if there is no algorithm with the given name.
+     * */
+    public static DigestAlgorithm fromName(String name) {
+        for (var algorithm : values()) {
+            if (algorithm.name.equalsIgnoreCase(name.trim())) {
+                return algorithm;
+            }
+        }
+
+        throw new IllegalArgumentException(String.format("Digest algorithm '%s' isn't supported.", name));
+    }
+
+    /**
+     * Method to parse a comma separated list of algorithm names, in order of preference.
+     * Names that aren't supported are skipped, since they may have been offered by a peer
+     * that supports more algorithms.
+     *
+     * @param names - The comma separated names.
+     * @return The supported algorithms, in the given order.
+     * */
+    public static List<DigestAlgorithm> parseList(String names) {
+        List<DigestAlgorithm> algorithms = new ArrayList<>();
+
+        for (var name : names.split(",")) {
+            try {
+                var algorithm = fromName(name);
+
+                if (!algorithms.contains(algorithm)) {
+                    algorithms.add(algorithm);
+                }
+            } catch (IllegalArgumentException e) {
+                // An unknown algorithm just can't be picked.
+            }
+        }
+
+        return algorithms;
+    }
+
+    /**
+     * Method to pick the algorithm that two peers will use, which is the first algorithm
+     * that the requesting peer offered that is also supported. If there is no such
+     * algorithm, the peers fall back to MD5.
+     *
+     * @param offered   - The algorithms that the requesting peer offered, in order of preference.
+     * @param supported - The algorithms that this peer supports.
+     * @return The algorithm to use.
+     * */
+    public static DigestAlgorithm negotiate(List<DigestAlgorithm> offered, List<DigestAlgorithm> supported) {
+        for (var algorithm : offered) {
+            if (supported.contains(algorithm)) {
+                return algorithm;
+            }
+        }
+
+        return MD5;
+    }
+}
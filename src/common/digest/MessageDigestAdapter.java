@@ -0,0 +1,49 @@
+package common.digest;
+
+import interfaces.IDigest;
+
+import java.nio.ByteBuffer;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+/**
+ * Class that computes a digest with one of the {@link MessageDigest} algorithms of the
+ * Java platform.
+ *
+ * @author 200008575
+ * */
+class MessageDigestAdapter implements IDigest {
+    /**
+     * The message digest that computes the algorithm.
+     * */
+    private final MessageDigest md;
+
+    /**
+     * MessageDigestAdapter class constructor
+     *
+     * @param algorithm - The name of the algorithm in the Java platform.
+     * */
+    MessageDigestAdapter(String algorithm) {
+        try {
+            this.md = MessageDigest.getInstance(algorithm);
+        } catch (NoSuchAlgorithmException e) {
+            // Every Java platform is required to support MD5 and SHA-256.
+            throw new IllegalStateException(e);
+        }
+    }
+
+    @Override
+    public void update(byte[] buffer, int offset, int length) {
+        md.update(buffer, offset, length);
+    }
+
+    @Override
+    public void update(ByteBuffer buffer) {
+        md.update(buffer);
+    }
+
+    @Override
+    public byte[] digest() {
+        return md.digest();
+    }
+}
@@ -0,0 +1,39 @@
+package common.digest;
+
+import common.resources.MerkleTree;
+import interfaces.IDigest;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Class that computes the root of the {@link MerkleTree} of a stream of bytes as it's
+ * digest. Unlike a sequential digest, the root of a file can be computed by hashing
+ * regions of the file concurrently, so large files are hashed on every core.
+ *
+ * @author 200008575
+ * */
+class TreeDigest implements IDigest {
+    /**
+     * The hasher of the chunks of the stream.
+     * */
+    private MerkleTree.LeafHasher hasher = new MerkleTree.LeafHasher(MerkleTree.CHUNK_SIZE);
+
+    @Override
+    public void update(byte[] buffer, int offset, int length) {
+        hasher.update(buffer, offset, length);
+    }
+
+    @Override
+    public void update(ByteBuffer buffer) {
+        hasher.update(buffer);
+    }
+
+    @Override
+    public byte[] digest() {
+        var leaves = hasher.finish();
+
+        hasher = new MerkleTree.LeafHasher(MerkleTree.CHUNK_SIZE);
+
+        return new MerkleTree(leaves.toArray(new byte[0][])).getRoot();
+    }
+}
@@ -0,0 +1,203 @@
+package common.digest;
+
+import interfaces.IDigest;
+
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+/**
+ * Class that computes the XXH64 hash (with a seed of zero) of a stream of bytes. XXH64 is
+ * a non-cryptographic 64-bit hash that runs at several gigabytes per second, so it detects
+ * corruption of a file without making hashing the bottleneck of reading it. The digest is
+ * the hash in big-endian order, which is the canonical form of XXH64.
+ * <p>
+ * The specification of the algorithm is available at:
+ * https://github.com/Cyan4973/xxHash/blob/dev/doc/xxhash_spec.md
+ *
+ * @author 200008575
+ * */
+class XXHash64 implements IDigest {
+    private static final long PRIME1 = 0x9E3779B185EBCA87L;
+    private static final long PRIME2 = 0xC2B2AE3D27D4EB4FL;
+    private static final long PRIME3 = 0x165667B19E3779F9L;
+    private static final long PRIME4 = 0x85EBCA77C2B2AE63L;
+    private static final long PRIME5 = 0x27D4EB2F165667C5L;
+
+    /**
+     * The number of bytes that are consumed by a single round of the four accumulators.
+     * */
+    private static final int STRIPE_SIZE = 32;
+
+    /**
+     * View of a byte array as little-endian longs, which lets a stripe be read without
+     * assembling each lane from single bytes.
+     * */
+    private static final VarHandle LONG_VIEW = MethodHandles.byteArrayViewVarHandle(long[].class, ByteOrder.LITTLE_ENDIAN);
+
+    /**
+     * View of a byte array as little-endian ints.
+     * */
+    private static final VarHandle INT_VIEW = MethodHandles.byteArrayViewVarHandle(int[].class, ByteOrder.LITTLE_ENDIAN);
+
+    /**
+     * The bytes of a stripe that has only been partly received.
+     * */
+    private final byte[] stripe = new byte[STRIPE_SIZE];
+
+    /**
+     * The number of bytes in the partly received stripe.
+     * */
+    private int buffered;
+
+    /**
+     * The total number of bytes that have been hashed.
+     * */
+    private long total;
+
+    private long v1;
+    private long v2;
+    private long v3;
+    private long v4;
+
+    /**
+     * XXHash64 class constructor
+     * */
+    XXHash64() {
+        this.reset();
+    }
+
+    @Override
+    public void update(byte[] buffer, int offset, int length) {
+        total += length;
+
+        // Complete a partly received stripe first.
+        if (buffered > 0) {
+            var count = Math.min(length, STRIPE_SIZE - buffered);
+
+            System.arraycopy(buffer, offset, stripe, buffered, count);
+            buffered += count;
+            offset += count;
+            length -= count;
+
+            if (buffered < STRIPE_SIZE) {
+                return;
+            }
+
+            this.consume(stripe, 0);
+            buffered = 0;
+        }
+
+        var end = offset + length;
+
+        for (; offset + STRIPE_SIZE <= end; offset += STRIPE_SIZE) {
+            this.consume(buffer, offset);
+        }
+
+        buffered = end - offset;
+        System.arraycopy(buffer, offset, stripe, 0, buffered);
+    }
+
+    @Override
+    public void update(ByteBuffer buffer) {
+        if (buffer.hasArray()) {
+            this.update(buffer.array(), buffer.arrayOffset() + buffer.position(), buffer.remaining());
+            buffer.position(buffer.limit());
+            return;
+        }
+
+        var copy = new byte[Math.min(buffer.remaining(), 64 * 1024)];
+
+        while (buffer.hasRemaining()) {
+            var count = Math.min(copy.length, buffer.remaining());
+
+            buffer.get(copy, 0, count);
+            this.update(copy, 0, count);
+        }
+    }
+
+    @Override
+    public byte[] digest() {
+        long hash;
+
+        if (total >= STRIPE_SIZE) {
+            hash = Long.rotateLeft(v1, 1) + Long.rotateLeft(v2, 7) + Long.rotateLeft(v3, 12) + Long.rotateLeft(v4, 18);
+            hash = mergeRound(hash, v1);
+            hash = mergeRound(hash, v2);
+            hash = mergeRound(hash, v3);
+            hash = mergeRound(hash, v4);
+        } else {
+            hash = PRIME5;
+        }
+
+        hash += total;
+
+        // Mix in the bytes that didn't fill a whole stripe.
+        var offset = 0;
+
+        for (; offset + Long.BYTES <= buffered; offset += Long.BYTES) {
+            hash ^= round(0, (long) LONG_VIEW.get(stripe, offset));
+            hash = Long.rotateLeft(hash, 27) * PRIME1 + PRIME4;
+        }
+
+        if (offset + Integer.BYTES <= buffered) {
+            hash ^= ((int) INT_VIEW.get(stripe, offset) & 0xFFFFFFFFL) * PRIME1;
+            hash = Long.rotateLeft(hash, 23) * PRIME2 + PRIME3;
+            offset += Integer.BYTES;
+        }
+
+        for (; offset < buffered; offset++) {
+            hash ^= (stripe[offset] & 0xFFL) * PRIME5;
+            hash = Long.rotateLeft(hash, 11) * PRIME1;
+        }
+
+        hash ^= hash >>> 33;
+        hash *= PRIME2;
+        hash ^= hash >>> 29;
+        hash *= PRIME3;
+        hash ^= hash >>> 32;
+
+        this.reset();
+
+        return ByteBuffer.allocate(Long.BYTES).putLong(hash).array();
+    }
+
+    /**
+     * Method to reset the hash to it's initial state.
+     * */
+    private void reset() {
+        v1 = PRIME1 + PRIME2;
+        v2 = PRIME2;
+        v3 = 0;
+        v4 = -PRIME1;
+        total = 0;
+        buffered = 0;
+    }
+
+    /**
+     * Method to mix a whole stripe into the accumulators.
+     *
+     * @param buffer - The buffer that holds the stripe.
+     * @param offset - The position of the stripe in the buffer.
+     * */
+    private void consume(byte[] buffer, int offset) {
+        v1 = round(v1, (long) LONG_VIEW.get(buffer, offset));
+        v2 = round(v2, (long) LONG_VIEW.get(buffer, offset + 8));
+        v3 = round(v3, (long) LONG_VIEW.get(buffer, offset + 16));
+        v4 = round(v4, (long) LONG_VIEW.get(buffer, offset + 24));
+    }
+
+    private static long round(long accumulator, long lane) {
+        accumulator += lane * PRIME2;
+        accumulator = Long.rotateLeft(accumulator, 31);
+
+        return accumulator * PRIME1;
+    }
+
+    private static long mergeRound(long hash, long accumulator) {
+        hash ^= round(0, accumulator);
+
+        return hash * PRIME1 + PRIME4;
+    }
+}
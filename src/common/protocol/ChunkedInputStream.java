@@ -0,0 +1,134 @@
+package common.protocol;
+
+import java.io.EOFException;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Class that reads a body that was framed into chunks by a {@link ChunkedOutputStream}. The
+ * stream ends after the chunk that ends the body, and never reads past it, so the connection
+ * that the body was read from can be used for the next request.
+ *
+ * @author 200008575
+ * */
+public class ChunkedInputStream extends FilterInputStream {
+    /**
+     * The number of bytes of the current chunk that haven't been read.
+     * */
+    private int remaining = 0;
+
+    /**
+     * Whether the chunk that ends the body was read.
+     * */
+    private boolean finished = false;
+
+    /**
+     * ChunkedInputStream constructor
+     *
+     * @param in - The stream that the chunks are read from.
+     * */
+    public ChunkedInputStream(InputStream in) {
+        super(in);
+    }
+
+    @Override
+    public int read() throws IOException {
+        var buffer = new byte[1];
+
+        return this.read(buffer, 0, 1) < 0 ? -1 : buffer[0] & 0xff;
+    }
+
+    @Override
+    public int read(byte[] bytes, int offset, int length) throws IOException {
+        if (length == 0) {
+            return 0;
+        }
+
+        if (this.remaining == 0 && !this.nextChunk()) {
+            return -1;
+        }
+
+        var count = this.in.read(bytes, offset, Math.min(length, this.remaining));
+
+        if (count < 0) {
+            throw new EOFException("Connection closed before the chunk was received.");
+        }
+
+        this.remaining -= count;
+        return count;
+    }
+
+    @Override
+    public long skip(long count) throws IOException {
+        var buffer = new byte[(int) Math.min(count, 8192)];
+        var skipped = 0L;
+
+        while (skipped < count) {
+            var read = this.read(buffer, 0, (int) Math.min(buffer.length, count - skipped));
+
+            if (read < 0) {
+                break;
+            }
+
+            skipped += read;
+        }
+
+        return skipped;
+    }
+
+    @Override
+    public int available() throws IOException {
+        return Math.min(this.in.available(), this.remaining);
+    }
+
+    /**
+     * Method to close the body, the underlying stream is left open since the connection
+     * is used for later requests. Any unread part of the body must be read before the
+     * connection is used again.
+     * */
+    @Override
+    public void close() {
+    }
+
+    @Override
+    public boolean markSupported() {
+        return false;
+    }
+
+    /**
+     * Method to read the length of the next chunk.
+     *
+     * @return Whether there is another chunk, false if the body has ended.
+     * @throws IOException if the length is invalid, or the stream ended.
+     * */
+    private boolean nextChunk() throws IOException {
+        if (this.finished) {
+            return false;
+        }
+
+        var length = 0;
+
+        for (var i = 0; i < 4; i++) {
+            var value = this.in.read();
+
+            if (value < 0) {
+                throw new EOFException("Connection closed before the chunk was received.");
+            }
+
+            length = (length << 8) | value;
+        }
+
+        if (length < 0) {
+            throw new IOException("Invalid chunk length.");
+        }
+
+        if (length == 0) {
+            this.finished = true;
+            return false;
+        }
+
+        this.remaining = length;
+        return true;
+    }
+}
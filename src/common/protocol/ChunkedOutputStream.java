@@ -0,0 +1,96 @@
+package common.protocol;
+
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * Class that frames a body of unknown length into chunks, so that the end of the body is
+ * marked without closing the connection. Every chunk is the length of the chunk as a four
+ * byte big-endian integer followed by the bytes of the chunk, and the body is ended by a
+ * chunk with a length of zero. This is used to send a file that is compressed as it's sent
+ * on a connection that is kept alive, see {@link ChunkedInputStream}.
+ *
+ * @author 200008575
+ * */
+public class ChunkedOutputStream extends FilterOutputStream {
+    /**
+     * Whether the chunk that ends the body was written.
+     * */
+    private boolean finished = false;
+
+    /**
+     * ChunkedOutputStream constructor
+     *
+     * @param out - The stream that the chunks are written to.
+     * */
+    public ChunkedOutputStream(OutputStream out) {
+        super(out);
+    }
+
+    @Override
+    public void write(int value) throws IOException {
+        this.write(new byte[]{(byte) value}, 0, 1);
+    }
+
+    /**
+     * Method to write the bytes as a single chunk, an empty write is skipped since a chunk
+     * with a length of zero ends the body.
+     *
+     * @param bytes  - The buffer that holds the bytes.
+     * @param offset - The position in the buffer of the first byte to write.
+     * @param length - The number of bytes to write.
+     * @throws IOException if the body was already finished, or writing failed.
+     * */
+    @Override
+    public void write(byte[] bytes, int offset, int length) throws IOException {
+        if (this.finished) {
+            throw new IOException("Chunked body is already finished.");
+        }
+
+        if (length == 0) {
+            return;
+        }
+
+        this.writeLength(length);
+        this.out.write(bytes, offset, length);
+    }
+
+    /**
+     * Method to end the body without closing the underlying stream.
+     *
+     * @throws IOException if writing failed.
+     * */
+    public void finish() throws IOException {
+        if (!this.finished) {
+            this.writeLength(0);
+            this.finished = true;
+        }
+
+        this.out.flush();
+    }
+
+    /**
+     * Method to end the body and close the underlying stream.
+     *
+     * @throws IOException if writing failed.
+     * */
+    @Override
+    public void close() throws IOException {
+        try {
+            this.finish();
+        } finally {
+            this.out.close();
+        }
+    }
+
+    /**
+     * Method to write the length of a chunk.
+     *
+     * @param length - The length of the chunk.
+     * @throws IOException if writing failed.
+     * */
+    private void writeLength(int length) throws IOException {
+        this.out.write(new byte[]{(byte) (length >>> 24), (byte) (length >>> 16), (byte) (length >>> 8), (byte) length}, 0, 4);
+    }
+}
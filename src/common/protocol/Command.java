@@ -2,14 +2,122 @@ package common.protocol;
 
 
 /**
- * Enum to represent the status of a download.
+ * Enum to represent the commands of the transmission protocol. Every command has an opcode
+ * that identifies it in the frames of the binary protocol, see {@link WireFormat}, which
+ * must never be changed or reused since older peers rely on it.
  *
  * @author 200008575
  * */
 public enum Command {
-    AddPeer,
-    GetMeta,
-    List,
-    Get,
-}
+    AddPeer(1),
+    GetMeta(2),
+    List(3),
+    Get(4),
+    GetRange(5),
+    Locate(6),
+    GetHashes(7),
+    Negotiate(8),
+    GetEncoded(9),
+    ListPage(10),
+    ListStream(11),
+    ListTree(12),
+    Search(13),
+    KeepAlive(14),
+    Tagged(15),
+    Protocol(16);
+
+    /**
+     * The commands indexed by their opcode, so that a frame is mapped to it's command without
+     * searching.
+     * */
+    private static final Command[] opcodes = new Command[128];
+
+    static {
+        for (var command : values()) {
+            opcodes[command.opcode] = command;
+        }
+    }
+
+    /**
+     * The opcode of the command in the binary protocol.
+     * */
+    private final int opcode;
+
+    /**
+     * Command constructor
+     *
+     * @param opcode - The opcode of the command in the binary protocol.
+     * */
+    Command(int opcode) {
+        this.opcode = opcode;
+    }
+
+    /**
+     * Method to get the opcode of the command in the binary protocol.
+     *
+     * @return The opcode.
+     * */
+    public int getOpcode() {
+        return this.opcode;
+    }
 
+    /**
+     * Method to get a command by it's opcode in the binary protocol.
+     *
+     * @param opcode - The opcode of the command.
+     * @return The command.
+     * @throws IllegalArgumentException if there is no command with the given opcode.
+     * */
+    public static Command fromOpcode(int opcode) {
+        var command = opcode >= 0 && opcode < opcodes.length ? opcodes[opcode] : null;
+
+        if (command == null) {
+            throw new IllegalArgumentException(String.format("Opcode %d isn't supported.", opcode));
+        }
+
+        return command;
+    }
+
+    /**
+     * Method to check if the command can be wrapped in a 'Tagged' request, which is only the
+     * case for commands that are answered with a single line. The response to any other
+     * command is a file or a stream of lines, which couldn't be told apart from the responses
+     * to other requests on the same connection.
+     *
+     * @return Whether the command can be tagged.
+     * */
+    public boolean isTaggable() {
+        switch (this) {
+            case Get:
+            case GetRange:
+            case GetEncoded:
+            case ListStream:
+            case ListTree:
+            case Tagged:
+            case Protocol:
+                return false;
+            default:
+                return true;
+        }
+    }
+
+    /**
+     * Method to check if the command can be sent on a connection that uses the binary
+     * protocol, which is the case for every command that is only answered with lines. A file
+     * or a range follows it's header as raw bytes, so those are requested on a connection
+     * that uses lines.
+     *
+     * @return Whether the command can be sent in a frame.
+     * */
+    public boolean isFramed() {
+        switch (this) {
+            case Get:
+            case GetRange:
+            case GetEncoded:
+            case Tagged:
+                return false;
+            default:
+                return true;
+        }
+    }
+}
@@ -0,0 +1,82 @@
+package common.protocol;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Enum to represent the encodings that a file can be sent with in response to a
+ * {@link Command} 'GetEncoded' request. The identity encoding sends the file as it is,
+ * whilst the deflate encoding sends a zlib (RFC 1950) stream of the file.
+ *
+ * @author 200008575
+ * */
+public enum Encoding {
+    IDENTITY("identity"),
+    DEFLATE("deflate");
+
+    /**
+     * The name of the encoding that is used in requests and responses.
+     * */
+    private final String name;
+
+    /**
+     * Encoding constructor
+     *
+     * @param name - The name of the encoding that is used in requests and responses.
+     * */
+    Encoding(String name) {
+        this.name = name;
+    }
+
+    /**
+     * Method to get the name of the encoding that is used in requests and responses.
+     *
+     * @return The name of the encoding.
+     * */
+    public String getName() {
+        return this.name;
+    }
+
+    /**
+     * Method to get an encoding by the name that is used in requests and responses.
+     *
+     * @param name - The name of the encoding.
+     * @return The encoding.
+     * @throws IllegalArgumentException if there is no encoding with the given name.
+     * */
+    public static Encoding fromName(String name) {
+        for (var encoding : values()) {
+            if (encoding.name.equalsIgnoreCase(name.trim())) {
+                return encoding;
+            }
+        }
+
+        throw new IllegalArgumentException(String.format("Encoding '%s' isn't supported.", name));
+    }
+
+    /**
+     * Method to parse a comma separated list of encoding names, in order of preference.
+     * Names that aren't supported are skipped, since they may have been offered by a peer
+     * that supports more encodings.
+     *
+     * @param names - The comma separated names.
+     * @return The supported encodings, in the given order.
+     * */
+    public static List<Encoding> parseList(String names) {
+        List<Encoding> encodings = new ArrayList<>();
+
+        for (var name : names.split(",")) {
+            try {
+                var encoding = fromName(name);
+
+                if (!encodings.contains(encoding)) {
+                    encodings.add(encoding);
+                }
+            } catch (IllegalArgumentException e) {
+                // An unknown encoding just can't be picked.
+            }
+        }
+
+        return encodings;
+    }
+}
@@ -0,0 +1,270 @@
+package common.protocol;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Class that decodes the typed fields of a frame of the binary protocol, in the order that
+ * they were written by a {@link FrameWriter}. The fields are read straight from the bytes of
+ * the payload, so a request is parsed without splitting it into strings first.
+ *
+ * @author 200008575
+ * */
+public class FrameReader {
+    /**
+     * The opcode of the frame.
+     * */
+    private final int opcode;
+
+    /**
+     * The buffer that holds the payload.
+     * */
+    private final byte[] buffer;
+
+    /**
+     * The position in the buffer of the next field.
+     * */
+    private int position;
+
+    /**
+     * The position in the buffer where the payload ends.
+     * */
+    private final int end;
+
+    /**
+     * FrameReader constructor
+     *
+     * @param opcode - The opcode of the frame.
+     * @param buffer - The buffer that holds the payload.
+     * @param offset - The position in the buffer of the first byte of the payload.
+     * @param length - The number of bytes in the payload.
+     * */
+    public FrameReader(int opcode, byte[] buffer, int offset, int length) {
+        this.opcode = opcode;
+        this.buffer = buffer;
+        this.position = offset;
+        this.end = offset + length;
+    }
+
+    /**
+     * Method to read a whole frame from a stream.
+     *
+     * @param in        - The stream to read from.
+     * @param maxLength - The longest payload that is accepted, to guard against a peer that
+     *                  sends a length that it never fills.
+     * @return The frame, or null if the stream ended before the next frame.
+     * @throws IOException if the stream ended part way through the frame, or the payload is
+     *                     longer than accepted.
+     * */
+    public static FrameReader read(InputStream in, int maxLength) throws IOException {
+        var opcode = in.read();
+
+        if (opcode < 0) {
+            return null;
+        }
+
+        var header = new byte[FrameWriter.HEADER_SIZE - 1];
+        readFully(in, header);
+
+        var length = getInt(header, 0);
+
+        if (length < 0 || length > maxLength) {
+            throw new IOException("Frame is too long.");
+        }
+
+        var payload = new byte[length];
+        readFully(in, payload);
+
+        return new FrameReader(opcode, payload, 0, length);
+    }
+
+    /**
+     * Method to get the length of the payload of a frame from it's header.
+     *
+     * @param header - The buffer that holds the header.
+     * @param offset - The position in the buffer of the first byte of the header.
+     * @return The number of bytes in the payload.
+     * */
+    public static int getLength(byte[] header, int offset) {
+        return getInt(header, offset + 1);
+    }
+
+    /**
+     * Method to get the opcode of the frame.
+     *
+     * @return The opcode.
+     * */
+    public int getOpcode() {
+        return this.opcode;
+    }
+
+    /**
+     * Method to read a single byte.
+     *
+     * @return The value, from 0 to 255.
+     * @throws IllegalArgumentException if the payload has no more bytes.
+     * */
+    public int readByte() {
+        this.require(1);
+
+        return this.buffer[this.position++] & 0xFF;
+    }
+
+    /**
+     * Method to read a four byte integer.
+     *
+     * @return The value.
+     * @throws IllegalArgumentException if the payload is too short.
+     * */
+    public int readInt() {
+        this.require(4);
+
+        var value = getInt(this.buffer, this.position);
+        this.position += 4;
+
+        return value;
+    }
+
+    /**
+     * Method to read an eight byte integer.
+     *
+     * @return The value.
+     * @throws IllegalArgumentException if the payload is too short.
+     * */
+    public long readLong() {
+        this.require(8);
+
+        var value = 0L;
+
+        for (int i = 0; i < 8; i++) {
+            value = (value << 8) | (this.buffer[this.position++] & 0xFF);
+        }
+
+        return value;
+    }
+
+    /**
+     * Method to read a string.
+     *
+     * @return The string.
+     * @throws IllegalArgumentException if the payload is too short.
+     * */
+    public String readString() {
+        this.require(2);
+
+        var length = ((this.buffer[this.position] & 0xFF) << 8) | (this.buffer[this.position + 1] & 0xFF);
+        this.position += 2;
+        this.require(length);
+
+        var value = new String(this.buffer, this.position, length, StandardCharsets.UTF_8);
+        this.position += length;
+
+        return value;
+    }
+
+    /**
+     * Method to read a digest.
+     *
+     * @return The raw bytes of the digest, or null if the digest is empty.
+     * @throws IllegalArgumentException if the payload is too short.
+     * */
+    public byte[] readDigest() {
+        var length = this.readByte();
+
+        if (length == 0) {
+            return null;
+        }
+
+        this.require(length);
+
+        var digest = new byte[length];
+        System.arraycopy(this.buffer, this.position, digest, 0, length);
+        this.position += length;
+
+        return digest;
+    }
+
+    /**
+     * Method to check if any fields haven't been read.
+     *
+     * @return Whether the payload has more bytes.
+     * */
+    public boolean hasRemaining() {
+        return this.position < this.end;
+    }
+
+    /**
+     * Method to get the buffer that holds the payload, so that the rest of the payload can be
+     * read without copying it, for example a line of JSON.
+     *
+     * @return The buffer.
+     * */
+    public byte[] getBuffer() {
+        return this.buffer;
+    }
+
+    /**
+     * Method to get the position in the buffer of the next field.
+     *
+     * @return The position.
+     * */
+    public int getPosition() {
+        return this.position;
+    }
+
+    /**
+     * Method to get the number of bytes of the payload that haven't been read.
+     *
+     * @return The number of bytes.
+     * */
+    public int remaining() {
+        return this.end - this.position;
+    }
+
+    /**
+     * Method to check that the payload holds a number of bytes more.
+     *
+     * @param bytes - The number of bytes that will be read.
+     * @throws IllegalArgumentException if the payload is too short.
+     * */
+    private void require(int bytes) {
+        if (this.end - this.position < bytes) {
+            throw new IllegalArgumentException("Frame is truncated.");
+        }
+    }
+
+    /**
+     * Method to read a four byte big-endian integer from a buffer.
+     *
+     * @param buffer   - The buffer.
+     * @param position - The position of the first byte.
+     * @return The value.
+     * */
+    private static int getInt(byte[] buffer, int position) {
+        return ((buffer[position] & 0xFF) << 24) | ((buffer[position + 1] & 0xFF) << 16) | ((buffer[position + 2] & 0xFF) << 8) | (buffer[position + 3] & 0xFF);
+    }
+
+    /**
+     * Method to fill a buffer from a stream.
+     *
+     * @param in     - The stream to read from.
+     * @param buffer - The buffer to fill.
+     * @throws EOFException if the stream ended before the buffer was filled.
+     * @throws IOException  if reading from the stream failed.
+     * */
+    private static void readFully(InputStream in, byte[] buffer) throws IOException {
+        var filled = 0;
+
+        while (filled < buffer.length) {
+            var count = in.read(buffer, filled, buffer.length - filled);
+
+            if (count < 0) {
+                throw new EOFException("Connection closed part way through a frame.");
+            }
+
+            filled += count;
+        }
+    }
+}
@@ -0,0 +1,281 @@
+package common.protocol;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * Class that encodes a frame of the binary protocol into a buffer that is kept between
+ * frames, so that encoding a request or a response doesn't allocate. A frame is an opcode
+ * of a single byte, followed by the length of the payload as a four byte big-endian integer
+ * and then the payload, which is a sequence of typed fields:
+ * <ul>
+ *     <li>Numbers are big-endian integers of four or eight bytes.</li>
+ *     <li>Strings are the length of their UTF-8 encoding as a two byte integer followed by
+ *     the encoded bytes, so a path may hold any character, including a line separator.</li>
+ *     <li>Digests are their length as a single byte followed by the raw bytes, rather than
+ *     the Base64 text that is sent in JSON.</li>
+ * </ul>
+ * A frame is read with a {@link FrameReader}.
+ *
+ * @author 200008575
+ * */
+public class FrameWriter {
+    /**
+     * The number of bytes in the header of a frame, which are the opcode and the length.
+     * */
+    public static final int HEADER_SIZE = 5;
+
+    /**
+     * The longest string that can be written, since the length is written in two bytes.
+     * */
+    public static final int MAX_STRING_LENGTH = 0xFFFF;
+
+    /**
+     * The longest digest that can be written, since the length is written in a single byte.
+     * */
+    public static final int MAX_DIGEST_LENGTH = 0xFF;
+
+    /**
+     * The size of the buffer of a new writer.
+     * */
+    private static final int INITIAL_SIZE = 256;
+
+    /**
+     * The size that the buffer may grow to and still be kept, a larger buffer is replaced
+     * once it's frame has been sent so that one huge listing doesn't pin the memory.
+     * */
+    private static final int MAX_RETAINED_SIZE = 1024 * 1024;
+
+    /**
+     * The buffer that the frame is written into.
+     * */
+    private byte[] buffer = new byte[INITIAL_SIZE];
+
+    /**
+     * The number of bytes of the frame that have been written.
+     * */
+    private int size = 0;
+
+    /**
+     * Method to start a new frame, discarding the frame that was written before.
+     *
+     * @param opcode - The opcode of the frame.
+     * @return The writer, so that fields can be chained.
+     * */
+    public FrameWriter begin(int opcode) {
+        if (this.buffer.length > MAX_RETAINED_SIZE) {
+            this.buffer = new byte[INITIAL_SIZE];
+        }
+
+        this.buffer[0] = (byte) opcode;
+        this.size = HEADER_SIZE;
+
+        return this;
+    }
+
+    /**
+     * Method to write a single byte.
+     *
+     * @param value - The value, of which only the lowest byte is written.
+     * @return The writer, so that fields can be chained.
+     * */
+    public FrameWriter writeByte(int value) {
+        this.ensureCapacity(1);
+        this.buffer[this.size++] = (byte) value;
+
+        return this;
+    }
+
+    /**
+     * Method to write a four byte integer.
+     *
+     * @param value - The value.
+     * @return The writer, so that fields can be chained.
+     * */
+    public FrameWriter writeInt(int value) {
+        this.ensureCapacity(4);
+        putInt(this.buffer, this.size, value);
+        this.size += 4;
+
+        return this;
+    }
+
+    /**
+     * Method to write an eight byte integer, such as the size of a file.
+     *
+     * @param value - The value.
+     * @return The writer, so that fields can be chained.
+     * */
+    public FrameWriter writeLong(long value) {
+        this.ensureCapacity(8);
+
+        for (int i = 7; i >= 0; i--) {
+            this.buffer[this.size + i] = (byte) value;
+            value >>>= 8;
+        }
+
+        this.size += 8;
+        return this;
+    }
+
+    /**
+     * Method to write a string.
+     *
+     * @param value - The string.
+     * @return The writer, so that fields can be chained.
+     * @throws IllegalArgumentException if the encoded string is longer than {@link #MAX_STRING_LENGTH}.
+     * */
+    public FrameWriter writeString(String value) {
+        var length = value.length();
+
+        if (length <= MAX_STRING_LENGTH) {
+            this.ensureCapacity(2 + length);
+
+            // Most strings are paths that only hold ASCII characters, which are copied without
+            // encoding the string into a new array first.
+            var start = this.size + 2;
+            var ascii = true;
+
+            for (int i = 0; i < length; i++) {
+                var character = value.charAt(i);
+
+                if (character >= 0x80) {
+                    ascii = false;
+                    break;
+                }
+
+                this.buffer[start + i] = (byte) character;
+            }
+
+            if (ascii) {
+                this.writeShort(length);
+                this.size += length;
+                return this;
+            }
+        }
+
+        var bytes = value.getBytes(StandardCharsets.UTF_8);
+
+        if (bytes.length > MAX_STRING_LENGTH) {
+            throw new IllegalArgumentException("String is too long to be written in a frame.");
+        }
+
+        this.ensureCapacity(2 + bytes.length);
+        this.writeShort(bytes.length);
+        System.arraycopy(bytes, 0, this.buffer, this.size, bytes.length);
+        this.size += bytes.length;
+
+        return this;
+    }
+
+    /**
+     * Method to write a digest as raw bytes.
+     *
+     * @param digest - The digest, or null which is written as an empty digest.
+     * @return The writer, so that fields can be chained.
+     * @throws IllegalArgumentException if the digest is longer than {@link #MAX_DIGEST_LENGTH}.
+     * */
+    public FrameWriter writeDigest(byte[] digest) {
+        var length = digest == null ? 0 : digest.length;
+
+        if (length > MAX_DIGEST_LENGTH) {
+            throw new IllegalArgumentException("Digest is too long to be written in a frame.");
+        }
+
+        this.ensureCapacity(1 + length);
+        this.buffer[this.size++] = (byte) length;
+
+        if (length > 0) {
+            System.arraycopy(digest, 0, this.buffer, this.size, length);
+            this.size += length;
+        }
+
+        return this;
+    }
+
+    /**
+     * Method to write bytes as they are, without a length, for example a line of JSON that
+     * takes up the rest of the payload.
+     *
+     * @param bytes  - The buffer that holds the bytes.
+     * @param offset - The position in the buffer of the first byte to write.
+     * @param length - The number of bytes to write.
+     * @return The writer, so that fields can be chained.
+     * */
+    public FrameWriter writeRaw(byte[] bytes, int offset, int length) {
+        this.ensureCapacity(length);
+        System.arraycopy(bytes, offset, this.buffer, this.size, length);
+        this.size += length;
+
+        return this;
+    }
+
+    /**
+     * Method to end the frame by writing the length of the payload into the header. The frame
+     * can then be sent from {@link #getBuffer()}.
+     * */
+    public void end() {
+        putInt(this.buffer, 1, this.size - HEADER_SIZE);
+    }
+
+    /**
+     * Method to get the buffer that the frame was written into, which is only valid until
+     * the next frame is started.
+     *
+     * @return The buffer, whose first {@link #size()} bytes are the frame.
+     * */
+    public byte[] getBuffer() {
+        return this.buffer;
+    }
+
+    /**
+     * Method to get the number of bytes of the frame, including the header.
+     *
+     * @return The number of bytes.
+     * */
+    public int size() {
+        return this.size;
+    }
+
+    /**
+     * Method to write a two byte integer.
+     *
+     * @param value - The value.
+     * */
+    private void writeShort(int value) {
+        this.buffer[this.size] = (byte) (value >>> 8);
+        this.buffer[this.size + 1] = (byte) value;
+        this.size += 2;
+    }
+
+    /**
+     * Method to grow the buffer, so that it can hold a number of bytes more than it does.
+     *
+     * @param bytes - The number of bytes that will be written.
+     * */
+    private void ensureCapacity(int bytes) {
+        var required = this.size + bytes;
+
+        if (required < 0) {
+            throw new IllegalArgumentException("Frame is too long.");
+        }
+
+        if (required > this.buffer.length) {
+            this.buffer = Arrays.copyOf(this.buffer, Math.max(required, this.buffer.length * 2));
+        }
+    }
+
+    /**
+     * Method to write a four byte big-endian integer into a buffer.
+     *
+     * @param buffer   - The buffer.
+     * @param position - The position of the first byte.
+     * @param value    - The value.
+     * */
+    private static void putInt(byte[] buffer, int position, int value) {
+        buffer[position] = (byte) (value >>> 24);
+        buffer[position + 1] = (byte) (value >>> 16);
+        buffer[position + 2] = (byte) (value >>> 8);
+        buffer[position + 3] = (byte) value;
+    }
+}
@@ -0,0 +1,71 @@
+package common.protocol;
+
+/**
+ * Enum to represent the kinds of response frames of the binary protocol. A response frame
+ * has the opcode of it's type rather than of the {@link Command} that it answers, since the
+ * same command may be answered with a result or an error. The opcodes of the types have the
+ * high bit set, so that they can't be mistaken for a command.
+ *
+ * @author 200008575
+ * */
+public enum ResponseType {
+    /**
+     * A response line of JSON, for commands whose response has no binary layout.
+     * */
+    JSON(0x80),
+
+    /**
+     * A failed request, which holds the message that describes the error.
+     * */
+    ERROR(0x81),
+
+    /**
+     * The metadata of a file, in response to a 'GetMeta' or a 'Locate' request.
+     * */
+    METADATA(0x82),
+
+    /**
+     * The entries of a folder, in response to a 'List' request.
+     * */
+    LISTING(0x83);
+
+    /**
+     * The opcode of the type in the binary protocol.
+     * */
+    private final int opcode;
+
+    /**
+     * ResponseType constructor
+     *
+     * @param opcode - The opcode of the type in the binary protocol.
+     * */
+    ResponseType(int opcode) {
+        this.opcode = opcode;
+    }
+
+    /**
+     * Method to get the opcode of the type in the binary protocol.
+     *
+     * @return The opcode.
+     * */
+    public int getOpcode() {
+        return this.opcode;
+    }
+
+    /**
+     * Method to get a type by it's opcode in the binary protocol.
+     *
+     * @param opcode - The opcode of the type.
+     * @return The type.
+     * @throws IllegalArgumentException if there is no type with the given opcode.
+     * */
+    public static ResponseType fromOpcode(int opcode) {
+        for (var type : values()) {
+            if (type.opcode == opcode) {
+                return type;
+            }
+        }
+
+        throw new IllegalArgumentException(String.format("Response type %d isn't supported.", opcode));
+    }
+}
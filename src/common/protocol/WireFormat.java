@@ -0,0 +1,92 @@
+package common.protocol;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Enum to represent the formats that requests and responses can be sent in on a connection.
+ * Every connection starts out with lines, a request being the name of the {@link Command}
+ * followed by it's arguments and a response being a line of JSON. A peer can switch the
+ * connection to frames with a 'Protocol' request, in which case every later request and
+ * response is a frame, see {@link FrameWriter} and {@link FrameReader}. Lines remain
+ * available, since they can be read and typed by a person whilst debugging.
+ *
+ * @author 200008575
+ * */
+public enum WireFormat {
+    JSON("json"),
+    BINARY("binary");
+
+    /**
+     * The line separator that ends every request and response line, which is the same on
+     * every platform. Lines are split at the '\n', and a '\r' in front of it is stripped, so
+     * peers that end their lines with '\r\n' are still understood.
+     * */
+    public static final String LINE_SEPARATOR = "\n";
+
+    /**
+     * The name of the format that is used in requests and responses.
+     * */
+    private final String name;
+
+    /**
+     * WireFormat constructor
+     *
+     * @param name - The name of the format that is used in requests and responses.
+     * */
+    WireFormat(String name) {
+        this.name = name;
+    }
+
+    /**
+     * Method to get the name of the format that is used in requests and responses.
+     *
+     * @return The name of the format.
+     * */
+    public String getName() {
+        return this.name;
+    }
+
+    /**
+     * Method to get a format by the name that is used in requests and responses.
+     *
+     * @param name - The name of the format.
+     * @return The format.
+     * @throws IllegalArgumentException if there is no format with the given name.
+     * */
+    public static WireFormat fromName(String name) {
+        for (var format : values()) {
+            if (format.name.equalsIgnoreCase(name.trim())) {
+                return format;
+            }
+        }
+
+        throw new IllegalArgumentException(String.format("Format '%s' isn't supported.", name));
+    }
+
+    /**
+     * Method to parse a comma separated list of format names, in order of preference.
+     * Names that aren't supported are skipped, since they may have been offered by a peer
+     * that supports more formats.
+     *
+     * @param names - The comma separated names.
+     * @return The supported formats, in the given order.
+     * */
+    public static List<WireFormat> parseList(String names) {
+        List<WireFormat> formats = new ArrayList<>();
+
+        for (var name : names.split(",")) {
+            try {
+                var format = fromName(name);
+
+                if (!formats.contains(format)) {
+                    formats.add(format);
+                }
+            } catch (IllegalArgumentException e) {
+                // An unknown format just can't be picked.
+            }
+        }
+
+        return formats;
+    }
+}
@@ -0,0 +1,648 @@
+package common.resources;
+
+import common.Configuration;
+import common.digest.DigestAlgorithm;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+
+/**
+ * Singleton class that caches the computed digests (and the leaves of the {@link MerkleTree})
+ * of files in the upload folder, so
+ * that a file is only read in full when it has changed. An entry is only used if the
+ * size, modification time and file key (the inode on unix-like systems) of the file
+ * still match the values that were recorded when the digest was computed.
+ * <p>
+ * The cache holds at most 'digest.cache.entries' entries, whose digests and hash tree leaves
+ * take up at most 'digest.cache.bytes' bytes, and evicts the least recently used entries when
+ * it is full. The cache is persisted to a file in the upload folder so that the digests
+ * survive restarts of the application.
+ *
+ * @author 200008575
+ */
+public class DigestCache {
+    /**
+     * The name of the file in the upload folder that the cache is persisted to.
+     */
+    public static final String FILE_NAME = ".fileshare-digests";
+
+    /**
+     * Value that is written at the start of the cache file to recognise it.
+     */
+    private static final int MAGIC = 0x46534443;
+
+    /**
+     * The version of the cache file format. Version 1 caches held digests that included
+     * stale buffer contents after a short read, and version 2 caches didn't hold the leaves
+     * of the hash tree, and version 3 caches held a single MD5 digest per file, so they are
+     * discarded.
+     */
+    private static final int VERSION = 4;
+
+    /**
+     * Instance of the configuration object which is used to get application settings.
+     */
+    private final Configuration config = Configuration.getInstance();
+
+    /**
+     * The cache entries mapped by the absolute path of the file. The map is ordered by
+     * access so that the eldest entry is the least recently used one.
+     */
+    private final LinkedHashMap<String, CacheEntry> entries;
+
+    /**
+     * The maximum number of entries that the cache holds.
+     */
+    private final int capacity;
+
+    /**
+     * The maximum number of bytes that the entries of the cache take up.
+     */
+    private final long byteLimit;
+
+    /**
+     * The number of bytes that the entries of the cache take up.
+     */
+    private long bytes = 0;
+
+    /**
+     * The folder that the cache is kept for, or null if the cache follows the 'upload' setting.
+     */
+    private final Path folder;
+
+    /**
+     * Lock that is held whilst the cache is written to disk, so that two saves don't write
+     * the same temporary file at once. The cache itself isn't locked whilst it's written.
+     */
+    private final Object saveLock = new Object();
+
+    /**
+     * The number of copies of the cache that have been taken to be saved.
+     */
+    private long generation = 0;
+
+    /**
+     * The copy of the cache that was written last to each folder, which is guarded by the
+     * save lock.
+     */
+    private final Map<Path, Long> written = new HashMap<>();
+
+    /**
+     * Copies of the caches of previous upload folders that still have to be written. They
+     * are taken whilst the cache is locked, but only written once the lock is released.
+     */
+    private final List<Snapshot> pending = new ArrayList<>();
+
+    /**
+     * Whether there are copies in the pending list, so that lookups don't have to lock the
+     * cache again to find out.
+     */
+    private volatile boolean hasPending = false;
+
+    /**
+     * The upload folder that the cache entries were loaded from.
+     */
+    private Path root;
+
+    /**
+     * Whether the cache has changed since it was last persisted.
+     */
+    private boolean dirty = false;
+
+    /**
+     * Variable that holds the reference of this object that is used
+     * when external callers need to access the cache.
+     */
+    private static final DigestCache instance = new DigestCache();
+
+    /**
+     * DigestCache instantiation method.
+     */
+    private DigestCache() {
+        this(null, Configuration.getInstance().getInt("digest.cache.entries"), Configuration.getInstance().getInt("digest.cache.bytes"));
+    }
+
+    /**
+     * DigestCache constructor, which creates a cache that is separate from the shared cache.
+     *
+     * @param folder    - The folder whose files are cached and that the cache is persisted to,
+     *                  or null if the cache follows the 'upload' setting.
+     * @param capacity  - The maximum number of entries that the cache holds.
+     * @param byteLimit - The maximum number of bytes that the entries of the cache take up.
+     */
+    public DigestCache(Path folder, int capacity, long byteLimit) {
+        this.folder = folder == null ? null : folder.toAbsolutePath();
+        this.capacity = Math.max(1, capacity);
+        this.byteLimit = Math.max(1, byteLimit);
+
+        this.entries = new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, CacheEntry> eldest) {
+                if (size() > DigestCache.this.capacity) {
+                    DigestCache.this.bytes -= eldest.getValue().weight();
+                    return true;
+                }
+
+                return false;
+            }
+        };
+    }
+
+    /**
+     * Method to get an instance of the DigestCache object
+     *
+     * @return A reference of this object.
+     */
+    public static DigestCache getInstance() {
+        return instance;
+    }
+
+    /**
+     * Method to check if the given path is the file (or the temporary file) that the cache
+     * is persisted to, since it shouldn't be shared with other peers.
+     *
+     * @param path - The path to check.
+     * @return Whether the path is a cache file.
+     */
+    public static boolean isCacheFile(Path path) {
+        var fileName = path.getFileName();
+
+        return fileName != null && fileName.toString().startsWith(FILE_NAME);
+    }
+
+    /**
+     * Method to get the cached digest of a file.
+     *
+     * @param path       - The path of the file.
+     * @param attributes - The current attributes of the file.
+     * @param algorithm  - The algorithm of the digest.
+     * @return A copy of the digest, or null if there is no digest for the current version of
+     * the file.
+     */
+    public byte[] get(Path path, BasicFileAttributes attributes, DigestAlgorithm algorithm) {
+        byte[] digest = null;
+
+        synchronized (this) {
+            var entry = this.isCacheable(path) ? entries.get(path.toAbsolutePath().toString()) : null;
+
+            if (entry != null && entry.matches(attributes)) {
+                digest = entry.digests.get(algorithm);
+            }
+        }
+
+        this.savePending();
+
+        return digest == null ? null : digest.clone();
+    }
+
+    /**
+     * Method to get the cached leaves of the hash tree of a file.
+     *
+     * @param path       - The path of the file.
+     * @param attributes - The current attributes of the file.
+     * @return A copy of the concatenated leaves, or null if there are no leaves for the current
+     * version of the file.
+     */
+    public byte[] getLeaves(Path path, BasicFileAttributes attributes) {
+        byte[] leaves = null;
+
+        synchronized (this) {
+            var entry = this.isCacheable(path) ? entries.get(path.toAbsolutePath().toString()) : null;
+
+            if (entry != null && entry.matches(attributes)) {
+                leaves = entry.leaves;
+            }
+        }
+
+        this.savePending();
+
+        return leaves == null ? null : leaves.clone();
+    }
+
+    /**
+     * Method to record the digest of a file.
+     *
+     * @param path       - The path of the file.
+     * @param attributes - The attributes of the file when the digest was computed.
+     * @param algorithm  - The algorithm of the digest.
+     * @param digest     - The computed digest.
+     * @param leaves     - The concatenated leaves of the hash tree of the file.
+     */
+    public void put(Path path, BasicFileAttributes attributes, DigestAlgorithm algorithm, byte[] digest, byte[] leaves) {
+        synchronized (this) {
+            this.record(path, attributes, algorithm, digest, leaves);
+        }
+
+        this.savePending();
+    }
+
+    /**
+     * Method to record the digest of a file whilst the cache is locked.
+     *
+     * @param path       - The path of the file.
+     * @param attributes - The attributes of the file when the digest was computed.
+     * @param algorithm  - The algorithm of the digest.
+     * @param digest     - The computed digest.
+     * @param leaves     - The concatenated leaves of the hash tree of the file.
+     */
+    private void record(Path path, BasicFileAttributes attributes, DigestAlgorithm algorithm, byte[] digest, byte[] leaves) {
+        if (!this.isCacheable(path)) {
+            return;
+        }
+
+        // The arrays are copied, since the caller may reuse them after the entry is cached.
+        var key = path.toAbsolutePath().toString();
+        var entry = new CacheEntry(key, attributes.size(), attributes.lastModifiedTime().toMillis(), fileKeyOf(attributes), leaves.clone());
+
+        // Keep the digests of other algorithms if they were computed for the same version of the file.
+        var previous = entries.get(key);
+
+        if (previous != null && previous.matches(attributes)) {
+            entry.digests.putAll(previous.digests);
+        }
+
+        entry.digests.put(algorithm, digest.clone());
+
+        // The leaves of a huge file would take up the whole cache, so they are recomputed instead.
+        if (entry.weight() > this.byteLimit) {
+            return;
+        }
+
+        this.insert(entry);
+        this.dirty = true;
+    }
+
+    /**
+     * Method to add an entry to the cache, the least recently used entries are evicted
+     * until the entries fit into 'digest.cache.bytes' bytes.
+     *
+     * @param entry - The entry to add.
+     */
+    private void insert(CacheEntry entry) {
+        var previous = entries.put(entry.path, entry);
+
+        if (previous != null) {
+            this.bytes -= previous.weight();
+        }
+
+        this.bytes += entry.weight();
+
+        var iterator = entries.values().iterator();
+
+        while (this.bytes > this.byteLimit && iterator.hasNext()) {
+            var eldest = iterator.next();
+
+            if (eldest != entry) {
+                this.bytes -= eldest.weight();
+                iterator.remove();
+            }
+        }
+    }
+
+    /**
+     * Method to get the number of entries in the cache.
+     *
+     * @return The number of entries.
+     */
+    public synchronized int size() {
+        return entries.size();
+    }
+
+    /**
+     * Method to get the number of bytes that the entries of the cache take up.
+     *
+     * @return The number of bytes.
+     */
+    public synchronized long getBytes() {
+        return this.bytes;
+    }
+
+    /**
+     * Method to persist the cache to the upload folder if it has changed. The entries are
+     * copied whilst the cache is locked and written afterwards, so that lookups aren't held
+     * up by the disk. The cache is written to a temporary file first, so that a crash can't
+     * leave a partial cache.
+     */
+    public void save() {
+        Snapshot snapshot;
+
+        synchronized (this) {
+            snapshot = this.snapshot();
+        }
+
+        this.savePending();
+
+        if (snapshot != null) {
+            this.write(snapshot);
+        }
+    }
+
+    /**
+     * Method to copy the entries of the cache if it has changed since it was last persisted,
+     * which must be called whilst the cache is locked.
+     *
+     * @return The copy, or null if there is nothing to persist.
+     */
+    private Snapshot snapshot() {
+        if (!this.dirty || this.root == null) {
+            return null;
+        }
+
+        this.dirty = false;
+
+        // Entries aren't changed once they are in the cache, so they can be written
+        // whilst the cache is being used.
+        return new Snapshot(this.root, new ArrayList<>(entries.values()), ++this.generation);
+    }
+
+    /**
+     * Method to write the copies of the caches of previous upload folders, which must be
+     * called once the cache has been unlocked.
+     */
+    private void savePending() {
+        if (!this.hasPending) {
+            return;
+        }
+
+        List<Snapshot> snapshots;
+
+        synchronized (this) {
+            snapshots = new ArrayList<>(this.pending);
+            this.pending.clear();
+            this.hasPending = false;
+        }
+
+        snapshots.forEach(this::write);
+    }
+
+    /**
+     * Method to write a copy of the cache to disk, unless a later copy of the cache of the
+     * same folder has already been written.
+     *
+     * @param snapshot - The copy of the cache.
+     */
+    private void write(Snapshot snapshot) {
+        boolean saved;
+
+        // The cache mustn't be locked whilst the save lock is held, so that lookups aren't
+        // held up by the disk.
+        synchronized (this.saveLock) {
+            if (snapshot.generation <= this.written.getOrDefault(snapshot.folder, 0L)) {
+                return;
+            }
+
+            saved = write(snapshot.folder, snapshot.entries);
+
+            if (saved) {
+                this.written.put(snapshot.folder, snapshot.generation);
+            }
+        }
+
+        if (!saved) {
+            synchronized (this) {
+                // The entries are only written again if they are still the ones in the cache.
+                if (snapshot.folder.equals(this.root)) {
+                    this.dirty = true;
+                }
+            }
+        }
+    }
+
+    /**
+     * Method to write cache entries to the cache file of a folder.
+     *
+     * @param folder  - The folder that the cache file is written to.
+     * @param entries - The entries, from the least to the most recently used.
+     * @return Whether the cache file was written.
+     */
+    private static boolean write(Path folder, List<CacheEntry> entries) {
+        var file = folder.resolve(FILE_NAME);
+        var temporary = folder.resolve(FILE_NAME + ".tmp");
+
+        try (var out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(temporary)))) {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeInt(entries.size());
+
+            for (var entry : entries) {
+                out.writeUTF(entry.path);
+                out.writeLong(entry.size);
+                out.writeLong(entry.modified);
+                out.writeUTF(entry.fileKey);
+                out.writeByte(entry.digests.size());
+
+                for (var digest : entry.digests.entrySet()) {
+                    out.writeUTF(digest.getKey().getName());
+                    out.writeShort(digest.getValue().length);
+                    out.write(digest.getValue());
+                }
+
+                out.writeInt(entry.leaves.length);
+                out.write(entry.leaves);
+            }
+        } catch (IOException e) {
+            System.out.println("Couldn't save digest cache.");
+            return false;
+        }
+
+        try {
+            Files.move(temporary, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            return true;
+        } catch (IOException e) {
+            System.out.println("Couldn't save digest cache.");
+            return false;
+        }
+    }
+
+    /**
+     * Method to check if a path belongs to the upload folder, and hence should be cached.
+     * If the upload folder has changed since the cache was loaded, a copy of the old cache
+     * is kept to be saved once the cache is unlocked, and the cache of the new upload folder
+     * is loaded.
+     *
+     * @param path - The path of the file.
+     * @return Whether the file should be cached.
+     */
+    private boolean isCacheable(Path path) {
+        var uploadFolder = this.folder != null ? this.folder : Paths.get(config.get("upload")).toAbsolutePath();
+
+        if (!uploadFolder.equals(this.root)) {
+            var snapshot = this.snapshot();
+
+            if (snapshot != null) {
+                this.pending.add(snapshot);
+                this.hasPending = true;
+            }
+
+            this.load(uploadFolder);
+        }
+
+        return path.toAbsolutePath().startsWith(uploadFolder) && !isCacheFile(path);
+    }
+
+    /**
+     * Method to load the persisted cache of an upload folder. If the cache file is missing,
+     * unreadable or holds any value that is out of range, the cache starts off empty.
+     *
+     * @param folder - The upload folder.
+     */
+    private void load(Path folder) {
+        this.root = folder;
+        this.entries.clear();
+        this.bytes = 0;
+        this.dirty = false;
+
+        var file = folder.resolve(FILE_NAME);
+
+        if (!Files.isRegularFile(file)) {
+            return;
+        }
+
+        try (var in = new DataInputStream(new BufferedInputStream(Files.newInputStream(file)))) {
+            if (in.readInt() != MAGIC || in.readInt() != VERSION) {
+                return;
+            }
+
+            var count = in.readInt();
+
+            if (count < 0) {
+                throw new IOException("Invalid entry count in digest cache.");
+            }
+
+            for (int i = 0; i < count; i++) {
+                var path = in.readUTF();
+                var size = in.readLong();
+                var modified = in.readLong();
+                var fileKey = in.readUTF();
+                var digestCount = in.readUnsignedByte();
+                var digests = new EnumMap<DigestAlgorithm, byte[]>(DigestAlgorithm.class);
+
+                for (int j = 0; j < digestCount; j++) {
+                    var name = in.readUTF();
+                    var digest = new byte[in.readUnsignedShort()];
+
+                    in.readFully(digest);
+
+                    try {
+                        digests.put(DigestAlgorithm.fromName(name), digest);
+                    } catch (IllegalArgumentException e) {
+                        // A digest of an algorithm that is no longer supported is dropped.
+                    }
+                }
+
+                var leafBytes = in.readInt();
+
+                if (leafBytes < 0 || leafBytes > this.byteLimit || leafBytes % MerkleTree.HASH_SIZE != 0) {
+                    throw new IOException("Invalid hash tree in digest cache.");
+                }
+
+                var leaves = new byte[leafBytes];
+
+                in.readFully(leaves);
+
+                var entry = new CacheEntry(path, size, modified, fileKey, leaves);
+
+                entry.digests.putAll(digests);
+
+                // The entries were saved from the least to the most recently used, so inserting
+                // them in order restores the eviction order, and a cache file that holds more
+                // entries than the cache does can't take up more memory than it.
+                this.insert(entry);
+            }
+        } catch (IOException | RuntimeException e) {
+            // A corrupt cache is discarded, the digests will just be recomputed.
+            this.entries.clear();
+            this.bytes = 0;
+        }
+    }
+
+    /**
+     * Method to get a string that identifies the file on the file system, which is the
+     * device and inode on unix-like systems.
+     *
+     * @param attributes - The attributes of the file.
+     * @return The file key, or an empty string if the file system doesn't provide one.
+     */
+    private static String fileKeyOf(BasicFileAttributes attributes) {
+        var fileKey = attributes.fileKey();
+
+        return fileKey == null ? "" : fileKey.toString();
+    }
+
+    /**
+     * Class that represents a copy of the cache entries that is to be written to disk.
+     */
+    private static class Snapshot {
+        private final Path folder;
+        private final List<CacheEntry> entries;
+        private final long generation;
+
+        Snapshot(Path folder, List<CacheEntry> entries, long generation) {
+            this.folder = folder;
+            this.entries = entries;
+            this.generation = generation;
+        }
+    }
+
+    /**
+     * Class that represents the cached digests and hash tree of a file.
+     */
+    private static class CacheEntry {
+        private final String path;
+        private final long size;
+        private final long modified;
+        private final String fileKey;
+        private final EnumMap<DigestAlgorithm, byte[]> digests = new EnumMap<>(DigestAlgorithm.class);
+        private final byte[] leaves;
+
+        CacheEntry(String path, long size, long modified, String fileKey, byte[] leaves) {
+            this.path = path;
+            this.size = size;
+            this.modified = modified;
+            this.fileKey = fileKey;
+            this.leaves = leaves;
+        }
+
+        /**
+         * Method to estimate the number of bytes that the entry takes up in memory.
+         *
+         * @return The number of bytes.
+         */
+        long weight() {
+            long weight = 64 + 2L * (path.length() + fileKey.length()) + leaves.length;
+
+            for (var digest : digests.values()) {
+                weight += 16 + digest.length;
+            }
+
+            return weight;
+        }
+
+        /**
+         * Method to check if the entry still describes the current version of the file.
+         *
+         * @param attributes - The current attributes of the file.
+         * @return Whether the entry is still valid.
+         */
+        boolean matches(BasicFileAttributes attributes) {
+            return size == attributes.size() &&
+                    modified == attributes.lastModifiedTime().toMillis() &&
+                    Objects.equals(fileKey, fileKeyOf(attributes));
+        }
+    }
+}
@@ -1,15 +1,20 @@
 package common.resources;
 
 import com.fasterxml.jackson.annotation.JsonIgnore;
-import com.sun.security.jgss.GSSUtil;
 import common.Configuration;
+import common.digest.DigestAlgorithm;
+import interfaces.IDigest;
 import interfaces.IEntry;
 
 import java.io.FileInputStream;
 import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
 import java.nio.file.Path;
-import java.security.MessageDigest;
-import java.security.NoSuchAlgorithmException;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
 
 /**
  * Class that represents an filesystem entry of File type.
@@ -17,21 +22,42 @@ import java.security.NoSuchAlgorithmException;
  * @author 200008575
  * */
 public class FileEntry implements IEntry {
+    /**
+     * The size of the buffer that the file is read into whilst it is hashed.
+     * */
+    private static final int BUFFER_SIZE = 256 * 1024;
+
+    /**
+     * Instance of the configuration object which is used to get application settings.
+     * */
+    private static final Configuration config = Configuration.getInstance();
+
     /**
      * Variable that represents the path that points to the resource.
      * */
     private final Path path;
 
     /**
-     * The computed MD5 digest of the resource.
+     * The computed digest of the resource.
      * */
     private byte[] digest;
 
+    /**
+     * The algorithm that the digest was computed with.
+     * */
+    private DigestAlgorithm algorithm = DigestAlgorithm.MD5;
+
     /**
      * The size in bytes of the resource.
      * */
     private long size;
 
+    /**
+     * The hash tree over the chunks of the resource, which lets a peer verify each chunk
+     * of the resource on it's own.
+     * */
+    private MerkleTree tree;
+
     /**
      * Class constructor.
      *
@@ -55,37 +81,130 @@ public class FileEntry implements IEntry {
     }
 
     /**
-     * Method that loads the resource. This method will also compute the size and digest of
-     * the provided resource.
+     * Class constructor for a file that has already been checked by an index of the
+     * filesystem, hence the path isn't checked again.
+     *
+     * @param entry - The indexed entry of the file.
+     * */
+    public FileEntry(IndexedEntry entry) {
+        if (entry.isDirectory()) {
+            throw new IllegalArgumentException("Path cannot be a directory.");
+        }
+
+        this.path = entry.getPath();
+    }
+
+    /**
+     * Method that loads the resource with an MD5 digest, which every peer supports.
+     *
+     * @see #load(DigestAlgorithm)
      * */
     public void load() throws IOException {
-        try (
-                var fileStream = new FileInputStream(String.valueOf(path))
-        ) {
-            var md = MessageDigest.getInstance("MD5");
+        this.load(DigestAlgorithm.MD5);
+    }
+
+    /**
+     * Method that loads the resource. This method will also compute the size and digest of
+     * the provided resource, and the {@link MerkleTree} over it's chunks in the same pass. Files
+     * of at least 'hash.parallel.threshold' bytes have their chunks hashed concurrently by the
+     * {@link ParallelHasher}. If the {@link DigestCache} holds a digest for the current version
+     * of the file, the file isn't read at all.
+     *
+     * @param algorithm - The algorithm of the digest.
+     * */
+    public void load(DigestAlgorithm algorithm) throws IOException {
+        var cache = DigestCache.getInstance();
+        var attributes = Files.readAttributes(path, BasicFileAttributes.class);
+        var cachedDigest = cache.get(path, attributes, algorithm);
+        var cachedLeaves = cache.getLeaves(path, attributes);
+
+        this.algorithm = algorithm;
+
+        if (cachedDigest != null && cachedLeaves != null) {
+            this.size = attributes.size();
+            this.digest = cachedDigest;
+            this.tree = MerkleTree.fromBytes(cachedLeaves);
+            return;
+        }
+
+        // The leaves of large files are hashed on every core, whilst small files are cheaper
+        // to hash in a single pass.
+        var parallel = cachedLeaves == null && attributes.size() >= config.getInt("hash.parallel.threshold");
+
+        try (var file = FileChannel.open(path, StandardOpenOption.READ)) {
+            var leavesTask = parallel ? ParallelHasher.hashLeaves(file, attributes.size()) : null;
+
+            try {
+                // The tree digest is the root of the hash tree, so it doesn't need a pass of it's
+                // own. Any other digest is computed in order whilst the leaves are hashed.
+                var md = algorithm == DigestAlgorithm.TREE ? null : algorithm.create();
 
-            byte[] buffer = new byte[1024];
-            int count;
+                // The hash tree doesn't depend on the digest algorithm, so it's only computed
+                // if it isn't cached already.
+                var leafHasher = cachedLeaves == null && !parallel ? new MerkleTree.LeafHasher(MerkleTree.CHUNK_SIZE) : null;
 
-            // Update our digest with the processed digest of the file stream.
-            do {
-                count = fileStream.read(buffer);
-                if (count > 0) {
+                this.size = (md != null || leafHasher != null) ? readSequentially(file, md, leafHasher) : attributes.size();
 
-                    this.size += count;
-                    md.update(buffer);
+                if (leavesTask != null) {
+                    this.tree = new MerkleTree(leavesTask.join());
+                } else if (leafHasher != null) {
+                    this.tree = new MerkleTree(leafHasher.finish().toArray(new byte[0][]));
+                } else {
+                    this.tree = MerkleTree.fromBytes(cachedLeaves);
                 }
-            } while (count != -1);
 
-            this.digest = md.digest();
+                this.digest = md == null ? this.tree.getRoot() : md.digest();
+            } catch (UncheckedIOException e) {
+                throw e.getCause();
+            } finally {
+                if (leavesTask != null) {
+                    leavesTask.cancel(true);
+                }
+            }
+
+            // Only cache the digest if the file didn't change whilst it was being read.
+            var currentAttributes = Files.readAttributes(path, BasicFileAttributes.class);
 
-        } catch (NoSuchAlgorithmException e) {
-            e.printStackTrace();
+            if (currentAttributes.size() == attributes.size() &&
+                    currentAttributes.lastModifiedTime().equals(attributes.lastModifiedTime())) {
+                cache.put(path, currentAttributes, algorithm, this.digest, this.tree.toBytes());
+            }
         }
     }
 
     /**
-     * Method to get the computed MD5 digest of the file.
+     * Method to read the whole file in order, hashing it with the given digest and hasher.
+     *
+     * @param file       - The file to read.
+     * @param md         - The digest to update, or null.
+     * @param leafHasher - The hasher of the leaves of the hash tree to update, or null.
+     * @return The number of bytes that were read.
+     * @throws IOException if the file couldn't be read.
+     * */
+    private static long readSequentially(FileChannel file, IDigest md, MerkleTree.LeafHasher leafHasher) throws IOException {
+        // A large buffer keeps the number of reads low, so that the digest rather than
+        // the system calls limits how fast the file is hashed.
+        var buffer = ByteBuffer.allocate(BUFFER_SIZE);
+        long total = 0;
+
+        while (file.read(buffer.clear(), total) != -1) {
+            buffer.flip();
+            total += buffer.remaining();
+
+            if (md != null) {
+                md.update(buffer.duplicate());
+            }
+
+            if (leafHasher != null) {
+                leafHasher.update(buffer);
+            }
+        }
+
+        return total;
+    }
+
+    /**
+     * Method to get the computed digest of the file.
      *
      * @return A byte array that represent the digest.
      * */
@@ -93,6 +212,44 @@ public class FileEntry implements IEntry {
         return this.digest;
     }
 
+    /**
+     * Method to get the name of the algorithm that the digest was computed with, which tags
+     * the digest in responses so that the peer knows how to verify it.
+     *
+     * @return The name of the digest algorithm.
+     * */
+    public String getAlgorithm() {
+        return this.algorithm.getName();
+    }
+
+    /**
+     * Method to get the root of the hash tree over the chunks of the file.
+     *
+     * @return A byte array that represents the root, or null if the file hasn't been loaded.
+     * */
+    public byte[] getRoot() {
+        return this.tree == null ? null : this.tree.getRoot();
+    }
+
+    /**
+     * Method to get the number of bytes of the file that each leaf of the hash tree covers.
+     *
+     * @return The chunk size of the hash tree.
+     * */
+    public int getChunkSize() {
+        return MerkleTree.CHUNK_SIZE;
+    }
+
+    /**
+     * Method to get the hash tree over the chunks of the file.
+     *
+     * @return The hash tree, or null if the file hasn't been loaded.
+     * */
+    @JsonIgnore
+    public MerkleTree getTree() {
+        return this.tree;
+    }
+
     /**
      * Method to get the computed size (in bytes) of the file.
      *
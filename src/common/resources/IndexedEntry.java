@@ -0,0 +1,107 @@
+package common.resources;
+
+import interfaces.IEntry;
+
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+
+/**
+ * Class that represents a filesystem entry which is held in memory by an index
+ * of a folder. Unlike {@link FileEntry} and {@link DirectoryEntry}, the entry is
+ * built from attributes that were already read, so no further system calls are
+ * made to check the entry.
+ *
+ * @author 200008575
+ */
+public class IndexedEntry implements IEntry {
+    /**
+     * Variable that represents the path that points to the resource.
+     */
+    private final Path path;
+
+    /**
+     * The type of the entry.
+     */
+    private final EntryType type;
+
+    /**
+     * The size in bytes of the resource.
+     */
+    private final long size;
+
+    /**
+     * The last modification time of the resource in milliseconds since the epoch.
+     */
+    private final long modified;
+
+    /**
+     * Class constructor.
+     *
+     * @param path       - The path to the resource.
+     * @param attributes - The attributes of the resource.
+     */
+    public IndexedEntry(Path path, BasicFileAttributes attributes) {
+        this.path = path;
+        this.type = attributes.isDirectory() ? EntryType.Directory : EntryType.File;
+        this.size = attributes.size();
+        this.modified = attributes.lastModifiedTime().toMillis();
+    }
+
+    /**
+     * Method that is used to return the type of entry, whether it's a file or
+     * a directory.
+     *
+     * @return A {@link EntryType}, representing if it's a file or a directory.
+     */
+    @Override
+    public String getType() {
+        return type.toString();
+    }
+
+    /**
+     * Method to check if the entry is a directory.
+     *
+     * @return Whether the entry is a directory.
+     */
+    public boolean isDirectory() {
+        return type == EntryType.Directory;
+    }
+
+    /**
+     * Method to get the path of the entry.
+     *
+     * @return A {@link Path} that points to the entry resource.
+     */
+    @Override
+    public Path getPath() {
+        return path;
+    }
+
+    /**
+     * Utility method to fetch the top name of the file path
+     *
+     * @return The name of the leaf in the file path
+     */
+    @Override
+    public String getFileName() {
+        return path.getFileName().toString();
+    }
+
+    /**
+     * Method to get the size of the entry when it was indexed.
+     *
+     * @return The size in bytes.
+     */
+    public long getSize() {
+        return size;
+    }
+
+    /**
+     * Method to get the last modification time of the entry when it was indexed.
+     *
+     * @return The modification time in milliseconds since the epoch.
+     */
+    public long getModified() {
+        return modified;
+    }
+}
@@ -0,0 +1,337 @@
+package common.resources;
+
+import java.nio.ByteBuffer;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Class that represents a hash tree over the chunks of a file. Every chunk of
+ * {@link #CHUNK_SIZE} bytes is hashed into a leaf, and pairs of nodes are hashed
+ * together up to a single root. A peer that trusts the root can verify every chunk
+ * on it's own, so a corrupted chunk can be detected and fetched again without
+ * downloading the whole file.
+ * <p>
+ * Nodes are SHA-256 hashes. Leaves are prefixed with a zero byte and inner nodes with
+ * a one byte, so that a leaf can never be mistaken for an inner node. A node without a
+ * sibling is carried up to the next level unchanged. The tree of an empty file has a
+ * single leaf, which is the hash of no bytes.
+ *
+ * @author 200008575
+ */
+public class MerkleTree {
+    /**
+     * The number of bytes of the file that each leaf covers.
+     */
+    public static final int CHUNK_SIZE = 1024 * 1024;
+
+    /**
+     * The size in bytes of a node hash.
+     */
+    public static final int HASH_SIZE = 32;
+
+    /**
+     * The levels of the tree, from the leaves up to the root.
+     */
+    private final List<byte[][]> levels = new ArrayList<>();
+
+    /**
+     * MerkleTree class constructor, which builds the tree from it's leaves.
+     *
+     * @param leaves - The hashes of the chunks of the file, in order.
+     * @throws IllegalArgumentException if there are no leaves.
+     */
+    public MerkleTree(byte[][] leaves) {
+        if (leaves.length == 0) {
+            throw new IllegalArgumentException("A tree must have at least one leaf.");
+        }
+
+        var level = leaves;
+        levels.add(level);
+
+        var md = newDigest();
+
+        while (level.length > 1) {
+            var parents = new byte[(level.length + 1) / 2][];
+
+            for (int i = 0; i < parents.length; i++) {
+                if (2 * i + 1 < level.length) {
+                    parents[i] = hashNode(md, level[2 * i], level[2 * i + 1]);
+                } else {
+                    parents[i] = level[2 * i];
+                }
+            }
+
+            level = parents;
+            levels.add(level);
+        }
+    }
+
+    /**
+     * Method to build a tree from the leaves in their concatenated form.
+     *
+     * @param leaves - The leaves, concatenated in order.
+     * @return The tree.
+     * @throws IllegalArgumentException if the leaves aren't a whole number of hashes.
+     */
+    public static MerkleTree fromBytes(byte[] leaves) {
+        if (leaves.length % HASH_SIZE != 0) {
+            throw new IllegalArgumentException("Invalid leaves.");
+        }
+
+        var split = new byte[leaves.length / HASH_SIZE][];
+
+        for (int i = 0; i < split.length; i++) {
+            split[i] = Arrays.copyOfRange(leaves, i * HASH_SIZE, (i + 1) * HASH_SIZE);
+        }
+
+        return new MerkleTree(split);
+    }
+
+    /**
+     * Method to get the leaves in their concatenated form, which is used to store the tree.
+     *
+     * @return The leaves, concatenated in order.
+     */
+    public byte[] toBytes() {
+        var leaves = levels.get(0);
+        var bytes = new byte[leaves.length * HASH_SIZE];
+
+        for (int i = 0; i < leaves.length; i++) {
+            System.arraycopy(leaves[i], 0, bytes, i * HASH_SIZE, HASH_SIZE);
+        }
+
+        return bytes;
+    }
+
+    /**
+     * Method to get the root of the tree.
+     *
+     * @return The root hash.
+     */
+    public byte[] getRoot() {
+        return levels.get(levels.size() - 1)[0];
+    }
+
+    /**
+     * Method to get the number of leaves in the tree.
+     *
+     * @return The number of leaves.
+     */
+    public int getLeafCount() {
+        return levels.get(0).length;
+    }
+
+    /**
+     * Method to get a leaf of the tree.
+     *
+     * @param index - The index of the chunk that the leaf covers.
+     * @return The leaf hash.
+     */
+    public byte[] getLeaf(int index) {
+        return levels.get(0)[index];
+    }
+
+    /**
+     * Method to get the sibling hashes that are needed to verify a leaf against the root,
+     * from the bottom of the tree up. Levels where the node has no sibling are skipped.
+     *
+     * @param index - The index of the leaf.
+     * @return The sibling hashes.
+     */
+    public List<byte[]> getProof(int index) {
+        List<byte[]> proof = new ArrayList<>();
+
+        for (int depth = 0; depth < levels.size() - 1; depth++) {
+            var level = levels.get(depth);
+            var sibling = index ^ 1;
+
+            if (sibling < level.length) {
+                proof.add(level[sibling]);
+            }
+
+            index /= 2;
+        }
+
+        return proof;
+    }
+
+    /**
+     * Method to verify a leaf against a trusted root using the sibling hashes of the leaf.
+     *
+     * @param leaf      - The leaf hash.
+     * @param index     - The index of the leaf.
+     * @param leafCount - The number of leaves in the tree.
+     * @param proof     - The sibling hashes of the leaf, see {@link #getProof(int)}.
+     * @param root      - The trusted root hash.
+     * @return Whether the leaf belongs to the tree with the given root.
+     */
+    public static boolean verify(byte[] leaf, int index, int leafCount, List<byte[]> proof, byte[] root) {
+        var md = newDigest();
+        var node = leaf;
+        var width = leafCount;
+        var next = 0;
+
+        while (width > 1) {
+            var sibling = index ^ 1;
+
+            if (sibling < width) {
+                if (next >= proof.size()) {
+                    return false;
+                }
+
+                var other = proof.get(next++);
+                node = (index % 2 == 0) ? hashNode(md, node, other) : hashNode(md, other, node);
+            }
+
+            index /= 2;
+            width = (width + 1) / 2;
+        }
+
+        return next == proof.size() && MessageDigest.isEqual(node, root);
+    }
+
+    /**
+     * Method to get the number of leaves of the tree of a file.
+     *
+     * @param size      - The size in bytes of the file.
+     * @param chunkSize - The number of bytes that each leaf covers.
+     * @return The number of leaves.
+     */
+    public static int getLeafCount(long size, int chunkSize) {
+        return (int) Math.max(1, (size + chunkSize - 1) / chunkSize);
+    }
+
+    /**
+     * Method to create a SHA-256 message digest.
+     *
+     * @return The message digest.
+     */
+    private static MessageDigest newDigest() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            // Every Java platform is required to support SHA-256.
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * Method to hash two nodes into their parent.
+     *
+     * @param md    - The message digest to use.
+     * @param left  - The left child.
+     * @param right - The right child.
+     * @return The parent hash.
+     */
+    private static byte[] hashNode(MessageDigest md, byte[] left, byte[] right) {
+        md.update((byte) 1);
+        md.update(left);
+        md.update(right);
+
+        return md.digest();
+    }
+
+    /**
+     * Class that hashes a stream of bytes into the leaves of a tree, by cutting the stream
+     * into chunks of the given size. The stream must start at the start of a chunk.
+     */
+    public static class LeafHasher {
+        /**
+         * The number of bytes that each leaf covers.
+         */
+        private final int chunkSize;
+
+        /**
+         * The digest of the current chunk.
+         */
+        private final MessageDigest md = newDigest();
+
+        /**
+         * The leaves of the chunks that have been completed.
+         */
+        private final List<byte[]> leaves = new ArrayList<>();
+
+        /**
+         * The number of bytes of the current chunk that have been hashed.
+         */
+        private long filled = 0;
+
+        /**
+         * LeafHasher class constructor
+         *
+         * @param chunkSize - The number of bytes that each leaf covers.
+         */
+        public LeafHasher(int chunkSize) {
+            this.chunkSize = chunkSize;
+            this.md.update((byte) 0);
+        }
+
+        /**
+         * Method to hash the next bytes of the stream.
+         *
+         * @param buffer - The bytes, from the position to the limit of the buffer. The
+         *               position of the buffer is moved to it's limit.
+         */
+        public void update(ByteBuffer buffer) {
+            while (buffer.hasRemaining()) {
+                var count = (int) Math.min(buffer.remaining(), chunkSize - filled);
+                var slice = buffer.duplicate();
+
+                slice.limit(slice.position() + count);
+                md.update(slice);
+
+                buffer.position(buffer.position() + count);
+                filled += count;
+
+                if (filled == chunkSize) {
+                    this.completeChunk();
+                }
+            }
+        }
+
+        /**
+         * Method to hash the next bytes of the stream.
+         *
+         * @param buffer - The buffer that holds the bytes.
+         * @param offset - The position of the first byte in the buffer.
+         * @param length - The number of bytes.
+         */
+        public void update(byte[] buffer, int offset, int length) {
+            this.update(ByteBuffer.wrap(buffer, offset, length));
+        }
+
+        /**
+         * Method to get the leaves of the chunks that have been completed so far.
+         *
+         * @return The leaves, in order.
+         */
+        public List<byte[]> getLeaves() {
+            return leaves;
+        }
+
+        /**
+         * Method to finish the stream, the last chunk is completed even if it is short.
+         *
+         * @return The leaves of the chunks of the stream.
+         */
+        public List<byte[]> finish() {
+            if (filled > 0 || leaves.isEmpty()) {
+                this.completeChunk();
+            }
+
+            return leaves;
+        }
+
+        /**
+         * Method to complete the leaf of the current chunk and start the next chunk.
+         */
+        private void completeChunk() {
+            leaves.add(md.digest());
+            md.update((byte) 0);
+            filled = 0;
+        }
+    }
+}
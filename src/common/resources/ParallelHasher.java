@@ -0,0 +1,127 @@
+package common.resources;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Class that computes the leaves of the {@link MerkleTree} of a large file on every core.
+ * The file is split into regions of {@link #REGION_SIZE} bytes, and the regions are hashed
+ * concurrently on a {@link ForkJoinPool} using positional reads, so that no region waits for
+ * the reads of another. Since every leaf only depends on it's own chunk, the leaves are the
+ * same as the leaves that are computed by reading the file in order.
+ *
+ * @author 200008575
+ */
+public class ParallelHasher {
+    /**
+     * The number of bytes of the file that a single task hashes, which is a whole number
+     * of chunks.
+     */
+    public static final int REGION_SIZE = 16 * MerkleTree.CHUNK_SIZE;
+
+    /**
+     * The pool that the regions are hashed on, which has a thread for every core. The pool
+     * is separate from the common pool, so that hashing doesn't hold up other work.
+     */
+    private static final ForkJoinPool pool = new ForkJoinPool(Runtime.getRuntime().availableProcessors());
+
+    /**
+     * Method to start hashing the leaves of a file on the pool.
+     *
+     * @param file - The file to hash, which must stay open until the task finishes.
+     * @param size - The size in bytes of the file.
+     * @return The task that computes the leaves, it fails with an {@link UncheckedIOException}
+     * if the file couldn't be read.
+     */
+    public static ForkJoinTask<byte[][]> hashLeaves(FileChannel file, long size) {
+        var leaves = new byte[MerkleTree.getLeafCount(size, MerkleTree.CHUNK_SIZE)][];
+        var regions = (int) ((size + REGION_SIZE - 1) / REGION_SIZE);
+
+        var task = new RegionTask(file, size, leaves, 0, regions);
+
+        return pool.submit(ForkJoinTask.adapt(() -> {
+            task.invoke();
+            return leaves;
+        }));
+    }
+
+    /**
+     * Task that hashes a run of regions of the file, by splitting the run in half until
+     * each task hashes a single region.
+     */
+    private static class RegionTask extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+
+        private final FileChannel file;
+        private final long size;
+        private final byte[][] leaves;
+        private final int from;
+        private final int to;
+
+        RegionTask(FileChannel file, long size, byte[][] leaves, int from, int to) {
+            this.file = file;
+            this.size = size;
+            this.leaves = leaves;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected void compute() {
+            if (to - from > 1) {
+                var middle = (from + to) >>> 1;
+
+                invokeAll(new RegionTask(file, size, leaves, from, middle), new RegionTask(file, size, leaves, middle, to));
+                return;
+            }
+
+            if (from < to) {
+                try {
+                    this.hashRegion(from);
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            }
+        }
+
+        /**
+         * Method to hash the chunks of a single region into their leaves.
+         *
+         * @param region - The index of the region.
+         * @throws IOException if the file couldn't be read, or it's shorter than expected.
+         */
+        private void hashRegion(int region) throws IOException {
+            var start = (long) region * REGION_SIZE;
+            var end = Math.min(size, start + REGION_SIZE);
+
+            var buffer = ByteBuffer.allocate(MerkleTree.CHUNK_SIZE);
+            var hasher = new MerkleTree.LeafHasher(MerkleTree.CHUNK_SIZE);
+
+            for (var position = start; position < end; ) {
+                buffer.clear().limit((int) Math.min(buffer.capacity(), end - position));
+
+                var count = file.read(buffer, position);
+
+                if (count < 0) {
+                    throw new IOException("File changed whilst it was being hashed.");
+                }
+
+                position += count;
+                hasher.update(buffer.flip());
+            }
+
+            // The leaf of the last chunk of the file is completed even if the chunk is short.
+            var regionLeaves = end == size ? hasher.finish() : hasher.getLeaves();
+            var first = (int) (start / MerkleTree.CHUNK_SIZE);
+
+            for (int i = 0; i < regionLeaves.size(); i++) {
+                leaves[first + i] = regionLeaves.get(i);
+            }
+        }
+    }
+}
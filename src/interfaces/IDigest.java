@@ -0,0 +1,36 @@
+package interfaces;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Interface that represents a digest that is computed over a stream of bytes, such as
+ * a cryptographic hash or a checksum of a file.
+ *
+ * @author 200008575
+ * */
+public interface IDigest {
+    /**
+     * Method to add bytes onto the digest.
+     *
+     * @param buffer - The buffer that holds the bytes.
+     * @param offset - The position of the first byte in the buffer.
+     * @param length - The number of bytes.
+     * */
+    void update(byte[] buffer, int offset, int length);
+
+    /**
+     * Method to add bytes onto the digest.
+     *
+     * @param buffer - The bytes, from the position to the limit of the buffer. The position
+     *               of the buffer is moved to it's limit.
+     * */
+    void update(ByteBuffer buffer);
+
+    /**
+     * Method to complete the digest of the bytes that were added. The digest is reset
+     * afterwards, so that it can be reused.
+     *
+     * @return A byte array that represents the digest.
+     * */
+    byte[] digest();
+}
@@ -0,0 +1,55 @@
+package interfaces;
+
+import common.resources.FileEntry;
+
+import java.io.IOException;
+
+/**
+ * Interface that represents the outgoing side of a peer connection which the
+ * server writes responses to. This allows for the same command processing to be
+ * used by both the blocking and the non-blocking server modes.
+ *
+ * @author 200008575
+ * */
+public interface IResponseChannel {
+    /**
+     * Method to write a single response line to the peer connection.
+     *
+     * @param line - The line that will be written, excluding the line separator.
+     * */
+    void writeLine(String line) throws IOException;
+
+    /**
+     * Method to write a single response line that has already been encoded to the peer
+     * connection, or a whole response frame on a connection that uses the binary protocol.
+     * Unlike raw bytes, a response isn't limited by the upload limits. The bytes are copied
+     * if they can't be written immediately, so the caller may reuse the buffer once the
+     * method returns.
+     *
+     * @param bytes - The buffer that holds the line, which is encoded as UTF-8 and includes
+     *              the line separator, or the frame.
+     * @param offset - The position in the buffer of the first byte of the line.
+     * @param length - The number of bytes in the line.
+     * */
+    void writeLine(byte[] bytes, int offset, int length) throws IOException;
+
+    /**
+     * Method to write the raw contents of a region of a file to the peer connection.
+     *
+     * @param fileEntry - The file entry that is being written to the peer.
+     * @param offset - The position in the file of the first byte to write.
+     * @param length - The number of bytes to write.
+     * */
+    void writeFile(FileEntry fileEntry, long offset, long length) throws IOException;
+
+    /**
+     * Method to write raw bytes to the peer connection, for example a file that is being
+     * compressed as it's sent. The bytes are copied if they can't be written immediately,
+     * so the caller may reuse the buffer once the method returns.
+     *
+     * @param bytes - The buffer that holds the bytes.
+     * @param offset - The position in the buffer of the first byte to write.
+     * @param length - The number of bytes to write.
+     * */
+    void writeBytes(byte[] bytes, int offset, int length) throws IOException;
+}
@@ -0,0 +1,410 @@
+package server;
+
+import common.Configuration;
+import common.TaskRunner;
+import common.digest.DigestAlgorithm;
+import common.protocol.Encoding;
+
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.FileTime;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+
+/**
+ * Singleton class that decides which encoding a file is sent with, and that keeps
+ * compressed variants of the files that are requested often.
+ * <p>
+ * A file isn't compressed if it's extension is of a format that is already compressed, or
+ * if a sample from the start of the file doesn't shrink when it's deflated, since deflating
+ * such a file only costs CPU time. The decision is remembered for the current version of the
+ * file. Once a file has been requested 'compression.cache.hits' times, a compressed variant
+ * of it is written to a folder in the temporary directory, so that later requests are sent
+ * from the variant without compressing the file again. The variants are named after the
+ * path, size and modification time of the file, so a variant of a file that has changed is
+ * never used, and the least recently used variants are deleted once the folder holds more than
+ * 'compression.cache.size' bytes.
+ *
+ * @author 200008575
+ */
+public class CompressionCache {
+    /**
+     * The compression level that files are deflated with. The fastest level is used, since
+     * the level mostly trades CPU time for a few percent of size.
+     */
+    public static final int LEVEL = Deflater.BEST_SPEED;
+
+    /**
+     * The number of bytes from the start of a file that are deflated to check if the file
+     * is compressible.
+     */
+    private static final int SAMPLE_SIZE = 64 * 1024;
+
+    /**
+     * The largest ratio of the deflated sample size to the sample size for which a file is
+     * still considered compressible.
+     */
+    private static final double MAX_RATIO = 0.9;
+
+    /**
+     * The maximum number of files that the cache remembers decisions for.
+     */
+    private static final int CAPACITY = 4096;
+
+    /**
+     * The extensions of file formats that are already compressed.
+     */
+    private static final Set<String> COMPRESSED_EXTENSIONS = Set.of(
+            "7z", "apk", "avi", "br", "bz2", "docx", "flac", "gif", "gz", "heic", "jar", "jpeg", "jpg",
+            "lz4", "m4a", "mkv", "mov", "mp3", "mp4", "odt", "ogg", "png", "pptx", "rar", "tgz", "webm",
+            "webp", "xlsx", "xz", "zip", "zst"
+    );
+
+    /**
+     * Instance of the configuration object which is used to get application settings.
+     */
+    private final Configuration config = Configuration.getInstance();
+
+    /**
+     * The folder that the compressed variants are written to.
+     */
+    private final Path folder = Paths.get(System.getProperty("java.io.tmpdir"), "fileshare-compressed");
+
+    /**
+     * The entries mapped by the absolute path of the file. The map is ordered by access so
+     * that the eldest entry is the least recently used one.
+     */
+    private final LinkedHashMap<String, CacheEntry> entries = new LinkedHashMap<>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, CacheEntry> eldest) {
+            return size() > CAPACITY;
+        }
+    };
+
+    /**
+     * Variable that holds the reference of this object that is used
+     * when external callers need to access the cache.
+     */
+    private static final CompressionCache instance = new CompressionCache();
+
+    /**
+     * CompressionCache instantiation method.
+     */
+    private CompressionCache() {
+    }
+
+    /**
+     * Method to get an instance of the CompressionCache object
+     *
+     * @return A reference of this object.
+     */
+    public static CompressionCache getInstance() {
+        return instance;
+    }
+
+    /**
+     * Method to pick the encoding that a file is sent with. The file is deflated if the peer
+     * accepts the deflate encoding and the file is compressible.
+     *
+     * @param path     - The path of the file.
+     * @param accepted - The encodings that the peer accepts.
+     * @return The encoding to send the file with.
+     * @throws IOException if the attributes of the file couldn't be read.
+     */
+    public Encoding choose(Path path, List<Encoding> accepted) throws IOException {
+        if (!accepted.contains(Encoding.DEFLATE)) {
+            return Encoding.IDENTITY;
+        }
+
+        return this.getEntry(path).compressible ? Encoding.DEFLATE : Encoding.IDENTITY;
+    }
+
+    /**
+     * Method to record that a file is being sent deflated, and to get the compressed variant
+     * of it if there is one. If the file has now been requested often enough, a variant is
+     * written in the background for the following requests.
+     *
+     * @param path - The path of the file.
+     * @return The path of the compressed variant, or null if there isn't one yet.
+     * @throws IOException if the attributes of the file couldn't be read.
+     */
+    public Path getVariant(Path path) throws IOException {
+        var threshold = config.getInt("compression.cache.hits");
+        var entry = this.getEntry(path);
+
+        synchronized (entry) {
+            if (threshold <= 0) {
+                return null;
+            }
+
+            // A variant that was written by a previous run, or that was deleted since.
+            if (Files.isRegularFile(entry.variant)) {
+                // Touch the variant, so that the least recently used variants are evicted first.
+                Files.setLastModifiedTime(entry.variant, FileTime.fromMillis(System.currentTimeMillis()));
+                return entry.variant;
+            }
+
+            if (++entry.hits >= threshold && !entry.building) {
+                entry.building = true;
+
+                TaskRunner.getInstance().spawn("CompressionCache-" + path.getFileName(), () -> this.build(path, entry));
+            }
+        }
+
+        return null;
+    }
+
+    /**
+     * Method to get the entry of the current version of a file, the entry is created if the
+     * file is new or has changed.
+     *
+     * @param path - The path of the file.
+     * @return The entry of the file.
+     * @throws IOException if the attributes or the sample of the file couldn't be read.
+     */
+    private CacheEntry getEntry(Path path) throws IOException {
+        var absolutePath = path.toAbsolutePath().normalize();
+        var attributes = Files.readAttributes(absolutePath, BasicFileAttributes.class);
+
+        synchronized (this) {
+            var entry = this.entries.get(absolutePath.toString());
+
+            if (entry != null && entry.matches(attributes)) {
+                return entry;
+            }
+        }
+
+        // The sample is read outside of the lock, so that other files aren't held up.
+        var entry = new CacheEntry(attributes, isCompressible(absolutePath), this.getVariantPath(absolutePath, attributes));
+
+        synchronized (this) {
+            this.entries.put(absolutePath.toString(), entry);
+        }
+
+        return entry;
+    }
+
+    /**
+     * Method to check if a file is worth compressing, by it's extension and by deflating a
+     * sample from the start of the file.
+     *
+     * @param path - The path of the file.
+     * @return Whether the file is compressible.
+     * @throws IOException if the sample couldn't be read.
+     */
+    static boolean isCompressible(Path path) throws IOException {
+        var fileName = path.getFileName().toString();
+        var dot = fileName.lastIndexOf('.');
+
+        if (dot >= 0 && COMPRESSED_EXTENSIONS.contains(fileName.substring(dot + 1).toLowerCase(Locale.ROOT))) {
+            return false;
+        }
+
+        byte[] sample;
+
+        try (InputStream in = Files.newInputStream(path)) {
+            sample = in.readNBytes(SAMPLE_SIZE);
+        }
+
+        return isCompressible(sample, sample.length);
+    }
+
+    /**
+     * Method to check if a sample of data shrinks enough when it's deflated.
+     *
+     * @param sample - The buffer that holds the sample.
+     * @param length - The number of bytes in the sample.
+     * @return Whether the sample is compressible, an empty sample isn't.
+     */
+    static boolean isCompressible(byte[] sample, int length) {
+        if (length == 0) {
+            return false;
+        }
+
+        var deflater = new Deflater(LEVEL);
+        var output = new byte[SAMPLE_SIZE];
+        var deflated = 0L;
+
+        try {
+            deflater.setInput(sample, 0, length);
+            deflater.finish();
+
+            while (!deflater.finished()) {
+                deflated += deflater.deflate(output);
+            }
+        } finally {
+            deflater.end();
+        }
+
+        return deflated <= length * MAX_RATIO;
+    }
+
+    /**
+     * Method to write the compressed variant of a file. The variant is written to a
+     * temporary file first, so that a partial variant is never sent.
+     *
+     * @param path  - The path of the file.
+     * @param entry - The entry of the file.
+     */
+    private void build(Path path, CacheEntry entry) {
+        Path temporary = null;
+
+        try {
+            Files.createDirectories(this.folder);
+            temporary = Files.createTempFile(this.folder, "variant", ".tmp");
+
+            var deflater = new Deflater(LEVEL);
+
+            try (var out = new DeflaterOutputStream(new BufferedOutputStream(Files.newOutputStream(temporary)), deflater, 64 * 1024)) {
+                Files.copy(path, out);
+            } finally {
+                deflater.end();
+            }
+
+            // The variant is discarded if the file changed whilst it was being compressed.
+            if (!entry.matches(Files.readAttributes(path, BasicFileAttributes.class))) {
+                return;
+            }
+
+            Files.move(temporary, entry.variant, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            temporary = null;
+
+            this.evict();
+        } catch (IOException e) {
+            System.out.println("Couldn't write the compressed variant of " + path.getFileName() + ".");
+        } finally {
+            if (temporary != null) {
+                try {
+                    Files.deleteIfExists(temporary);
+                } catch (IOException e) {
+                    // Ignore since the temporary file is overwritten by a later variant anyway.
+                }
+            }
+
+            synchronized (entry) {
+                entry.building = false;
+            }
+        }
+    }
+
+    /**
+     * Method to delete the least recently used variants until the folder holds at most
+     * 'compression.cache.size' bytes.
+     *
+     * @throws IOException if the folder couldn't be listed.
+     */
+    private synchronized void evict() throws IOException {
+        var limit = Long.parseLong(config.get("compression.cache.size"));
+        List<Path> variants = new ArrayList<>();
+        var total = 0L;
+
+        try (var stream = Files.list(this.folder)) {
+            for (var variant : (Iterable<Path>) stream::iterator) {
+                if (variant.toString().endsWith(".deflate")) {
+                    variants.add(variant);
+                    total += Files.size(variant);
+                }
+            }
+        }
+
+        variants.sort(Comparator.comparing(variant -> variant.toFile().lastModified()));
+
+        for (var variant : variants) {
+            if (total <= limit) {
+                break;
+            }
+
+            total -= Files.size(variant);
+            Files.deleteIfExists(variant);
+        }
+    }
+
+    /**
+     * Method to get the path of the compressed variant of a version of a file, which is
+     * named after the hash of the path, size and modification time of the file.
+     *
+     * @param path       - The absolute path of the file.
+     * @param attributes - The attributes of the file.
+     * @return The path of the variant.
+     */
+    private Path getVariantPath(Path path, BasicFileAttributes attributes) {
+        var key = (path + "|" + attributes.size() + "|" + attributes.lastModifiedTime().toMillis()).getBytes(StandardCharsets.UTF_8);
+        var digest = DigestAlgorithm.SHA256.create();
+
+        digest.update(key, 0, key.length);
+
+        var name = new StringBuilder();
+
+        for (var b : digest.digest()) {
+            name.append(String.format("%02x", b));
+        }
+
+        return this.folder.resolve(name + ".deflate");
+    }
+
+    /**
+     * Class that holds the encoding decision and the variant of a version of a file.
+     */
+    private static class CacheEntry {
+        /**
+         * The size of the file when the entry was created.
+         */
+        private final long size;
+
+        /**
+         * The modification time of the file when the entry was created.
+         */
+        private final long modified;
+
+        /**
+         * Whether the file is worth compressing.
+         */
+        private final boolean compressible;
+
+        /**
+         * The path that the compressed variant of the file is written to.
+         */
+        private final Path variant;
+
+        /**
+         * The number of times the file was sent deflated without a variant.
+         */
+        private int hits = 0;
+
+        /**
+         * Whether the variant is being written.
+         */
+        private boolean building = false;
+
+        CacheEntry(BasicFileAttributes attributes, boolean compressible, Path variant) {
+            this.size = attributes.size();
+            this.modified = attributes.lastModifiedTime().toMillis();
+            this.compressible = compressible;
+            this.variant = variant;
+        }
+
+        /**
+         * Method to check if the entry still describes the given version of the file.
+         *
+         * @param attributes - The current attributes of the file.
+         * @return Whether the entry matches.
+         */
+        boolean matches(BasicFileAttributes attributes) {
+            return attributes.size() == this.size && attributes.lastModifiedTime().toMillis() == this.modified;
+        }
+    }
+}
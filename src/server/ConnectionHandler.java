@@ -1,27 +1,24 @@
 package server;
 
-import cli.Commander;
-import com.fasterxml.jackson.databind.ObjectMapper;
-import com.fasterxml.jackson.databind.node.ObjectNode;
+import common.BandwidthLimiter;
 import common.BaseConnection;
-import common.Configuration;
-import common.Networking;
-import common.protocol.Command;
-import common.resources.DirectoryEntry;
+import common.FileTransfer;
+import common.TaskRunner;
+import common.Throttle;
+import common.protocol.FrameReader;
+import common.protocol.WireFormat;
 import common.resources.FileEntry;
-import interfaces.IEntry;
+import interfaces.IResponseChannel;
 
-import java.io.DataOutputStream;
-import java.io.File;
-import java.io.FileNotFoundException;
+import java.io.BufferedInputStream;
+import java.io.EOFException;
 import java.io.IOException;
+import java.io.InputStream;
 import java.net.Socket;
 import java.net.SocketTimeoutException;
-import java.nio.file.InvalidPathException;
-import java.nio.file.Paths;
-import java.util.ArrayList;
-import java.util.Arrays;
-import java.util.List;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.Future;
 import java.util.concurrent.atomic.AtomicBoolean;
 
 
@@ -32,23 +29,37 @@ import java.util.concurrent.atomic.AtomicBoolean;
  *
  * @author 200008575
  */
-public class ConnectionHandler extends BaseConnection implements Runnable {
+public class ConnectionHandler extends BaseConnection implements Runnable, IResponseChannel {
     /**
-     * An instance of a Jackson ObjectMapper, used to serialize data that
-     * will be transmitted through the socket to the peer in order to transmit
-     * responses.
+     * The dispatcher that is used to process the requests of this connection.
      */
-    public final static ObjectMapper mapper = new ObjectMapper();
+    private final RequestDispatcher dispatcher = new RequestDispatcher();
 
     /**
-     * Instance of the configuration object which is used to get application settings.
+     * The scheduler that shares the upload capacity between peers.
      */
-    private final Configuration config = Configuration.getInstance();
+    private final UploadScheduler scheduler = UploadScheduler.getInstance();
 
     /**
-     * The thread instance that is used to run the downloader instance on.
+     * The address of the peer, which the uploads to the peer are grouped by.
      */
-    private Thread worker;
+    private final String address;
+
+    /**
+     * The throttle that limits how fast files are sent to the peer.
+     */
+    private final Throttle throttle;
+
+    /**
+     * The stream that request frames are read from, or null if the peer hasn't switched the
+     * connection to frames.
+     */
+    private InputStream frameInput;
+
+    /**
+     * The task that is used to run the connection handler instance on.
+     */
+    private Future<?> worker;
 
     /**
      * Variable to hold the running status of the ConnectionHandler instance. This
@@ -63,6 +74,13 @@ public class ConnectionHandler extends BaseConnection implements Runnable {
      */
     public ConnectionHandler(Socket socket) throws IOException {
         super(socket);
+
+        // A header is followed by the file on a connection that is kept alive, so small writes
+        // are sent straight away instead of waiting for the peer to acknowledge the header.
+        socket.setTcpNoDelay(true);
+
+        this.address = socket.getInetAddress().getHostAddress();
+        this.throttle = BandwidthLimiter.getInstance().forUpload(this.address);
     }
 
     /**
@@ -90,15 +108,14 @@ public class ConnectionHandler extends BaseConnection implements Runnable {
      * Method to start the ConnectionHandler.
      */
     public void start() {
-        worker = new Thread(this);
-        worker.start();
+        worker = TaskRunner.getInstance().spawnDedicated("ConnectionHandler-" + this.getAddress(), this);
     }
 
     /**
      * Method to return if the worker is still alive
      */
     public boolean isAlive() {
-        return this.worker.isAlive();
+        return !this.worker.isDone();
     }
 
     /**
@@ -108,157 +125,59 @@ public class ConnectionHandler extends BaseConnection implements Runnable {
      */
     public void stop() {
         running.set(false);
-        worker.interrupt();
+        worker.cancel(true);
     }
 
     /**
-     * Method that acts as a listener for any requests from the peer. The method
-     * will attempt to process the given command. When the command is processed, a response
-     * object is formed in the form of an Object node that will written as a byte array to
-     * the socket output stream (PrinterWriter) in the form of a line. However, if the request
-     * is asking to download a resource, the byte array is written to a DataOutputStream
-     * and no response object is returned.
-     * <p>
-     * If the command is not valid or isn't part of the transmission protocol, a response is still
-     * returned to notify the peer that the request was invalid.
+     * Method that acts as a listener for any requests from the peer. Each request line,
+     * or request frame once the peer switched the connection to frames, is passed onto the
+     * {@link RequestDispatcher} which will process the given command and write the response
+     * to this connection.
      *
      * @throws IOException if the peer connection drops whilst writing to an output stream.
      */
     private void listen() throws IOException {
         while (this.running.get()) {
-            // We expect to get the first argument as the name of the command that is being
-            // invoked for the server to respond. Any further components of the request are
-            // treated as arguments that complement the command. For example, if the requester
-            // send the request "Get file_a.txt", then the server should perform the get
-            // command with the file argument as 'file_a.txt'.
-            var request = this.bufferedReader.readLine().split(" ");
-            var command = Command.valueOf(request[0]);
-
-            // create an initial json object that will be used as a response.
-            var response = mapper.createObjectNode();
-
-            switch (command) {
-                case AddPeer: {
-                    if (request.length < 2) {
-                        response.put("status", false);
-                        break;
-                    }
-
-                    try {
-                        var commander = Commander.getInstance();
-
-                        var addr = Networking.parseAddressFromString(request[1]);
-                        var peer = new PeerRecord(request[1], addr.getHostName(), true);
-
-                        commander.addKnownPeer(peer);
-
-                    } catch (IllegalArgumentException e) {
-                        response.put("status", false);
-                        break;
-                    }
-
+            String line = null;
+            FrameReader frame = null;
+
+            try {
+                // The peer waits for the answer to a 'Protocol' request before it sends anything
+                // else, so the reader holds no bytes of a frame when the format changes.
+                if (this.dispatcher.getFormat() == WireFormat.BINARY) {
+                    frame = FrameReader.read(this.getFrameInput(), RequestDispatcher.MAX_FRAME_LENGTH);
+                } else {
+                    line = this.bufferedReader.readLine();
                 }
-
-                case List: {
-                    var fileList = mapper.createArrayNode();
-
-                    // The requester can specify if they want to list the contents
-                    // of a specific folder which is located under the upload folder,
-                    // hence if they just want to list the root, then we'll set the
-                    // additional argument to nothing.
-                    var listArg = "";
-
-                    if (request.length > 1) {
-                        listArg = String.join(" ", Arrays.copyOfRange(request, 1, request.length));
-                    }
-
-                    // Iterate over the entry list and append the appropriate metadata on
-                    try {
-                        for (IEntry entry : this.getUploadFolderContents(listArg)) {
-                            var fileEntry = mapper.createObjectNode();
-
-                            // append metadata about the objects in the
-                            fileEntry.put("type", entry.getType());
-                            fileEntry.put("path", entry.getFileName());
-
-                            fileList.add(fileEntry);
-                        }
-
-                        // set the data into the response.
-                        response.set("files", fileList);
-                        response.put("status", true);
-                    } catch (IOException e) {
-                        response.put("status", false);
-                        response.put("message", "Folder not found");
-                    } catch (IllegalArgumentException e) {
-                        response.put("status", false);
-                        response.put("message", "Path must a file");
-                    } catch (Exception e) {
-                        e.printStackTrace();
-                    }
-
-                    break;
+            } catch (SocketTimeoutException e) {
+                // The connection isn't idle whilst tagged requests are still being answered.
+                if (this.dispatcher.hasPendingRequests()) {
+                    continue;
                 }
-                case GetMeta:
-                case Get: {
-                    String relativeFilePath;
-
-                    // Join all of the following arguments after 'Get/GetMeta' to allow for spaces in filenames.
-                    if (request.length > 1) {
-                        relativeFilePath = String.join(" ", Arrays.copyOfRange(request, 1, request.length));
-                    } else {
-                        // the requester didn't provide an argument to the get command, and
-                        // hence is asking to get nothing.
-                        response.put("message", "Nothing to get.");
-                        response.put("status", false);
-
-                        break;
-                    }
-
-                    FileEntry resource;
 
-                    try {
-                        resource = new FileEntry(Paths.get(config.get("upload"), relativeFilePath));
-
-                    } catch (IllegalArgumentException e) {
-                        response.put("message", "No such file exists.");
-                        response.put("status", false);
-                        break;
-                    }
-
-                    response = getFileMetadata(resource);
-
-                    // we have to overwrite response.path with a relative version of the path instead of
-                    // an absolute value
-                    response.put("path", relativeFilePath);
-
-                    // Don't continue by downloading the file if it's only a metadata request, and don't
-                    // continue if fetching the metadata failed for some reason.
-                    if (command == Command.GetMeta || !response.get("status").asBoolean()) {
-                        break;
-                    }
-
-                    var out = new DataOutputStream(this.socket.getOutputStream());
-                    var in = resource.getInputStream();
-
-                    // write the file buffer to the DataOutputStream, flush it and immediately
-                    // close it since we aren't going to need to use it anymore.
-                    int count;
-                    byte[] buffer = new byte[1024];
+                throw e;
+            }
 
-                    while ((count = in.read(buffer)) != -1) {
-                        out.write(buffer, 0, count);
-                    }
+            // The peer closed the connection, so there is nothing more to process.
+            if (line == null && frame == null) {
+                break;
+            }
 
-                    out.flush();
+            var keepOpen = frame != null ? this.dispatcher.dispatch(frame, this) : this.dispatcher.dispatch(line, this);
 
-                    in.close();
-                    out.close();
-                }
+            // The dispatcher notifies us if the connection shouldn't be used anymore, for
+            // example after a file was transferred. The output is shut down first, since the
+            // peer reads the file until the end of the stream.
+            if (!keepOpen) {
+                this.socket.shutdownOutput();
+                break;
             }
 
-            // Finally, convert the response into a byte array and send it to the client.
-            this.printWriter.println(mapper.writeValueAsString(response));
+            // A connection that is kept alive is closed once it has been idle for too long,
+            // the read fails with a SocketTimeoutException which stops the handler.
+            if (this.dispatcher.isKeepAlive() && this.socket.getSoTimeout() != this.dispatcher.getIdleTimeout()) {
+                this.socket.setSoTimeout(this.dispatcher.getIdleTimeout());
+            }
         }
 
         // Invoke the clean-up function after the listener finishes it's work, or gets
@@ -267,104 +186,119 @@ public class ConnectionHandler extends BaseConnection implements Runnable {
     }
 
     /**
-     * Method to collect metadata on the given file such as file size, checksum and the
-     * file name. If the file doesn't exist, not a file, or is not a child of the 'upload'
-     * folder; the method will return an object with a message corresponding to the error.
-     * The constructed object also holds a status of if the 'request' was valid or not.
+     * Method to get the stream that request frames are read from, which is opened once the
+     * connection was switched to frames.
      *
-     * @param fileEntry - The file entry that the data should be converted into a JSON node
-     * @return An ObjectNode that represents the metadata of the given file
+     * @return The buffered input stream of the socket.
+     * @throws IOException if the socket is closed.
      */
-    private ObjectNode getFileMetadata(FileEntry fileEntry) {
-        ObjectNode response = mapper.createObjectNode();
-
-        // test that the fileURI is valid relative to our upload folder.
-        // We must prevent the client from attempting to query a file out
-        // of the upload folder scope. We will attempt to concatenate the
-        // provided fileURI with our upload folder value. If the path
-        // exists and is a file
-        try {
-            fileEntry.load();
+    private InputStream getFrameInput() throws IOException {
+        if (this.frameInput == null) {
+            this.frameInput = new BufferedInputStream(this.socket.getInputStream());
+        }
 
-            var file = fileEntry.getPath().toFile();
+        return this.frameInput;
+    }
 
-            if (!file.getAbsolutePath().startsWith(config.get("upload")) || !file.exists()) {
-                response.put("message", "No such file exists.");
-                response.put("status", false);
+    /**
+     * Method to write a response line to the socket output stream (PrinterWriter). The line
+     * is ended with the protocol's line separator rather than the platform's.
+     *
+     * @param line - The line that will be written, excluding the line separator.
+     */
+    @Override
+    public void writeLine(String line) {
+        this.printWriter.print(line + WireFormat.LINE_SEPARATOR);
+        this.printWriter.flush();
+    }
+
+    /**
+     * Method to write an encoded response line straight to the socket output stream. The
+     * PrintWriter flushes every line, so the line can't overtake an earlier one.
+     *
+     * @param bytes  - The buffer that holds the line, including the line separator.
+     * @param offset - The position in the buffer of the first byte of the line.
+     * @param length - The number of bytes in the line.
+     * @throws IOException if the peer connection drops whilst writing the line.
+     */
+    @Override
+    public void writeLine(byte[] bytes, int offset, int length) throws IOException {
+        this.socket.getOutputStream().write(bytes, offset, length);
+    }
+
+    /**
+     * Method to write a region of the file to the socket. The file is sent with a
+     * zero-copy transfer when the socket is backed by a channel, see {@link FileTransfer},
+     * and no faster than the upload limits allow. If uploads are scheduled, the region is
+     * sent in chunks that each wait for their turn with the {@link UploadScheduler}.
+     *
+     * @param fileEntry - The file entry that is being written to the peer.
+     * @param offset    - The position in the file of the first byte to write.
+     * @param length    - The number of bytes to write.
+     * @throws IOException if the peer connection drops whilst writing the file.
+     */
+    @Override
+    public void writeFile(FileEntry fileEntry, long offset, long length) throws IOException {
+        // positional reads are used, so ranges of the file can be sent without seeking.
+        try (var file = FileChannel.open(fileEntry.getPath(), StandardOpenOption.READ)) {
+            if (!this.scheduler.isEnabled()) {
+                // The connection is closed if the file was truncated, since the peer expects the
+                // whole region.
+                if (FileTransfer.send(file, offset, length, this.socket, this.throttle) < length) {
+                    throw new EOFException("File was truncated whilst it was sent.");
+                }
 
-                return response;
+                return;
             }
 
-            // Serialize the FileEntry object, add a status to denote that the
-            // request was successful.
-            response = mapper.valueToTree(fileEntry);
+            UploadScheduler.Ticket ticket = null;
+            var sent = 0L;
 
-            response.put("status", true);
+            try {
+                while (sent < length) {
+                    var chunk = Math.min(length - sent, Math.min(UploadScheduler.QUANTUM, this.throttle.getChunkSize()));
 
+                    // The next chunk is queued before the slot of the last one is given up, so the
+                    // transfer keeps it's turn.
+                    ticket = ticket == null ? this.scheduler.acquire(this.address, chunk) : this.scheduler.acquire(ticket, chunk);
 
-        } catch (InvalidPathException e) {
-            response.put("status", false);
-            response.put("message", "Invalid file path");
-        } catch (FileNotFoundException e) {
-            response.put("status", false);
-            response.put("message", "Couldn't access file on remote.");
-        } catch (Exception e) {
-            e.printStackTrace();
-        }
+                    // The tokens are taken whilst the slot is held, so the peers take turns at the
+                    // upload limit as well.
+                    this.throttle.acquire(chunk);
 
-        return response;
+                    if (FileTransfer.send(file, offset + sent, chunk, this.socket) < chunk) {
+                        throw new EOFException("File was truncated whilst it was sent.");
+                    }
+
+                    sent += chunk;
+                }
+            } finally {
+                this.scheduler.release(ticket);
+            }
+        }
     }
 
     /**
-     * Method to list the contents of the upload folder. This method will cycle through
-     * all of the upload folder contents and convert each entry into either a DirectoryEntry
-     * or FileEntry. FileEntry object has several methods which allows the caller to invoke
-     * methods that can retrieve metadata from the file like the size or compute the md5 hash.
+     * Method to write raw bytes to the socket output stream. The response line writer is
+     * flushed after every line, so the bytes can't overtake a header that was written
+     * before them. The tokens for each chunk are taken before it's written, as they are
+     * when a file is sent, so a write can't exceed the upload limits.
      *
-     * @param folderName - The relative path to a folder within the 'upload' folder that will be
-     *                   concatenated with the upload folder path to list the contents of the
-     *                   child directory.
-     * @return A list of file/directory entries based on the location of the upload folder.
-     * @throws IllegalArgumentException if the formed path is a file and not a folder.
-     * @throws FileNotFoundException    if the result of combining the 'upload' folder path and
-     *                                  and the folderName parameter does not exist, or is not a
-     *                                  child of the 'upload' folder.
+     * @param bytes  - The buffer that holds the bytes.
+     * @param offset - The position in the buffer of the first byte to write.
+     * @param length - The number of bytes to write.
+     * @throws IOException if the peer connection drops whilst writing the bytes.
      */
-    private List<IEntry> getUploadFolderContents(String folderName) throws IllegalArgumentException, IOException {
-        File uploadFolder = Paths.get(Configuration.getInstance().get("upload"), folderName).toFile();
-
-        // Ensure the formed path is not a file
-        if (uploadFolder.isFile()) {
-            throw new IllegalArgumentException("Upload folder must not be a file.");
-        }
-
-        // @Security: Ensure that the result from combining the 'upload' folder and folder name is a child of
-        // the 'upload folder'. Otherwise, the client could have access to files across the whole system.
-        //
-        // We should also consider if the path is a symbolic links that points outside of the directory. If so, that
-        // could allow the client to get access to files outside of the 'upload' folder.
-        if (!uploadFolder.getAbsolutePath().startsWith(config.get("upload")) || !uploadFolder.exists()) {
-            throw new FileNotFoundException("no such folder exists.");
-        }
-
-        List<IEntry> entries = new ArrayList<>();
-        File[] files = uploadFolder.listFiles();
+    @Override
+    public void writeBytes(byte[] bytes, int offset, int length) throws IOException {
+        var out = this.socket.getOutputStream();
 
-        // Don't bother attempting loop through the directory entries if the
-        // system folder was empty or couldn't be listed due to permissions.
-        if (files == null) {
-            return entries;
-        }
+        for (var written = 0; written < length; ) {
+            var chunk = (int) Math.min(length - written, this.throttle.getChunkSize());
 
-        // Loop through each entry in the upload folder and convert them into FileEntry objects
-        for (var file : files) {
-            if (file.isFile()) {
-                entries.add(new FileEntry(file.toPath()));
-            } else {
-                entries.add(new DirectoryEntry(file.toPath()));
-            }
+            this.throttle.acquire(chunk);
+            out.write(bytes, offset + written, chunk);
+            written += chunk;
         }
-
-        return entries;
     }
 }
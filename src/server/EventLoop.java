@@ -0,0 +1,303 @@
+package server;
+
+import java.io.IOException;
+import java.nio.channels.ClosedSelectorException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.util.PriorityQueue;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * EventLoop class is used by the non-blocking server mode to multiplex many peer
+ * connections onto a single I/O thread by using a {@link Selector}. The loop only
+ * performs socket reads and writes, any requests that are read from a connection
+ * are processed on the worker pool so that slow requests (such as computing the
+ * digest of a file) don't stall other connections on the loop.
+ *
+ * @author 200008575
+ */
+public class EventLoop implements Runnable {
+    /**
+     * Number that represents how often (in milliseconds) the loop looks for connections that
+     * have been idle for too long.
+     */
+    private static final long SWEEP_INTERVAL = 1000;
+
+    /**
+     * The selector that is used to wait for I/O readiness of the connections that are
+     * registered on this loop.
+     */
+    private final Selector selector;
+
+    /**
+     * Pool of threads that are used to process the requests that are read by this loop.
+     */
+    private final Executor workers;
+
+    /**
+     * Queue of tasks that must be run on the loop thread, since a selector's keys can
+     * only be safely modified by the thread that is selecting on it.
+     */
+    private final Queue<Runnable> tasks = new ConcurrentLinkedQueue<>();
+
+    /**
+     * Queue of tasks that are run on the loop thread once their deadline has passed, ordered
+     * by the deadline. This is only accessed by the loop thread.
+     */
+    private final Queue<Timer> timers = new PriorityQueue<>();
+
+    /**
+     * Variable to hold the running status of the loop. This variable must be atomic
+     * since the loop can be stopped by the server thread.
+     */
+    private final AtomicBoolean running = new AtomicBoolean(false);
+
+    /**
+     * The thread instance that is used to run the loop on.
+     */
+    private Thread worker;
+
+    /**
+     * The time when the loop last looked for idle connections. This is only accessed by the
+     * loop thread.
+     */
+    private long lastSweep = System.currentTimeMillis();
+
+    /**
+     * Constructor method for the EventLoop class.
+     *
+     * @param workers - The pool of threads used to process requests.
+     * @throws IOException if the selector couldn't be opened.
+     */
+    public EventLoop(Executor workers) throws IOException {
+        this.selector = Selector.open();
+        this.workers = workers;
+    }
+
+    /**
+     * Method to start the loop on it's own thread.
+     *
+     * @param name - The name of the loop thread.
+     */
+    public void start(String name) {
+        this.running.set(true);
+
+        worker = new Thread(this, name);
+        worker.start();
+    }
+
+    /**
+     * Method to stop the loop, any connections that are registered on the loop are
+     * closed once the loop exits.
+     */
+    public void stop() {
+        running.set(false);
+        selector.wakeup();
+    }
+
+    /**
+     * Method to register a newly accepted connection with this loop. The registration
+     * is deferred onto the loop thread.
+     *
+     * @param channel - The accepted socket channel.
+     */
+    public void register(SocketChannel channel) {
+        this.execute(() -> {
+            try {
+                channel.configureBlocking(false);
+
+                // A header is followed by the file on a connection that is kept alive, so small
+                // writes are sent straight away instead of waiting for the peer's acknowledgement.
+                channel.socket().setTcpNoDelay(true);
+
+                var key = channel.register(selector, SelectionKey.OP_READ);
+                key.attach(new NioConnection(channel, key, this));
+            } catch (IOException e) {
+                // The connection dropped before we could register it, so we can just skip it.
+                try {
+                    channel.close();
+                } catch (IOException ignored) {
+                }
+            }
+        });
+    }
+
+    /**
+     * Method to run a task on the loop thread. The selector is woken up so that the
+     * task doesn't have to wait for the next I/O event.
+     *
+     * @param task - The task that will be run on the loop thread.
+     */
+    public void execute(Runnable task) {
+        this.tasks.add(task);
+        this.selector.wakeup();
+    }
+
+    /**
+     * Method to run a task on the loop thread after a delay, this must be called on the loop
+     * thread.
+     *
+     * @param delay - The delay in nanoseconds.
+     * @param task  - The task that will be run on the loop thread.
+     */
+    void schedule(long delay, Runnable task) {
+        this.timers.add(new Timer(System.nanoTime() + delay, task));
+    }
+
+    /**
+     * Method to get the pool of threads that is used to process requests.
+     *
+     * @return The worker pool.
+     */
+    Executor getWorkers() {
+        return workers;
+    }
+
+    /**
+     * Method that runs the loop until it is stopped. Each iteration waits for an I/O
+     * event, runs any pending tasks and then dispatches read and write events to the
+     * connection that is attached to the selection key.
+     */
+    @Override
+    public void run() {
+        try {
+            while (this.running.get()) {
+                // The wait is limited so that idle connections are closed and timers are run even
+                // if there are no other events.
+                selector.select(this.getTimeout());
+
+                Runnable task;
+
+                while ((task = tasks.poll()) != null) {
+                    task.run();
+                }
+
+                this.runTimers();
+
+                var iterator = selector.selectedKeys().iterator();
+
+                while (iterator.hasNext()) {
+                    var key = iterator.next();
+                    iterator.remove();
+
+                    var connection = (NioConnection) key.attachment();
+
+                    if (!key.isValid() || connection == null) {
+                        continue;
+                    }
+
+                    try {
+                        if (key.isWritable()) {
+                            connection.handleWrite();
+                        }
+
+                        if (key.isValid() && key.isReadable()) {
+                            connection.handleRead();
+                        }
+                    } catch (IOException e) {
+                        // The peer dropped the connection, so we can clean it up.
+                        connection.close();
+                    }
+                }
+
+                var now = System.currentTimeMillis();
+
+                if (now - this.lastSweep >= SWEEP_INTERVAL) {
+                    this.lastSweep = now;
+                    this.closeIdle(now);
+                }
+            }
+        } catch (IOException | ClosedSelectorException e) {
+            System.out.println("Event loop stopped unexpectedly.");
+        } finally {
+            this.cleanup();
+        }
+    }
+
+    /**
+     * Method to get how long the loop may wait for an I/O event, which is until the next
+     * timer is due or until the next sweep for idle connections.
+     *
+     * @return The time in milliseconds, which is never 0 since that waits forever.
+     */
+    private long getTimeout() {
+        var timer = this.timers.peek();
+
+        if (timer == null) {
+            return SWEEP_INTERVAL;
+        }
+
+        var delay = (timer.deadline - System.nanoTime() + 999_999) / 1_000_000;
+
+        return Math.max(1, Math.min(SWEEP_INTERVAL, delay));
+    }
+
+    /**
+     * Method to run the timers whose deadline has passed.
+     */
+    private void runTimers() {
+        var now = System.nanoTime();
+
+        while (!this.timers.isEmpty() && this.timers.peek().deadline - now <= 0) {
+            this.timers.poll().task.run();
+        }
+    }
+
+    /**
+     * Method to close the connections that are kept alive and that have been idle for longer
+     * than they are allowed to.
+     *
+     * @param now - The current time in milliseconds.
+     */
+    private void closeIdle(long now) {
+        for (var key : selector.keys()) {
+            var connection = (NioConnection) key.attachment();
+
+            if (key.isValid() && connection != null) {
+                connection.closeIfIdle(now);
+            }
+        }
+    }
+
+    /**
+     * Method to close any connections that are still registered on the loop and the
+     * selector itself.
+     */
+    private void cleanup() {
+        try {
+            for (var key : selector.keys()) {
+                var connection = (NioConnection) key.attachment();
+
+                if (connection != null) {
+                    connection.close();
+                }
+            }
+
+            selector.close();
+        } catch (IOException | ClosedSelectorException e) {
+            // Ignore since the selector is being discarded anyway.
+        }
+    }
+
+    /**
+     * Class that holds a task that is run once it's deadline has passed.
+     */
+    private static class Timer implements Comparable<Timer> {
+        private final long deadline;
+        private final Runnable task;
+
+        Timer(long deadline, Runnable task) {
+            this.deadline = deadline;
+            this.task = task;
+        }
+
+        @Override
+        public int compareTo(Timer other) {
+            return Long.compare(this.deadline - other.deadline, 0);
+        }
+    }
+}
@@ -0,0 +1,706 @@
+package server;
+
+import common.Configuration;
+import common.digest.DigestAlgorithm;
+import common.protocol.ChunkedOutputStream;
+import common.protocol.Command;
+import common.protocol.Encoding;
+import common.protocol.ResponseType;
+import common.resources.DigestCache;
+import common.resources.FileEntry;
+import interfaces.IResponseChannel;
+
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.InvalidPathException;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.List;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+
+/**
+ * Class that answers the {@link Command} requests which concern a single file in the upload
+ * folder, which are 'GetMeta', 'Get', 'GetRange', 'GetEncoded', 'Locate' and 'GetHashes'.
+ * Digests are computed with the algorithm that the peer negotiated on the connection of the
+ * {@link RequestDispatcher} that the handler belongs to.
+ *
+ * @author 200008575
+ */
+class FileHandler {
+    /**
+     * The maximum number of chunk hashes that are sent in a single 'GetHashes' response, so
+     * that the hashes of a large file are fetched in pages rather than one huge line.
+     */
+    static final int MAX_HASHES = 4096;
+
+    /**
+     * Instance of the configuration object which is used to get application settings.
+     */
+    private final Configuration config = Configuration.getInstance();
+
+    /**
+     * Our reference to the in-memory index of the upload folder.
+     */
+    private final UploadIndex index = UploadIndex.getInstance();
+
+    /**
+     * Our reference to the cache that decides how files are encoded.
+     */
+    private final CompressionCache compressionCache = CompressionCache.getInstance();
+
+    /**
+     * The dispatcher of the connection, which holds the digest algorithm and whether the
+     * connection is kept alive.
+     */
+    private final RequestDispatcher dispatcher;
+
+    /**
+     * FileHandler constructor
+     *
+     * @param dispatcher - The dispatcher of the connection that requests are answered on.
+     */
+    FileHandler(RequestDispatcher dispatcher) {
+        this.dispatcher = dispatcher;
+    }
+
+    /**
+     * Method to process a 'GetMeta' or 'Get' request, whose argument is the path of the file.
+     * A 'GetMeta' request is answered with the metadata of the file, whereas a 'Get' request
+     * is answered with the whole file.
+     *
+     * @param command - The command of the request.
+     * @param request - The request split into words, the first of which is the command.
+     * @param channel - The channel that the response should be written to.
+     * @return Whether the connection should be kept open after processing the request.
+     * @throws IOException if the peer connection drops whilst writing to the channel.
+     */
+    boolean processGet(Command command, String[] request, IResponseChannel channel) throws IOException {
+        String relativeFilePath;
+
+        // Join all of the following arguments after 'Get/GetMeta' to allow for spaces in filenames.
+        if (request.length > 1) {
+            relativeFilePath = String.join(" ", Arrays.copyOfRange(request, 1, request.length));
+        } else {
+            // the requester didn't provide an argument to the get command, and
+            // hence is asking to get nothing.
+            ResponseWriter.writeError(channel, "Nothing to get.");
+            return true;
+        }
+
+        FileEntry resource;
+
+        try {
+            resource = this.resolveFile(relativeFilePath);
+        } catch (IllegalArgumentException e) {
+            ResponseWriter.writeError(channel, "No such file exists.");
+            return true;
+        }
+
+        var error = this.loadFileMetadata(resource, this.dispatcher.getAlgorithm());
+
+        // Don't continue if fetching the metadata failed for some reason.
+        if (error != null) {
+            ResponseWriter.writeError(channel, error);
+            return true;
+        }
+
+        // Don't continue by downloading the file if it's only a metadata request. The path
+        // of the response is the requested path rather than the absolute path of the file.
+        if (command == Command.GetMeta) {
+            writeFileMetadata(channel, resource, relativeFilePath);
+            return true;
+        }
+
+        // write the file to the channel, the connection is closed after the transfer
+        // since the end of the file is denoted by the end of the stream.
+        channel.writeFile(resource, 0, resource.getSize());
+        return false;
+    }
+
+    /**
+     * Method to process a 'GetMeta' request frame, whose only field is the path of the file.
+     *
+     * @param relativeFilePath - The path of the file relative to the upload folder.
+     * @param framed           - The channel that the response frame should be written to.
+     * @throws IOException if the peer connection drops whilst writing to the channel.
+     */
+    void processGetMetaFrame(String relativeFilePath, FramedChannel framed) throws IOException {
+        if (relativeFilePath.isEmpty()) {
+            framed.sendError("Nothing to get.");
+            return;
+        }
+
+        FileEntry resource;
+
+        try {
+            resource = this.resolveFile(relativeFilePath);
+        } catch (IllegalArgumentException e) {
+            framed.sendError("No such file exists.");
+            return;
+        }
+
+        var error = this.loadFileMetadata(resource, this.dispatcher.getAlgorithm());
+
+        if (error != null) {
+            framed.sendError(error);
+            return;
+        }
+
+        writeFrameMetadata(framed, resource, relativeFilePath);
+    }
+
+    /**
+     * Method to process a 'GetRange' request, which is of the form 'GetRange <offset> <length>
+     * <path>', the path is the last argument since it may contain spaces.
+     *
+     * @param request - The request split into words, the first of which is the command.
+     * @param channel - The channel that the response should be written to.
+     * @return Whether the connection should be kept open after processing the request.
+     * @throws IOException if the peer connection drops whilst writing to the channel.
+     */
+    boolean processGetRange(String[] request, IResponseChannel channel) throws IOException {
+        if (request.length < 4) {
+            ResponseWriter.writeError(channel, "Usage: GetRange <offset> <length> <path>");
+            return true;
+        }
+
+        long offset;
+        long length;
+
+        try {
+            offset = Long.parseLong(request[1]);
+            length = Long.parseLong(request[2]);
+        } catch (NumberFormatException e) {
+            ResponseWriter.writeError(channel, "Invalid range.");
+            return true;
+        }
+
+        var relativeFilePath = String.join(" ", Arrays.copyOfRange(request, 3, request.length));
+
+        FileEntry resource;
+        long size;
+
+        try {
+            resource = this.resolveFile(relativeFilePath);
+            size = Files.size(resource.getPath());
+        } catch (IllegalArgumentException | IOException e) {
+            ResponseWriter.writeError(channel, "No such file exists.");
+            return true;
+        }
+
+        if (offset < 0 || length < 0 || offset > size) {
+            ResponseWriter.writeError(channel, "Invalid range.");
+            return true;
+        }
+
+        // The range is clipped to the end of the file, the header tells the peer how many
+        // bytes will actually follow.
+        length = Math.min(length, size - offset);
+
+        try (var writer = ResponseWriter.open()) {
+            var generator = writer.getGenerator();
+
+            generator.writeStartObject();
+            generator.writeBooleanField("status", true);
+            generator.writeStringField("path", relativeFilePath);
+            generator.writeNumberField("offset", offset);
+            generator.writeNumberField("length", length);
+            generator.writeEndObject();
+
+            writer.send(channel);
+        }
+
+        channel.writeFile(resource, offset, length);
+
+        // The header holds the length of the range, so the connection can be used again.
+        return this.dispatcher.isKeepAlive();
+    }
+
+    /**
+     * Method to process a 'GetEncoded' request, which is of the form 'GetEncoded
+     * <encoding,...> <path>', where the peer lists the encodings that it accepts in order of
+     * preference. The file is deflated if the peer accepts it and the file is compressible,
+     * otherwise it's sent as it is. The header tells the peer which encoding was picked, and
+     * the number of bytes that follow, which is -1 if the file is compressed as it's sent.
+     *
+     * @param request - The request split into words, the first of which is the command.
+     * @param channel - The channel that the response should be written to.
+     * @return Whether the connection should be kept open after processing the request.
+     * @throws IOException if the peer connection drops whilst writing to the channel.
+     */
+    boolean processGetEncoded(String[] request, IResponseChannel channel) throws IOException {
+        if (request.length < 3) {
+            ResponseWriter.writeError(channel, "Usage: GetEncoded <encoding,...> <path>");
+            return true;
+        }
+
+        var relativeFilePath = String.join(" ", Arrays.copyOfRange(request, 2, request.length));
+
+        // Unknown encodings are skipped, so a list without any known encoding can't be served.
+        var accepted = Encoding.parseList(request[1]);
+
+        if (accepted.isEmpty()) {
+            ResponseWriter.writeError(channel, "Encoding not recognised.");
+            return true;
+        }
+
+        FileEntry resource;
+        Encoding encoding;
+        long size;
+
+        try {
+            resource = this.resolveFile(relativeFilePath);
+            size = Files.size(resource.getPath());
+            encoding = this.compressionCache.choose(resource.getPath(), accepted);
+        } catch (IllegalArgumentException | IOException e) {
+            ResponseWriter.writeError(channel, "No such file exists.");
+            return true;
+        }
+
+        var keepAlive = this.dispatcher.isKeepAlive();
+
+        if (encoding == Encoding.IDENTITY) {
+            writeEncodedHeader(channel, relativeFilePath, encoding, size, size, false);
+            channel.writeFile(resource, 0, size);
+            return keepAlive;
+        }
+
+        // A hot file is sent from it's compressed variant, which doesn't cost any CPU time.
+        var variant = this.compressionCache.getVariant(resource.getPath());
+
+        if (variant != null) {
+            var length = Files.size(variant);
+
+            writeEncodedHeader(channel, relativeFilePath, encoding, size, length, false);
+            channel.writeFile(new FileEntry(variant), 0, length);
+            return keepAlive;
+        }
+
+        // The end of the compressed stream is denoted by the end of the stream, so the
+        // connection is closed after the transfer, unless the connection is kept alive
+        // in which case the stream is framed into chunks.
+        OutputStream body = new ResponseOutputStream(channel);
+
+        if (keepAlive) {
+            body = new ChunkedOutputStream(body);
+        }
+
+        writeEncodedHeader(channel, relativeFilePath, encoding, size, -1, keepAlive);
+
+        var deflater = new Deflater(CompressionCache.LEVEL);
+
+        try (var out = new DeflaterOutputStream(body, deflater, 64 * 1024)) {
+            Files.copy(resource.getPath(), out);
+        } finally {
+            deflater.end();
+        }
+
+        return keepAlive;
+    }
+
+    /**
+     * Method to process a 'Locate' request, which is of the form 'Locate <size> <digest>', and
+     * asks for any file in the upload folder with the same contents. This allows a peer to
+     * download a file from every peer that holds it, even if the file has a different path on
+     * each peer. The digest is computed with the algorithm that is given as the last argument,
+     * or with MD5 if there is no such argument.
+     *
+     * @param request - The request split into words, the first of which is the command.
+     * @param channel - The channel that the response should be written to.
+     * @return Whether the connection should be kept open, which it always is.
+     * @throws IOException if the peer connection drops whilst writing to the channel.
+     */
+    boolean processLocate(String[] request, IResponseChannel channel) throws IOException {
+        if (request.length != 3 && request.length != 4) {
+            ResponseWriter.writeError(channel, "Usage: Locate <size> <digest> [algorithm]");
+            return true;
+        }
+
+        FileEntry match;
+        DigestAlgorithm digestAlgorithm;
+
+        try {
+            digestAlgorithm = request.length == 4 ? DigestAlgorithm.fromName(request[3]) : DigestAlgorithm.MD5;
+            match = this.locateFile(Long.parseLong(request[1]), decodeDigest(request[2]), digestAlgorithm);
+        } catch (NumberFormatException e) {
+            ResponseWriter.writeError(channel, "Invalid size.");
+            return true;
+        } catch (IllegalArgumentException e) {
+            ResponseWriter.writeError(channel, e.getMessage());
+            return true;
+        }
+
+        if (match == null) {
+            ResponseWriter.writeError(channel, "No such file exists.");
+            return true;
+        }
+
+        var error = this.loadFileMetadata(match, digestAlgorithm);
+
+        if (error != null) {
+            ResponseWriter.writeError(channel, error);
+            return true;
+        }
+
+        writeFileMetadata(channel, match, this.getRelativePath(match));
+        return true;
+    }
+
+    /**
+     * Method to process a 'Locate' request frame, whose fields are the size of the file, the
+     * raw bytes of it's digest and the name of the algorithm, which is empty for MD5.
+     *
+     * @param size          - The size in bytes of the file.
+     * @param digest        - The digest of the file.
+     * @param algorithmName - The name of the algorithm that the digest was computed with.
+     * @param framed        - The channel that the response frame should be written to.
+     * @throws IOException if the peer connection drops whilst writing to the channel.
+     */
+    void processLocateFrame(long size, byte[] digest, String algorithmName, FramedChannel framed) throws IOException {
+        FileEntry match;
+        DigestAlgorithm digestAlgorithm;
+
+        try {
+            digestAlgorithm = algorithmName.isEmpty() ? DigestAlgorithm.MD5 : DigestAlgorithm.fromName(algorithmName);
+            match = this.locateFile(size, digest, digestAlgorithm);
+        } catch (IllegalArgumentException e) {
+            framed.sendError(e.getMessage());
+            return;
+        }
+
+        if (match == null) {
+            framed.sendError("No such file exists.");
+            return;
+        }
+
+        var error = this.loadFileMetadata(match, digestAlgorithm);
+
+        if (error != null) {
+            framed.sendError(error);
+            return;
+        }
+
+        writeFrameMetadata(framed, match, this.getRelativePath(match));
+    }
+
+    /**
+     * Method to process a 'GetHashes' request, which is of the form 'GetHashes <from> <count>
+     * <path>', and asks for the hashes of a run of chunks of the file. The peer checks the
+     * hashes against the root that 'GetMeta' returned, and then uses them to verify each chunk
+     * as it arrives. If a single hash is requested, the sibling hashes that prove it against
+     * the root are included, so that a single chunk can be checked alone.
+     *
+     * @param request - The request split into words, the first of which is the command.
+     * @param channel - The channel that the response should be written to.
+     * @return Whether the connection should be kept open, which it always is.
+     * @throws IOException if the peer connection drops whilst writing to the channel.
+     */
+    boolean processGetHashes(String[] request, IResponseChannel channel) throws IOException {
+        if (request.length < 4) {
+            ResponseWriter.writeError(channel, "Usage: GetHashes <from> <count> <path>");
+            return true;
+        }
+
+        int from;
+        int count;
+
+        try {
+            from = Integer.parseInt(request[1]);
+            count = Integer.parseInt(request[2]);
+        } catch (NumberFormatException e) {
+            ResponseWriter.writeError(channel, "Invalid range.");
+            return true;
+        }
+
+        var relativeFilePath = String.join(" ", Arrays.copyOfRange(request, 3, request.length));
+
+        FileEntry resource;
+
+        try {
+            resource = this.resolveFile(relativeFilePath);
+            resource.load(this.dispatcher.getAlgorithm());
+        } catch (IllegalArgumentException | IOException e) {
+            ResponseWriter.writeError(channel, "No such file exists.");
+            return true;
+        }
+
+        var tree = resource.getTree();
+
+        if (from < 0 || count < 0 || from > tree.getLeafCount()) {
+            ResponseWriter.writeError(channel, "Invalid range.");
+            return true;
+        }
+
+        count = Math.min(Math.min(count, MAX_HASHES), tree.getLeafCount() - from);
+
+        var response = RequestDispatcher.mapper.createObjectNode();
+        var hashes = RequestDispatcher.mapper.createArrayNode();
+
+        for (int i = from; i < from + count; i++) {
+            hashes.add(tree.getLeaf(i));
+        }
+
+        response.put("status", true);
+        response.put("path", relativeFilePath);
+        response.put("root", tree.getRoot());
+        response.put("chunkSize", resource.getChunkSize());
+        response.put("leafCount", tree.getLeafCount());
+        response.put("from", from);
+        response.set("hashes", hashes);
+
+        if (count == 1) {
+            var proof = RequestDispatcher.mapper.createArrayNode();
+
+            tree.getProof(from).forEach(proof::add);
+            response.set("proof", proof);
+        }
+
+        ResponseWriter.writeResponse(channel, response);
+        return true;
+    }
+
+    /**
+     * Method to write the header of a 'GetEncoded' response, which tells the peer how the file
+     * that follows is encoded.
+     *
+     * @param channel  - The channel that the header is written to.
+     * @param path     - The requested path of the file.
+     * @param encoding - The encoding that the file is sent with.
+     * @param size     - The size in bytes of the file.
+     * @param length   - The number of bytes that follow, or -1 if the file is compressed as it's sent.
+     * @param chunked  - Whether the body is framed into chunks.
+     * @throws IOException if the peer connection drops whilst writing to the channel.
+     */
+    private static void writeEncodedHeader(IResponseChannel channel, String path, Encoding encoding, long size, long length, boolean chunked) throws IOException {
+        try (var writer = ResponseWriter.open()) {
+            var generator = writer.getGenerator();
+
+            generator.writeStartObject();
+            generator.writeBooleanField("status", true);
+            generator.writeStringField("path", path);
+            generator.writeStringField("encoding", encoding.getName());
+            generator.writeNumberField("size", size);
+            generator.writeNumberField("length", length);
+
+            if (chunked) {
+                generator.writeStringField("framing", "chunked");
+            }
+
+            generator.writeEndObject();
+            writer.send(channel);
+        }
+    }
+
+    /**
+     * Method to write the metadata of a file as a response line, with a status to denote that
+     * the request was successful. The fields are written straight from the file entry, rather
+     * than by serializing the entry into a tree of nodes first.
+     *
+     * @param channel   - The channel that the response is written to.
+     * @param fileEntry - The file entry, whose metadata has been collected.
+     * @param path      - The path of the file that the peer is given.
+     * @throws IOException if the peer connection drops whilst writing to the channel.
+     */
+    private static void writeFileMetadata(IResponseChannel channel, FileEntry fileEntry, String path) throws IOException {
+        try (var writer = ResponseWriter.open()) {
+            var generator = writer.getGenerator();
+            var root = fileEntry.getRoot();
+
+            generator.writeStartObject();
+            generator.writeStringField("path", path);
+            generator.writeBinaryField("digest", fileEntry.getDigest());
+            generator.writeStringField("algorithm", fileEntry.getAlgorithm());
+            generator.writeNumberField("size", fileEntry.getSize());
+            generator.writeNumberField("chunkSize", fileEntry.getChunkSize());
+
+            if (root != null) {
+                generator.writeBinaryField("root", root);
+            } else {
+                generator.writeNullField("root");
+            }
+
+            generator.writeStringField("type", fileEntry.getType());
+            generator.writeStringField("fileName", fileEntry.getFileName());
+            generator.writeBooleanField("status", true);
+            generator.writeEndObject();
+
+            writer.send(channel);
+        }
+    }
+
+    /**
+     * Method to write the metadata of a file as a response frame. The fields are in the same
+     * order as they are in a response line, without the type which is always a file, and
+     * the digests are written as raw bytes.
+     *
+     * @param framed    - The channel that the response frame is written to.
+     * @param fileEntry - The file entry, whose metadata has been collected.
+     * @param path      - The path of the file that the peer is given.
+     * @throws IOException if the peer connection drops whilst writing to the channel.
+     */
+    private static void writeFrameMetadata(FramedChannel framed, FileEntry fileEntry, String path) throws IOException {
+        framed.begin(ResponseType.METADATA)
+                .writeString(path)
+                .writeDigest(fileEntry.getDigest())
+                .writeString(fileEntry.getAlgorithm())
+                .writeLong(fileEntry.getSize())
+                .writeInt(fileEntry.getChunkSize())
+                .writeDigest(fileEntry.getRoot())
+                .writeString(fileEntry.getFileName());
+
+        framed.send();
+    }
+
+    /**
+     * Method to get the path of a file relative to the upload folder rather than the absolute
+     * path, using the same separators as the request paths.
+     *
+     * @param fileEntry - The file entry, which is in the upload folder.
+     * @return The relative path.
+     */
+    private String getRelativePath(FileEntry fileEntry) {
+        var uploadFolder = Paths.get(config.get("upload")).toAbsolutePath().normalize();
+        var relativePath = uploadFolder.relativize(fileEntry.getPath().toAbsolutePath().normalize());
+
+        return relativePath.toString().replace(File.separatorChar, '/');
+    }
+
+    /**
+     * Method to decode the Base64 digest of a 'Locate' request line.
+     *
+     * @param digest - The Base64 encoded digest.
+     * @return The raw bytes of the digest, or null if it isn't valid Base64.
+     */
+    private static byte[] decodeDigest(String digest) {
+        try {
+            return Base64.getDecoder().decode(digest);
+        } catch (IllegalArgumentException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Method to resolve a path relative to the upload folder into a file entry. If the
+     * upload folder is indexed, the path is checked without touching the filesystem.
+     *
+     * @param relativeFilePath - The path of the file relative to the upload folder.
+     * @return The file entry.
+     * @throws IllegalArgumentException if the path doesn't exist, isn't a file or isn't
+     *                                  a child of the 'upload' folder.
+     */
+    private FileEntry resolveFile(String relativeFilePath) {
+        var resourcePath = Paths.get(config.get("upload"), relativeFilePath);
+
+        if (DigestCache.isCacheFile(resourcePath)) {
+            throw new IllegalArgumentException("Path does not exist.");
+        }
+
+        // The folder of the file may not be indexed if it's behind a symbolic link that forms a
+        // cycle or leads out of the upload folder, in which case the filesystem is checked instead.
+        if (index.isReady() && index.list(resourcePath.getParent()) != null) {
+            var entry = index.lookup(resourcePath);
+
+            if (entry == null || entry.isDirectory() || !index.contains(resourcePath)) {
+                throw new IllegalArgumentException("Path does not exist.");
+            }
+
+            return new FileEntry(entry);
+        }
+
+        var uploadFolder = Paths.get(config.get("upload")).toAbsolutePath().normalize();
+
+        if (!resourcePath.toAbsolutePath().normalize().startsWith(uploadFolder)) {
+            throw new IllegalArgumentException("Path does not exist.");
+        }
+
+        return new FileEntry(resourcePath);
+    }
+
+    /**
+     * Method to find a file in the upload folder that has the given size and digest. Only the
+     * files with a matching size are hashed, and their digests are usually cached already.
+     *
+     * @param size      - The size in bytes of the file.
+     * @param digest    - The raw bytes of the digest of the file, or null if it's invalid.
+     * @param algorithm - The algorithm that the digest was computed with.
+     * @return The first matching file, or null if no file matches.
+     */
+    private FileEntry locateFile(long size, byte[] digest, DigestAlgorithm algorithm) {
+        List<Path> candidates = new ArrayList<>();
+
+        if (digest == null) {
+            return null;
+        }
+
+        if (index.isReady()) {
+            index.findBySize(size).forEach(entry -> candidates.add(entry.getPath()));
+        } else {
+            try (var paths = Files.walk(Paths.get(config.get("upload")))) {
+                paths.filter(path -> !DigestCache.isCacheFile(path))
+                        .filter(path -> path.toFile().isFile() && path.toFile().length() == size)
+                        .forEach(candidates::add);
+            } catch (IOException | UncheckedIOException e) {
+                return null;
+            }
+        }
+
+        for (var path : candidates) {
+            try {
+                var entry = new FileEntry(path);
+                entry.load(algorithm);
+
+                if (Arrays.equals(entry.getDigest(), digest)) {
+                    return entry;
+                }
+            } catch (IllegalArgumentException | IOException e) {
+                // The file was removed or can't be read, so it can't be offered.
+            }
+        }
+
+        return null;
+    }
+
+    /**
+     * Method to collect metadata on the given file such as file size, checksum and the
+     * file name. If the file doesn't exist, not a file, or is not a child of the 'upload'
+     * folder; the method will return a message corresponding to the error.
+     *
+     * @param fileEntry - The file entry that the metadata should be collected for.
+     * @param algorithm - The algorithm that the digest should be computed with.
+     * @return null if the metadata was collected, otherwise a message that describes the error.
+     */
+    private String loadFileMetadata(FileEntry fileEntry, DigestAlgorithm algorithm) {
+        // test that the fileURI is valid relative to our upload folder.
+        // We must prevent the client from attempting to query a file out
+        // of the upload folder scope. We will attempt to concatenate the
+        // provided fileURI with our upload folder value. If the path
+        // exists and is a file
+        try {
+            fileEntry.load(algorithm);
+
+            var file = fileEntry.getPath().toFile();
+
+            if (!file.getAbsolutePath().startsWith(config.get("upload")) || !file.exists()) {
+                return "No such file exists.";
+            }
+
+            return null;
+        } catch (InvalidPathException e) {
+            return "Invalid file path";
+        } catch (FileNotFoundException | NoSuchFileException e) {
+            return "Couldn't access file on remote.";
+        } catch (Exception e) {
+            e.printStackTrace();
+            return "Couldn't access file on remote.";
+        }
+    }
+}
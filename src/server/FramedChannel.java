@@ -0,0 +1,144 @@
+package server;
+
+import common.protocol.FrameWriter;
+import common.protocol.ResponseType;
+import common.resources.FileEntry;
+import interfaces.IResponseChannel;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Class that writes the responses of a connection that was switched to the binary protocol
+ * with a {@link common.protocol.Command} 'Protocol' request. Responses that have a binary
+ * layout are written field by field into the frame that is started with {@link #begin}, and
+ * any response line is sent as the payload of a JSON frame, so that commands which have no
+ * binary layout can still be answered.
+ * <p>
+ * Responses that are written as raw bytes, such as a streamed listing, are collected until a
+ * whole line was written, as they are by the {@link TaggedChannel}. Files can't be sent in
+ * response to a frame.
+ *
+ * @author 200008575
+ */
+class FramedChannel implements IResponseChannel {
+    /**
+     * The channel that the frames are written to.
+     */
+    private final IResponseChannel channel;
+
+    /**
+     * The writer that the frames are encoded with, which is reused for every frame.
+     */
+    private final FrameWriter writer = new FrameWriter();
+
+    /**
+     * The bytes of the line that is being written.
+     */
+    private final ByteArrayOutputStream line = new ByteArrayOutputStream();
+
+    /**
+     * FramedChannel constructor
+     *
+     * @param channel - The channel that the frames are written to.
+     */
+    FramedChannel(IResponseChannel channel) {
+        this.channel = channel;
+    }
+
+    /**
+     * Method to start a response frame.
+     *
+     * @param type - The type of the response.
+     * @return The writer that the fields of the response are written with.
+     */
+    FrameWriter begin(ResponseType type) {
+        return this.writer.begin(type.getOpcode());
+    }
+
+    /**
+     * Method to end the response frame that was started with {@link #begin}, and to write it
+     * to the channel.
+     *
+     * @throws IOException if the peer connection drops whilst writing the frame.
+     */
+    void send() throws IOException {
+        this.writer.end();
+        this.channel.writeLine(this.writer.getBuffer(), 0, this.writer.size());
+    }
+
+    /**
+     * Method to write an error response frame.
+     *
+     * @param message - The message that describes the error.
+     * @throws IOException if the peer connection drops whilst writing the frame.
+     */
+    void sendError(String message) throws IOException {
+        this.begin(ResponseType.ERROR).writeString(message);
+        this.send();
+    }
+
+    /**
+     * Method to write a response line as a JSON frame.
+     *
+     * @param line - The JSON object that will be written, excluding the line separator.
+     * @throws IOException if the peer connection drops whilst writing the frame.
+     */
+    @Override
+    public void writeLine(String line) throws IOException {
+        var bytes = line.getBytes(StandardCharsets.UTF_8);
+
+        this.writeLine(bytes, 0, bytes.length);
+    }
+
+    /**
+     * Method to write an encoded response line as a JSON frame, without the line separator.
+     *
+     * @param bytes  - The buffer that holds the line, which may include the line separator.
+     * @param offset - The position in the buffer of the first byte of the line.
+     * @param length - The number of bytes in the line.
+     * @throws IOException if the peer connection drops whilst writing the frame.
+     */
+    @Override
+    public void writeLine(byte[] bytes, int offset, int length) throws IOException {
+        while (length > 0 && (bytes[offset + length - 1] == '\n' || bytes[offset + length - 1] == '\r')) {
+            length--;
+        }
+
+        this.begin(ResponseType.JSON).writeRaw(bytes, offset, length);
+        this.send();
+    }
+
+    /**
+     * Method to reject a file, since the bytes of a file would be taken as the next frame.
+     *
+     * @throws IOException always.
+     */
+    @Override
+    public void writeFile(FileEntry fileEntry, long offset, long length) throws IOException {
+        throw new IOException("Files can't be sent in response to a frame.");
+    }
+
+    /**
+     * Method to collect the bytes of a response, every completed line is written as a JSON
+     * frame.
+     *
+     * @param bytes  - The buffer that holds the bytes.
+     * @param offset - The position in the buffer of the first byte to write.
+     * @param length - The number of bytes to write.
+     * @throws IOException if the peer connection drops whilst writing a frame.
+     */
+    @Override
+    public void writeBytes(byte[] bytes, int offset, int length) throws IOException {
+        for (int i = offset; i < offset + length; i++) {
+            if (bytes[i] != '\n') {
+                this.line.write(bytes[i]);
+                continue;
+            }
+
+            this.writeLine(this.line.toByteArray(), 0, this.line.size());
+            this.line.reset();
+        }
+    }
+}
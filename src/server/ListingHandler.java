@@ -0,0 +1,639 @@
+package server;
+
+import common.Configuration;
+import common.protocol.ResponseType;
+import common.resources.DigestCache;
+import common.resources.DirectoryEntry;
+import common.resources.EntryType;
+import common.resources.FileEntry;
+import common.resources.IndexedEntry;
+import interfaces.IEntry;
+import interfaces.IResponseChannel;
+
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryIteratorException;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.InvalidPathException;
+import java.nio.file.Path;
+import java.nio.file.PathMatcher;
+import java.nio.file.Paths;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.Collection;
+import java.util.List;
+import java.util.TreeMap;
+
+/**
+ * Class that answers the {@link common.protocol.Command} requests which list the contents of
+ * a folder in the upload folder, which are 'List', 'ListPage', 'ListStream' and 'ListTree'.
+ * Folders are listed from the {@link UploadIndex} once it's ready, and are otherwise read
+ * from the filesystem.
+ *
+ * @author 200008575
+ */
+class ListingHandler {
+    /**
+     * The maximum number of entries that are sent in a single 'ListPage' response.
+     */
+    static final int MAX_PAGE_SIZE = 10000;
+
+    /**
+     * The message that every listing command answers with when the requested path isn't a
+     * folder.
+     */
+    static final String NOT_A_FOLDER = "Path must be a folder";
+
+    /**
+     * Instance of the configuration object which is used to get application settings.
+     */
+    private final Configuration config = Configuration.getInstance();
+
+    /**
+     * Our reference to the in-memory index of the upload folder.
+     */
+    private final UploadIndex index = UploadIndex.getInstance();
+
+    /**
+     * Method to process a 'List' request, which lists every entry of a folder in a single
+     * response line.
+     *
+     * @param request - The request split into words, the first of which is the command.
+     * @param channel - The channel that the response should be written to.
+     * @return Whether the connection should be kept open, which it always is.
+     * @throws IOException if the peer connection drops whilst writing to the channel.
+     */
+    boolean processList(String[] request, IResponseChannel channel) throws IOException {
+        // The requester can specify if they want to list the contents
+        // of a specific folder which is located under the upload folder,
+        // hence if they just want to list the root, then we'll set the
+        // additional argument to nothing.
+        var listArg = "";
+
+        if (request.length > 1) {
+            listArg = String.join(" ", Arrays.copyOfRange(request, 1, request.length));
+        }
+
+        Collection<? extends IEntry> entries;
+
+        try {
+            entries = this.getUploadFolderContents(listArg);
+        } catch (IOException e) {
+            ResponseWriter.writeError(channel, "Folder not found");
+            return true;
+        } catch (IllegalArgumentException e) {
+            ResponseWriter.writeError(channel, NOT_A_FOLDER);
+            return true;
+        }
+
+        // Iterate over the entry list and write the appropriate metadata of each entry
+        // straight into the response line.
+        try (var writer = ResponseWriter.open()) {
+            var generator = writer.getGenerator();
+
+            generator.writeStartObject();
+            generator.writeArrayFieldStart("files");
+
+            for (IEntry entry : entries) {
+                generator.writeStartObject();
+                generator.writeStringField("type", entry.getType());
+                generator.writeStringField("path", entry.getFileName());
+                generator.writeEndObject();
+            }
+
+            generator.writeEndArray();
+            generator.writeBooleanField("status", true);
+            generator.writeEndObject();
+
+            writer.send(channel);
+        }
+
+        return true;
+    }
+
+    /**
+     * Method to process a 'List' request frame, whose only field is the path of the folder.
+     * Every entry of the response has the same layout, which is the type of the entry as a
+     * single byte followed by it's name, so the peer reads the entries without parsing them.
+     *
+     * @param folderName - The path of the folder relative to the upload folder, which is empty
+     *                   for the upload folder itself.
+     * @param framed     - The channel that the response frame should be written to.
+     * @throws IOException if the peer connection drops whilst writing to the channel.
+     */
+    void processListFrame(String folderName, FramedChannel framed) throws IOException {
+        Collection<? extends IEntry> entries;
+
+        try {
+            entries = this.getUploadFolderContents(folderName);
+        } catch (IOException e) {
+            framed.sendError("Folder not found");
+            return;
+        } catch (IllegalArgumentException e) {
+            framed.sendError(NOT_A_FOLDER);
+            return;
+        }
+
+        var writer = framed.begin(ResponseType.LISTING).writeInt(entries.size());
+        var directory = EntryType.Directory.toString();
+
+        for (IEntry entry : entries) {
+            writer.writeByte(directory.equals(entry.getType()) ? EntryType.Directory.ordinal() : EntryType.File.ordinal());
+            writer.writeString(entry.getFileName());
+        }
+
+        framed.send();
+    }
+
+    /**
+     * Method to process a 'ListPage' request, which is of the form 'ListPage <limit> <cursor>
+     * [path]', and asks for at most 'limit' entries of the folder, sorted by name. The cursor
+     * is '-' for the first page, and is otherwise the 'next' value of the previous page, which
+     * encodes the name of the last entry that was sent. Since the cursor is a name rather than
+     * a position, pages stay consistent whilst entries are added or removed.
+     *
+     * @param request - The request split into words, the first of which is the command.
+     * @param channel - The channel that the response should be written to.
+     * @return Whether the connection should be kept open, which it always is.
+     * @throws IOException if the peer connection drops whilst writing to the channel.
+     */
+    boolean processListPage(String[] request, IResponseChannel channel) throws IOException {
+        if (request.length < 3) {
+            ResponseWriter.writeError(channel, "Usage: ListPage <limit> <cursor> [path]");
+            return true;
+        }
+
+        int limit;
+        String after = null;
+
+        try {
+            limit = Integer.parseInt(request[1]);
+
+            if (!request[2].equals("-")) {
+                after = new String(Base64.getUrlDecoder().decode(request[2]), StandardCharsets.UTF_8);
+            }
+        } catch (IllegalArgumentException e) {
+            ResponseWriter.writeError(channel, "Invalid page.");
+            return true;
+        }
+
+        if (limit < 1 || limit > MAX_PAGE_SIZE) {
+            ResponseWriter.writeError(channel, String.format("Page size must be between 1 and %d.", MAX_PAGE_SIZE));
+            return true;
+        }
+
+        var folderName = String.join(" ", Arrays.copyOfRange(request, 3, request.length));
+
+        List<IndexedEntry> page;
+
+        try {
+            // An extra entry is fetched to find out if there is another page.
+            page = this.listPage(this.resolveFolder(folderName), after, limit + 1);
+        } catch (IOException e) {
+            ResponseWriter.writeError(channel, "Folder not found");
+            return true;
+        } catch (IllegalArgumentException e) {
+            ResponseWriter.writeError(channel, NOT_A_FOLDER);
+            return true;
+        }
+
+        var more = page.size() > limit;
+
+        if (more) {
+            page = page.subList(0, limit);
+        }
+
+        try (var writer = new ListingWriter(channel)) {
+            var generator = writer.getGenerator();
+
+            generator.writeStartObject();
+            generator.writeBooleanField("status", true);
+            generator.writeStringField("path", folderName);
+            generator.writeArrayFieldStart("files");
+
+            for (var entry : page) {
+                writer.writeEntry(entry.getFileName(), entry);
+            }
+
+            generator.writeEndArray();
+
+            if (more) {
+                var last = page.get(page.size() - 1).getFileName().getBytes(StandardCharsets.UTF_8);
+
+                generator.writeStringField("next", Base64.getUrlEncoder().withoutPadding().encodeToString(last));
+            } else {
+                generator.writeNullField("next");
+            }
+
+            generator.writeEndObject();
+            writer.endLine();
+        }
+
+        return true;
+    }
+
+    /**
+     * Method to process a 'ListStream' request, which is of the form 'ListStream [path]', and
+     * asks for every entry of the folder. The response is a header line, followed by a line
+     * for each entry as it's read, and ends with a line that holds 'end' and the number of
+     * entries that were sent. The connection stays open, so that it can be used for further
+     * requests.
+     *
+     * @param request - The request split into words, the first of which is the command.
+     * @param channel - The channel that the response should be written to.
+     * @return Whether the connection should be kept open, which it always is.
+     * @throws IOException if the peer connection drops whilst writing to the channel.
+     */
+    boolean processListStream(String[] request, IResponseChannel channel) throws IOException {
+        var folderName = String.join(" ", Arrays.copyOfRange(request, 1, request.length));
+
+        Path folder;
+
+        try {
+            folder = this.resolveFolder(folderName);
+        } catch (IOException e) {
+            ResponseWriter.writeError(channel, "Folder not found");
+            return true;
+        } catch (IllegalArgumentException e) {
+            ResponseWriter.writeError(channel, NOT_A_FOLDER);
+            return true;
+        }
+
+        try (var writer = new ListingWriter(channel)) {
+            var header = RequestDispatcher.mapper.createObjectNode();
+
+            header.put("status", true);
+            header.put("path", folderName);
+            writer.writeLine(header);
+
+            var end = RequestDispatcher.mapper.createObjectNode();
+
+            try {
+                var count = this.streamFolder(folder, entry -> {
+                    writer.writeEntry(entry.getFileName(), entry);
+                    writer.endLine();
+                });
+
+                end.put("status", true);
+                end.put("count", count);
+            } catch (DirectoryIteratorException e) {
+                // The folder couldn't be read part way through, the peer still gets the end
+                // line so that it doesn't wait for more entries.
+                end.put("status", false);
+                end.put("message", "Folder couldn't be read.");
+            }
+
+            end.put("end", true);
+            writer.writeLine(end);
+        }
+
+        return true;
+    }
+
+    /**
+     * Method to process a 'ListTree' request, which is of the form 'ListTree <depth> <glob>
+     * [path]', and asks for every entry of the folder tree up to the given depth, where '-'
+     * doesn't limit the depth. Only the entries that match the glob are sent, and '-' matches
+     * every entry. A glob that doesn't contain a '/' is matched against file names, otherwise
+     * it's matched against the paths relative to the folder. The response is streamed like
+     * 'ListStream', but the entries are sent as they are found by a parallel walk of the
+     * tree, so they aren't in any particular order.
+     *
+     * @param request - The request split into words, the first of which is the command.
+     * @param channel - The channel that the response should be written to.
+     * @return Whether the connection should be kept open, which it always is.
+     * @throws IOException if the peer connection drops whilst writing to the channel.
+     */
+    boolean processListTree(String[] request, IResponseChannel channel) throws IOException {
+        if (request.length < 3) {
+            ResponseWriter.writeError(channel, "Usage: ListTree <depth> <glob> [path]");
+            return true;
+        }
+
+        int depth = 0;
+        PathMatcher matcher = null;
+
+        try {
+            if (!request[1].equals("-")) {
+                depth = Integer.parseInt(request[1]);
+
+                if (depth < 1) {
+                    throw new IllegalArgumentException("Depth must be positive.");
+                }
+            }
+
+            if (!request[2].equals("-")) {
+                matcher = FileSystems.getDefault().getPathMatcher("glob:" + request[2]);
+            }
+        } catch (IllegalArgumentException e) {
+            ResponseWriter.writeError(channel, "Invalid depth or glob.");
+            return true;
+        }
+
+        var folderName = String.join(" ", Arrays.copyOfRange(request, 3, request.length));
+
+        Path folder;
+
+        try {
+            folder = this.resolveFolder(folderName);
+        } catch (IOException e) {
+            ResponseWriter.writeError(channel, "Folder not found");
+            return true;
+        } catch (IllegalArgumentException e) {
+            ResponseWriter.writeError(channel, NOT_A_FOLDER);
+            return true;
+        }
+
+        var walker = new TreeWalker(folder, depth, matcher, !request[2].contains("/"));
+
+        try (var writer = new ListingWriter(channel)) {
+            var header = RequestDispatcher.mapper.createObjectNode();
+
+            header.put("status", true);
+            header.put("path", folderName);
+            writer.writeLine(header);
+
+            var count = walker.walk((path, entry) -> {
+                writer.writeEntry(path, entry);
+                writer.endLine();
+            });
+
+            var end = RequestDispatcher.mapper.createObjectNode();
+
+            end.put("status", true);
+            end.put("count", count);
+            end.put("directories", walker.getDirectories());
+            end.put("skipped", walker.getSkipped());
+            end.put("end", true);
+            writer.writeLine(end);
+        }
+
+        return true;
+    }
+
+    /**
+     * Method to list the contents of the upload folder. If the upload folder is indexed,
+     * the entries are taken from the {@link UploadIndex}. Otherwise, this method will cycle through
+     * all of the upload folder contents and convert each entry into either a DirectoryEntry
+     * or FileEntry. FileEntry object has several methods which allows the caller to invoke
+     * methods that can retrieve metadata from the file like the size or compute the md5 hash.
+     *
+     * @param folderName - The relative path to a folder within the 'upload' folder that will be
+     *                   concatenated with the upload folder path to list the contents of the
+     *                   child directory.
+     * @return A list of file/directory entries based on the location of the upload folder.
+     * @throws IllegalArgumentException if the formed path is a file and not a folder.
+     * @throws FileNotFoundException    if the result of combining the 'upload' folder path and
+     *                                  and the folderName parameter does not exist, or is not a
+     *                                  child of the 'upload' folder.
+     */
+    private Collection<? extends IEntry> getUploadFolderContents(String folderName) throws IllegalArgumentException, IOException {
+        // If the upload folder is indexed, the listing can be answered from memory.
+        if (index.isReady()) {
+            var folderPath = Paths.get(config.get("upload"), folderName);
+            var entries = index.list(folderPath);
+
+            if (entries != null && index.contains(folderPath)) {
+                return entries;
+            }
+
+            var entry = index.lookup(folderPath);
+
+            if (entry != null && !entry.isDirectory()) {
+                throw new IllegalArgumentException("Upload folder must not be a file.");
+            }
+
+            // A directory that isn't indexed is behind a symbolic link that forms a cycle or
+            // leads out of the upload folder, which is listed from the filesystem.
+            if (entry == null || !index.contains(folderPath)) {
+                throw new FileNotFoundException("no such folder exists.");
+            }
+        }
+
+        File uploadFolder = Paths.get(Configuration.getInstance().get("upload"), folderName).toFile();
+
+        // Ensure the formed path is not a file
+        if (uploadFolder.isFile()) {
+            throw new IllegalArgumentException("Upload folder must not be a file.");
+        }
+
+        // @Security: Ensure that the result from combining the 'upload' folder and folder name is a child of
+        // the 'upload folder'. Otherwise, the client could have access to files across the whole system.
+        //
+        // We should also consider if the path is a symbolic links that points outside of the directory. If so, that
+        // could allow the client to get access to files outside of the 'upload' folder.
+        if (!uploadFolder.getAbsolutePath().startsWith(config.get("upload")) || !uploadFolder.exists()) {
+            throw new FileNotFoundException("no such folder exists.");
+        }
+
+        List<IEntry> entries = new ArrayList<>();
+        File[] files = uploadFolder.listFiles();
+
+        // Don't bother attempting loop through the directory entries if the
+        // system folder was empty or couldn't be listed due to permissions.
+        if (files == null) {
+            return entries;
+        }
+
+        // Loop through each entry in the upload folder and convert them into FileEntry objects
+        for (var file : files) {
+            // The digest cache file is internal to this peer, so it isn't shared.
+            if (DigestCache.isCacheFile(file.toPath())) {
+                continue;
+            }
+
+            if (file.isFile()) {
+                entries.add(new FileEntry(file.toPath()));
+            } else {
+                entries.add(new DirectoryEntry(file.toPath()));
+            }
+        }
+
+        return entries;
+    }
+
+    /**
+     * Method to resolve a path relative to the upload folder into the absolute path of a
+     * folder. If the upload folder is indexed, the path is checked without touching the
+     * filesystem.
+     *
+     * @param folderName - The path of the folder relative to the upload folder.
+     * @return The absolute path of the folder.
+     * @throws IllegalArgumentException if the path is a file.
+     * @throws FileNotFoundException if the path doesn't exist or isn't a child of the
+     *                               'upload' folder.
+     */
+    private Path resolveFolder(String folderName) throws FileNotFoundException {
+        var uploadFolder = Paths.get(config.get("upload")).toAbsolutePath().normalize();
+        Path folder;
+
+        try {
+            folder = uploadFolder.resolve(folderName).normalize();
+        } catch (InvalidPathException e) {
+            throw new FileNotFoundException("no such folder exists.");
+        }
+
+        if (!folder.startsWith(uploadFolder)) {
+            throw new FileNotFoundException("no such folder exists.");
+        }
+
+        if (index.isReady() && index.contains(folder)) {
+            if (index.list(folder) != null) {
+                return folder;
+            }
+
+            var entry = index.lookup(folder);
+
+            if (entry != null && !entry.isDirectory()) {
+                throw new IllegalArgumentException("Upload folder must not be a file.");
+            }
+
+            throw new FileNotFoundException("no such folder exists.");
+        }
+
+        if (Files.isRegularFile(folder)) {
+            throw new IllegalArgumentException("Upload folder must not be a file.");
+        }
+
+        if (!Files.isDirectory(folder)) {
+            throw new FileNotFoundException("no such folder exists.");
+        }
+
+        return folder;
+    }
+
+    /**
+     * Method to get a page of the entries of a folder, sorted by name. If the folder isn't
+     * indexed, the folder is read in full but only the page is kept, so the memory that is
+     * used is bounded by the size of the page rather than the size of the folder.
+     *
+     * @param folder - The absolute path of the folder.
+     * @param after  - The name that the entries must come after, or null for the first page.
+     * @param count  - The maximum number of entries in the page.
+     * @return The entries of the page.
+     * @throws IOException if the folder couldn't be read.
+     */
+    private List<IndexedEntry> listPage(Path folder, String after, int count) throws IOException {
+        if (index.isReady()) {
+            var entries = index.list(folder, after);
+
+            if (entries != null) {
+                List<IndexedEntry> page = new ArrayList<>();
+
+                for (var entry : entries) {
+                    if (page.size() == count) {
+                        break;
+                    }
+
+                    page.add(entry);
+                }
+
+                return page;
+            }
+        }
+
+        var page = new TreeMap<String, IndexedEntry>();
+
+        try (var stream = Files.newDirectoryStream(folder)) {
+            for (var path : stream) {
+                var name = path.getFileName().toString();
+
+                // Skip the entries before the cursor, and the entries that come after a full page.
+                if ((after != null && name.compareTo(after) <= 0) || (page.size() == count && name.compareTo(page.lastKey()) > 0)) {
+                    continue;
+                }
+
+                var entry = readEntry(path);
+
+                if (entry != null) {
+                    page.put(name, entry);
+
+                    if (page.size() > count) {
+                        page.pollLastEntry();
+                    }
+                }
+            }
+        }
+
+        return new ArrayList<>(page.values());
+    }
+
+    /**
+     * Method to visit every entry of a folder as it's read. The entries come from the index
+     * in name order if the folder is indexed, otherwise they are read from the filesystem in
+     * the order that the directory returns them.
+     *
+     * @param folder  - The absolute path of the folder.
+     * @param visitor - The visitor that is given each entry.
+     * @return The number of entries that were visited.
+     * @throws IOException if the folder couldn't be opened, or the visitor failed.
+     */
+    private long streamFolder(Path folder, EntryVisitor visitor) throws IOException {
+        var count = 0L;
+
+        if (index.isReady()) {
+            var entries = index.list(folder);
+
+            if (entries != null) {
+                for (var entry : entries) {
+                    visitor.visit(entry);
+                    count++;
+                }
+
+                return count;
+            }
+        }
+
+        try (var stream = Files.newDirectoryStream(folder)) {
+            for (var path : stream) {
+                var entry = readEntry(path);
+
+                if (entry != null) {
+                    visitor.visit(entry);
+                    count++;
+                }
+            }
+        }
+
+        return count;
+    }
+
+    /**
+     * Method to read an entry of a folder from the filesystem.
+     *
+     * @param path - The path of the entry.
+     * @return The entry, or null if it is internal to this peer or was removed whilst the
+     * folder was being read.
+     */
+    private static IndexedEntry readEntry(Path path) {
+        // The digest cache file is internal to this peer, so it isn't shared.
+        if (DigestCache.isCacheFile(path)) {
+            return null;
+        }
+
+        try {
+            return new IndexedEntry(path, Files.readAttributes(path, BasicFileAttributes.class));
+        } catch (IOException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Interface that is given each entry of a folder that is being streamed to a peer.
+     */
+    @FunctionalInterface
+    private interface EntryVisitor {
+        /**
+         * Method to process an entry.
+         *
+         * @param entry - The entry.
+         * @throws IOException if the entry couldn't be written to the peer.
+         */
+        void visit(IndexedEntry entry) throws IOException;
+    }
+}
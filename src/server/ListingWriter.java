@@ -0,0 +1,108 @@
+package server;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import common.protocol.WireFormat;
+import common.resources.IndexedEntry;
+import interfaces.IResponseChannel;
+
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.IOException;
+
+/**
+ * Class that writes a listing response to a peer connection incrementally, with a Jackson
+ * {@link JsonGenerator} that writes through a buffer straight into the response channel. A
+ * listing of a huge directory is therefore never held in memory as a tree of nodes or as a
+ * single string.
+ * <p>
+ * Responses are written as lines of JSON, either a single line that holds a page of entries,
+ * or a line for each entry which the peer can read one at a time.
+ *
+ * @author 200008575
+ */
+class ListingWriter implements Closeable {
+    /**
+     * The size of the buffer that the lines are written through.
+     */
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    /**
+     * The generator that the response is written with.
+     */
+    private final JsonGenerator generator;
+
+    /**
+     * ListingWriter constructor
+     *
+     * @param channel - The channel that the response is written to.
+     * @throws IOException if the generator couldn't be created.
+     */
+    ListingWriter(IResponseChannel channel) throws IOException {
+        var out = new BufferedOutputStream(new ResponseOutputStream(channel), BUFFER_SIZE);
+
+        this.generator = RequestDispatcher.mapper.getFactory().createGenerator(out);
+
+        // Every value is ended by a line separator instead of being separated by a space.
+        this.generator.setRootValueSeparator(null);
+    }
+
+    /**
+     * Method to get the generator, so that a line can be built field by field.
+     *
+     * @return The generator that the response is written with.
+     */
+    JsonGenerator getGenerator() {
+        return this.generator;
+    }
+
+    /**
+     * Method to write a whole object as a line.
+     *
+     * @param node - The object that will be written.
+     * @throws IOException if the peer connection drops whilst writing the line.
+     */
+    void writeLine(ObjectNode node) throws IOException {
+        ResponseWriter.NODE_WRITER.writeValue(this.generator, node);
+        this.endLine();
+    }
+
+    /**
+     * Method to write an entry as an object with it's type, it's path and the size of it
+     * if it's a file.
+     *
+     * @param path  - The path of the entry that the peer is given.
+     * @param entry - The entry.
+     * @throws IOException if the peer connection drops whilst writing the entry.
+     */
+    void writeEntry(String path, IndexedEntry entry) throws IOException {
+        this.generator.writeStartObject();
+        this.generator.writeStringField("type", entry.getType());
+        this.generator.writeStringField("path", path);
+
+        if (!entry.isDirectory()) {
+            this.generator.writeNumberField("size", entry.getSize());
+        }
+
+        this.generator.writeEndObject();
+    }
+
+    /**
+     * Method to end the current line.
+     *
+     * @throws IOException if the peer connection drops whilst writing the line.
+     */
+    void endLine() throws IOException {
+        this.generator.writeRaw(WireFormat.LINE_SEPARATOR);
+    }
+
+    /**
+     * Method to write any buffered lines to the channel.
+     *
+     * @throws IOException if the peer connection drops whilst writing the lines.
+     */
+    @Override
+    public void close() throws IOException {
+        this.generator.close();
+    }
+}
@@ -0,0 +1,949 @@
+package server;
+
+import common.BandwidthLimiter;
+import common.FileTransfer;
+import common.Throttle;
+import common.protocol.FrameReader;
+import common.protocol.FrameWriter;
+import common.protocol.WireFormat;
+import common.resources.FileEntry;
+import interfaces.IResponseChannel;
+
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.Queue;
+
+/**
+ * NioConnection class holds the state of a single peer connection that is served
+ * by an {@link EventLoop}. Bytes that are read from the socket are split into request
+ * lines, or frames, which are processed one at a time on the worker pool. Any responses that are
+ * written by the {@link RequestDispatcher} are queued and written by the loop when the
+ * socket is ready to accept more data.
+ *
+ * @author 200008575
+ */
+public class NioConnection implements IResponseChannel {
+    /**
+     * The size of the buffer that is used to read requests from the socket.
+     */
+    private static final int READ_BUFFER_SIZE = 8 * 1024;
+
+    /**
+     * The longest request line that is accepted from a peer. Anything longer than
+     * this is treated as a misbehaving peer and the connection is closed.
+     */
+    private static final int MAX_LINE_LENGTH = 64 * 1024;
+
+    /**
+     * The number of queued response bytes after which a worker that is writing a
+     * response will wait for the loop to drain the queue.
+     */
+    private static final long HIGH_WATER_MARK = 1024 * 1024;
+
+    /**
+     * The most bytes that are written to the socket for a single write event, after which the
+     * loop serves the other connections before writing more, so that a large transfer to a
+     * fast peer doesn't hold up the replies to other connections.
+     */
+    private static final long WRITE_BUDGET = 1024 * 1024;
+
+    /**
+     * Number that represents the least time (in nanoseconds) that writing is paused for when
+     * the upload limits are reached, a shorter wait is carried over to the next chunk.
+     */
+    private static final long MIN_PAUSE_NANOS = 1_000_000L;
+
+    /**
+     * The socket channel of the peer connection.
+     */
+    private final SocketChannel channel;
+
+    /**
+     * The key of the channel registration on the loop's selector.
+     */
+    private final SelectionKey key;
+
+    /**
+     * The loop that this connection is registered on.
+     */
+    private final EventLoop loop;
+
+    /**
+     * The dispatcher that is used to process the requests of this connection.
+     */
+    private final RequestDispatcher dispatcher = new RequestDispatcher();
+
+    /**
+     * The throttle that limits how fast responses are sent to the peer.
+     */
+    private final Throttle throttle;
+
+    /**
+     * The number of bytes that tokens were taken for but that haven't been written yet. This
+     * is only accessed by the loop thread.
+     */
+    private long allowance = 0;
+
+    /**
+     * Whether writing is paused until the upload limits allow more bytes to be sent. This is
+     * only accessed by the loop thread.
+     */
+    private boolean throttled = false;
+
+    /**
+     * The scheduler that shares the upload capacity between peers.
+     */
+    private final UploadScheduler scheduler = UploadScheduler.getInstance();
+
+    /**
+     * The address of the peer, which the uploads to the peer are grouped by.
+     */
+    private final String address;
+
+    /**
+     * The ticket of the slot that a file is being sent with, or null if the connection
+     * doesn't hold or wait for a slot. This is only accessed by the loop thread.
+     */
+    private UploadScheduler.Ticket ticket = null;
+
+    /**
+     * The number of bytes that may still be sent with the slot.
+     */
+    private long ticketBytes = 0;
+
+    /**
+     * Whether writing is paused until the scheduler grants the connection a slot. This is
+     * only accessed by the loop thread.
+     */
+    private boolean waitingForSlot = false;
+
+    /**
+     * Buffer that is used to read bytes from the socket.
+     */
+    private final ByteBuffer readBuffer = ByteBuffer.allocate(READ_BUFFER_SIZE);
+
+    /**
+     * Buffer that holds the bytes of a request line or frame that hasn't been fully received.
+     */
+    private final ByteArrayOutputStream lineBuffer = new ByteArrayOutputStream();
+
+    /**
+     * Requests that have been received but haven't been processed yet, which are either lines
+     * or {@link FrameReader} objects. This is only accessed by the loop thread.
+     */
+    private final Queue<Object> requests = new ArrayDeque<>();
+
+    /**
+     * Whether a request is currently being processed on the worker pool. This is only
+     * accessed by the loop thread.
+     */
+    private boolean processing = false;
+
+    /**
+     * Queue of pending writes, which are either {@link ByteBuffer} objects that hold response
+     * lines, {@link Body} objects or {@link FileRegion} objects. The queue is guarded by the
+     * connection's monitor.
+     */
+    private Deque<Object> outbound = new ArrayDeque<>();
+
+    /**
+     * Queue of the writes that the loop took from the outbound queue and is writing to the
+     * socket. This is only accessed by the loop thread, so the socket is written to without
+     * holding the connection's monitor.
+     */
+    private Deque<Object> writing = new ArrayDeque<>();
+
+    /**
+     * The number of bytes that are held in the outbound and writing queues, which is guarded
+     * by the connection's monitor.
+     */
+    private long queuedBytes = 0;
+
+    /**
+     * Whether the connection should be closed when the outbound queue is drained.
+     */
+    private boolean closeAfterWrite = false;
+
+    /**
+     * Whether the connection has been closed.
+     */
+    private volatile boolean closed = false;
+
+    /**
+     * The time when the connection last read a request or finished a response. This is only
+     * accessed by the loop thread.
+     */
+    private long lastActive = System.currentTimeMillis();
+
+    /**
+     * Constructor method for the NioConnection class.
+     *
+     * @param channel - The socket channel of the peer connection.
+     * @param key     - The key of the channel registration.
+     * @param loop    - The loop that the connection is registered on.
+     */
+    public NioConnection(SocketChannel channel, SelectionKey key, EventLoop loop) {
+        this.channel = channel;
+        this.key = key;
+        this.loop = loop;
+        this.address = channel.socket().getInetAddress().getHostAddress();
+        this.throttle = BandwidthLimiter.getInstance().forUpload(this.address);
+    }
+
+    /**
+     * Method that is invoked by the loop when the socket has data to be read. Any complete
+     * lines, or complete frames once the peer switched the connection to frames, are added
+     * onto the request queue.
+     *
+     * @throws IOException if reading from the socket fails.
+     */
+    void handleRead() throws IOException {
+        this.lastActive = System.currentTimeMillis();
+        readBuffer.clear();
+
+        int count = channel.read(readBuffer);
+
+        // The peer closed the connection, so there is nothing more to process.
+        if (count == -1) {
+            this.close();
+            return;
+        }
+
+        readBuffer.flip();
+
+        // Reading is paused whilst a request is processed, and the peer waits for the answer to a
+        // 'Protocol' request before it sends anything else, so the format of the bytes is known.
+        var valid = this.dispatcher.getFormat() == WireFormat.BINARY ? this.readFrames() : this.readLines();
+
+        if (!valid) {
+            this.close();
+            return;
+        }
+
+        this.processNext();
+    }
+
+    /**
+     * Method to split the bytes that were read into request lines.
+     *
+     * @return Whether the line that hasn't been fully received is short enough to be accepted.
+     */
+    private boolean readLines() {
+        while (readBuffer.hasRemaining()) {
+            byte value = readBuffer.get();
+
+            if (value == '\n') {
+                var bytes = lineBuffer.toByteArray();
+                var length = bytes.length;
+
+                // Strip the carriage return if the peer used a '\r\n' line separator
+                if (length > 0 && bytes[length - 1] == '\r') {
+                    length--;
+                }
+
+                requests.add(new String(bytes, 0, length, StandardCharsets.UTF_8));
+                lineBuffer.reset();
+            } else {
+                lineBuffer.write(value);
+            }
+        }
+
+        return lineBuffer.size() <= MAX_LINE_LENGTH;
+    }
+
+    /**
+     * Method to split the bytes that were read into request frames. The frames share the
+     * array that the bytes were collected in, since the array isn't written to afterwards.
+     *
+     * @return Whether every frame that was started is short enough to be accepted.
+     */
+    private boolean readFrames() {
+        lineBuffer.write(readBuffer.array(), readBuffer.position(), readBuffer.remaining());
+
+        if (lineBuffer.size() < FrameWriter.HEADER_SIZE) {
+            return true;
+        }
+
+        var bytes = lineBuffer.toByteArray();
+        var position = 0;
+
+        while (bytes.length - position >= FrameWriter.HEADER_SIZE) {
+            var length = FrameReader.getLength(bytes, position);
+
+            if (length < 0 || length > RequestDispatcher.MAX_FRAME_LENGTH) {
+                return false;
+            }
+
+            if (bytes.length - position - FrameWriter.HEADER_SIZE < length) {
+                break;
+            }
+
+            requests.add(new FrameReader(bytes[position] & 0xFF, bytes, position + FrameWriter.HEADER_SIZE, length));
+            position += FrameWriter.HEADER_SIZE + length;
+        }
+
+        lineBuffer.reset();
+        lineBuffer.write(bytes, position, bytes.length - position);
+
+        return true;
+    }
+
+    /**
+     * Method to process the next request on the worker pool. Reading from the socket is
+     * paused whilst a request is being processed so that a peer cannot queue up an
+     * unbounded amount of requests.
+     */
+    private void processNext() {
+        if (this.processing || this.closed) {
+            return;
+        }
+
+        var request = requests.poll();
+
+        if (request == null) {
+            return;
+        }
+
+        this.processing = true;
+        key.interestOps(key.interestOps() & ~SelectionKey.OP_READ);
+
+        loop.getWorkers().execute(() -> {
+            boolean keepOpen;
+
+            try {
+                keepOpen = request instanceof FrameReader ?
+                        this.dispatcher.dispatch((FrameReader) request, this) :
+                        this.dispatcher.dispatch((String) request, this);
+            } catch (IOException e) {
+                keepOpen = false;
+            } catch (RuntimeException e) {
+                e.printStackTrace();
+                keepOpen = false;
+            }
+
+            final var shouldKeepOpen = keepOpen;
+            loop.execute(() -> this.onRequestFinished(shouldKeepOpen));
+        });
+    }
+
+    /**
+     * Method that is invoked on the loop thread when a request has finished processing.
+     *
+     * @param keepOpen - Whether the connection should be kept open.
+     */
+    private void onRequestFinished(boolean keepOpen) {
+        this.processing = false;
+        this.lastActive = System.currentTimeMillis();
+
+        if (this.closed) {
+            return;
+        }
+
+        if (!keepOpen) {
+            requests.clear();
+
+            synchronized (this) {
+                this.closeAfterWrite = true;
+            }
+
+            this.enableWrite();
+            return;
+        }
+
+        if (requests.isEmpty()) {
+            key.interestOps(key.interestOps() | SelectionKey.OP_READ);
+        } else {
+            this.processNext();
+        }
+    }
+
+    /**
+     * Method that is invoked by the loop when the socket can accept more data. The
+     * outbound queue is written until it's empty, until the socket buffer is full, or
+     * until the upload limits are reached, in which case writing is paused until the
+     * limits allow more bytes to be sent. Files are only sent whilst the connection holds
+     * a slot of the {@link UploadScheduler}, response lines don't need one.
+     * <p>
+     * The connection's monitor is only held to take the queued writes, so workers that
+     * queue a response aren't held up whilst the socket is written to.
+     *
+     * @throws IOException if writing to the socket fails.
+     */
+    void handleWrite() throws IOException {
+        synchronized (this) {
+            if (writing.isEmpty()) {
+                var swap = this.writing;
+
+                this.writing = this.outbound;
+                this.outbound = swap;
+            } else {
+                writing.addAll(outbound);
+                outbound.clear();
+            }
+        }
+
+        var drained = 0L;
+
+        try {
+            drained = this.writeQueued(WRITE_BUDGET);
+        } finally {
+            this.onWritten(drained);
+        }
+    }
+
+    /**
+     * Method to write the queue of writes that the loop took, which is run on the loop
+     * thread without holding the connection's monitor.
+     *
+     * @param budget - The most bytes to write.
+     * @return The number of queued bytes that were written.
+     * @throws IOException if writing to the socket fails.
+     */
+    private long writeQueued(long budget) throws IOException {
+        var drained = 0L;
+
+        while (!writing.isEmpty()) {
+            // Write events keep coming whilst the socket can accept more data, so the rest of
+            // the queue is written on the next event once the other connections were served.
+            if (budget <= 0) {
+                break;
+            }
+
+            var item = writing.peek();
+
+            // A file waits for it's turn before it waits for tokens, so the peers take turns at
+            // the upload limit as well.
+            if (item instanceof FileRegion && !this.holdsSlot()) {
+                this.waitForSlot();
+                break;
+            }
+
+            // Response lines aren't limited, so short replies aren't held up by the upload limits.
+            var limited = !(item instanceof ByteBuffer);
+            var limit = limited ? Math.min(budget, this.getAllowance(item instanceof FileRegion ? this.ticketBytes : Long.MAX_VALUE)) : budget;
+
+            // Writing was paused until the reserved chunk may be written.
+            if (limit == 0) {
+                break;
+            }
+
+            long written;
+            boolean finished;
+
+            if (!(item instanceof FileRegion)) {
+                var buffer = item instanceof Body ? ((Body) item).buffer : (ByteBuffer) item;
+
+                written = write(buffer, limit);
+                finished = !buffer.hasRemaining();
+                drained += written;
+            } else {
+                var region = (FileRegion) item;
+
+                limit = Math.min(limit, this.ticketBytes);
+                written = region.transferTo(channel, limit);
+                finished = region.isFinished();
+
+                if (this.ticket != null) {
+                    this.ticketBytes -= written;
+
+                    // The slot is given up once the file was sent. Once the slot is used up, the
+                    // next chunk is queued and the connection waits for it's next turn.
+                    if (finished) {
+                        this.releaseSlot();
+                    } else if (this.ticketBytes <= 0) {
+                        this.ticket = this.scheduler.renew(this.ticket, UploadScheduler.QUANTUM, () -> loop.execute(this::onSlotGranted));
+                        this.ticketBytes = UploadScheduler.QUANTUM;
+                    }
+                }
+            }
+
+            if (limited && this.throttle.isLimited()) {
+                this.allowance -= written;
+            }
+
+            budget -= written;
+
+            if (!finished) {
+                // The socket buffer is full, wait for the next write event.
+                if (written < limit) {
+                    break;
+                }
+
+                continue;
+            }
+
+            if (item instanceof FileRegion) {
+                ((FileRegion) item).close();
+            }
+
+            writing.poll();
+        }
+
+        return drained;
+    }
+
+    /**
+     * Method that is invoked on the loop thread after the queued writes were written, to
+     * wake up any workers that are waiting for the queue to be drained, and to stop write
+     * events once every write is done.
+     *
+     * @param drained - The number of queued bytes that were written.
+     */
+    private void onWritten(long drained) {
+        boolean empty;
+        boolean closeAfterWrite;
+
+        synchronized (this) {
+            this.queuedBytes -= drained;
+            this.notifyAll();
+
+            empty = writing.isEmpty() && outbound.isEmpty();
+            closeAfterWrite = this.closeAfterWrite;
+        }
+
+        if (!empty || this.closed) {
+            return;
+        }
+
+        this.lastActive = System.currentTimeMillis();
+
+        // Tokens that weren't used are returned, so that an idle connection doesn't hold them.
+        this.throttle.refund(this.allowance);
+        this.allowance = 0;
+
+        if (closeAfterWrite) {
+            this.close();
+        } else if (key.isValid()) {
+            key.interestOps(key.interestOps() & ~SelectionKey.OP_WRITE);
+        }
+    }
+
+    /**
+     * Method to get how many bytes may be written before more tokens have to be taken from
+     * the throttle. Tokens are taken for a whole chunk at once, so that a fast transfer
+     * doesn't take them for every write. The tokens are reserved even if the throttle goes
+     * into debt, and the chunk is written once the debt was paid back, so the connections
+     * that share a limit take turns in the order that they reserved their chunks.
+     *
+     * @param most - The most bytes that will be written, which limits the size of the chunk.
+     * @return The number of bytes, 0 if writing has to wait for the reserved chunk, or
+     * {@link Long#MAX_VALUE} if the connection isn't limited.
+     */
+    private long getAllowance(long most) {
+        if (!this.throttle.isLimited()) {
+            this.allowance = 0;
+            return Long.MAX_VALUE;
+        }
+
+        if (this.allowance <= 0) {
+            var chunk = Math.min(most, this.throttle.getChunkSize());
+            var delay = this.throttle.reserve(chunk);
+
+            this.allowance += chunk;
+
+            if (delay >= MIN_PAUSE_NANOS) {
+                this.pauseWrite(delay);
+                return 0;
+            }
+        }
+
+        return this.allowance;
+    }
+
+    /**
+     * Method to stop write events until the upload limits allow more bytes to be sent, this
+     * must be run on the loop thread.
+     *
+     * @param delay - The time in nanoseconds until the reserved chunk may be written.
+     */
+    private void pauseWrite(long delay) {
+        this.throttled = true;
+        key.interestOps(key.interestOps() & ~SelectionKey.OP_WRITE);
+
+        loop.schedule(delay, () -> {
+            this.throttled = false;
+            this.enableWrite();
+        });
+    }
+
+    /**
+     * Method to check if the connection may send a file, and to ask the scheduler for a slot
+     * if it doesn't hold one.
+     *
+     * @return Whether the connection holds a slot, or uploads aren't scheduled.
+     */
+    private boolean holdsSlot() {
+        if (this.ticket == null) {
+            if (!this.scheduler.isEnabled()) {
+                this.ticketBytes = Long.MAX_VALUE;
+                return true;
+            }
+
+            this.ticket = this.scheduler.submit(this.address, UploadScheduler.QUANTUM, () -> loop.execute(this::onSlotGranted));
+            this.ticketBytes = UploadScheduler.QUANTUM;
+        }
+
+        return this.ticket.isGranted();
+    }
+
+    /**
+     * Method to stop write events until the scheduler grants the connection a slot, this must
+     * be run on the loop thread.
+     */
+    private void waitForSlot() {
+        // Tokens that weren't used are returned, so the connections that hold a slot can use them.
+        this.throttle.refund(this.allowance);
+        this.allowance = 0;
+
+        this.waitingForSlot = true;
+        key.interestOps(key.interestOps() & ~SelectionKey.OP_WRITE);
+    }
+
+    /**
+     * Method that is invoked on the loop thread once the scheduler granted the connection a
+     * slot that it was waiting for.
+     */
+    private void onSlotGranted() {
+        this.waitingForSlot = false;
+        this.enableWrite();
+    }
+
+    /**
+     * Method to give up the slot of the connection, or to stop waiting for it.
+     */
+    private synchronized void releaseSlot() {
+        this.scheduler.release(this.ticket);
+        this.ticket = null;
+        this.ticketBytes = 0;
+    }
+
+    /**
+     * Method to write at most a number of bytes from a buffer to the socket.
+     *
+     * @param buffer - The buffer that holds the bytes.
+     * @param limit  - The most bytes to write.
+     * @return The number of bytes that were written.
+     * @throws IOException if writing to the socket fails.
+     */
+    private long write(ByteBuffer buffer, long limit) throws IOException {
+        if (buffer.remaining() <= limit) {
+            return channel.write(buffer);
+        }
+
+        var end = buffer.limit();
+
+        try {
+            buffer.limit(buffer.position() + (int) limit);
+            return channel.write(buffer);
+        } finally {
+            buffer.limit(end);
+        }
+    }
+
+    /**
+     * Method to enable write events on the connection, unless writing is paused by the upload
+     * limits or until the connection is granted a slot, this must be run on the loop thread.
+     */
+    private void enableWrite() {
+        if (key.isValid() && !this.throttled && !this.waitingForSlot) {
+            key.interestOps(key.interestOps() | SelectionKey.OP_WRITE);
+        }
+    }
+
+    /**
+     * Method that is invoked by the loop to close the connection if it's kept alive and
+     * has been idle for longer than the peer was told. A connection that is processing a
+     * request, including a tagged request, or writing a response isn't idle.
+     *
+     * @param now - The current time in milliseconds.
+     */
+    void closeIfIdle(long now) {
+        var timeout = this.dispatcher.getIdleTimeout();
+
+        if (timeout <= 0 || this.processing || !this.requests.isEmpty() || this.dispatcher.hasPendingRequests() || now - this.lastActive < timeout) {
+            return;
+        }
+
+        synchronized (this) {
+            if (!this.outbound.isEmpty() || !this.writing.isEmpty()) {
+                return;
+            }
+        }
+
+        this.close();
+    }
+
+    /**
+     * Method to queue a response line to be written to the peer connection.
+     *
+     * @param line - The line that will be written, excluding the line separator.
+     * @throws IOException if the connection was closed.
+     */
+    @Override
+    public void writeLine(String line) throws IOException {
+        var bytes = (line + WireFormat.LINE_SEPARATOR).getBytes(StandardCharsets.UTF_8);
+
+        this.enqueue(ByteBuffer.wrap(bytes), bytes.length);
+    }
+
+    /**
+     * Method to queue a copy of an encoded response line to be written to the peer connection.
+     *
+     * @param bytes  - The buffer that holds the line, including the line separator.
+     * @param offset - The position in the buffer of the first byte of the line.
+     * @param length - The number of bytes in the line.
+     * @throws IOException if the connection was closed.
+     */
+    @Override
+    public void writeLine(byte[] bytes, int offset, int length) throws IOException {
+        // The caller reuses it's buffer, so the line is copied before it's queued.
+        this.enqueue(ByteBuffer.wrap(Arrays.copyOfRange(bytes, offset, offset + length)), length);
+    }
+
+    /**
+     * Method to queue a region of the file to be written to the peer connection.
+     *
+     * @param fileEntry - The file entry that is being written to the peer.
+     * @param offset    - The position in the file of the first byte to write.
+     * @param length    - The number of bytes to write.
+     * @throws IOException if the file couldn't be opened, or if the connection was closed.
+     */
+    @Override
+    public void writeFile(FileEntry fileEntry, long offset, long length) throws IOException {
+        var file = FileChannel.open(fileEntry.getPath(), StandardOpenOption.READ);
+
+        try {
+            this.enqueue(new FileRegion(file, offset, length), 0);
+        } catch (IOException e) {
+            file.close();
+            throw e;
+        }
+    }
+
+    /**
+     * Method to queue a copy of the given bytes to be written to the peer connection.
+     *
+     * @param bytes  - The buffer that holds the bytes.
+     * @param offset - The position in the buffer of the first byte to write.
+     * @param length - The number of bytes to write.
+     * @throws IOException if the connection was closed.
+     */
+    @Override
+    public void writeBytes(byte[] bytes, int offset, int length) throws IOException {
+        // The caller reuses it's buffer, so the bytes are copied before they are queued.
+        this.enqueue(new Body(ByteBuffer.wrap(Arrays.copyOfRange(bytes, offset, offset + length))), length);
+    }
+
+    /**
+     * Method to add an item onto the outbound queue. If the queue holds too many bytes, the
+     * caller waits until the loop drains the queue.
+     *
+     * @param item  - The item that will be written.
+     * @param bytes - The number of bytes that are held in memory by the item.
+     * @throws IOException if the connection was closed.
+     */
+    private void enqueue(Object item, long bytes) throws IOException {
+        synchronized (this) {
+            try {
+                while (!this.closed && this.queuedBytes > HIGH_WATER_MARK) {
+                    this.wait();
+                }
+            } catch (InterruptedException e) {
+                throw new InterruptedIOException("Interrupted whilst waiting to write response.");
+            }
+
+            if (this.closed) {
+                throw new IOException("Connection closed.");
+            }
+
+            outbound.add(item);
+            queuedBytes += bytes;
+        }
+
+        loop.execute(this::enableWrite);
+    }
+
+    /**
+     * Method to close the connection and release any resources that are queued to be written,
+     * this must be run on the loop thread.
+     */
+    synchronized void close() {
+        if (this.closed) {
+            return;
+        }
+
+        this.closed = true;
+        key.cancel();
+
+        try {
+            channel.close();
+        } catch (IOException e) {
+            // Ignore since the connection is being discarded anyway.
+        }
+
+        for (var queue : Arrays.asList(writing, outbound)) {
+            for (var item : queue) {
+                if (item instanceof FileRegion) {
+                    ((FileRegion) item).close();
+                }
+            }
+
+            queue.clear();
+        }
+
+        this.releaseSlot();
+        this.notifyAll();
+    }
+
+    /**
+     * Class that holds raw bytes of a response body that are queued to be written to the
+     * socket, which unlike response lines are limited by the upload limits.
+     */
+    private static class Body {
+        private final ByteBuffer buffer;
+
+        Body(ByteBuffer buffer) {
+            this.buffer = buffer;
+        }
+    }
+
+    /**
+     * Class that represents a region of a file that is queued to be written to the socket.
+     * The region is sent with zero-copy transfers if they are enabled, otherwise it is
+     * copied through a buffer that is borrowed from the {@link FileTransfer} pool.
+     */
+    private static class FileRegion {
+        /**
+         * The file that is being written.
+         */
+        private final FileChannel file;
+
+        /**
+         * The position in the file of the next byte to be sent.
+         */
+        private long position;
+
+        /**
+         * The position in the file where the region ends.
+         */
+        private final long end;
+
+        /**
+         * Buffer that holds bytes that have been read from the file but not yet written,
+         * this is only used when zero-copy transfers are disabled.
+         */
+        private ByteBuffer buffer;
+
+        FileRegion(FileChannel file, long position, long length) {
+            this.file = file;
+            this.position = position;
+            this.end = position + length;
+        }
+
+        /**
+         * Method to write as much of the region as the socket accepts, up to a limit.
+         *
+         * @param channel - The socket channel that the region is written to.
+         * @param limit   - The most bytes to write.
+         * @return The number of bytes that were written.
+         * @throws IOException if reading the file or writing to the socket fails.
+         */
+        long transferTo(SocketChannel channel, long limit) throws IOException {
+            var sent = 0L;
+
+            if (FileTransfer.isZeroCopyEnabled()) {
+                while (position < end && sent < limit) {
+                    var transferred = file.transferTo(position, Math.min(end - position, limit - sent), channel);
+
+                    if (transferred == 0) {
+                        // Either the socket buffer is full, or the file was truncated whilst
+                        // it was being sent.
+                        if (position >= file.size()) {
+                            throw new EOFException("File was truncated whilst it was sent.");
+                        }
+
+                        break;
+                    }
+
+                    position += transferred;
+                    sent += transferred;
+                }
+
+                return sent;
+            }
+
+            if (buffer == null) {
+                buffer = FileTransfer.pool.acquire().limit(0);
+            }
+
+            while (sent < limit) {
+                if (!buffer.hasRemaining()) {
+                    if (position >= end) {
+                        break;
+                    }
+
+                    buffer.clear();
+                    buffer.limit((int) Math.min(buffer.capacity(), end - position));
+
+                    int count = file.read(buffer, position);
+
+                    // The file was truncated whilst it was being sent, the connection is closed
+                    // since the peer expects the whole region.
+                    if (count == -1) {
+                        throw new EOFException("File was truncated whilst it was sent.");
+                    }
+
+                    position += count;
+                    buffer.flip();
+                }
+
+                var allowed = buffer.remaining() <= limit - sent ? buffer.limit() : buffer.position() + (int) (limit - sent);
+                var bufferEnd = buffer.limit();
+
+                buffer.limit(allowed);
+                var written = channel.write(buffer);
+                buffer.limit(bufferEnd);
+
+                sent += written;
+
+                // The socket buffer is full.
+                if (written == 0) {
+                    break;
+                }
+            }
+
+            return sent;
+        }
+
+        /**
+         * Method to check if the whole region has been written.
+         *
+         * @return Whether the whole region has been written.
+         */
+        boolean isFinished() {
+            return position >= end && (buffer == null || !buffer.hasRemaining());
+        }
+
+        void close() {
+            FileTransfer.pool.release(buffer);
+            buffer = null;
+
+            try {
+                file.close();
+            } catch (IOException e) {
+                // Ignore since the region is being discarded anyway.
+            }
+        }
+    }
+}
@@ -89,6 +89,15 @@ public class PeerRecord {
     }
 
 
+    /**
+     * Method to get whether this peer connection was last observed to be alive.
+     *
+     * @return boolean whether the connection is alive.
+     */
+    public boolean isAlive() {
+        return isAlive;
+    }
+
     /**
      * Method to get whether this 'Peer' connection is actually
      * referencing our own address
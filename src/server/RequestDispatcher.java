@@ -0,0 +1,532 @@
+package server;
+
+import cli.Commander;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import common.Configuration;
+import common.Networking;
+import common.TaskRunner;
+import common.digest.DigestAlgorithm;
+import common.protocol.Command;
+import common.protocol.FrameReader;
+import common.protocol.WireFormat;
+import interfaces.IResponseChannel;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+
+/**
+ * RequestDispatcher class is used to process requests that are sent by a peer
+ * connection. The dispatcher is independent of how the connection is served, so
+ * that both the blocking {@link ConnectionHandler} and the non-blocking
+ * {@link EventLoop} share the same {@link Command} processing.
+ * <p>
+ * The dispatcher holds the state of the connection, such as the negotiated digest algorithm,
+ * and answers the commands that change it. Every other command is handed to the handler of
+ * it's feature, which are the {@link ListingHandler}, the {@link SearchHandler} and the
+ * {@link FileHandler}.
+ *
+ * @author 200008575
+ */
+public class RequestDispatcher {
+    /**
+     * An instance of a Jackson ObjectMapper, used to serialize data that
+     * will be transmitted through the socket to the peer in order to transmit
+     * responses.
+     */
+    public final static ObjectMapper mapper = new ObjectMapper();
+
+    /**
+     * Instance of the configuration object which is used to get application settings.
+     */
+    private final Configuration config = Configuration.getInstance();
+
+    /**
+     * The handler of the requests that list the contents of a folder.
+     */
+    private final ListingHandler listings = new ListingHandler();
+
+    /**
+     * The handler of the requests that search the upload folder.
+     */
+    private final SearchHandler search = new SearchHandler();
+
+    /**
+     * The handler of the requests that concern a single file, which reads the negotiated
+     * algorithm and the keep-alive setting of this connection.
+     */
+    private final FileHandler files = new FileHandler(this);
+
+    /**
+     * The longest payload of a request frame that is accepted from a peer, which is as long
+     * as the longest request line of the non-blocking server.
+     */
+    public static final int MAX_FRAME_LENGTH = 64 * 1024;
+
+    /**
+     * The maximum number of 'Tagged' requests of a connection that are processed at once.
+     */
+    public static final int MAX_TAGGED = 64;
+
+    /**
+     * Permits for the tagged requests that are being processed, a tagged request holds a
+     * permit until it has been answered.
+     */
+    private final Semaphore tagged = new Semaphore(MAX_TAGGED);
+
+    /**
+     * The executor that tagged requests of every connection are processed on. Tasks are only
+     * handed to a thread of the {@link TaskRunner} that is free straight away and are never
+     * queued, so a tagged request that finds every thread busy is rejected and processed by
+     * the connection itself instead of waiting behind other connections.
+     */
+    private static final Executor TAGGED_WORKERS = (task) -> {
+        if (TaskRunner.getInstance().trySpawn("TaggedRequest", task) == null) {
+            throw new RejectedExecutionException("Every thread is busy.");
+        }
+    };
+
+    /**
+     * The executor that the tagged requests of this connection are processed on.
+     */
+    private final Executor taggedWorkers;
+
+    /**
+     * The algorithm that the digests of files are computed with for this connection. This
+     * is MD5 unless the peer negotiated another algorithm.
+     */
+    private volatile DigestAlgorithm algorithm = DigestAlgorithm.MD5;
+
+    /**
+     * The number of milliseconds that the connection may be idle before it's closed, which is
+     * 0 unless the peer asked for the connection to be kept alive. The connection of a peer
+     * that didn't ask is closed after every file transfer, since older peers read a file
+     * until the end of the stream.
+     */
+    private volatile int idleTimeout = 0;
+
+    /**
+     * The format that requests and responses are sent in on this connection, which is lines
+     * unless the peer switched the connection to frames with a 'Protocol' request.
+     */
+    private volatile WireFormat format = WireFormat.JSON;
+
+    /**
+     * The channel that responses are written to as frames, which is created by the first
+     * request frame. Requests in frames can't be tagged, so they are processed one at a time
+     * and share the buffer of the channel.
+     */
+    private FramedChannel framed;
+
+    /**
+     * RequestDispatcher constructor, tagged requests are processed on the threads of the
+     * {@link TaskRunner}.
+     */
+    public RequestDispatcher() {
+        this(TAGGED_WORKERS);
+    }
+
+    /**
+     * RequestDispatcher constructor
+     *
+     * @param taggedWorkers - The executor that tagged requests are processed on. If it rejects a
+     *                      request, the request is processed by the calling thread instead.
+     */
+    public RequestDispatcher(Executor taggedWorkers) {
+        this.taggedWorkers = taggedWorkers;
+    }
+
+    /**
+     * Method that will attempt to process the given request line. When the command is
+     * processed, a response object is formed in the form of an Object node that will be
+     * written to the response channel in the form of a line. However, if the request
+     * is asking to download a resource, the file is written to the response channel
+     * and no response object is returned.
+     * <p>
+     * If the command is not valid or isn't part of the transmission protocol, a response is still
+     * returned to notify the peer that the request was invalid.
+     * <p>
+     * A request that is wrapped in a 'Tagged' request is processed in the background, so the
+     * method returns before the request has been answered.
+     *
+     * @param line - The request line that was sent by the peer.
+     * @param channel - The channel that the response should be written to.
+     * @return Whether the connection should be kept open after processing the request.
+     * @throws IOException if the peer connection drops whilst writing to the channel.
+     */
+    public boolean dispatch(String line, IResponseChannel channel) throws IOException {
+        // We expect to get the first argument as the name of the command that is being
+        // invoked for the server to respond. Any further components of the request are
+        // treated as arguments that complement the command. For example, if the requester
+        // send the request "Get file_a.txt", then the server should perform the get
+        // command with the file argument as 'file_a.txt'.
+        var request = line.split(" ");
+
+        Command command;
+
+        try {
+            command = Command.valueOf(request[0]);
+        } catch (IllegalArgumentException e) {
+            ResponseWriter.writeError(channel, "Command not recognised.");
+            return true;
+        }
+
+        if (command == Command.Tagged) {
+            return this.dispatchTagged(request, channel);
+        }
+
+        // Untagged requests are answered in the order that they were sent, and a file mustn't
+        // be interleaved with the response to a tagged request, so every tagged request that
+        // was sent before has to be answered first.
+        this.awaitTagged();
+
+        return this.process(command, request, channel);
+    }
+
+    /**
+     * Method that will attempt to process the given request frame, on a connection that was
+     * switched to frames with a 'Protocol' request. The commands that are sent most often have
+     * a binary layout, so their fields are read from the frame and their responses are written
+     * without going through text. Any other command carries it's arguments as strings, which
+     * aren't split on spaces, and is answered with it's JSON response lines in frames.
+     * <p>
+     * Commands whose response is followed by a file can't be sent in a frame, so files are
+     * requested on a connection that uses lines.
+     *
+     * @param frame   - The request frame that was sent by the peer.
+     * @param channel - The channel that the response frames should be written to.
+     * @return Whether the connection should be kept open after processing the request.
+     * @throws IOException if the peer connection drops whilst writing to the channel.
+     */
+    public boolean dispatch(FrameReader frame, IResponseChannel channel) throws IOException {
+        if (this.framed == null) {
+            this.framed = new FramedChannel(channel);
+        }
+
+        Command command;
+
+        try {
+            command = Command.fromOpcode(frame.getOpcode());
+        } catch (IllegalArgumentException e) {
+            this.framed.sendError("Command not recognised.");
+            return true;
+        }
+
+        if (!command.isFramed()) {
+            this.framed.sendError("Command can't be sent in a frame.");
+            return true;
+        }
+
+        try {
+            switch (command) {
+                case GetMeta:
+                    this.files.processGetMetaFrame(frame.readString(), this.framed);
+                    return true;
+                case List:
+                    this.listings.processListFrame(frame.readString(), this.framed);
+                    return true;
+                case Locate:
+                    this.files.processLocateFrame(frame.readLong(), frame.readDigest(), frame.readString(), this.framed);
+                    return true;
+                default:
+                    break;
+            }
+        } catch (IllegalArgumentException e) {
+            // The frame is shorter than the fields of the command.
+            this.framed.sendError("Invalid request.");
+            return true;
+        }
+
+        var request = new ArrayList<String>();
+        request.add(command.name());
+
+        try {
+            while (frame.hasRemaining()) {
+                request.add(frame.readString());
+            }
+        } catch (IllegalArgumentException e) {
+            this.framed.sendError("Invalid request.");
+            return true;
+        }
+
+        return this.process(command, request.toArray(new String[0]), this.framed);
+    }
+
+    /**
+     * Method to process a request whose command has been parsed, and to write the response
+     * to the channel.
+     *
+     * @param command - The command of the request.
+     * @param request - The request split into words, the first of which is the command.
+     * @param channel - The channel that the response should be written to.
+     * @return Whether the connection should be kept open after processing the request.
+     * @throws IOException if the peer connection drops whilst writing to the channel.
+     */
+    private boolean process(Command command, String[] request, IResponseChannel channel) throws IOException {
+        // create an initial json object that will be used as a response.
+        var response = mapper.createObjectNode();
+
+        switch (command) {
+            case AddPeer: {
+                if (request.length < 2) {
+                    response.put("status", false);
+                    break;
+                }
+
+                try {
+                    var commander = Commander.getInstance();
+
+                    var addr = Networking.parseAddressFromString(request[1]);
+                    var peer = new PeerRecord(request[1], addr.getHostName(), true);
+
+                    commander.addKnownPeer(peer);
+
+                    response.put("status", true);
+                } catch (IllegalArgumentException e) {
+                    response.put("status", false);
+                }
+
+                break;
+            }
+            case List:
+                return this.listings.processList(request, channel);
+            case ListPage:
+                return this.listings.processListPage(request, channel);
+            case ListStream:
+                return this.listings.processListStream(request, channel);
+            case ListTree:
+                return this.listings.processListTree(request, channel);
+            case Search:
+                return this.search.processSearch(request, channel);
+            case GetMeta:
+            case Get:
+                return this.files.processGet(command, request, channel);
+            case GetRange:
+                return this.files.processGetRange(request, channel);
+            case GetEncoded:
+                return this.files.processGetEncoded(request, channel);
+            case Locate:
+                return this.files.processLocate(request, channel);
+            case GetHashes:
+                return this.files.processGetHashes(request, channel);
+            case Negotiate: {
+                // The request is of the form 'Negotiate <algorithm,...>', where the peer lists the
+                // digest algorithms that it supports in order of preference. The first of those
+                // algorithms that this peer also supports is used for the digests of every later
+                // response on this connection.
+                if (request.length != 2) {
+                    response.put("message", "Usage: Negotiate <algorithm,...>");
+                    response.put("status", false);
+                    break;
+                }
+
+                var supported = DigestAlgorithm.parseList(config.get("digest.algorithms"));
+
+                this.algorithm = DigestAlgorithm.negotiate(DigestAlgorithm.parseList(request[1]), supported);
+
+                response.put("status", true);
+                response.put("algorithm", this.algorithm.getName());
+                break;
+            }
+            case KeepAlive: {
+                // The request asks for the connection to be kept open after file transfers, so that
+                // the peer can send many requests on it. The peer is told how long the connection
+                // may be idle before it's closed, so that it can stop using the connection in time.
+                var timeout = config.getInt("keepalive.timeout");
+
+                if (timeout <= 0) {
+                    response.put("message", "Keep-alive is disabled.");
+                    response.put("status", false);
+                    break;
+                }
+
+                this.idleTimeout = timeout;
+
+                response.put("status", true);
+                response.put("timeout", timeout);
+                break;
+            }
+            case Protocol: {
+                // The request is of the form 'Protocol <format,...>', where the peer lists the formats
+                // that it supports in order of preference. Every format is supported, so the first one
+                // that is known is picked. The response is still sent in the current format, and every
+                // later request and response in the picked one, so the peer mustn't send another
+                // request until it has read the response.
+                if (request.length != 2) {
+                    response.put("message", "Usage: Protocol <format,...>");
+                    response.put("status", false);
+                    break;
+                }
+
+                var offered = WireFormat.parseList(request[1]);
+                var format = offered.isEmpty() ? WireFormat.JSON : offered.get(0);
+
+                response.put("status", true);
+                response.put("format", format.getName());
+
+                ResponseWriter.writeResponse(channel, response);
+                this.format = format;
+
+                return true;
+            }
+            case Tagged: {
+                // Tagged requests are dispatched before they get here, and can't be nested.
+                response.put("message", "Command can't be tagged.");
+                response.put("status", false);
+                break;
+            }
+        }
+
+        // Finally, write the response into a line and send it to the client.
+        ResponseWriter.writeResponse(channel, response);
+        return true;
+    }
+
+    /**
+     * Method to process a 'Tagged' request, which is of the form 'Tagged <id> <command>
+     * [arguments]'. The command is processed on a tagged worker thread, so the peer can send
+     * further requests whilst it's processed, and every line of the response holds the id so
+     * the peer can match it to the request. If no worker is free, the command is processed
+     * before the method returns, so the connection never waits on a queued request.
+     * Commands whose response is a file or a stream of lines can't be tagged. At most
+     * {@link #MAX_TAGGED} requests are processed at once, any further request waits, which
+     * stops the connection from being read in the meantime.
+     *
+     * @param request - The request split into words, the first of which is 'Tagged'.
+     * @param channel - The channel that the response should be written to.
+     * @return Whether the connection should be kept open, which it always is.
+     * @throws IOException if the peer connection drops whilst writing to the channel.
+     */
+    private boolean dispatchTagged(String[] request, IResponseChannel channel) throws IOException {
+        long id;
+
+        try {
+            id = Long.parseLong(request[1]);
+        } catch (ArrayIndexOutOfBoundsException | NumberFormatException e) {
+            // The error can't be tagged without a valid id.
+            ResponseWriter.writeError(channel, "Usage: Tagged <id> <command> [arguments]");
+            return true;
+        }
+
+        var tagged = new TaggedChannel(channel, id);
+
+        if (request.length < 3) {
+            ResponseWriter.writeError(tagged, "Usage: Tagged <id> <command> [arguments]");
+            return true;
+        }
+
+        Command command;
+
+        try {
+            command = Command.valueOf(request[2]);
+        } catch (IllegalArgumentException e) {
+            ResponseWriter.writeError(tagged, "Command not recognised.");
+            return true;
+        }
+
+        if (!command.isTaggable()) {
+            ResponseWriter.writeError(tagged, "Command can't be tagged.");
+            return true;
+        }
+
+        try {
+            this.tagged.acquire();
+        } catch (InterruptedException e) {
+            throw new InterruptedIOException("Interrupted whilst waiting for tagged requests.");
+        }
+
+        var inner = Arrays.copyOfRange(request, 2, request.length);
+
+        Runnable task = () -> {
+            try {
+                this.process(command, inner, tagged);
+                tagged.finish();
+            } catch (IOException e) {
+                // The connection was lost, which the connection notices when it next reads.
+            } catch (RuntimeException e) {
+                e.printStackTrace();
+            } finally {
+                this.tagged.release();
+            }
+        };
+
+        try {
+            this.taggedWorkers.execute(task);
+        } catch (RejectedExecutionException e) {
+            task.run();
+        }
+
+        return true;
+    }
+
+    /**
+     * Method to wait until every tagged request has been answered.
+     *
+     * @throws IOException if the thread was interrupted whilst waiting.
+     */
+    private void awaitTagged() throws IOException {
+        // Requests are dispatched one at a time, so no tagged request can be started whilst
+        // the permits are checked.
+        if (!this.hasPendingRequests()) {
+            return;
+        }
+
+        try {
+            this.tagged.acquire(MAX_TAGGED);
+            this.tagged.release(MAX_TAGGED);
+        } catch (InterruptedException e) {
+            throw new InterruptedIOException("Interrupted whilst waiting for tagged requests.");
+        }
+    }
+
+    /**
+     * Method to check if any tagged requests are still being processed, in which case the
+     * connection isn't idle even if the peer isn't sending anything.
+     *
+     * @return Whether any tagged request hasn't been answered yet.
+     */
+    public boolean hasPendingRequests() {
+        return this.tagged.availablePermits() < MAX_TAGGED;
+    }
+
+    /**
+     * Method to check if the peer asked for the connection to be kept alive.
+     *
+     * @return Whether the connection is kept open after file transfers.
+     */
+    public boolean isKeepAlive() {
+        return this.idleTimeout > 0;
+    }
+
+    /**
+     * Method to get the format that the next request of the connection is sent in.
+     *
+     * @return The format of the connection.
+     */
+    public WireFormat getFormat() {
+        return this.format;
+    }
+
+    /**
+     * Method to get how long the connection may be idle before it's closed.
+     *
+     * @return The number of milliseconds, or 0 if the connection isn't kept alive.
+     */
+    public int getIdleTimeout() {
+        return this.idleTimeout;
+    }
+
+    /**
+     * Method to get the algorithm that the digests of files are computed with for this
+     * connection.
+     *
+     * @return The negotiated algorithm, which is MD5 unless the peer negotiated another one.
+     */
+    DigestAlgorithm getAlgorithm() {
+        return this.algorithm;
+    }
+}
@@ -0,0 +1,40 @@
+package server;
+
+import interfaces.IResponseChannel;
+
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * Class that adapts a {@link IResponseChannel} into an {@link OutputStream}, so that a
+ * response can be written through stream filters such as a compressor.
+ *
+ * @author 200008575
+ */
+class ResponseOutputStream extends OutputStream {
+    /**
+     * The channel that the bytes are written to.
+     */
+    private final IResponseChannel channel;
+
+    /**
+     * ResponseOutputStream constructor
+     *
+     * @param channel - The channel that the bytes are written to.
+     */
+    ResponseOutputStream(IResponseChannel channel) {
+        this.channel = channel;
+    }
+
+    @Override
+    public void write(int value) throws IOException {
+        this.channel.writeBytes(new byte[]{(byte) value}, 0, 1);
+    }
+
+    @Override
+    public void write(byte[] bytes, int offset, int length) throws IOException {
+        if (length > 0) {
+            this.channel.writeBytes(bytes, offset, length);
+        }
+    }
+}
@@ -0,0 +1,198 @@
+package server;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectWriter;
+import common.protocol.WireFormat;
+import interfaces.IResponseChannel;
+
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+/**
+ * Class that writes response lines with a Jackson {@link JsonGenerator}, field by field, into
+ * a buffer that is handed to the response channel once the line is complete. Responses are
+ * therefore not built as a tree of nodes and then turned into a string, which allocated
+ * several copies of every response.
+ * <p>
+ * Writers are kept in a pool together with their generator and buffer, so that answering
+ * a request doesn't allocate either of them. A writer is taken from the pool with
+ * {@link #open()}, and is returned to it when it's closed.
+ *
+ * @author 200008575
+ */
+class ResponseWriter implements Closeable {
+    /**
+     * The writer that responses which are still built as a tree of nodes are written with.
+     * An ObjectWriter is immutable, so it's shared by every thread.
+     */
+    static final ObjectWriter NODE_WRITER = RequestDispatcher.mapper.writerFor(JsonNode.class);
+
+    /**
+     * The maximum number of writers that are kept in the pool.
+     */
+    private static final int MAX_POOLED = 64;
+
+    /**
+     * The size of the buffer of a new writer.
+     */
+    private static final int INITIAL_SIZE = 1024;
+
+    /**
+     * The size that the buffer of a writer may grow to and still be kept, a larger buffer is
+     * replaced once it's line has been sent so that one huge listing doesn't pin the memory.
+     */
+    private static final int MAX_RETAINED_SIZE = 1024 * 1024;
+
+    /**
+     * The bytes that end every line.
+     */
+    private static final byte[] LINE_SEPARATOR = WireFormat.LINE_SEPARATOR.getBytes(StandardCharsets.UTF_8);
+
+    /**
+     * The writers that aren't in use.
+     */
+    private static final BlockingQueue<ResponseWriter> pool = new ArrayBlockingQueue<>(MAX_POOLED);
+
+    /**
+     * The buffer that the current line is written into.
+     */
+    private final LineBuffer buffer = new LineBuffer();
+
+    /**
+     * The generator that writes into the buffer.
+     */
+    private final JsonGenerator generator;
+
+    /**
+     * ResponseWriter constructor
+     *
+     * @throws IOException if the generator couldn't be created.
+     */
+    private ResponseWriter() throws IOException {
+        this.generator = RequestDispatcher.mapper.getFactory().createGenerator(this.buffer);
+
+        // Every line is ended by a line separator instead of being separated by a space.
+        this.generator.setRootValueSeparator(null);
+    }
+
+    /**
+     * Method to take a writer from the pool, or to create one if the pool is empty.
+     *
+     * @return A writer with an empty line.
+     * @throws IOException if the generator of a new writer couldn't be created.
+     */
+    static ResponseWriter open() throws IOException {
+        var writer = pool.poll();
+
+        return writer != null ? writer : new ResponseWriter();
+    }
+
+    /**
+     * Method to get the generator, so that a line can be built field by field.
+     *
+     * @return The generator that the line is written with.
+     */
+    JsonGenerator getGenerator() {
+        return this.generator;
+    }
+
+    /**
+     * Method to write a whole object into the line.
+     *
+     * @param node - The object that will be written.
+     * @throws IOException if the object couldn't be written.
+     */
+    void write(JsonNode node) throws IOException {
+        NODE_WRITER.writeValue(this.generator, node);
+    }
+
+    /**
+     * Method to end the line and write it to the channel, the writer can then be used to
+     * write the next line.
+     *
+     * @param channel - The channel that the line is written to.
+     * @throws IOException if the peer connection drops whilst writing the line.
+     */
+    void send(IResponseChannel channel) throws IOException {
+        this.generator.flush();
+        this.buffer.write(LINE_SEPARATOR);
+
+        try {
+            channel.writeLine(this.buffer.getBytes(), 0, this.buffer.size());
+        } finally {
+            this.buffer.clear();
+        }
+    }
+
+    /**
+     * Method to write an error response line.
+     *
+     * @param channel - The channel that the response is written to.
+     * @param message - The message that describes the error.
+     * @throws IOException if the peer connection drops whilst writing to the channel.
+     */
+    static void writeError(IResponseChannel channel, String message) throws IOException {
+        try (var writer = open()) {
+            var generator = writer.getGenerator();
+
+            generator.writeStartObject();
+            generator.writeBooleanField("status", false);
+            generator.writeStringField("message", message);
+            generator.writeEndObject();
+
+            writer.send(channel);
+        }
+    }
+
+    /**
+     * Method to write a response that was built as a tree of nodes as a line.
+     *
+     * @param channel  - The channel that the response is written to.
+     * @param response - The response object.
+     * @throws IOException if the peer connection drops whilst writing to the channel.
+     */
+    static void writeResponse(IResponseChannel channel, JsonNode response) throws IOException {
+        try (var writer = open()) {
+            writer.write(response);
+            writer.send(channel);
+        }
+    }
+
+    /**
+     * Method to return the writer to the pool. A writer that was closed part way through a
+     * line is dropped instead, since it's generator can't be reset.
+     */
+    @Override
+    public void close() {
+        if (this.generator.getOutputContext().inRoot() && this.generator.getOutputBuffered() == 0 && this.buffer.size() == 0) {
+            pool.offer(this);
+        }
+    }
+
+    /**
+     * Buffer that gives access to the array that it holds, so that the line isn't copied
+     * before it's handed to the channel.
+     */
+    private static class LineBuffer extends ByteArrayOutputStream {
+        LineBuffer() {
+            super(INITIAL_SIZE);
+        }
+
+        byte[] getBytes() {
+            return this.buf;
+        }
+
+        void clear() {
+            this.reset();
+
+            if (this.buf.length > MAX_RETAINED_SIZE) {
+                this.buf = new byte[INITIAL_SIZE];
+            }
+        }
+    }
+}
@@ -0,0 +1,106 @@
+package server;
+
+import common.Configuration;
+import interfaces.IResponseChannel;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Paths;
+import java.util.Arrays;
+import java.util.Locale;
+
+/**
+ * Class that answers the {@link common.protocol.Command} 'Search' request, which is of the
+ * form 'Search <query>', see {@link SearchQuery} for the terms that a query can hold. The
+ * upload folder is searched with the in-memory {@link SearchIndex} of names, or is walked if
+ * the index isn't ready.
+ *
+ * @author 200008575
+ */
+class SearchHandler {
+    /**
+     * Instance of the configuration object which is used to get application settings.
+     */
+    private final Configuration config = Configuration.getInstance();
+
+    /**
+     * Our reference to the in-memory index of the upload folder.
+     */
+    private final UploadIndex index = UploadIndex.getInstance();
+
+    /**
+     * Our reference to the index of the names of the entries in the upload folder.
+     */
+    private final SearchIndex searchIndex = SearchIndex.getInstance();
+
+    /**
+     * Method to process a 'Search' request, the response holds the best matches, the total
+     * number of matches and the facets of every match.
+     *
+     * @param request - The request split into words, the first of which is the command.
+     * @param channel - The channel that the response should be written to.
+     * @return Whether the connection should be kept open, which it always is.
+     * @throws IOException if the peer connection drops whilst writing to the channel.
+     */
+    boolean processSearch(String[] request, IResponseChannel channel) throws IOException {
+        if (request.length < 2) {
+            ResponseWriter.writeError(channel, "Usage: Search <query>");
+            return true;
+        }
+
+        SearchQuery query;
+
+        try {
+            query = SearchQuery.parse(String.join(" ", Arrays.copyOfRange(request, 1, request.length)));
+        } catch (IllegalArgumentException e) {
+            ResponseWriter.writeError(channel, e.getMessage());
+            return true;
+        }
+
+        var uploadFolder = Paths.get(config.get("upload")).toAbsolutePath().normalize();
+        var indexed = index.isReady();
+        SearchIndex.Result result;
+
+        if (indexed) {
+            result = this.searchIndex.search(query);
+        } else {
+            var walked = new SearchIndex.Result(query);
+
+            new TreeWalker(uploadFolder, 0, null, true).walk((path, entry) -> {
+                var name = entry.getFileName().toLowerCase(Locale.ROOT);
+
+                walked.offer(entry, name, entry.isDirectory() ? null : SearchQuery.getExtension(name));
+            });
+            result = walked;
+        }
+
+        var response = RequestDispatcher.mapper.createObjectNode();
+        var files = RequestDispatcher.mapper.createArrayNode();
+
+        for (var match : result.getMatches()) {
+            var file = files.addObject();
+
+            file.put("type", match.entry.getType());
+            file.put("path", uploadFolder.relativize(match.entry.getPath()).toString().replace(File.separatorChar, '/'));
+
+            if (!match.entry.isDirectory()) {
+                file.put("size", match.entry.getSize());
+            }
+
+            file.put("score", match.score);
+        }
+
+        response.put("status", true);
+        response.put("indexed", indexed);
+        response.put("total", result.getTotal());
+        response.set("files", files);
+
+        var facets = response.putObject("facets");
+
+        result.getTopExtensions().forEach(facets.putObject("extensions")::put);
+        result.getSizes().forEach(facets.putObject("sizes")::put);
+
+        ResponseWriter.writeResponse(channel, response);
+        return true;
+    }
+}
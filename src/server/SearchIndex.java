@@ -0,0 +1,623 @@
+package server;
+
+import common.resources.IndexedEntry;
+
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * Singleton class that holds an index of the names of the entries in the upload folder, so
+ * that a 'Search' can find entries without walking the folder. The index is kept up to date
+ * by the {@link UploadIndex}, which adds and removes entries as it scans the folder and as
+ * it receives watch events.
+ * <p>
+ * Every entry is given an id, and the index maps every trigram (three consecutive characters)
+ * of a lower case name to the ids of the entries whose names contain it, as well as every
+ * extension to the ids of the files that have it. A query term of three or more characters
+ * can only match the entries in the shortest list of one of it's trigrams, so only those
+ * entries have to be checked rather than every entry. Every candidate is checked against the
+ * query, so the lists may hold ids of entries that were removed; such ids are never reused,
+ * and the lists are rebuilt once they hold as many removed ids as live ones.
+ *
+ * @author 200008575
+ */
+public class SearchIndex {
+    /**
+     * The number of removed entries below which the lists are never rebuilt.
+     */
+    private static final int MIN_GARBAGE = 4096;
+
+    /**
+     * The maximum number of extensions that are counted in the facets of a result.
+     */
+    private static final int MAX_FACETS = 10;
+
+    /**
+     * The upper bounds of the size facets, and their names.
+     */
+    private static final long[] SIZE_BOUNDS = {1024L, 1024L * 1024, 1024L * 1024 * 1024, Long.MAX_VALUE};
+    private static final String[] SIZE_NAMES = {"<1K", "1K-1M", "1M-1G", ">1G"};
+
+    /**
+     * Lock that allows any number of searches, or a single update.
+     */
+    private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+
+    /**
+     * The entries mapped by their id, removed entries are null.
+     */
+    private IndexedEntry[] entries = new IndexedEntry[1024];
+
+    /**
+     * The lower case names of the entries mapped by their id.
+     */
+    private String[] names = new String[1024];
+
+    /**
+     * The extensions of the files mapped by their id, which are the keys of the extension
+     * lists so that a facet can be counted without copying the extension.
+     */
+    private String[] fileExtensions = new String[1024];
+
+    /**
+     * The id that will be given to the next entry.
+     */
+    private int nextId = 0;
+
+    /**
+     * The number of entries that haven't been removed.
+     */
+    private int live = 0;
+
+    /**
+     * The ids of the entries mapped by the path of the entry.
+     */
+    private final Map<Path, Integer> ids = new HashMap<>();
+
+    /**
+     * The ids of the entries whose names contain a trigram, mapped by the trigram.
+     */
+    private final Map<Long, IdList> trigrams = new HashMap<>();
+
+    /**
+     * The ids of the files that have an extension, mapped by the extension.
+     */
+    private final Map<String, IdList> extensions = new HashMap<>();
+
+    /**
+     * Variable that holds the reference of this object that is used
+     * when external callers need to access the index.
+     */
+    private static final SearchIndex instance = new SearchIndex();
+
+    /**
+     * SearchIndex instantiation method. The server shares the index of {@link #getInstance()},
+     * a separate index is only created to test it.
+     */
+    public SearchIndex() {
+    }
+
+    /**
+     * Method to get an instance of the SearchIndex object
+     *
+     * @return A reference of this object.
+     */
+    public static SearchIndex getInstance() {
+        return instance;
+    }
+
+    /**
+     * Method to add entries to the index, an entry that is already indexed is replaced.
+     *
+     * @param added - The entries to add.
+     */
+    public void addAll(Collection<IndexedEntry> added) {
+        lock.writeLock().lock();
+
+        try {
+            for (var entry : added) {
+                this.insert(entry);
+            }
+
+            this.compactIfNeeded();
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Method to add an entry to the index, an entry that is already indexed is replaced.
+     *
+     * @param entry - The entry to add.
+     */
+    public void add(IndexedEntry entry) {
+        this.addAll(List.of(entry));
+    }
+
+    /**
+     * Method to remove entries from the index.
+     *
+     * @param removed - The paths of the entries to remove.
+     */
+    public void removeAll(Collection<Path> removed) {
+        lock.writeLock().lock();
+
+        try {
+            for (var path : removed) {
+                this.delete(path);
+            }
+
+            this.compactIfNeeded();
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Method to remove an entry from the index.
+     *
+     * @param path - The path of the entry to remove.
+     */
+    public void remove(Path path) {
+        this.removeAll(List.of(path));
+    }
+
+    /**
+     * Method to remove every entry from the index.
+     */
+    public void clear() {
+        lock.writeLock().lock();
+
+        try {
+            this.entries = new IndexedEntry[1024];
+            this.names = new String[1024];
+            this.fileExtensions = new String[1024];
+            this.nextId = 0;
+            this.live = 0;
+            this.ids.clear();
+            this.trigrams.clear();
+            this.extensions.clear();
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Method to get the number of entries in the index.
+     *
+     * @return The number of entries.
+     */
+    public int size() {
+        lock.readLock().lock();
+
+        try {
+            return this.live;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Method to find the entries that match a query.
+     *
+     * @param query - The query.
+     * @return The best matches and the facets of all matches.
+     */
+    public Result search(SearchQuery query) {
+        lock.readLock().lock();
+
+        try {
+            var candidates = this.getCandidates(query);
+            var result = new Result(query);
+
+            for (int i = 0, count = candidates.size(this.nextId); i < count; i++) {
+                var id = candidates.get(i);
+                var entry = this.entries[id];
+
+                if (entry != null) {
+                    result.offer(entry, this.names[id], this.fileExtensions[id]);
+                }
+            }
+
+            return result;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Method to pick the entries that have to be checked against a query, which is the
+     * shortest list of ids that every match must be in.
+     *
+     * @param query - The query.
+     * @return The candidates, which are every entry if no list narrows the query down.
+     */
+    private Candidates getCandidates(SearchQuery query) {
+        IdList shortest = null;
+
+        for (var term : query.getTerms()) {
+            for (var trigram : getTrigrams(term)) {
+                var list = this.trigrams.get(trigram);
+
+                // No name contains the trigram, so nothing can match.
+                if (list == null) {
+                    return Candidates.NONE;
+                }
+
+                if (shortest == null || list.size < shortest.size) {
+                    shortest = list;
+                }
+            }
+        }
+
+        if (query.getExtension() != null) {
+            var list = this.extensions.get(query.getExtension());
+
+            if (list == null) {
+                return Candidates.NONE;
+            }
+
+            if (shortest == null || list.size < shortest.size) {
+                shortest = list;
+            }
+        }
+
+        return shortest == null ? Candidates.ALL : new Candidates(shortest);
+    }
+
+    /**
+     * Method to add an entry, this must be called whilst holding the write lock.
+     *
+     * @param entry - The entry to add.
+     */
+    private void insert(IndexedEntry entry) {
+        this.delete(entry.getPath());
+
+        if (this.nextId == this.entries.length) {
+            this.entries = Arrays.copyOf(this.entries, this.entries.length * 2);
+            this.names = Arrays.copyOf(this.names, this.names.length * 2);
+            this.fileExtensions = Arrays.copyOf(this.fileExtensions, this.fileExtensions.length * 2);
+        }
+
+        var id = this.nextId++;
+        var name = entry.getFileName().toLowerCase(Locale.ROOT);
+
+        this.entries[id] = entry;
+        this.names[id] = name;
+        this.ids.put(entry.getPath(), id);
+        this.live++;
+
+        this.link(id, name, entry);
+    }
+
+    /**
+     * Method to add an id to the lists of the trigrams and the extension of it's entry.
+     *
+     * @param id    - The id of the entry.
+     * @param name  - The lower case name of the entry.
+     * @param entry - The entry.
+     */
+    private void link(int id, String name, IndexedEntry entry) {
+        for (var trigram : getTrigrams(name)) {
+            this.trigrams.computeIfAbsent(trigram, key -> new IdList()).add(id);
+        }
+
+        if (!entry.isDirectory()) {
+            var extension = SearchQuery.getExtension(name);
+            var list = this.extensions.get(extension);
+
+            if (list == null) {
+                list = new IdList();
+                this.extensions.put(extension, list);
+            }
+
+            list.add(id);
+
+            // Every file with the extension shares the same string.
+            this.fileExtensions[id] = list.key == null ? (list.key = extension) : list.key;
+        }
+    }
+
+    /**
+     * Method to remove an entry, this must be called whilst holding the write lock. The id
+     * of the entry is left in the lists until they are rebuilt.
+     *
+     * @param path - The path of the entry.
+     */
+    private void delete(Path path) {
+        var id = this.ids.remove(path);
+
+        if (id != null) {
+            this.entries[id] = null;
+            this.names[id] = null;
+            this.fileExtensions[id] = null;
+            this.live--;
+        }
+    }
+
+    /**
+     * Method to rebuild the lists once they mostly hold removed entries, this must be called
+     * whilst holding the write lock.
+     */
+    private void compactIfNeeded() {
+        if (this.nextId - this.live > Math.max(MIN_GARBAGE, this.live)) {
+            this.compact();
+        }
+    }
+
+    /**
+     * Method to give the live entries new ids and rebuild the lists without the removed
+     * entries, this must be called whilst holding the write lock.
+     */
+    private void compact() {
+        var oldEntries = this.entries;
+        var oldNames = this.names;
+        var count = this.nextId;
+
+        this.entries = new IndexedEntry[Math.max(1024, this.live * 2)];
+        this.names = new String[this.entries.length];
+        this.fileExtensions = new String[this.entries.length];
+        this.nextId = 0;
+        this.ids.clear();
+        this.trigrams.clear();
+        this.extensions.clear();
+
+        for (int i = 0; i < count; i++) {
+            if (oldEntries[i] != null) {
+                var id = this.nextId++;
+
+                this.entries[id] = oldEntries[i];
+                this.names[id] = oldNames[i];
+                this.ids.put(oldEntries[i].getPath(), id);
+                this.link(id, oldNames[i], oldEntries[i]);
+            }
+        }
+    }
+
+    /**
+     * Method to get the distinct trigrams of a string, where each trigram is packed into a
+     * long from it's three characters.
+     *
+     * @param value - The string.
+     * @return The distinct trigrams.
+     */
+    public static long[] getTrigrams(String value) {
+        if (value.length() < 3) {
+            return new long[0];
+        }
+
+        var trigrams = new long[value.length() - 2];
+
+        for (int i = 0; i < trigrams.length; i++) {
+            trigrams[i] = ((long) value.charAt(i) << 32) | ((long) value.charAt(i + 1) << 16) | value.charAt(i + 2);
+        }
+
+        // Remove the duplicates, so that an id is only added to a list once.
+        Arrays.sort(trigrams);
+
+        var distinct = 0;
+
+        for (int i = 0; i < trigrams.length; i++) {
+            if (i == 0 || trigrams[i] != trigrams[i - 1]) {
+                trigrams[distinct++] = trigrams[i];
+            }
+        }
+
+        return Arrays.copyOf(trigrams, distinct);
+    }
+
+    /**
+     * Class that holds a growable list of ids.
+     */
+    private static class IdList {
+        private int[] ids = new int[4];
+        private int size = 0;
+        private String key = null;
+
+        void add(int id) {
+            if (this.size == this.ids.length) {
+                this.ids = Arrays.copyOf(this.ids, this.size * 2);
+            }
+
+            this.ids[this.size++] = id;
+        }
+    }
+
+    /**
+     * Class that represents the ids that have to be checked against a query, which are
+     * either the ids in a list or every id.
+     */
+    private static class Candidates {
+        static final Candidates NONE = new Candidates(new IdList());
+        static final Candidates ALL = new Candidates(null);
+
+        private final IdList list;
+
+        Candidates(IdList list) {
+            this.list = list;
+        }
+
+        int size(int nextId) {
+            return this.list == null ? nextId : this.list.size;
+        }
+
+        int get(int index) {
+            return this.list == null ? index : this.list.ids[index];
+        }
+    }
+
+    /**
+     * Class that represents an entry that matched a query.
+     */
+    public static class Match {
+        final IndexedEntry entry;
+        final String name;
+        final int score;
+
+        Match(IndexedEntry entry, String name, int score) {
+            this.entry = entry;
+            this.name = name;
+            this.score = score;
+        }
+
+        /**
+         * Method to get the entry that matched.
+         *
+         * @return The indexed entry.
+         */
+        public IndexedEntry getEntry() {
+            return this.entry;
+        }
+
+        /**
+         * Method to get the lower case name that the query was matched against.
+         *
+         * @return The name of the entry.
+         */
+        public String getName() {
+            return this.name;
+        }
+    }
+
+    /**
+     * Class that holds the best matches of a query, and the number of all matches by their
+     * extension and by their size.
+     */
+    public static class Result {
+        /**
+         * The order of the matches, from the worst to the best match.
+         */
+        private static final Comparator<Match> ORDER = Comparator.<Match>comparingInt(match -> match.score)
+                .thenComparing(match -> -match.name.length())
+                .thenComparing(match -> match.name, Comparator.reverseOrder())
+                .thenComparing(match -> match.entry.getPath(), Comparator.reverseOrder());
+
+        private final SearchQuery query;
+        private final PriorityQueue<Match> best = new PriorityQueue<>(ORDER);
+        private long total = 0;
+        private final Map<String, Long> extensions = new HashMap<>();
+        private final Map<String, Long> sizes = new LinkedHashMap<>();
+
+        Result(SearchQuery query) {
+            this.query = query;
+
+            for (var name : SIZE_NAMES) {
+                this.sizes.put(name, 0L);
+            }
+        }
+
+        /**
+         * Method to check an entry against the query, and to keep it if it's one of the best
+         * matches so far. The best matches are kept in a heap whose head is the worst of them.
+         *
+         * @param entry     - The entry.
+         * @param name      - The lower case name of the entry.
+         * @param extension - The extension of the entry if it's a file, otherwise null.
+         */
+        void offer(IndexedEntry entry, String name, String extension) {
+            if (!this.query.matches(name, entry)) {
+                return;
+            }
+
+            this.total++;
+            this.count(extension, entry);
+
+            var score = this.query.score(name);
+
+            // Most matches of a broad query are worse than the kept matches, so they are
+            // rejected before a match is created for them.
+            if (this.best.size() == this.query.getLimit()) {
+                var worst = this.best.peek();
+
+                if (score != worst.score ? score < worst.score : name.length() != worst.name.length() ? name.length() > worst.name.length() : name.compareTo(worst.name) > 0) {
+                    return;
+                }
+            }
+
+            var match = new Match(entry, name, score);
+
+            if (this.best.size() < this.query.getLimit()) {
+                this.best.add(match);
+            } else if (ORDER.compare(match, this.best.peek()) > 0) {
+                this.best.poll();
+                this.best.add(match);
+            }
+        }
+
+        /**
+         * Method to get the best matches.
+         *
+         * @return The best matches, from the best to the worst.
+         */
+        public List<Match> getMatches() {
+            var matches = this.best.toArray(new Match[0]);
+
+            Arrays.sort(matches, ORDER.reversed());
+            return Arrays.asList(matches);
+        }
+
+        /**
+         * Method to get the number of matches.
+         *
+         * @return The number of matches, including the ones that weren't kept.
+         */
+        public long getTotal() {
+            return this.total;
+        }
+
+        /**
+         * Method to get the number of matching files by their size.
+         *
+         * @return The counts mapped by the name of the size range.
+         */
+        public Map<String, Long> getSizes() {
+            return this.sizes;
+        }
+
+        /**
+         * Method to count a match in the facets.
+         *
+         * @param extension - The extension of the entry if it's a file, otherwise null.
+         * @param entry     - The entry.
+         */
+        private void count(String extension, IndexedEntry entry) {
+            if (entry.isDirectory()) {
+                return;
+            }
+
+            this.extensions.merge(extension, 1L, Long::sum);
+
+            for (int i = 0; i < SIZE_BOUNDS.length; i++) {
+                if (entry.getSize() < SIZE_BOUNDS[i]) {
+                    this.sizes.merge(SIZE_NAMES[i], 1L, Long::sum);
+                    break;
+                }
+            }
+        }
+
+        /**
+         * Method to get the extensions that the most matches have.
+         *
+         * @return The counts of the most common extensions, in descending order.
+         */
+        public Map<String, Long> getTopExtensions() {
+            var top = new LinkedHashMap<String, Long>();
+
+            this.extensions.entrySet().stream()
+                    .sorted(Map.Entry.<String, Long>comparingByValue().reversed().thenComparing(Map.Entry.comparingByKey()))
+                    .limit(MAX_FACETS)
+                    .forEach(item -> top.put(item.getKey(), item.getValue()));
+
+            return top;
+        }
+    }
+}
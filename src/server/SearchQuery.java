@@ -0,0 +1,271 @@
+package server;
+
+import common.resources.EntryType;
+import common.resources.IndexedEntry;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * Class that represents a parsed 'Search' query. A query is a list of space separated terms,
+ * where every plain term must be contained in the name of a matching entry, ignoring case.
+ * The other terms are filters:
+ * <ul>
+ *     <li>'ext:pdf' only matches files with the given extension.</li>
+ *     <li>'type:file' or 'type:dir' only matches entries of the given type.</li>
+ *     <li>'size>10M' and 'size&lt;1G' only match files within the given sizes, which may use
+ *     the units K, M and G.</li>
+ *     <li>'limit:20' sets the maximum number of results.</li>
+ * </ul>
+ *
+ * @author 200008575
+ */
+public class SearchQuery {
+    /**
+     * The number of results that are returned if the query doesn't set a limit.
+     */
+    static final int DEFAULT_LIMIT = 100;
+
+    /**
+     * The maximum number of results that a query can ask for.
+     */
+    static final int MAX_LIMIT = 1000;
+
+    /**
+     * The lower case terms that the name of a matching entry must contain.
+     */
+    private final List<String> terms = new ArrayList<>();
+
+    /**
+     * The lower case extension that matching files must have, or null for any extension.
+     */
+    private String extension = null;
+
+    /**
+     * The type that matching entries must have, or null for any type.
+     */
+    private EntryType type = null;
+
+    /**
+     * The size that matching files must be larger than, or -1 if there is no lower bound.
+     */
+    private long minSize = -1;
+
+    /**
+     * The size that matching files must be smaller than, or -1 if there is no upper bound.
+     */
+    private long maxSize = -1;
+
+    /**
+     * The maximum number of results.
+     */
+    private int limit = DEFAULT_LIMIT;
+
+    /**
+     * SearchQuery instantiation method, a query is created by {@link #parse(String)}.
+     */
+    private SearchQuery() {
+    }
+
+    /**
+     * Method to parse a query.
+     *
+     * @param query - The query string.
+     * @return The parsed query.
+     * @throws IllegalArgumentException if a filter is invalid, or the query is empty.
+     */
+    public static SearchQuery parse(String query) {
+        var parsed = new SearchQuery();
+
+        for (var term : query.trim().split("\\s+")) {
+            var lower = term.toLowerCase(Locale.ROOT);
+
+            if (lower.isEmpty()) {
+                continue;
+            }
+
+            if (lower.startsWith("ext:")) {
+                parsed.extension = lower.substring(4).replaceFirst("^\\.", "");
+            } else if (lower.startsWith("type:")) {
+                var value = lower.substring(5);
+
+                if (value.equals("file")) {
+                    parsed.type = EntryType.File;
+                } else if (value.equals("dir") || value.equals("directory")) {
+                    parsed.type = EntryType.Directory;
+                } else {
+                    throw new IllegalArgumentException(String.format("Unknown type '%s'.", value));
+                }
+            } else if (lower.startsWith("size>")) {
+                parsed.minSize = parseSize(lower.substring(5));
+            } else if (lower.startsWith("size<")) {
+                parsed.maxSize = parseSize(lower.substring(5));
+            } else if (lower.startsWith("limit:")) {
+                try {
+                    parsed.limit = Integer.parseInt(lower.substring(6));
+                } catch (NumberFormatException e) {
+                    throw new IllegalArgumentException("Invalid limit.");
+                }
+
+                if (parsed.limit < 1 || parsed.limit > MAX_LIMIT) {
+                    throw new IllegalArgumentException(String.format("Limit must be between 1 and %d.", MAX_LIMIT));
+                }
+            } else {
+                parsed.terms.add(lower);
+            }
+        }
+
+        if (parsed.terms.isEmpty() && parsed.extension == null && parsed.type == null && parsed.minSize < 0 && parsed.maxSize < 0) {
+            throw new IllegalArgumentException("Nothing to search for.");
+        }
+
+        return parsed;
+    }
+
+    /**
+     * Method to parse a size such as '10M' or '1G' into a number of bytes.
+     *
+     * @param size - The size string.
+     * @return The number of bytes.
+     * @throws IllegalArgumentException if the size is invalid.
+     */
+    private static long parseSize(String size) {
+        if (size.isEmpty()) {
+            throw new IllegalArgumentException("Invalid size.");
+        }
+
+        var unit = Character.toUpperCase(size.charAt(size.length() - 1));
+        var multiplier = 1L;
+
+        switch (unit) {
+            case 'K': multiplier = 1024L; break;
+            case 'M': multiplier = 1024L * 1024; break;
+            case 'G': multiplier = 1024L * 1024 * 1024; break;
+            default: break;
+        }
+
+        try {
+            var value = multiplier == 1 ? size : size.substring(0, size.length() - 1);
+
+            return Long.parseLong(value) * multiplier;
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("Invalid size.");
+        }
+    }
+
+    /**
+     * Method to get the lower case terms that the name of a matching entry must contain.
+     *
+     * @return The terms.
+     */
+    List<String> getTerms() {
+        return this.terms;
+    }
+
+    /**
+     * Method to get the extension that matching files must have.
+     *
+     * @return The lower case extension, or null for any extension.
+     */
+    String getExtension() {
+        return this.extension;
+    }
+
+    /**
+     * Method to get the maximum number of results.
+     *
+     * @return The maximum number of results.
+     */
+    int getLimit() {
+        return this.limit;
+    }
+
+    /**
+     * Method to check if an entry matches the query.
+     *
+     * @param name  - The lower case name of the entry.
+     * @param entry - The entry.
+     * @return Whether the entry matches.
+     */
+    boolean matches(String name, IndexedEntry entry) {
+        if (this.type != null && entry.isDirectory() != (this.type == EntryType.Directory)) {
+            return false;
+        }
+
+        // Only files have an extension and a size that can be filtered on.
+        if (this.extension != null || this.minSize >= 0 || this.maxSize >= 0) {
+            if (entry.isDirectory()) {
+                return false;
+            }
+
+            if (this.extension != null && !this.extension.equals(getExtension(name))) {
+                return false;
+            }
+
+            if ((this.minSize >= 0 && entry.getSize() <= this.minSize) || (this.maxSize >= 0 && entry.getSize() >= this.maxSize)) {
+                return false;
+            }
+        }
+
+        for (var term : this.terms) {
+            if (!name.contains(term)) {
+                return false;
+            }
+        }
+
+        return true;
+    }
+
+    /**
+     * Method to score how well a matching name matches the query, a name that equals a term
+     * scores higher than a name that starts with it, which scores higher than a name that
+     * contains the term at the start of a word, which scores higher than any other match.
+     *
+     * @param name - The lower case name of the entry.
+     * @return The score of the name.
+     */
+    int score(String name) {
+        var score = 0;
+
+        for (var term : this.terms) {
+            var index = name.indexOf(term);
+
+            if (name.equals(term) || getBaseName(name).equals(term)) {
+                score += 100;
+            } else if (index == 0) {
+                score += 50;
+            } else if (index > 0 && !Character.isLetterOrDigit(name.charAt(index - 1))) {
+                score += 25;
+            } else {
+                score += 10;
+            }
+        }
+
+        return score;
+    }
+
+    /**
+     * Method to get the extension of a file name, which is the text after the last dot.
+     *
+     * @param name - The file name.
+     * @return The extension, or an empty string if the name doesn't have one.
+     */
+    static String getExtension(String name) {
+        var dot = name.lastIndexOf('.');
+
+        return dot > 0 ? name.substring(dot + 1) : "";
+    }
+
+    /**
+     * Method to get a file name without it's extension.
+     *
+     * @param name - The file name.
+     * @return The name without the extension.
+     */
+    private static String getBaseName(String name) {
+        var dot = name.lastIndexOf('.');
+
+        return dot > 0 ? name.substring(0, dot) : name;
+    }
+}
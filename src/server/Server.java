@@ -4,18 +4,23 @@ package server;
 import cli.Commander;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import common.Configuration;
+import common.TaskRunner;
+import common.resources.DigestCache;
 
 import java.io.IOException;
 import java.net.BindException;
 import java.net.DatagramPacket;
 import java.net.DatagramSocket;
 import java.net.InetAddress;
+import java.net.InetSocketAddress;
 import java.net.ServerSocket;
 import java.net.Socket;
+import java.nio.channels.ServerSocketChannel;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicBoolean;
@@ -54,6 +59,11 @@ public class Server implements Runnable {
      */
     private final Commander commander = Commander.getInstance();
 
+    /**
+     * Our reference to the digest cache of the upload folder.
+     */
+    private final DigestCache digestCache = DigestCache.getInstance();
+
 
     /**
      * An instance of a Jackson ObjectMapper, used to serialize data that
@@ -63,9 +73,9 @@ public class Server implements Runnable {
 
 
     /**
-     * The thread instance that is used to run the server on.
+     * The task that is used to run the server on.
      */
-    private Thread worker;
+    private Future<?> worker;
 
     /**
      * Server socket instance that will be used to accept incoming TCP connections.
@@ -89,13 +99,26 @@ public class Server implements Runnable {
      * Our scheduler instance that will broadcast a message along the local network looking
      * for any peers also listening to the broadcast.
      */
-    private final ScheduledExecutorService scheduler = Executors.newScheduledThreadPool(1);
+    private final ScheduledExecutorService scheduler =
+            Executors.newScheduledThreadPool(1, TaskRunner.getInstance().getThreadFactory("Scheduler"));
 
     /**
      * A list of active connections that the server holds.
      */
     List<ConnectionHandler> connections = new ArrayList<>();
 
+    /**
+     * Instance of the configuration object which is used to get application settings.
+     */
+    private final Configuration config = Configuration.getInstance();
+
+    /**
+     * The event loops that are used to multiplex connections when the server is running
+     * in the non-blocking ('nio') mode.
+     */
+    private final List<EventLoop> eventLoops = new ArrayList<>();
+
+
 
     /**
      * This is a Runnable task that is executed by the scheduler every 60 seconds to
@@ -170,8 +193,7 @@ public class Server implements Runnable {
      * Method to start the server
      */
     public void start() {
-        worker = new Thread(this);
-        worker.start();
+        worker = TaskRunner.getInstance().spawnDedicated("ServerThread", this);
     }
 
     /**
@@ -198,14 +220,19 @@ public class Server implements Runnable {
      * The method also sets of our scheduler to run the broadcastTask every 60 seconds.
      */
     public void run() {
-        Thread.currentThread().setName("ServerThread");
-
         // This is used to check if some connections are dead instead of the ConnectionHandler
         // notifying the server instance that said connection is dead.
         var cleanupHandle = scheduler.scheduleWithFixedDelay(connectionCleanupTask, 2, 5, TimeUnit.SECONDS);
 
         scheduler.schedule((Runnable) () -> cleanupHandle.cancel(true), 60, TimeUnit.SECONDS);
 
+        // Build the in-memory index of the upload folder, which is used to answer listings.
+        UploadIndex.getInstance().start();
+
+        // Periodically persist the digest cache, so that the digests of the upload folder
+        // survive a restart of the application.
+        scheduler.scheduleWithFixedDelay(digestCache::save, 30, 30, TimeUnit.SECONDS);
+
         // Add a scheduled task to query all of our known peers for their peer
         // information. By using a ScheduledExecutorService task we can run a
         // 'Runnable' instance every 30 seconds to send information about our known
@@ -219,18 +246,12 @@ public class Server implements Runnable {
         try {
             this.running.set(true);
 
-            // listen for client connection requests on this server socket
-            this.serverSocket = new ServerSocket(port);
-
-
-
-            System.out.printf("File server listening on port %s...%n", port);
-            this.startSignal.countDown();
-
-            while (this.running.get()) {
-                var socket = this.serverSocket.accept();
-
-                this.addConnection(socket);
+            // The server can either hand each connection to it's own thread, or multiplex
+            // all of the connections on a small set of event loops.
+            if (config.get("server.mode").equals("nio")) {
+                this.runEventLoops();
+            } else {
+                this.runBlocking();
             }
         } catch (IOException e) {
             if (e instanceof BindException) {
@@ -246,6 +267,66 @@ public class Server implements Runnable {
     }
 
 
+    /**
+     * Method to run the blocking server mode, a ConnectionHandler is created for every
+     * connection that is accepted on the server socket.
+     *
+     * @throws IOException if the server socket couldn't be opened.
+     */
+    private void runBlocking() throws IOException {
+        // listen for client connection requests on this server socket. The socket is opened
+        // through a channel so that accepted sockets are also backed by a channel, which allows
+        // files to be sent with zero-copy transfers.
+        var serverChannel = ServerSocketChannel.open();
+        serverChannel.bind(new InetSocketAddress(port));
+
+        this.serverSocket = serverChannel.socket();
+
+        System.out.printf("File server listening on port %s...%n", port);
+        this.startSignal.countDown();
+
+        while (this.running.get()) {
+            var socket = serverChannel.accept().socket();
+
+            this.addConnection(socket);
+        }
+    }
+
+    /**
+     * Method to run the non-blocking server mode. The server thread accepts connections
+     * on a {@link ServerSocketChannel} and distributes them across a fixed set of
+     * {@link EventLoop} instances in a round-robin fashion.
+     *
+     * @throws IOException if the server socket channel or the selectors couldn't be opened.
+     */
+    private void runEventLoops() throws IOException {
+        var loopCount = Math.max(1, config.getInt("server.io.threads"));
+
+        for (int i = 0; i < loopCount; i++) {
+            var loop = new EventLoop(TaskRunner.getInstance());
+            loop.start("EventLoopThread-" + i);
+
+            this.eventLoops.add(loop);
+        }
+
+        var serverChannel = ServerSocketChannel.open();
+        serverChannel.bind(new InetSocketAddress(port));
+
+        this.serverSocket = serverChannel.socket();
+
+        System.out.printf("File server listening on port %s (nio)...%n", port);
+        this.startSignal.countDown();
+
+        var next = 0;
+
+        while (this.running.get()) {
+            var channel = serverChannel.accept();
+
+            this.eventLoops.get(next).register(channel);
+            next = (next + 1) % loopCount;
+        }
+    }
+
     /**
      * Method to create a new connection when the server receives a new connection. The method
      * will use a given socket to instantiate a ConnectionHandler object, call 'start' to initiate
@@ -277,6 +358,10 @@ public class Server implements Runnable {
         try {
             // check if we need to close any pending connections.
             this.connections.forEach(ConnectionHandler::stop);
+            this.eventLoops.forEach(EventLoop::stop);
+
+            this.digestCache.save();
+            UploadIndex.getInstance().stop();
 
             if (serverSocket != null) {
                 serverSocket.close();
@@ -290,7 +375,7 @@ public class Server implements Runnable {
             System.out.println("File server couldn't shutdown gracefully.");
             e.printStackTrace();
         } finally {
-            worker.interrupt();
+            worker.cancel(true);
         }
     }
 
@@ -0,0 +1,145 @@
+package server;
+
+import common.resources.FileEntry;
+import interfaces.IResponseChannel;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Class that writes the response to a {@link common.protocol.Command} 'Tagged' request. The
+ * id of the request is added as the first field of every response line, so that the peer
+ * can match the response to the request whilst other requests on the same connection are
+ * answered in a different order.
+ * <p>
+ * Responses that are written as raw bytes, such as a page of a listing, are collected
+ * until a whole line was written, so that the line can't be interleaved with the response
+ * to another request, and a last line without a line separator is written once the
+ * request has been processed. Files can't be sent in response to a tagged request.
+ *
+ * @author 200008575
+ */
+class TaggedChannel implements IResponseChannel {
+    /**
+     * The channel that the tagged lines are written to.
+     */
+    private final IResponseChannel channel;
+
+    /**
+     * The id of the request, which has already been checked to be a number.
+     */
+    private final String id;
+
+    /**
+     * The bytes of the line that is being written.
+     */
+    private final ByteArrayOutputStream line = new ByteArrayOutputStream();
+
+    /**
+     * TaggedChannel constructor
+     *
+     * @param channel - The channel that the tagged lines are written to.
+     * @param id      - The id of the request.
+     */
+    TaggedChannel(IResponseChannel channel, long id) {
+        this.channel = channel;
+        this.id = String.valueOf(id);
+    }
+
+    /**
+     * Method to write a response line with the id of the request.
+     *
+     * @param line - The JSON object that will be written, excluding the line separator.
+     * @throws IOException if the peer connection drops whilst writing the line.
+     */
+    @Override
+    public void writeLine(String line) throws IOException {
+        this.channel.writeLine(tag(line, this.id));
+    }
+
+    /**
+     * Method to write an encoded response line with the id of the request.
+     *
+     * @param bytes  - The buffer that holds the line, including the line separator.
+     * @param offset - The position in the buffer of the first byte of the line.
+     * @param length - The number of bytes in the line.
+     * @throws IOException if the peer connection drops whilst writing the line.
+     */
+    @Override
+    public void writeLine(byte[] bytes, int offset, int length) throws IOException {
+        this.writeLine(new String(bytes, offset, length, StandardCharsets.UTF_8).stripTrailing());
+    }
+
+    /**
+     * Method to reject a file, since the bytes of a file can't be told apart from the
+     * responses to other requests.
+     *
+     * @throws IOException always.
+     */
+    @Override
+    public void writeFile(FileEntry fileEntry, long offset, long length) throws IOException {
+        throw new IOException("Files can't be sent in response to a tagged request.");
+    }
+
+    /**
+     * Method to collect the bytes of a response, every completed line is written with the id
+     * of the request.
+     *
+     * @param bytes  - The buffer that holds the bytes.
+     * @param offset - The position in the buffer of the first byte to write.
+     * @param length - The number of bytes to write.
+     * @throws IOException if the peer connection drops whilst writing a line.
+     */
+    @Override
+    public void writeBytes(byte[] bytes, int offset, int length) throws IOException {
+        for (int i = offset; i < offset + length; i++) {
+            if (bytes[i] != '\n') {
+                this.line.write(bytes[i]);
+                continue;
+            }
+
+            this.writeCollected();
+        }
+    }
+
+    /**
+     * Method to write the bytes that were collected after the last line separator, so that
+     * a response whose last line isn't ended isn't lost. It is called once the request has
+     * been processed.
+     *
+     * @throws IOException if the peer connection drops whilst writing the line.
+     */
+    void finish() throws IOException {
+        if (this.line.size() > 0) {
+            this.writeCollected();
+        }
+    }
+
+    /**
+     * Method to write the collected bytes as a line with the id of the request.
+     *
+     * @throws IOException if the peer connection drops whilst writing the line.
+     */
+    private void writeCollected() throws IOException {
+        var text = this.line.toString(StandardCharsets.UTF_8);
+
+        this.line.reset();
+
+        // Strip the carriage return if the line was ended with a '\r\n' line separator.
+        this.writeLine(text.endsWith("\r") ? text.substring(0, text.length() - 1) : text);
+    }
+
+    /**
+     * Method to add an id as the first field of a JSON object.
+     *
+     * @param line - The JSON object.
+     * @param id   - The id, which must be a valid JSON value.
+     * @return The JSON object with the id.
+     */
+    static String tag(String line, String id) {
+        var body = line.substring(line.indexOf('{') + 1).trim();
+
+        return body.equals("}") ? "{\"id\":" + id + "}" : "{\"id\":" + id + "," + body;
+    }
+}
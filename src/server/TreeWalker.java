@@ -0,0 +1,375 @@
+package server;
+
+import common.resources.DigestCache;
+import common.resources.IndexedEntry;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.Path;
+import java.nio.file.PathMatcher;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Class that walks a folder tree in parallel and hands the entries to a visitor as they are
+ * found. Every directory is read by it's own task on a {@link ForkJoinPool}, so the reads
+ * of sibling directories overlap, which matters most when the folder isn't indexed and every
+ * directory has to be read from the filesystem.
+ * <p>
+ * The entries of each directory are passed to the thread that called {@link #walk} through
+ * a bounded queue, so only that thread writes to the peer, and the walk pauses whilst the
+ * peer is slower than the walk instead of buffering the whole tree.
+ *
+ * @author 200008575
+ */
+class TreeWalker {
+    /**
+     * The number of batches that may wait to be written before the walk pauses.
+     */
+    private static final int QUEUE_SIZE = 64;
+
+    /**
+     * The maximum number of entries in a batch, so that a huge directory is handed over
+     * in parts rather than being held in memory whilst it's read.
+     */
+    private static final int BATCH_SIZE = 1024;
+
+    /**
+     * The batch that marks the end of the walk.
+     */
+    private static final List<Found> END = new ArrayList<>();
+
+    /**
+     * The pool that directories are read on. The pool is separate from the common pool, so
+     * that a walk that is paused by a slow peer doesn't hold up other work.
+     */
+    private static final ForkJoinPool pool = new ForkJoinPool(Runtime.getRuntime().availableProcessors());
+
+    /**
+     * Our reference to the in-memory index of the upload folder.
+     */
+    private final UploadIndex index = UploadIndex.getInstance();
+
+    /**
+     * The batches of entries that were found but not yet visited.
+     */
+    private final BlockingQueue<List<Found>> found = new ArrayBlockingQueue<>(QUEUE_SIZE);
+
+    /**
+     * The folder that the walk starts from.
+     */
+    private final Path root;
+
+    /**
+     * The maximum depth of the entries that are visited, the entries of the root are at a
+     * depth of 1. A depth of 0 or less doesn't limit the walk.
+     */
+    private final int maxDepth;
+
+    /**
+     * The matcher that the relative paths of entries must match to be visited, or null if
+     * every entry is visited. Directories are walked whether or not they match.
+     */
+    private final PathMatcher matcher;
+
+    /**
+     * Whether the matcher is applied to the file names of entries rather than to their
+     * relative paths.
+     */
+    private final boolean matchFileName;
+
+    /**
+     * The number of directories that were read.
+     */
+    private final AtomicLong directories = new AtomicLong(0);
+
+    /**
+     * The number of directories that couldn't be read.
+     */
+    private final AtomicLong skipped = new AtomicLong(0);
+
+    /**
+     * Whether the walk was abandoned, for example because the peer disconnected.
+     */
+    private volatile boolean cancelled = false;
+
+    /**
+     * TreeWalker constructor
+     *
+     * @param root          - The absolute path of the folder that the walk starts from.
+     * @param maxDepth      - The maximum depth of the visited entries, 0 or less for no limit.
+     * @param matcher       - The matcher that visited entries must match, or null for every entry.
+     * @param matchFileName - Whether the matcher is applied to file names rather than relative paths.
+     */
+    TreeWalker(Path root, int maxDepth, PathMatcher matcher, boolean matchFileName) {
+        this.root = root;
+        this.maxDepth = maxDepth;
+        this.matcher = matcher;
+        this.matchFileName = matchFileName;
+    }
+
+    /**
+     * Method to walk the tree and visit the entries on the calling thread as they are found.
+     * Entries are visited in no particular order, although the entries of a directory are
+     * visited together.
+     *
+     * @param visitor - The visitor that is given each matching entry.
+     * @return The number of entries that were visited.
+     * @throws IOException if the visitor failed, in which case the walk is abandoned.
+     */
+    long walk(Visitor visitor) throws IOException {
+        var rootTask = new DirectoryTask(this.root, "", 1);
+
+        // The end of the walk is marked with an empty batch once every task has finished.
+        var task = pool.submit(() -> {
+            try {
+                rootTask.invoke();
+            } finally {
+                this.publish(END);
+            }
+        });
+
+        var count = 0L;
+
+        try {
+            while (true) {
+                var batch = this.found.poll(1, TimeUnit.SECONDS);
+
+                if (batch == END || (batch == null && task.isDone() && this.found.isEmpty())) {
+                    break;
+                }
+
+                if (batch == null) {
+                    continue;
+                }
+
+                for (var item : batch) {
+                    visitor.visit(item.path, item.entry);
+                    count++;
+                }
+            }
+        } catch (InterruptedException e) {
+            throw new InterruptedIOException("Interrupted whilst walking the folder.");
+        } finally {
+            // Stop the tasks that are still walking if the visitor failed.
+            this.cancelled = true;
+            this.found.clear();
+        }
+
+        return count;
+    }
+
+    /**
+     * Method to get the number of directories that were read.
+     *
+     * @return The number of directories.
+     */
+    long getDirectories() {
+        return this.directories.get();
+    }
+
+    /**
+     * Method to get the number of directories that couldn't be read.
+     *
+     * @return The number of directories.
+     */
+    long getSkipped() {
+        return this.skipped.get();
+    }
+
+    /**
+     * Method to check if an entry should be visited.
+     *
+     * @param path  - The relative path of the entry.
+     * @param entry - The entry.
+     * @return Whether the entry matches the filter.
+     */
+    private boolean matches(String path, IndexedEntry entry) {
+        if (this.matcher == null) {
+            return true;
+        }
+
+        return this.matcher.matches(this.matchFileName ? entry.getPath().getFileName() : entry.getPath().getFileSystem().getPath(path));
+    }
+
+    /**
+     * Method to hand a batch of entries to the walking thread, waiting whilst the queue is
+     * full. The wait is managed, so that the pool can add a thread whilst this one is blocked.
+     *
+     * @param batch - The entries that were found.
+     */
+    private void publish(List<Found> batch) {
+        if (batch.isEmpty() && batch != END) {
+            return;
+        }
+
+        try {
+            ForkJoinPool.managedBlock(new ForkJoinPool.ManagedBlocker() {
+                private boolean done = false;
+
+                @Override
+                public boolean block() throws InterruptedException {
+                    while (!cancelled && !done) {
+                        done = found.offer(batch, 50, TimeUnit.MILLISECONDS);
+                    }
+
+                    return true;
+                }
+
+                @Override
+                public boolean isReleasable() {
+                    return cancelled || done || (done = found.offer(batch));
+                }
+            });
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Interface that is given each entry that the walk finds.
+     */
+    @FunctionalInterface
+    interface Visitor {
+        /**
+         * Method to process an entry.
+         *
+         * @param path  - The path of the entry relative to the root, separated by '/'.
+         * @param entry - The entry.
+         * @throws IOException if the entry couldn't be written to the peer.
+         */
+        void visit(String path, IndexedEntry entry) throws IOException;
+    }
+
+    /**
+     * Class that holds an entry and it's path relative to the root of the walk.
+     */
+    private static class Found {
+        private final String path;
+        private final IndexedEntry entry;
+
+        Found(String path, IndexedEntry entry) {
+            this.path = path;
+            this.entry = entry;
+        }
+    }
+
+    /**
+     * Task that reads a single directory, publishes it's entries and forks a task for each
+     * of it's subdirectories.
+     */
+    private class DirectoryTask extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+
+        private final Path directory;
+        private final String prefix;
+        private final int depth;
+        private List<Found> batch = new ArrayList<>();
+
+        DirectoryTask(Path directory, String prefix, int depth) {
+            this.directory = directory;
+            this.prefix = prefix;
+            this.depth = depth;
+        }
+
+        @Override
+        protected void compute() {
+            if (cancelled) {
+                return;
+            }
+
+            List<DirectoryTask> subtasks = new ArrayList<>();
+
+            try {
+                this.read(subtasks);
+                directories.incrementAndGet();
+            } catch (IOException e) {
+                skipped.incrementAndGet();
+            }
+
+            publish(this.batch);
+            invokeAll(subtasks);
+        }
+
+        /**
+         * Method to read the entries of the directory, from the index if it's indexed.
+         *
+         * @param subtasks - The list that the tasks of the subdirectories are added to.
+         * @throws IOException if the directory couldn't be read.
+         */
+        private void read(List<DirectoryTask> subtasks) throws IOException {
+            if (index.isReady()) {
+                var entries = index.list(this.directory);
+
+                if (entries != null) {
+                    for (var entry : entries) {
+                        // Symbolic links to directories may be indexed, but aren't walked into so that
+                        // the tree is the same as when it's read from the filesystem.
+                        var walk = entry.isDirectory() && !Files.isSymbolicLink(entry.getPath());
+
+                        this.add(entry, walk && index.list(entry.getPath()) != null, subtasks);
+                    }
+
+                    return;
+                }
+            }
+
+            try (var stream = Files.newDirectoryStream(this.directory)) {
+                for (var child : stream) {
+                    if (DigestCache.isCacheFile(child)) {
+                        continue;
+                    }
+
+                    BasicFileAttributes attributes;
+                    var walk = false;
+
+                    try {
+                        attributes = Files.readAttributes(child, BasicFileAttributes.class, LinkOption.NOFOLLOW_LINKS);
+
+                        // Symbolic links are listed as the type of their target, but aren't walked
+                        // into so that links can't create cycles.
+                        if (attributes.isSymbolicLink()) {
+                            attributes = Files.readAttributes(child, BasicFileAttributes.class);
+                        } else {
+                            walk = attributes.isDirectory();
+                        }
+                    } catch (IOException e) {
+                        continue;
+                    }
+
+                    this.add(new IndexedEntry(child, attributes), walk, subtasks);
+                }
+            }
+        }
+
+        /**
+         * Method to add an entry of the directory to the batch if it matches, and to add a
+         * task for it if it's a directory that should be walked.
+         */
+        private void add(IndexedEntry entry, boolean walk, List<DirectoryTask> subtasks) {
+            var path = this.prefix + entry.getFileName();
+
+            if (matches(path, entry)) {
+                this.batch.add(new Found(path, entry));
+
+                if (this.batch.size() == BATCH_SIZE) {
+                    publish(this.batch);
+                    this.batch = new ArrayList<>();
+                }
+            }
+
+            if (walk && (maxDepth <= 0 || this.depth < maxDepth)) {
+                subtasks.add(new DirectoryTask(entry.getPath(), path + "/", this.depth + 1));
+            }
+        }
+    }
+}
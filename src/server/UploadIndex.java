@@ -0,0 +1,650 @@
+package server;
+
+import common.Configuration;
+import common.TaskRunner;
+import common.resources.DigestCache;
+import common.resources.IndexedEntry;
+
+import java.io.IOException;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+import java.util.concurrent.RecursiveAction;
+import java.util.stream.Collectors;
+
+import static java.nio.file.StandardWatchEventKinds.ENTRY_CREATE;
+import static java.nio.file.StandardWatchEventKinds.ENTRY_DELETE;
+import static java.nio.file.StandardWatchEventKinds.ENTRY_MODIFY;
+import static java.nio.file.StandardWatchEventKinds.OVERFLOW;
+
+/**
+ * Singleton class that holds an in-memory index of the upload folder. The folder is
+ * scanned once in parallel when the index is started, and is then kept up to date by
+ * listening to {@link WatchService} events for every indexed directory. This allows
+ * the server to list folders and to check paths without making any system calls.
+ * <p>
+ * If the index isn't ready (it is still scanning, or a directory couldn't be watched),
+ * callers are expected to fall back onto reading the filesystem.
+ *
+ * @author 200008575
+ */
+public class UploadIndex {
+    /**
+     * Instance of the configuration object which is used to get application settings.
+     */
+    private final Configuration config = Configuration.getInstance();
+
+    /**
+     * The entries of every indexed directory, mapped by the absolute path of the directory.
+     * The entries of a directory are sorted by name.
+     */
+    private final Map<Path, ConcurrentSkipListMap<String, IndexedEntry>> directories = new ConcurrentHashMap<>();
+
+    /**
+     * The directories that are being watched, mapped by their watch key. A directory that is
+     * also reached through a symbolic link shares the watch key of it's other paths.
+     */
+    private final Map<WatchKey, Set<Path>> watchKeys = new ConcurrentHashMap<>();
+
+    /**
+     * The directories that are being scanned, the set is also the lock of {@link #changed}.
+     */
+    private final Set<Path> scanning = new HashSet<>();
+
+    /**
+     * The directories that changed whilst they were being scanned, and have to be read again
+     * before their entries are published.
+     */
+    private final Set<Path> changed = new HashSet<>();
+
+    /**
+     * The index of the names of the entries, which is kept up to date with this index.
+     */
+    private final SearchIndex searchIndex = SearchIndex.getInstance();
+
+    /**
+     * The folder that is being indexed.
+     */
+    private volatile Path root;
+
+    /**
+     * The real path of the indexed folder, which symbolic links must lead into to be scanned.
+     */
+    private volatile Path realRoot;
+
+    /**
+     * Whether the index is complete and is being kept up to date.
+     */
+    private volatile boolean ready = false;
+
+    /**
+     * Whether a directory couldn't be watched during the scan, in which case the index
+     * would become stale and must not be used.
+     */
+    private volatile boolean failed = false;
+
+    /**
+     * The watch service that is used to listen for changes in the indexed directories.
+     */
+    private WatchService watchService;
+
+    /**
+     * The task that processes the watch events.
+     */
+    private Future<?> watcher;
+
+    /**
+     * Variable that holds the reference of this object that is used
+     * when external callers need to access the index.
+     */
+    private static final UploadIndex instance = new UploadIndex();
+
+    /**
+     * UploadIndex instantiation method.
+     */
+    private UploadIndex() {
+    }
+
+    /**
+     * Method to get an instance of the UploadIndex object
+     *
+     * @return A reference of this object.
+     */
+    public static UploadIndex getInstance() {
+        return instance;
+    }
+
+    /**
+     * Method to start indexing the current upload folder, the scan runs in the background.
+     * If the index is disabled by the 'index.enabled' setting, this does nothing.
+     */
+    public synchronized void start() {
+        if (!Boolean.parseBoolean(config.get("index.enabled"))) {
+            return;
+        }
+
+        this.stop();
+
+        var folder = Paths.get(config.get("upload")).toAbsolutePath().normalize();
+        this.root = folder;
+        this.failed = false;
+
+        try {
+            this.realRoot = folder.toRealPath();
+        } catch (IOException e) {
+            this.realRoot = folder;
+        }
+
+        try {
+            this.watchService = FileSystems.getDefault().newWatchService();
+        } catch (IOException e) {
+            System.out.println("Couldn't start watching the upload folder.");
+            return;
+        }
+
+        var service = this.watchService;
+
+        this.watcher = TaskRunner.getInstance().spawnDedicated("UploadIndexWatcher", () -> {
+            ForkJoinPool.commonPool().invoke(new ScanTask(folder, Set.of()));
+
+            // Only mark the index as ready if it is still indexing the same folder.
+            synchronized (this) {
+                if (this.watchService == service && folder.equals(this.root)) {
+                    this.ready = !this.failed;
+                }
+            }
+
+            this.processEvents(service);
+        });
+    }
+
+    /**
+     * Method to stop the index, the watch service is closed and all entries are discarded.
+     */
+    public synchronized void stop() {
+        this.ready = false;
+
+        if (this.watchService != null) {
+            try {
+                this.watchService.close();
+            } catch (IOException e) {
+                // Ignore since the watch service is being discarded anyway.
+            }
+
+            this.watchService = null;
+        }
+
+        if (this.watcher != null) {
+            this.watcher.cancel(true);
+            this.watcher = null;
+        }
+
+        this.directories.clear();
+        this.watchKeys.clear();
+        this.searchIndex.clear();
+    }
+
+    /**
+     * Method to check if the index can be used to answer queries. If the upload folder was
+     * changed, the index is restarted on the new folder and isn't ready until the scan of
+     * the new folder finishes.
+     *
+     * @return Whether the index is ready.
+     */
+    public boolean isReady() {
+        var folder = Paths.get(config.get("upload")).toAbsolutePath().normalize();
+
+        if (this.root != null && !folder.equals(this.root)) {
+            this.start();
+        }
+
+        return this.ready;
+    }
+
+    /**
+     * Method to get the entries of an indexed directory.
+     *
+     * @param path - The absolute path of the directory.
+     * @return The entries of the directory sorted by name, or null if the path isn't an
+     * indexed directory.
+     */
+    public Collection<IndexedEntry> list(Path path) {
+        var entries = directories.get(path.toAbsolutePath().normalize());
+
+        return entries == null ? null : entries.values();
+    }
+
+    /**
+     * Method to get the entries of an indexed directory whose names come after the given
+     * name. The entries are read lazily from the index, so a page of a huge directory can
+     * be listed without copying the whole directory.
+     *
+     * @param path  - The absolute path of the directory.
+     * @param after - The name that the entries must come after, or null for every entry.
+     * @return The entries of the directory sorted by name, or null if the path isn't an
+     * indexed directory.
+     */
+    public Collection<IndexedEntry> list(Path path, String after) {
+        var entries = directories.get(path.toAbsolutePath().normalize());
+
+        if (entries == null) {
+            return null;
+        }
+
+        return after == null ? entries.values() : entries.tailMap(after, false).values();
+    }
+
+    /**
+     * Method to look up an entry in the index.
+     *
+     * @param path - The absolute path of the entry.
+     * @return The entry, or null if the path isn't in the index.
+     */
+    public IndexedEntry lookup(Path path) {
+        var normalised = path.toAbsolutePath().normalize();
+        var parent = normalised.getParent();
+
+        if (parent == null || normalised.getFileName() == null) {
+            return null;
+        }
+
+        var entries = directories.get(parent);
+
+        return entries == null ? null : entries.get(normalised.getFileName().toString());
+    }
+
+    /**
+     * Method to find all of the indexed files that have the given size.
+     *
+     * @param size - The size in bytes of the files.
+     * @return The files that have the given size.
+     */
+    public List<IndexedEntry> findBySize(long size) {
+        List<IndexedEntry> matches = new ArrayList<>();
+
+        for (var entries : directories.values()) {
+            for (var entry : entries.values()) {
+                if (!entry.isDirectory() && entry.getSize() == size) {
+                    matches.add(entry);
+                }
+            }
+        }
+
+        return matches;
+    }
+
+    /**
+     * Method to check if a path is within the indexed folder.
+     *
+     * @param path - The path to check.
+     * @return Whether the path is within the indexed folder.
+     */
+    public boolean contains(Path path) {
+        var folder = this.root;
+
+        return folder != null && path.toAbsolutePath().normalize().startsWith(folder);
+    }
+
+    /**
+     * Method that processes watch events until the watch service is closed.
+     *
+     * @param service - The watch service to take events from.
+     */
+    private void processEvents(WatchService service) {
+        try {
+            while (true) {
+                var key = service.take();
+                var paths = watchKeys.get(key);
+                var events = key.pollEvents();
+
+                if (paths != null) {
+                    for (var directory : List.copyOf(paths)) {
+                        for (var event : events) {
+                            this.handleEvent(directory, event);
+                        }
+                    }
+                }
+
+                // The key is no longer valid if the directory was deleted.
+                if (!key.reset()) {
+                    watchKeys.remove(key);
+
+                    if (paths != null) {
+                        List.copyOf(paths).forEach(this::removeTree);
+                    }
+                }
+            }
+        } catch (InterruptedException | ClosedWatchServiceException e) {
+            // The index was stopped.
+        }
+    }
+
+    /**
+     * Method to apply a single watch event onto the index.
+     *
+     * @param directory - The directory that the event happened in.
+     * @param event     - The watch event.
+     */
+    private void handleEvent(Path directory, WatchEvent<?> event) {
+        // The entries of a directory that is being scanned are about to be replaced, so the scan
+        // reads the directory again rather than the event being applied to the old entries.
+        synchronized (this.scanning) {
+            if (this.scanning.contains(directory)) {
+                this.changed.add(directory);
+                return;
+            }
+        }
+
+        // Some events were lost, so the whole directory needs to be scanned again.
+        if (event.kind() == OVERFLOW) {
+            ForkJoinPool.commonPool().execute(new ScanTask(directory, ancestorKeys(directory)));
+            return;
+        }
+
+        var child = directory.resolve((Path) event.context());
+        var entries = directories.get(directory);
+
+        if (entries == null || DigestCache.isCacheFile(child)) {
+            return;
+        }
+
+        if (event.kind() == ENTRY_DELETE) {
+            entries.remove(child.getFileName().toString());
+            searchIndex.remove(child);
+            this.removeTree(child);
+
+            return;
+        }
+
+        var entry = readEntry(child);
+
+        if (entry == null) {
+            entries.remove(child.getFileName().toString());
+            searchIndex.remove(child);
+            return;
+        }
+
+        var previous = entries.put(child.getFileName().toString(), entry);
+        searchIndex.add(entry);
+
+        // A directory that was created (or moved in) has to be scanned since it may already
+        // have contents. The scan runs in the background so that a large directory doesn't hold
+        // up the events of every other directory, and it's listed from the filesystem meanwhile.
+        if (event.kind() == ENTRY_CREATE && entry.isDirectory() && (!Files.isSymbolicLink(child) || this.isInsideRoot(child))) {
+            ForkJoinPool.commonPool().execute(new ScanTask(child, ancestorKeys(directory)));
+        } else if (previous != null && previous.isDirectory() && !entry.isDirectory()) {
+            this.removeTree(child);
+        }
+    }
+
+    /**
+     * Method to remove a directory and all of it's descendants from the index.
+     *
+     * @param directory - The directory to remove.
+     */
+    private void removeTree(Path directory) {
+        directories.entrySet().removeIf(item -> {
+            if (item.getKey().startsWith(directory)) {
+                searchIndex.removeAll(item.getValue().values().stream().map(IndexedEntry::getPath).collect(Collectors.toList()));
+                return true;
+            }
+
+            return false;
+        });
+
+        watchKeys.entrySet().removeIf(item -> {
+            item.getValue().removeIf(path -> path.startsWith(directory));
+
+            // The directory may still be watched through another path.
+            if (item.getValue().isEmpty()) {
+                item.getKey().cancel();
+                return true;
+            }
+
+            return false;
+        });
+    }
+
+    /**
+     * Method to read the attributes of a path into an entry. Symbolic links are followed so
+     * that a link is listed as the type of it's target.
+     *
+     * @param path - The path to read.
+     * @return The entry, or null if the path couldn't be read.
+     */
+    private static IndexedEntry readEntry(Path path) {
+        try {
+            return new IndexedEntry(path, Files.readAttributes(path, BasicFileAttributes.class));
+        } catch (IOException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Method to read the file key of a directory, following symbolic links.
+     *
+     * @param directory - The directory.
+     * @return The file key, or null if the directory can't be read or the platform has no
+     * file keys.
+     */
+    private static Object fileKey(Path directory) {
+        try {
+            return Files.readAttributes(directory, BasicFileAttributes.class).fileKey();
+        } catch (IOException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Method to check if a symbolic link leads to a directory inside the indexed folder. A link
+     * that leads anywhere else isn't scanned, so that nothing outside the upload folder is
+     * indexed or found by a search.
+     *
+     * @param link - The symbolic link.
+     * @return Whether the real path of the link is inside the indexed folder.
+     */
+    private boolean isInsideRoot(Path link) {
+        var folder = this.realRoot;
+
+        try {
+            return folder != null && link.toRealPath().startsWith(folder);
+        } catch (IOException e) {
+            return false;
+        }
+    }
+
+    /**
+     * Method to collect the file keys of a directory and of every directory above it, up to
+     * the indexed folder, so that a scan that starts in the directory can detect cycles.
+     *
+     * @param directory - The directory.
+     * @return The file keys of the directory and of it's ancestors.
+     */
+    private Set<Object> ancestorKeys(Path directory) {
+        var folder = this.root;
+        Set<Object> keys = new HashSet<>();
+
+        for (var path = directory; path != null && folder != null && path.startsWith(folder); path = path.getParent()) {
+            var key = fileKey(path);
+
+            if (key != null) {
+                keys.add(key);
+            }
+        }
+
+        return keys;
+    }
+
+    /**
+     * Task that scans a directory into the index, and forks a task for every sub-directory
+     * so that the tree is scanned in parallel. Directories that are symbolic links are
+     * scanned too if they lead into the upload folder, unless the link points back to a
+     * directory that the link is inside of, which is detected by the file keys of the
+     * directories above the scanned directory.
+     */
+    private class ScanTask extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+
+        /**
+         * The directory to scan.
+         */
+        private final Path directory;
+
+        /**
+         * The file keys of the directories that the directory is inside of.
+         */
+        private final Set<Object> ancestors;
+
+        ScanTask(Path directory, Set<Object> ancestors) {
+            this.directory = directory;
+            this.ancestors = ancestors;
+        }
+
+        @Override
+        protected void compute() {
+            var key = fileKey(directory);
+
+            // A link back to an ancestor would make the scan go on forever.
+            if (key != null && ancestors.contains(key)) {
+                return;
+            }
+
+            Set<Object> path = new HashSet<>(ancestors);
+            if (key != null) {
+                path.add(key);
+            }
+
+            synchronized (scanning) {
+                scanning.add(directory);
+            }
+
+            try {
+                this.scan(path);
+            } finally {
+                synchronized (scanning) {
+                    scanning.remove(directory);
+                    changed.remove(directory);
+                }
+            }
+        }
+
+        /**
+         * Method to watch and read the directory, and to publish it's entries once no events
+         * arrived for the directory whilst it was read.
+         *
+         * @param path - The file keys of the directory and of the directories it's inside of.
+         */
+        private void scan(Set<Object> path) {
+            // The directory is watched before it is read, so that no changes can be missed.
+            try {
+                var service = watchService;
+
+                if (service == null) {
+                    return;
+                }
+
+                var watchKey = directory.register(service, ENTRY_CREATE, ENTRY_DELETE, ENTRY_MODIFY);
+                watchKeys.computeIfAbsent(watchKey, (k) -> ConcurrentHashMap.newKeySet()).add(directory);
+            } catch (ClosedWatchServiceException e) {
+                return;
+            } catch (IOException e) {
+                // The directory can't be watched (for example the system ran out of watches), so the
+                // index can't be kept up to date and shouldn't be used.
+                System.out.println("Couldn't watch upload folder, disabling the upload index.");
+                failed = true;
+                ready = false;
+                return;
+            }
+
+            ConcurrentSkipListMap<String, IndexedEntry> entries;
+            ConcurrentSkipListMap<String, IndexedEntry> previous;
+            List<ScanTask> subtasks;
+
+            while (true) {
+                entries = new ConcurrentSkipListMap<>();
+                subtasks = new ArrayList<>();
+
+                try {
+                    this.read(path, entries, subtasks);
+                } catch (IOException e) {
+                    return;
+                }
+
+                synchronized (scanning) {
+                    if (!changed.remove(directory)) {
+                        previous = directories.put(directory, entries);
+                        scanning.remove(directory);
+                        break;
+                    }
+                }
+            }
+
+            // A directory that is scanned again may have lost entries whilst events were lost.
+            if (previous != null) {
+                searchIndex.removeAll(previous.values().stream().map(IndexedEntry::getPath).collect(Collectors.toList()));
+            }
+
+            searchIndex.addAll(entries.values());
+            invokeAll(subtasks);
+        }
+
+        /**
+         * Method to read the entries of the directory, and to add a task for every directory
+         * in it that should be scanned.
+         *
+         * @param path     - The file keys of the directory and of the directories it's inside of.
+         * @param entries  - The map that the entries are added to.
+         * @param subtasks - The list that the tasks of the sub-directories are added to.
+         * @throws IOException if the directory couldn't be read.
+         */
+        private void read(Set<Object> path, Map<String, IndexedEntry> entries, List<ScanTask> subtasks) throws IOException {
+            try (var stream = Files.newDirectoryStream(directory)) {
+                for (var child : stream) {
+                    if (DigestCache.isCacheFile(child)) {
+                        continue;
+                    }
+
+                    BasicFileAttributes attributes;
+
+                    try {
+                        attributes = Files.readAttributes(child, BasicFileAttributes.class, LinkOption.NOFOLLOW_LINKS);
+
+                        // Symbolic links are listed as the type of their target. A linked directory is
+                        // only walked into if it's inside the upload folder, and if it's file key can
+                        // be checked for cycles.
+                        if (attributes.isSymbolicLink()) {
+                            attributes = Files.readAttributes(child, BasicFileAttributes.class);
+
+                            if (attributes.isDirectory() && attributes.fileKey() != null && isInsideRoot(child)) {
+                                subtasks.add(new ScanTask(child, path));
+                            }
+                        } else if (attributes.isDirectory()) {
+                            subtasks.add(new ScanTask(child, path));
+                        }
+                    } catch (IOException e) {
+                        continue;
+                    }
+
+                    entries.put(child.getFileName().toString(), new IndexedEntry(child, attributes));
+                }
+            }
+        }
+    }
+}
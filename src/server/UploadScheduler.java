@@ -0,0 +1,545 @@
+package server;
+
+import common.Configuration;
+import common.FileTransfer;
+
+import java.io.InterruptedIOException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Singleton class that shares the server's upload capacity fairly between peers rather than
+ * between connections, so a peer doesn't get more bandwidth by opening more connections.
+ * <p>
+ * Files are sent in chunks of at most {@link #QUANTUM} bytes, and a connection has to be
+ * granted one of the 'upload.slots' slots before it sends a chunk. Whilst the slots are all
+ * in use, the next free slot is granted with weighted fair queuing: every peer counts the
+ * bytes it was granted divided by it's weight, and the waiting peer with the lowest count
+ * goes next. A peer may hold at most it's weighted share of the slots, so a peer whose
+ * connection is slow can't take up every slot whilst it's chunks drain. The weights are read
+ * from the 'upload.weights' setting, and every peer that isn't listed has a weight of 1.
+ * <p>
+ * Only the bodies of files go through the scheduler, short replies such as the answers to
+ * 'List' and 'GetMeta' requests are written straight away, so they aren't held up by large
+ * transfers.
+ *
+ * @author 200008575
+ */
+public class UploadScheduler {
+    /**
+     * The most bytes that are sent with a single grant, which is the size of the buffers that
+     * files are copied through.
+     */
+    public static final int QUANTUM = FileTransfer.BUFFER_SIZE;
+
+    /**
+     * Instance of the configuration object which is used to get application settings.
+     */
+    private final Configuration config = Configuration.getInstance();
+
+    /**
+     * The peers that are waiting for a slot or hold one, mapped by their address. A peer is
+     * removed once it neither waits nor holds a slot.
+     */
+    private final Map<String, Peer> peers = new HashMap<>();
+
+    /**
+     * The weights of the peers that are listed in the 'upload.weights' setting.
+     */
+    private Map<String, Double> weights = Map.of();
+
+    /**
+     * The number of chunks that may be sent at once, or 0 if uploads aren't scheduled.
+     */
+    private volatile int slots;
+
+    /**
+     * The number of slots that have been granted.
+     */
+    private int used = 0;
+
+    /**
+     * The count of the chunk that was granted last, which a peer that starts waiting again
+     * starts from, so that a peer can't save up turns whilst it isn't sending anything.
+     */
+    private double virtualTime = 0;
+
+    /**
+     * Variable that holds the reference of this object that is used
+     * when external callers need to access the scheduler.
+     */
+    private static final UploadScheduler instance = new UploadScheduler();
+
+    /**
+     * UploadScheduler instantiation method, which reads the settings from the configuration.
+     */
+    private UploadScheduler() {
+        this.reload();
+    }
+
+    /**
+     * UploadScheduler constructor, which creates a scheduler with fixed settings that is
+     * separate from the shared scheduler.
+     *
+     * @param slots   - The number of chunks that may be sent at once, or 0 to not schedule.
+     * @param weights - The weights of the peers mapped by their address.
+     */
+    public UploadScheduler(int slots, Map<String, Double> weights) {
+        this.slots = Math.max(0, slots);
+        this.weights = weights;
+    }
+
+    /**
+     * Method to get an instance of the UploadScheduler object
+     *
+     * @return A reference of this object.
+     */
+    public static UploadScheduler getInstance() {
+        return instance;
+    }
+
+    /**
+     * Method to read the number of slots and the weights of the peers from the configuration.
+     *
+     * @throws IllegalArgumentException if a setting is invalid.
+     */
+    public void reload() {
+        var slots = Math.max(0, config.getInt("upload.slots"));
+        var weights = parseWeights(config.get("upload.weights"));
+        List<Ticket> granted;
+
+        synchronized (this) {
+            this.slots = slots;
+            this.weights = weights;
+
+            for (var peer : this.peers.values()) {
+                peer.weight = this.getWeight(peer.host);
+            }
+
+            // More slots may have been added, or the scheduler was turned off.
+            granted = this.dispatch();
+        }
+
+        granted.forEach(Ticket::notifyGranted);
+    }
+
+    /**
+     * Method to change a setting of the scheduler, which is saved to the configuration and
+     * takes effect straight away.
+     *
+     * @param key   - The setting, either 'upload.slots' or 'upload.weights'.
+     * @param value - The new value.
+     * @throws IllegalArgumentException if the setting isn't one of the scheduler's, or the
+     *                                  value is invalid.
+     */
+    public void set(String key, String value) {
+        if (key.equals("upload.slots")) {
+            try {
+                Integer.parseInt(value.trim());
+            } catch (NumberFormatException e) {
+                throw new IllegalArgumentException(String.format("Property '%s' must be an integer.", key));
+            }
+        } else if (key.equals("upload.weights")) {
+            parseWeights(value);
+        } else {
+            throw new IllegalArgumentException(String.format("'%s' isn't an upload setting.", key));
+        }
+
+        config.set(key, value);
+        this.reload();
+    }
+
+    /**
+     * Method to check if uploads are scheduled.
+     *
+     * @return Whether uploads are scheduled.
+     */
+    public boolean isEnabled() {
+        return this.slots > 0;
+    }
+
+    /**
+     * Method to ask for a slot to send a chunk to a peer, without waiting for it. The callback
+     * of the ticket is run on the thread that frees the slot, unless the slot is granted
+     * straight away, which can be checked with {@link Ticket#isGranted()}.
+     *
+     * @param host     - The address of the peer.
+     * @param bytes    - The number of bytes in the chunk.
+     * @param callback - The callback that is run when the slot is granted later.
+     * @return The ticket, which must be released once it's no longer needed.
+     */
+    public Ticket submit(String host, long bytes, Runnable callback) {
+        return this.submit(host, bytes, callback, null);
+    }
+
+    /**
+     * Method to give up the slot of a chunk and to ask for a slot for the next chunk of the
+     * same transfer, without waiting for it. The next chunk is queued before the slot is
+     * given up, so the peer keeps it's turn rather than the slot going to another connection
+     * of a peer that has already had more.
+     *
+     * @param previous - The ticket of the chunk that was sent.
+     * @param bytes    - The number of bytes in the next chunk.
+     * @param callback - The callback that is run when the slot is granted later.
+     * @return The ticket of the next chunk, which must be released once it's no longer needed.
+     */
+    public Ticket renew(Ticket previous, long bytes, Runnable callback) {
+        return this.submit(previous.host, bytes, callback, previous);
+    }
+
+    /**
+     * Method to wait for a slot to send a chunk to a peer.
+     *
+     * @param host  - The address of the peer.
+     * @param bytes - The number of bytes in the chunk.
+     * @return The ticket of the slot, which must be released once the chunk was sent.
+     * @throws InterruptedIOException if the thread was interrupted whilst waiting.
+     */
+    public Ticket acquire(String host, long bytes) throws InterruptedIOException {
+        var thread = Thread.currentThread();
+
+        return this.await(this.submit(host, bytes, () -> LockSupport.unpark(thread)));
+    }
+
+    /**
+     * Method to give up the slot of a chunk and to wait for a slot for the next chunk of the
+     * same transfer, see {@link #renew}.
+     *
+     * @param previous - The ticket of the chunk that was sent.
+     * @param bytes    - The number of bytes in the next chunk.
+     * @return The ticket of the slot, which must be released once the chunk was sent.
+     * @throws InterruptedIOException if the thread was interrupted whilst waiting.
+     */
+    public Ticket acquire(Ticket previous, long bytes) throws InterruptedIOException {
+        var thread = Thread.currentThread();
+
+        return this.await(this.renew(previous, bytes, () -> LockSupport.unpark(thread)));
+    }
+
+    /**
+     * Method to queue a chunk and to grant the free slots.
+     *
+     * @param host     - The address of the peer.
+     * @param bytes    - The number of bytes in the chunk.
+     * @param callback - The callback that is run when the slot is granted later.
+     * @param previous - The ticket that is given up once the chunk was queued, or null.
+     * @return The ticket of the chunk.
+     */
+    private Ticket submit(String host, long bytes, Runnable callback, Ticket previous) {
+        var ticket = new Ticket(host, bytes, callback);
+
+        if (!this.isEnabled()) {
+            this.release(previous);
+
+            ticket.granted = true;
+            return ticket;
+        }
+
+        List<Ticket> granted;
+
+        synchronized (this) {
+            var peer = this.peers.get(host);
+
+            // A peer that starts waiting again starts from the current count.
+            if (peer == null) {
+                peer = new Peer(host, this.getWeight(host), this.virtualTime);
+                this.peers.put(host, peer);
+            }
+
+            ticket.peer = peer;
+            peer.waiting.add(ticket);
+
+            if (previous != null) {
+                this.free(previous);
+            }
+
+            granted = this.dispatch();
+        }
+
+        for (var other : granted) {
+            if (other != ticket) {
+                other.notifyGranted();
+            }
+        }
+
+        return ticket;
+    }
+
+    /**
+     * Method to wait until a ticket was granted.
+     *
+     * @param ticket - The ticket, whose callback unparks the current thread.
+     * @return The ticket.
+     * @throws InterruptedIOException if the thread was interrupted whilst waiting.
+     */
+    private Ticket await(Ticket ticket) throws InterruptedIOException {
+        // The park may return early, so it's repeated until the slot is granted.
+        while (!ticket.isGranted()) {
+            LockSupport.park(this);
+
+            if (Thread.currentThread().isInterrupted()) {
+                this.release(ticket);
+                throw new InterruptedIOException("Interrupted whilst waiting to send.");
+            }
+        }
+
+        return ticket;
+    }
+
+    /**
+     * Method to give up a slot once the chunk was sent, or to stop waiting for it. The slot is
+     * granted to the next waiting peer. Releasing a ticket more than once has no effect.
+     *
+     * @param ticket - The ticket of the slot, or null.
+     */
+    public void release(Ticket ticket) {
+        if (ticket == null || ticket.peer == null) {
+            return;
+        }
+
+        List<Ticket> granted;
+
+        synchronized (this) {
+            this.free(ticket);
+            granted = this.dispatch();
+        }
+
+        granted.forEach(Ticket::notifyGranted);
+    }
+
+    /**
+     * Method to give up the slot of a ticket, or to remove it from the queue of it's peer.
+     *
+     * @param ticket - The ticket.
+     */
+    private void free(Ticket ticket) {
+        var peer = ticket.peer;
+
+        if (peer == null || ticket.released) {
+            return;
+        }
+
+        ticket.released = true;
+
+        if (ticket.granted) {
+            peer.inFlight--;
+            this.used--;
+        } else {
+            peer.waiting.remove(ticket);
+        }
+
+        if (peer.waiting.isEmpty() && peer.inFlight == 0) {
+            this.peers.remove(peer.host);
+        }
+    }
+
+    /**
+     * Method to get a summary of the scheduler, which is printed by the CLI.
+     *
+     * @return The summary of the scheduler.
+     */
+    public synchronized String getStatusString() {
+        if (!this.isEnabled()) {
+            return "Uploads: not scheduled";
+        }
+
+        var waiting = this.peers.values().stream().mapToInt(peer -> peer.waiting.size()).sum();
+
+        return String.format("Uploads: %d of %d slots in use, %d peers sending, %d chunks waiting", this.used, this.slots, this.peers.size(), waiting);
+    }
+
+    /**
+     * Method to grant the free slots to the waiting peers with the lowest counts.
+     *
+     * @return The tickets that were granted, whose callbacks must be run once the lock
+     * has been released.
+     */
+    private List<Ticket> dispatch() {
+        List<Ticket> granted = new ArrayList<>();
+
+        while (!this.isEnabled() || this.used < this.slots) {
+            var peer = this.next();
+
+            if (peer == null) {
+                break;
+            }
+
+            var ticket = peer.waiting.poll();
+
+            this.virtualTime = Math.max(this.virtualTime, peer.count);
+            peer.count += ticket.bytes / peer.weight;
+            peer.inFlight++;
+            this.used++;
+
+            ticket.granted = true;
+            granted.add(ticket);
+        }
+
+        return granted;
+    }
+
+    /**
+     * Method to find the waiting peer with the lowest count that holds fewer than it's
+     * weighted share of the slots.
+     *
+     * @return The peer, or null if no peer can be granted a slot.
+     */
+    private Peer next() {
+        var total = 0.0;
+
+        for (var peer : this.peers.values()) {
+            total += peer.weight;
+        }
+
+        Peer next = null;
+
+        for (var peer : this.peers.values()) {
+            if (peer.waiting.isEmpty()) {
+                continue;
+            }
+
+            // Every peer may hold at least one slot, and all slots if the scheduler is off.
+            var share = this.isEnabled() ? Math.max(1, (int) Math.ceil(this.slots * peer.weight / total)) : Integer.MAX_VALUE;
+
+            if (peer.inFlight < share && (next == null || peer.count < next.count)) {
+                next = peer;
+            }
+        }
+
+        return next;
+    }
+
+    /**
+     * Method to get the weight of a peer.
+     *
+     * @param host - The address of the peer.
+     * @return The weight from the 'upload.weights' setting, or 1 if the peer isn't listed.
+     */
+    private double getWeight(String host) {
+        return this.weights.getOrDefault(host, 1.0);
+    }
+
+    /**
+     * Method to parse the weights of the peers from a list such as '10.0.0.2=4,10.0.0.3=0.5'.
+     *
+     * @param value - The list of weights.
+     * @return The weights mapped by the address of the peer.
+     * @throws IllegalArgumentException if the list is invalid.
+     */
+    public static Map<String, Double> parseWeights(String value) {
+        Map<String, Double> weights = new HashMap<>();
+
+        for (var entry : value.split(",")) {
+            if (entry.isBlank()) {
+                continue;
+            }
+
+            var parts = entry.split("=");
+
+            try {
+                if (parts.length != 2) {
+                    throw new NumberFormatException();
+                }
+
+                var weight = Double.parseDouble(parts[1].trim());
+
+                if (!(weight > 0) || Double.isInfinite(weight)) {
+                    throw new NumberFormatException();
+                }
+
+                weights.put(parts[0].trim(), weight);
+            } catch (NumberFormatException e) {
+                throw new IllegalArgumentException(String.format("Invalid upload weight '%s'.", entry.trim()));
+            }
+        }
+
+        return weights;
+    }
+
+    /**
+     * Class that represents a chunk that a connection waits to send, or is sending.
+     */
+    public static class Ticket {
+        /**
+         * The address of the peer.
+         */
+        private final String host;
+
+        /**
+         * The number of bytes in the chunk.
+         */
+        private final long bytes;
+
+        /**
+         * The callback that is run when the slot is granted later.
+         */
+        private final Runnable callback;
+
+        /**
+         * The peer that the ticket waits in, or null if uploads weren't scheduled.
+         */
+        private Peer peer;
+
+        /**
+         * Whether the slot was granted.
+         */
+        private volatile boolean granted = false;
+
+        /**
+         * Whether the ticket was released.
+         */
+        private boolean released = false;
+
+        Ticket(String host, long bytes, Runnable callback) {
+            this.host = host;
+            this.bytes = bytes;
+            this.callback = callback;
+        }
+
+        /**
+         * Method to check if the slot was granted.
+         *
+         * @return Whether the chunk may be sent.
+         */
+        public boolean isGranted() {
+            return this.granted;
+        }
+
+        /**
+         * Method to get the number of bytes that may be sent with the slot.
+         *
+         * @return The number of bytes.
+         */
+        public long getBytes() {
+            return this.bytes;
+        }
+
+        private void notifyGranted() {
+            if (this.callback != null) {
+                this.callback.run();
+            }
+        }
+    }
+
+    /**
+     * Class that holds the chunks that a peer waits to send, and how much it has been granted.
+     */
+    private static class Peer {
+        private final String host;
+        private final Deque<Ticket> waiting = new ArrayDeque<>();
+        private double weight;
+        private double count;
+        private int inFlight = 0;
+
+        Peer(String host, double weight, double count) {
+            this.host = host;
+            this.weight = weight;
+            this.count = count;
+        }
+    }
+}
@@ -0,0 +1,68 @@
+import common.protocol.ChunkedInputStream;
+import common.protocol.ChunkedOutputStream;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class ChunkedStreamTests {
+    @Test
+    public void testRoundTripStopsAtEndOfBody() throws IOException {
+        var body = new byte[100000];
+        new Random(7).nextBytes(body);
+
+        var out = new ByteArrayOutputStream();
+        var chunked = new ChunkedOutputStream(out);
+
+        chunked.write(body, 0, 40000);
+        chunked.write(body, 40000, 60000);
+        chunked.finish();
+        out.write("next".getBytes());
+
+        var in = new ByteArrayInputStream(out.toByteArray());
+
+        assertArrayEquals(body, new ChunkedInputStream(in).readAllBytes());
+        assertArrayEquals("next".getBytes(), in.readAllBytes());
+    }
+
+    @Test
+    public void testEmptyBody() throws IOException {
+        var out = new ByteArrayOutputStream();
+        var chunked = new ChunkedOutputStream(out);
+
+        chunked.write(new byte[0], 0, 0);
+        chunked.finish();
+
+        assertEquals(4, out.size());
+        assertEquals(-1, new ChunkedInputStream(new ByteArrayInputStream(out.toByteArray())).read());
+    }
+
+    @Test
+    public void testWriteAfterFinishFails() throws IOException {
+        var chunked = new ChunkedOutputStream(new ByteArrayOutputStream());
+
+        chunked.finish();
+
+        assertThrows(IOException.class, () -> chunked.write(1));
+    }
+
+    @Test
+    public void testTruncatedBodyFails() throws IOException {
+        var out = new ByteArrayOutputStream();
+        var chunked = new ChunkedOutputStream(out);
+
+        chunked.write(new byte[1000], 0, 1000);
+        chunked.finish();
+
+        var truncated = Arrays.copyOf(out.toByteArray(), 500);
+        var in = new ChunkedInputStream(new ByteArrayInputStream(truncated));
+
+        assertThrows(EOFException.class, in::readAllBytes);
+    }
+}
@@ -0,0 +1,85 @@
+import common.digest.DigestAlgorithm;
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class DigestAlgorithmTests {
+    private static String hex(byte[] bytes) {
+        var builder = new StringBuilder();
+
+        for (var b : bytes) {
+            builder.append(String.format("%02x", b));
+        }
+
+        return builder.toString();
+    }
+
+    private static String digestOf(DigestAlgorithm algorithm, String value) {
+        var digest = algorithm.create();
+        var bytes = value.getBytes();
+
+        digest.update(bytes, 0, bytes.length);
+
+        return hex(digest.digest());
+    }
+
+    @Test
+    public void testKnownDigests() {
+        assertEquals("900150983cd24fb0d6963f7d28e17f72", digestOf(DigestAlgorithm.MD5, "abc"));
+        assertEquals("ba7816bf8f01cfea414140de5dae2223b00361a396177a9cb410ff61f20015ad", digestOf(DigestAlgorithm.SHA256, "abc"));
+        assertEquals("e3069283", digestOf(DigestAlgorithm.CRC32C, "123456789"));
+        assertEquals("ef46db3751d8e999", digestOf(DigestAlgorithm.XXH64, ""));
+        assertEquals("44bc2cf5ad770999", digestOf(DigestAlgorithm.XXH64, "abc"));
+        assertEquals("fbcea83c8a378bf1", digestOf(DigestAlgorithm.XXH64, "Nobody inspects the spammish repetition"));
+    }
+
+    @Test
+    public void testSplitUpdatesMatchSingleUpdate() {
+        var data = new byte[10000];
+        new Random(7).nextBytes(data);
+
+        for (var algorithm : DigestAlgorithm.values()) {
+            var whole = algorithm.create();
+            whole.update(data, 0, data.length);
+
+            var split = algorithm.create();
+            var random = new Random(algorithm.ordinal());
+            var offset = 0;
+
+            while (offset < data.length) {
+                var count = Math.min(data.length - offset, random.nextInt(70));
+
+                split.update(ByteBuffer.wrap(data, offset, count));
+                offset += count;
+            }
+
+            assertArrayEquals(whole.digest(), split.digest(), algorithm.getName());
+        }
+    }
+
+    @Test
+    public void testDigestResets() {
+        for (var algorithm : DigestAlgorithm.values()) {
+            var digest = algorithm.create();
+
+            digest.update("abc".getBytes(), 0, 3);
+            digest.digest();
+
+            assertEquals(digestOf(algorithm, ""), hex(digest.digest()), algorithm.getName());
+        }
+    }
+
+    @Test
+    public void testNegotiate() {
+        var supported = DigestAlgorithm.parseList("xxh64,sha256,md5");
+
+        assertEquals(DigestAlgorithm.SHA256, DigestAlgorithm.negotiate(DigestAlgorithm.parseList("blake3,sha256,xxh64"), supported));
+        assertEquals(DigestAlgorithm.MD5, DigestAlgorithm.negotiate(DigestAlgorithm.parseList("crc32c"), supported));
+        assertEquals(DigestAlgorithm.MD5, DigestAlgorithm.negotiate(List.of(), supported));
+        assertThrows(IllegalArgumentException.class, () -> DigestAlgorithm.fromName("blake3"));
+    }
+}
@@ -0,0 +1,262 @@
+import common.digest.DigestAlgorithm;
+import common.resources.DigestCache;
+import common.resources.MerkleTree;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.FileTime;
+import java.util.Comparator;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class DigestCacheTests {
+    private static final byte[] DIGEST = {1, 2, 3, 4};
+    private static final byte[] LEAVES = new byte[MerkleTree.HASH_SIZE];
+
+    private Path folder;
+
+    @Before
+    public void setUp() throws IOException {
+        folder = Files.createTempDirectory("digest-cache");
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        try (var paths = Files.walk(folder)) {
+            paths.sorted(Comparator.reverseOrder()).forEach(path -> path.toFile().delete());
+        }
+    }
+
+    private Path createFile(String name, String contents) throws IOException {
+        return Files.writeString(folder.resolve(name), contents);
+    }
+
+    private static BasicFileAttributes attributesOf(Path path) throws IOException {
+        return Files.readAttributes(path, BasicFileAttributes.class);
+    }
+
+    @Test
+    public void testDigestIsCachedForSameVersion() throws IOException {
+        var cache = new DigestCache(folder, 10, 1024 * 1024);
+        var file = createFile("a.txt", "contents");
+
+        cache.put(file, attributesOf(file), DigestAlgorithm.MD5, DIGEST, LEAVES);
+
+        assertArrayEquals(DIGEST, cache.get(file, attributesOf(file), DigestAlgorithm.MD5));
+        assertArrayEquals(LEAVES, cache.getLeaves(file, attributesOf(file)));
+        assertNull(cache.get(file, attributesOf(file), DigestAlgorithm.SHA256));
+    }
+
+    @Test
+    public void testSizeChangeInvalidatesEntry() throws IOException {
+        var cache = new DigestCache(folder, 10, 1024 * 1024);
+        var file = createFile("a.txt", "contents");
+        var modified = Files.getLastModifiedTime(file);
+
+        cache.put(file, attributesOf(file), DigestAlgorithm.MD5, DIGEST, LEAVES);
+
+        Files.writeString(file, "longer contents");
+        Files.setLastModifiedTime(file, modified);
+
+        assertNull(cache.get(file, attributesOf(file), DigestAlgorithm.MD5));
+        assertNull(cache.getLeaves(file, attributesOf(file)));
+    }
+
+    @Test
+    public void testModificationTimeChangeInvalidatesEntry() throws IOException {
+        var cache = new DigestCache(folder, 10, 1024 * 1024);
+        var file = createFile("a.txt", "contents");
+        var modified = Files.getLastModifiedTime(file);
+
+        cache.put(file, attributesOf(file), DigestAlgorithm.MD5, DIGEST, LEAVES);
+
+        // The contents are the same length, so only the modification time tells them apart.
+        Files.writeString(file, "CONTENTS");
+        Files.setLastModifiedTime(file, FileTime.fromMillis(modified.toMillis() + 5000));
+
+        assertNull(cache.get(file, attributesOf(file), DigestAlgorithm.MD5));
+    }
+
+    @Test
+    public void testReplacedFileInvalidatesEntry() throws IOException {
+        var cache = new DigestCache(folder, 10, 1024 * 1024);
+        var file = createFile("a.txt", "contents");
+        var modified = Files.getLastModifiedTime(file);
+
+        cache.put(file, attributesOf(file), DigestAlgorithm.MD5, DIGEST, LEAVES);
+
+        // The file is replaced by another file with the same size and modification time.
+        var replacement = createFile("b.txt", "CONTENTS");
+        Files.setLastModifiedTime(replacement, modified);
+        Files.move(replacement, file, StandardCopyOption.REPLACE_EXISTING);
+
+        if (attributesOf(file).fileKey() == null) {
+            return;
+        }
+
+        assertNull(cache.get(file, attributesOf(file), DigestAlgorithm.MD5));
+    }
+
+    @Test
+    public void testFilesOutsideFolderAreNotCached() throws IOException {
+        var cache = new DigestCache(folder.resolve("inner"), 10, 1024 * 1024);
+        var file = createFile("a.txt", "contents");
+
+        cache.put(file, attributesOf(file), DigestAlgorithm.MD5, DIGEST, LEAVES);
+
+        assertNull(cache.get(file, attributesOf(file), DigestAlgorithm.MD5));
+        assertEquals(0, cache.size());
+    }
+
+    @Test
+    public void testEntriesAreBoundedByCount() throws IOException {
+        var cache = new DigestCache(folder, 2, 1024 * 1024);
+        var first = createFile("a.txt", "a");
+        var second = createFile("b.txt", "b");
+        var third = createFile("c.txt", "c");
+
+        cache.put(first, attributesOf(first), DigestAlgorithm.MD5, DIGEST, LEAVES);
+        cache.put(second, attributesOf(second), DigestAlgorithm.MD5, DIGEST, LEAVES);
+
+        // Using the first entry makes the second one the least recently used.
+        assertNotNull(cache.get(first, attributesOf(first), DigestAlgorithm.MD5));
+
+        cache.put(third, attributesOf(third), DigestAlgorithm.MD5, DIGEST, LEAVES);
+
+        assertEquals(2, cache.size());
+        assertNotNull(cache.get(first, attributesOf(first), DigestAlgorithm.MD5));
+        assertNull(cache.get(second, attributesOf(second), DigestAlgorithm.MD5));
+    }
+
+    @Test
+    public void testEntriesAreBoundedByBytes() throws IOException {
+        var leaves = new byte[MerkleTree.HASH_SIZE * 100];
+        var cache = new DigestCache(folder, 1000, leaves.length * 3);
+
+        for (int i = 0; i < 10; i++) {
+            var file = createFile(i + ".txt", "file " + i);
+
+            cache.put(file, attributesOf(file), DigestAlgorithm.MD5, DIGEST, leaves);
+            assertTrue(cache.getBytes() <= leaves.length * 3);
+        }
+
+        assertEquals(2, cache.size());
+
+        var last = folder.resolve("9.txt");
+        assertNotNull(cache.getLeaves(last, attributesOf(last)));
+
+        // An entry that is larger than the whole cache isn't cached at all.
+        var huge = createFile("huge.txt", "huge");
+        cache.put(huge, attributesOf(huge), DigestAlgorithm.MD5, DIGEST, new byte[leaves.length * 4]);
+
+        assertNull(cache.get(huge, attributesOf(huge), DigestAlgorithm.MD5));
+        assertEquals(2, cache.size());
+    }
+
+    @Test
+    public void testCacheIsPersisted() throws IOException {
+        var cache = new DigestCache(folder, 10, 1024 * 1024);
+        var first = createFile("a.txt", "a");
+        var second = createFile("b.txt", "b");
+
+        cache.put(first, attributesOf(first), DigestAlgorithm.MD5, DIGEST, LEAVES);
+        cache.put(first, attributesOf(first), DigestAlgorithm.SHA256, new byte[]{5, 6}, LEAVES);
+        cache.put(second, attributesOf(second), DigestAlgorithm.MD5, new byte[]{7}, LEAVES);
+        cache.save();
+
+        assertTrue(Files.isRegularFile(folder.resolve(DigestCache.FILE_NAME)));
+        assertFalse(Files.exists(folder.resolve(DigestCache.FILE_NAME + ".tmp")));
+
+        var loaded = new DigestCache(folder, 10, 1024 * 1024);
+
+        assertArrayEquals(DIGEST, loaded.get(first, attributesOf(first), DigestAlgorithm.MD5));
+        assertArrayEquals(new byte[]{5, 6}, loaded.get(first, attributesOf(first), DigestAlgorithm.SHA256));
+        assertArrayEquals(new byte[]{7}, loaded.get(second, attributesOf(second), DigestAlgorithm.MD5));
+        assertArrayEquals(LEAVES, loaded.getLeaves(second, attributesOf(second)));
+        assertEquals(cache.getBytes(), loaded.getBytes());
+    }
+
+    @Test
+    public void testPersistedEntriesAreInvalidated() throws IOException {
+        var cache = new DigestCache(folder, 10, 1024 * 1024);
+        var file = createFile("a.txt", "a");
+
+        cache.put(file, attributesOf(file), DigestAlgorithm.MD5, DIGEST, LEAVES);
+        cache.save();
+
+        Files.writeString(file, "changed");
+
+        var loaded = new DigestCache(folder, 10, 1024 * 1024);
+
+        assertNull(loaded.get(file, attributesOf(file), DigestAlgorithm.MD5));
+    }
+
+    @Test
+    public void testCorruptCacheIsDiscarded() throws IOException {
+        var file = createFile("a.txt", "a");
+
+        Files.write(folder.resolve(DigestCache.FILE_NAME), new byte[]{0x46, 0x53, 0x44, 0x43, 0, 0, 0, 4, 0, 0, 0, 9});
+
+        var cache = new DigestCache(folder, 10, 1024 * 1024);
+
+        assertNull(cache.get(file, attributesOf(file), DigestAlgorithm.MD5));
+        assertEquals(0, cache.size());
+        assertEquals(0, cache.getBytes());
+    }
+
+    @Test
+    public void testCacheWithInvalidLengthsIsDiscarded() throws IOException {
+        var file = createFile("a.txt", "a");
+        var cacheFile = folder.resolve(DigestCache.FILE_NAME);
+
+        // A negative number of entries.
+        Files.write(cacheFile, new byte[]{0x46, 0x53, 0x44, 0x43, 0, 0, 0, 4, -1, -1, -1, -1});
+        assertEquals(0, new DigestCache(folder, 10, 1024 * 1024).size());
+
+        // An entry whose digest is longer than the rest of the file.
+        var bytes = new ByteArrayOutputStream();
+
+        try (var out = new DataOutputStream(bytes)) {
+            out.writeInt(0x46534443);
+            out.writeInt(4);
+            out.writeInt(1);
+            out.writeUTF(file.toAbsolutePath().toString());
+            out.writeLong(1);
+            out.writeLong(0);
+            out.writeUTF("");
+            out.writeByte(1);
+            out.writeUTF(DigestAlgorithm.MD5.getName());
+            out.writeShort(-1);
+        }
+
+        Files.write(cacheFile, bytes.toByteArray());
+
+        var cache = new DigestCache(folder, 10, 1024 * 1024);
+
+        assertNull(cache.get(file, attributesOf(file), DigestAlgorithm.MD5));
+        assertEquals(0, cache.size());
+    }
+
+    @Test
+    public void testCachedArraysAreCopied() throws IOException {
+        var cache = new DigestCache(folder, 10, 1024 * 1024);
+        var file = createFile("a.txt", "contents");
+        var digest = DIGEST.clone();
+
+        cache.put(file, attributesOf(file), DigestAlgorithm.MD5, digest, LEAVES);
+        digest[0] = 9;
+        cache.get(file, attributesOf(file), DigestAlgorithm.MD5)[1] = 9;
+        cache.getLeaves(file, attributesOf(file))[0] = 9;
+
+        assertArrayEquals(DIGEST, cache.get(file, attributesOf(file), DigestAlgorithm.MD5));
+        assertArrayEquals(LEAVES, cache.getLeaves(file, attributesOf(file)));
+    }
+}
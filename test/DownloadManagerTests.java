@@ -0,0 +1,225 @@
+import client.DownloadManager;
+import client.DownloaderStatus;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.stream.Collectors;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class DownloadManagerTests {
+    /**
+     * The tasks that the manager started, which are only run when a test runs them.
+     */
+    private final List<FutureTask<Void>> tasks = new ArrayList<>();
+
+    private DownloadManager create(int maxActive, int maxActivePerPeer) {
+        return new DownloadManager(maxActive, maxActivePerPeer, (name, body) -> {
+            var task = new FutureTask<Void>(body, null);
+
+            tasks.add(task);
+            return (Future<?>) task;
+        });
+    }
+
+    private static JsonNode info(String fileName) {
+        var info = new ObjectMapper().createObjectNode();
+
+        info.put("fileName", "download-manager-test-" + fileName);
+        info.put("path", fileName);
+        info.put("size", 1);
+        info.put("digest", "AAAA");
+
+        return info;
+    }
+
+    private static DownloadManager.Entry enqueue(DownloadManager manager, String host, String fileName, int priority) {
+        return manager.enqueue(host, 1, info(fileName), priority, null);
+    }
+
+    private static List<Integer> ids(List<DownloadManager.Entry> entries) {
+        return entries.stream().map(DownloadManager.Entry::getId).collect(Collectors.toList());
+    }
+
+    @Test
+    public void testGlobalLimit() {
+        var manager = create(2, 0);
+
+        for (int i = 0; i < 5; i++) {
+            enqueue(manager, "a", "file-" + i, 0);
+        }
+
+        assertEquals(List.of(1, 2), ids(manager.getActive()));
+        assertEquals(List.of(3, 4, 5), ids(manager.getQueued()));
+        assertEquals(2, tasks.size());
+        assertEquals(DownloaderStatus.QUEUED, manager.getQueued().get(0).getStatus());
+    }
+
+    @Test
+    public void testUnlimited() {
+        var manager = create(0, 0);
+
+        for (int i = 0; i < 5; i++) {
+            enqueue(manager, "a", "file-" + i, 0);
+        }
+
+        assertEquals(5, manager.getActive().size());
+        assertTrue(manager.getQueued().isEmpty());
+    }
+
+    @Test
+    public void testPerPeerLimitDoesNotHoldUpOtherPeers() {
+        var manager = create(3, 1);
+
+        enqueue(manager, "a", "first", 0);
+        enqueue(manager, "a", "second", 0);
+        enqueue(manager, "b", "third", 0);
+
+        // The second download of 'a' is skipped, so the download of 'b' starts before it.
+        assertEquals(List.of(1, 3), ids(manager.getActive()));
+        assertEquals(List.of(2), ids(manager.getQueued()));
+        assertTrue(manager.isPending("a:1", "second"));
+        assertFalse(manager.isPending("b:1", "second"));
+    }
+
+    @Test
+    public void testSetPriorityAndMoveToTop() {
+        var manager = create(1, 0);
+
+        var active = enqueue(manager, "a", "active", 0);
+        enqueue(manager, "a", "low", 0);
+        enqueue(manager, "a", "middle", 0);
+        enqueue(manager, "a", "high", 0);
+
+        // Downloads of the same priority are started in the order they were requested.
+        assertEquals(List.of(2, 3, 4), ids(manager.getQueued()));
+
+        assertTrue(manager.setPriority(4, 5));
+        assertEquals(List.of(4, 2, 3), ids(manager.getQueued()));
+
+        assertTrue(manager.moveToTop(3));
+        assertEquals(List.of(3, 4, 2), ids(manager.getQueued()));
+        assertEquals(6, manager.getQueued().get(0).getPriority());
+
+        // The first download is already at the top, so nothing changes.
+        assertTrue(manager.moveToTop(3));
+        assertEquals(6, manager.getQueued().get(0).getPriority());
+
+        // A download that has started, or doesn't exist, can't be moved.
+        assertFalse(manager.setPriority(active.getId(), 10));
+        assertFalse(manager.moveToTop(active.getId()));
+        assertFalse(manager.moveToTop(42));
+        assertFalse(create(1, 0).moveToTop(1));
+    }
+
+    @Test
+    public void testCancelQueuedDownload() {
+        var manager = create(1, 0);
+
+        enqueue(manager, "a", "active", 0);
+        var queued = enqueue(manager, "a", "queued", 0);
+
+        assertTrue(manager.cancel(queued.getId()));
+        assertTrue(manager.getQueued().isEmpty());
+        assertEquals(List.of(2), ids(manager.getHistory()));
+        assertEquals(DownloaderStatus.CANCELLED, queued.getStatus());
+        assertFalse(manager.cancel(queued.getId()));
+    }
+
+    @Test
+    public void testCancelBeforeStartPromotesNextDownload() {
+        var manager = create(1, 0);
+
+        var first = enqueue(manager, "a", "first", 0);
+        enqueue(manager, "a", "second", 0);
+
+        // The task of the first download hasn't begun running, so it's finished straight away
+        // and the next download takes it's place.
+        assertTrue(manager.cancel(first.getId()));
+        assertEquals(List.of(2), ids(manager.getActive()));
+        assertEquals(List.of(1), ids(manager.getHistory()));
+        assertEquals(DownloaderStatus.CANCELLED, first.getStatus());
+        assertTrue(tasks.get(0).isCancelled());
+
+        // A cancelled task that still runs doesn't finish the download a second time.
+        tasks.get(0).run();
+
+        assertEquals(List.of(2), ids(manager.getActive()));
+        assertEquals(List.of(1), ids(manager.getHistory()));
+    }
+
+    @Test
+    public void testCancelledTaskThatCouldNotBeStoppedFinishesItself() {
+        // The task was already taken by a thread when the download is cancelled, so it can't be
+        // cancelled anymore, and it has to notice the cancellation once it begins running.
+        var manager = new DownloadManager(1, 0, (name, body) -> {
+            var task = new FutureTask<Void>(body, null) {
+                @Override
+                public boolean cancel(boolean mayInterruptIfRunning) {
+                    return false;
+                }
+            };
+
+            tasks.add(task);
+            return (Future<?>) task;
+        });
+
+        var first = enqueue(manager, "a", "first", 0);
+        enqueue(manager, "a", "second", 0);
+
+        assertTrue(manager.cancel(first.getId()));
+
+        // The download stays active until it's task has run.
+        assertEquals(List.of(1), ids(manager.getActive()));
+        assertEquals(DownloaderStatus.CANCELLED, first.getStatus());
+
+        tasks.get(0).run();
+
+        assertEquals(List.of(2), ids(manager.getActive()));
+        assertEquals(List.of(1), ids(manager.getHistory()));
+        assertEquals(DownloaderStatus.CANCELLED, first.getStatus());
+    }
+
+    @Test
+    public void testFinishedDownloadPromotesNextDownload() {
+        var manager = create(1, 0);
+
+        // Nothing can listen on port 0, so the download fails as soon as it's started.
+        var first = manager.enqueue("127.0.0.1", 0, info("first"), 0, null);
+        manager.enqueue("127.0.0.1", 0, info("second"), 0, null);
+
+        tasks.get(0).run();
+
+        assertEquals(DownloaderStatus.FAILED, first.getStatus());
+        assertEquals(List.of(2), ids(manager.getActive()));
+        assertEquals(List.of(1), ids(manager.getHistory()));
+
+        // The download has already finished, so it can't be cancelled.
+        assertFalse(manager.cancel(first.getId()));
+        assertEquals(DownloaderStatus.FAILED, first.getStatus());
+    }
+
+    @Test
+    public void testStopAll() {
+        var manager = create(1, 0);
+
+        enqueue(manager, "a", "first", 0);
+        enqueue(manager, "a", "second", 0);
+        enqueue(manager, "a", "third", 0);
+
+        manager.stopAll();
+
+        assertTrue(manager.getActive().isEmpty());
+        assertTrue(manager.getQueued().isEmpty());
+        assertEquals(3, manager.getHistory().size());
+        assertTrue(manager.getHistory().stream().allMatch(entry -> entry.getStatus() == DownloaderStatus.CANCELLED));
+
+        // The queue was emptied before the active download was stopped, so nothing is promoted.
+        assertEquals(1, tasks.size());
+    }
+}
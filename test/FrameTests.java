@@ -0,0 +1,117 @@
+import common.protocol.Command;
+import common.protocol.FrameReader;
+import common.protocol.FrameWriter;
+import common.protocol.WireFormat;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class FrameTests {
+    @Test
+    public void testRoundTripOfTypedFields() throws IOException {
+        var writer = new FrameWriter();
+        var digest = new byte[]{1, 2, 3, (byte) 0xFF};
+
+        writer.begin(Command.Locate.getOpcode())
+                .writeLong(-5_000_000_000L)
+                .writeInt(1048576)
+                .writeDigest(digest)
+                .writeDigest(null)
+                .writeString("folder/new\nline \u00fc.txt")
+                .writeByte(200);
+        writer.end();
+
+        var out = new ByteArrayOutputStream();
+        out.write(writer.getBuffer(), 0, writer.size());
+        out.write(writer.getBuffer(), 0, writer.size());
+
+        var in = new ByteArrayInputStream(out.toByteArray());
+
+        for (int i = 0; i < 2; i++) {
+            var frame = FrameReader.read(in, 1024);
+
+            assertEquals(Command.Locate, Command.fromOpcode(frame.getOpcode()));
+            assertEquals(-5_000_000_000L, frame.readLong());
+            assertEquals(1048576, frame.readInt());
+            assertArrayEquals(digest, frame.readDigest());
+            assertNull(frame.readDigest());
+            assertEquals("folder/new\nline \u00fc.txt", frame.readString());
+            assertEquals(200, frame.readByte());
+            assertFalse(frame.hasRemaining());
+        }
+
+        assertNull(FrameReader.read(in, 1024));
+    }
+
+    @Test
+    public void testLengthIsWrittenIntoHeader() {
+        var writer = new FrameWriter();
+
+        writer.begin(Command.List.getOpcode()).writeString("");
+        writer.end();
+
+        assertEquals(FrameWriter.HEADER_SIZE + 2, writer.size());
+        assertEquals(2, FrameReader.getLength(writer.getBuffer(), 0));
+    }
+
+    @Test
+    public void testTruncatedPayloadFails() {
+        var frame = new FrameReader(Command.GetMeta.getOpcode(), new byte[]{0, 10, 'a'}, 0, 3);
+
+        assertThrows(IllegalArgumentException.class, frame::readString);
+    }
+
+    @Test
+    public void testTruncatedFrameFails() {
+        var writer = new FrameWriter();
+
+        writer.begin(Command.GetMeta.getOpcode()).writeString("file.txt");
+        writer.end();
+
+        var truncated = Arrays.copyOf(writer.getBuffer(), writer.size() - 1);
+
+        assertThrows(EOFException.class, () -> FrameReader.read(new ByteArrayInputStream(truncated), 1024));
+    }
+
+    @Test
+    public void testOversizedFrameFails() {
+        var writer = new FrameWriter();
+
+        writer.begin(Command.GetMeta.getOpcode()).writeString("a".repeat(100));
+        writer.end();
+
+        var bytes = Arrays.copyOf(writer.getBuffer(), writer.size());
+
+        assertThrows(IOException.class, () -> FrameReader.read(new ByteArrayInputStream(bytes), 50));
+    }
+
+    @Test
+    public void testStringTooLongFails() {
+        var writer = new FrameWriter().begin(Command.GetMeta.getOpcode());
+
+        assertThrows(IllegalArgumentException.class, () -> writer.writeString("\u00e9".repeat(FrameWriter.MAX_STRING_LENGTH)));
+    }
+
+    @Test
+    public void testOpcodesAreUnique() {
+        for (var command : Command.values()) {
+            assertEquals(command, Command.fromOpcode(command.getOpcode()));
+        }
+
+        assertThrows(IllegalArgumentException.class, () -> Command.fromOpcode(0));
+        assertThrows(IllegalArgumentException.class, () -> Command.fromOpcode(0x80));
+    }
+
+    @Test
+    public void testParseFormatList() {
+        assertEquals(List.of(WireFormat.BINARY, WireFormat.JSON), WireFormat.parseList("binary, cbor,json,binary"));
+        assertTrue(WireFormat.parseList("cbor").isEmpty());
+    }
+}
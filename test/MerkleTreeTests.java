@@ -0,0 +1,115 @@
+import common.resources.MerkleTree;
+import common.resources.ParallelHasher;
+import org.junit.Test;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.ValueSource;
+
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class MerkleTreeTests {
+    private static final int CHUNK_SIZE = 16;
+
+    private static MerkleTree treeOf(byte[] data) {
+        var hasher = new MerkleTree.LeafHasher(CHUNK_SIZE);
+
+        hasher.update(data, 0, data.length);
+
+        return new MerkleTree(hasher.finish().toArray(new byte[0][]));
+    }
+
+    @ParameterizedTest
+    @ValueSource(ints = {0, 1, 16, 17, 100, 160, 1000})
+    public void testLeafCount(int size) {
+        var tree = treeOf(new byte[size]);
+
+        assertEquals(MerkleTree.getLeafCount(size, CHUNK_SIZE), tree.getLeafCount());
+    }
+
+    @ParameterizedTest
+    @ValueSource(ints = {1, 2, 3, 5, 8, 13})
+    public void testEveryLeafVerifies(int leaves) {
+        var data = new byte[leaves * CHUNK_SIZE];
+        new Random(leaves).nextBytes(data);
+
+        var tree = treeOf(data);
+
+        for (int i = 0; i < tree.getLeafCount(); i++) {
+            assertTrue(MerkleTree.verify(tree.getLeaf(i), i, tree.getLeafCount(), tree.getProof(i), tree.getRoot()));
+        }
+    }
+
+    @Test
+    public void testCorruptedChunkChangesLeafAndRoot() {
+        var data = new byte[5 * CHUNK_SIZE];
+        new Random(1).nextBytes(data);
+
+        var tree = treeOf(data);
+
+        data[2 * CHUNK_SIZE + 3] ^= 1;
+
+        var corrupted = treeOf(data);
+
+        assertArrayEquals(tree.getLeaf(1), corrupted.getLeaf(1));
+        assertFalse(java.util.Arrays.equals(tree.getLeaf(2), corrupted.getLeaf(2)));
+        assertFalse(java.util.Arrays.equals(tree.getRoot(), corrupted.getRoot()));
+        assertFalse(MerkleTree.verify(corrupted.getLeaf(2), 2, tree.getLeafCount(), tree.getProof(2), tree.getRoot()));
+    }
+
+    @Test
+    public void testSplitUpdatesMatchSingleUpdate() {
+        var data = new byte[100];
+        new Random(2).nextBytes(data);
+
+        var hasher = new MerkleTree.LeafHasher(CHUNK_SIZE);
+
+        hasher.update(data, 0, 7);
+        hasher.update(data, 7, 50);
+        hasher.update(data, 57, 43);
+
+        var tree = new MerkleTree(hasher.finish().toArray(new byte[0][]));
+
+        assertArrayEquals(treeOf(data).getRoot(), tree.getRoot());
+    }
+
+    @Test
+    public void testBytesRoundTrip() {
+        var data = new byte[3 * CHUNK_SIZE + 1];
+        new Random(3).nextBytes(data);
+
+        var tree = treeOf(data);
+
+        assertArrayEquals(tree.getRoot(), MerkleTree.fromBytes(tree.toBytes()).getRoot());
+    }
+
+    @Test
+    public void testParallelLeavesMatchSequentialLeaves() throws Exception {
+        // Span a few regions, with a short chunk at the end.
+        var data = new byte[2 * ParallelHasher.REGION_SIZE + 3 * MerkleTree.CHUNK_SIZE + 5];
+        new Random(4).nextBytes(data);
+
+        var file = Files.createTempFile("merkle-tree", ".bin");
+
+        try {
+            Files.write(file, data);
+
+            var hasher = new MerkleTree.LeafHasher(MerkleTree.CHUNK_SIZE);
+            hasher.update(data, 0, data.length);
+
+            var sequential = new MerkleTree(hasher.finish().toArray(new byte[0][]));
+
+            try (var channel = FileChannel.open(file, StandardOpenOption.READ)) {
+                var parallel = new MerkleTree(ParallelHasher.hashLeaves(channel, data.length).join());
+
+                assertEquals(sequential.getLeafCount(), parallel.getLeafCount());
+                assertArrayEquals(sequential.getRoot(), parallel.getRoot());
+            }
+        } finally {
+            Files.delete(file);
+        }
+    }
+}
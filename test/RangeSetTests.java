@@ -0,0 +1,91 @@
+import common.RangeSet;
+import org.junit.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class RangeSetTests {
+    @Test
+    public void testAddMergesOverlappingRanges() {
+        var set = new RangeSet();
+
+        set.add(0, 10);
+        set.add(5, 20);
+        set.add(30, 40);
+
+        assertEquals(2, set.getRanges().size());
+        assertEquals(30, set.getCovered());
+        assertTrue(set.contains(0, 20));
+        assertFalse(set.contains(15, 35));
+    }
+
+    @Test
+    public void testAddMergesAdjacentRanges() {
+        var set = new RangeSet();
+
+        set.add(10, 20);
+        set.add(0, 10);
+        set.add(20, 30);
+
+        assertEquals(1, set.getRanges().size());
+        assertArrayEquals(new long[]{0, 30}, set.getRanges().get(0));
+    }
+
+    @Test
+    public void testAddSpanningSeveralRanges() {
+        var set = new RangeSet();
+
+        set.add(0, 5);
+        set.add(10, 15);
+        set.add(20, 25);
+        set.add(3, 22);
+
+        assertEquals(1, set.getRanges().size());
+        assertEquals(25, set.getCovered());
+    }
+
+    @Test
+    public void testMissingRanges() {
+        var set = new RangeSet();
+
+        set.add(10, 20);
+        set.add(30, 40);
+
+        var missing = set.missing(50);
+
+        assertEquals(3, missing.size());
+        assertArrayEquals(new long[]{0, 10}, missing.get(0));
+        assertArrayEquals(new long[]{20, 30}, missing.get(1));
+        assertArrayEquals(new long[]{40, 50}, missing.get(2));
+    }
+
+    @Test
+    public void testMissingWhenComplete() {
+        var set = new RangeSet();
+
+        set.add(0, 100);
+
+        assertTrue(set.missing(100).isEmpty());
+        assertEquals(1, new RangeSet().missing(100).size());
+    }
+
+    @Test
+    public void testPrefixEnd() {
+        var set = new RangeSet();
+
+        assertEquals(0, set.prefixEnd());
+
+        set.add(10, 20);
+        assertEquals(0, set.prefixEnd());
+
+        set.add(0, 10);
+        assertEquals(20, set.prefixEnd());
+    }
+
+    @Test
+    public void testInvalidRange() {
+        var set = new RangeSet();
+
+        assertThrows(IllegalArgumentException.class, () -> set.add(-1, 5));
+        assertThrows(IllegalArgumentException.class, () -> set.add(10, 5));
+    }
+}
@@ -0,0 +1,242 @@
+import common.resources.IndexedEntry;
+import org.junit.Test;
+import server.SearchIndex;
+import server.SearchQuery;
+
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.FileTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.stream.Collectors;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class SearchIndexTests {
+    /**
+     * A separate index for every test, so that the shared index of the server isn't changed.
+     */
+    private final SearchIndex index = new SearchIndex();
+
+    private static IndexedEntry entry(String path, long size, boolean directory) {
+        var attributes = new BasicFileAttributes() {
+            @Override
+            public FileTime lastModifiedTime() {
+                return FileTime.fromMillis(0);
+            }
+
+            @Override
+            public FileTime lastAccessTime() {
+                return FileTime.fromMillis(0);
+            }
+
+            @Override
+            public FileTime creationTime() {
+                return FileTime.fromMillis(0);
+            }
+
+            @Override
+            public boolean isRegularFile() {
+                return !directory;
+            }
+
+            @Override
+            public boolean isDirectory() {
+                return directory;
+            }
+
+            @Override
+            public boolean isSymbolicLink() {
+                return false;
+            }
+
+            @Override
+            public boolean isOther() {
+                return false;
+            }
+
+            @Override
+            public long size() {
+                return size;
+            }
+
+            @Override
+            public Object fileKey() {
+                return null;
+            }
+        };
+
+        return new IndexedEntry(Paths.get("/upload", path), attributes);
+    }
+
+    private static IndexedEntry file(String path, long size) {
+        return entry(path, size, false);
+    }
+
+    private List<String> search(String query) {
+        return index.search(SearchQuery.parse(query)).getMatches().stream()
+                .map(match -> Paths.get("/upload").relativize(match.getEntry().getPath()).toString())
+                .collect(Collectors.toList());
+    }
+
+    @Test
+    public void testTrigramsAreDistinct() {
+        assertEquals(0, SearchIndex.getTrigrams("").length);
+        assertEquals(0, SearchIndex.getTrigrams("ab").length);
+        assertEquals(1, SearchIndex.getTrigrams("abc").length);
+
+        // 'aaaa' has the trigram 'aaa' twice, which is only kept once.
+        assertEquals(1, SearchIndex.getTrigrams("aaaa").length);
+        assertEquals(3, SearchIndex.getTrigrams("abcab").length);
+        assertArrayEquals(SearchIndex.getTrigrams("bcd"), new long[]{SearchIndex.getTrigrams("abcd")[1]});
+    }
+
+    @Test
+    public void testTrigramsAreCaseSensitive() {
+        assertNotEquals(SearchIndex.getTrigrams("abc")[0], SearchIndex.getTrigrams("ABC")[0]);
+    }
+
+    @Test
+    public void testAddAndSearch() {
+        index.addAll(List.of(
+                file("report.pdf", 100),
+                file("notes/annual-report.txt", 10),
+                file("photo.jpg", 5000),
+                entry("reports", 0, true)
+        ));
+
+        assertEquals(4, index.size());
+        // A name whose base name is the term scores higher than a name that only starts with it.
+        assertEquals(List.of("report.pdf", "reports", "notes/annual-report.txt"), search("report"));
+        assertEquals(List.of("report.pdf"), search("report ext:pdf"));
+        assertEquals(List.of("reports"), search("rep type:dir"));
+        assertEquals(List.of(), search("missing"));
+
+        // Terms shorter than a trigram can't narrow the candidates, so every entry is checked.
+        assertEquals(List.of("photo.jpg"), search("ph"));
+    }
+
+    @Test
+    public void testRemove() {
+        index.addAll(List.of(file("alpha.txt", 1), file("alphabet.txt", 1)));
+        index.remove(Paths.get("/upload", "alpha.txt"));
+
+        assertEquals(1, index.size());
+        assertEquals(List.of("alphabet.txt"), search("alpha"));
+
+        // Removing an entry that isn't indexed does nothing.
+        index.remove(Paths.get("/upload", "missing.txt"));
+        assertEquals(1, index.size());
+    }
+
+    @Test
+    public void testReplace() {
+        index.add(file("data.bin", 10));
+        index.add(file("data.bin", 2 * 1024 * 1024));
+
+        assertEquals(1, index.size());
+        assertEquals(List.of("data.bin"), search("data"));
+        assertEquals(List.of("data.bin"), search("data size>1M"));
+        assertEquals(List.of(), search("data size<1K"));
+    }
+
+    @Test
+    public void testCompactionReassignsIds() {
+        List<IndexedEntry> added = new ArrayList<>();
+        List<Path> removed = new ArrayList<>();
+
+        for (int i = 0; i < 6000; i++) {
+            added.add(file(String.format("file-%04d.log", i), i));
+
+            if (i >= 1000) {
+                removed.add(Paths.get("/upload", String.format("file-%04d.log", i)));
+            }
+        }
+
+        index.addAll(added);
+        index.removeAll(removed);
+
+        assertEquals(1000, index.size());
+
+        // The lists were rebuilt, so the remaining entries have new ids and any entries that
+        // are added after the rebuild mustn't be confused with the removed ones.
+        index.add(file("file-5999.txt", 1));
+        index.add(file("fresh.log", 1));
+
+        assertEquals(1002, index.size());
+        assertEquals(List.of("file-0999.log"), search("file-0999"));
+        assertEquals(List.of("file-5999.txt"), search("file-5999"));
+        assertEquals(List.of(), search("file-1000"));
+        assertEquals(List.of("fresh.log"), search("fresh ext:log"));
+        assertEquals(1001, index.search(SearchQuery.parse("ext:log")).getTotal());
+    }
+
+    @Test
+    public void testRankingOrder() {
+        index.addAll(List.of(
+                file("misc/xreadme.md", 1),
+                file("readme-old.md", 1),
+                file("docs/old_readme.md", 1),
+                file("readme.md", 1),
+                file("readme", 1)
+        ));
+
+        // Exact names come first, then prefixes, then word starts and then any other match.
+        // Matches with the same score are ordered by the shorter name first.
+        assertEquals(List.of("readme", "readme.md", "readme-old.md", "docs/old_readme.md", "misc/xreadme.md"), search("readme"));
+    }
+
+    @Test
+    public void testLimitKeepsTheBestMatches() {
+        for (int i = 0; i < 50; i++) {
+            index.add(file(String.format("x-track-%02d.mp3", i), 1));
+        }
+
+        index.add(file("track.mp3", 1));
+        index.add(file("track-a.mp3", 1));
+
+        var result = index.search(SearchQuery.parse("track limit:3"));
+        var names = result.getMatches().stream().map(SearchIndex.Match::getName).collect(Collectors.toList());
+
+        assertEquals(52, result.getTotal());
+        assertEquals(List.of("track.mp3", "track-a.mp3", "x-track-00.mp3"), names);
+    }
+
+    @Test
+    public void testFacets() {
+        index.addAll(List.of(
+                file("a.txt", 10),
+                file("b.txt", 2048),
+                file("c.txt", 3L * 1024 * 1024),
+                file("d.pdf", 5L * 1024 * 1024 * 1024),
+                file("e", 1),
+                entry("folder.txt", 0, true)
+        ));
+
+        var result = index.search(SearchQuery.parse("type:file"));
+        var extensions = result.getTopExtensions();
+
+        assertEquals(5, result.getTotal());
+        assertEquals(List.of("txt", "", "pdf"), new ArrayList<>(extensions.keySet()));
+        assertEquals(3L, extensions.get("txt"));
+        assertEquals(1L, extensions.get("pdf"));
+        assertEquals(1L, extensions.get(""));
+
+        var sizes = result.getSizes();
+
+        assertEquals(List.of("<1K", "1K-1M", "1M-1G", ">1G"), new ArrayList<>(sizes.keySet()));
+        assertEquals(2L, sizes.get("<1K"));
+        assertEquals(1L, sizes.get("1K-1M"));
+        assertEquals(1L, sizes.get("1M-1G"));
+        assertEquals(1L, sizes.get(">1G"));
+    }
+
+    @Test
+    public void testInvalidQueries() {
+        assertThrows(IllegalArgumentException.class, () -> SearchQuery.parse("   "));
+        assertThrows(IllegalArgumentException.class, () -> SearchQuery.parse("type:link"));
+        assertThrows(IllegalArgumentException.class, () -> SearchQuery.parse("limit:0"));
+        assertThrows(IllegalArgumentException.class, () -> SearchQuery.parse("size>big"));
+    }
+}
@@ -0,0 +1,119 @@
+import common.resources.FileEntry;
+import interfaces.IResponseChannel;
+import org.junit.Test;
+import server.RequestDispatcher;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class TaggedDispatchTests {
+    /**
+     * Channel that collects the response lines that are written to it.
+     */
+    private static class CollectingChannel implements IResponseChannel {
+        private final List<String> lines = Collections.synchronizedList(new ArrayList<>());
+
+        @Override
+        public void writeLine(String line) {
+            lines.add(line);
+        }
+
+        @Override
+        public void writeLine(byte[] bytes, int offset, int length) {
+            lines.add(new String(bytes, offset, length, StandardCharsets.UTF_8).stripTrailing());
+        }
+
+        @Override
+        public void writeFile(FileEntry fileEntry, long offset, long length) throws IOException {
+            throw new IOException("Files aren't expected.");
+        }
+
+        @Override
+        public void writeBytes(byte[] bytes, int offset, int length) {
+            throw new UnsupportedOperationException();
+        }
+    }
+
+    /**
+     * Method to send many tagged requests and then an untagged request on a separate thread,
+     * and to check that every request is answered in time.
+     */
+    private static List<String> dispatchAll(RequestDispatcher dispatcher, int count) throws Exception {
+        var channel = new CollectingChannel();
+        var connection = Executors.newSingleThreadExecutor();
+
+        try {
+            connection.submit(() -> {
+                for (int i = 0; i < count; i++) {
+                    dispatcher.dispatch("Tagged " + i + " Negotiate md5", channel);
+                }
+
+                return dispatcher.dispatch("Negotiate md5", channel);
+            }).get(10, TimeUnit.SECONDS);
+        } finally {
+            connection.shutdownNow();
+        }
+
+        assertEquals(count + 1, channel.lines.size());
+
+        return channel.lines;
+    }
+
+    @Test
+    public void testMoreTaggedRequestsThanThreads() throws Exception {
+        var workers = new ThreadPoolExecutor(2, 2, 0, TimeUnit.SECONDS, new SynchronousQueue<>());
+        var blocked = new CountDownLatch(1);
+
+        try {
+            // Every thread of the pool is busy with other work, so none of the tagged requests
+            // can be handed over and the connection has to answer them itself.
+            for (int i = 0; i < 2; i++) {
+                workers.execute(() -> {
+                    try {
+                        blocked.await();
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    }
+                });
+            }
+
+            var lines = dispatchAll(new RequestDispatcher(workers), RequestDispatcher.MAX_TAGGED * 2);
+            var ids = new HashSet<String>();
+
+            for (var line : lines.subList(0, lines.size() - 1)) {
+                assertTrue(line.startsWith("{\"id\":"));
+                ids.add(line.substring(6, line.indexOf(',')));
+            }
+
+            assertEquals(RequestDispatcher.MAX_TAGGED * 2, ids.size());
+        } finally {
+            blocked.countDown();
+            workers.shutdownNow();
+        }
+    }
+
+    @Test
+    public void testUntaggedRequestIsAnsweredLast() throws Exception {
+        var workers = new ThreadPoolExecutor(0, 4, 60, TimeUnit.SECONDS, new SynchronousQueue<>());
+
+        try {
+            var lines = dispatchAll(new RequestDispatcher(workers), RequestDispatcher.MAX_TAGGED * 3);
+
+            assertFalse(lines.get(lines.size() - 1).startsWith("{\"id\":"));
+            assertEquals(RequestDispatcher.MAX_TAGGED * 3, lines.stream().filter((line) -> line.startsWith("{\"id\":")).count());
+        } finally {
+            workers.shutdownNow();
+        }
+    }
+}
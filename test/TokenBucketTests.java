@@ -0,0 +1,123 @@
+import common.BandwidthLimiter;
+import common.Throttle;
+import common.TokenBucket;
+import org.junit.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class TokenBucketTests {
+    @Test
+    public void testUnlimitedBucketNeverWaits() throws Exception {
+        var bucket = new TokenBucket(0);
+
+        assertFalse(bucket.isLimited());
+        assertEquals(Long.MAX_VALUE, bucket.getChunkSize());
+
+        for (int i = 0; i < 1000; i++) {
+            assertTrue(bucket.tryAcquire(1024 * 1024));
+        }
+
+        assertEquals(0, bucket.getDelayNanos());
+    }
+
+    @Test
+    public void testBucketGoesIntoDebt() {
+        var bucket = new TokenBucket(1024 * 1024);
+
+        // A full bucket grants a chunk that is larger than the tokens it holds.
+        assertTrue(bucket.tryAcquire(1024 * 1024));
+        assertFalse(bucket.tryAcquire(1));
+        assertTrue(bucket.getDelayNanos() > 500_000_000L);
+    }
+
+    @Test
+    public void testRefundPaysBackDebt() {
+        var bucket = new TokenBucket(1024 * 1024);
+
+        assertTrue(bucket.tryAcquire(1024 * 1024));
+
+        bucket.refund(1024 * 1024);
+
+        assertEquals(0, bucket.getDelayNanos());
+        assertTrue(bucket.tryAcquire(1));
+    }
+
+    @Test
+    public void testFrequentRefillsDontEarnExtraTokens() {
+        var bucket = new TokenBucket(1000);
+
+        // The bucket owes 200 tokens, which take 200ms to earn at a token per millisecond.
+        assertTrue(bucket.tryAcquire(64 * 1024 + 200));
+
+        var start = System.nanoTime();
+
+        // Every check refills the bucket with a small fraction of a token.
+        while (bucket.getDelayNanos() > 0) {
+            Thread.onSpinWait();
+        }
+
+        var elapsed = (System.nanoTime() - start) / 1e6;
+
+        assertTrue(elapsed > 150, "Took " + elapsed + "ms");
+    }
+
+    @Test
+    public void testAcquireLimitsRate() throws Exception {
+        var rate = 4L * 1024 * 1024;
+        var bucket = new TokenBucket(rate);
+        var start = System.nanoTime();
+
+        // Two seconds worth of bytes, less the burst that a full bucket allows straight away.
+        for (int i = 0; i < 128; i++) {
+            bucket.acquire(64 * 1024);
+        }
+
+        var elapsed = (System.nanoTime() - start) / 1e9;
+
+        assertTrue(elapsed > 1.8, "Took " + elapsed + "s");
+        assertTrue(elapsed < 2.5, "Took " + elapsed + "s");
+    }
+
+    @Test
+    public void testRemovingLimitForgivesDebt() {
+        var bucket = new TokenBucket(1024);
+
+        assertTrue(bucket.tryAcquire(1024 * 1024));
+
+        bucket.setRate(0);
+
+        assertEquals(0, bucket.getDelayNanos());
+        assertTrue(bucket.tryAcquire(1));
+    }
+
+    @Test
+    public void testThrottleUsesSlowestBucket() {
+        var fast = new TokenBucket(100 * 1024 * 1024);
+        var slow = new TokenBucket(1024 * 1024);
+        var throttle = new Throttle(fast, slow);
+
+        assertTrue(throttle.isLimited());
+        assertEquals(slow.getChunkSize(), throttle.getChunkSize());
+
+        assertTrue(throttle.tryAcquire(1024 * 1024));
+        assertFalse(throttle.tryAcquire(1));
+
+        // The tokens that were taken from the fast bucket are returned when the slow one refuses.
+        assertEquals(0, fast.getDelayNanos());
+        assertTrue(throttle.getDelayNanos() > 500_000_000L);
+    }
+
+    @Test
+    public void testParseRate() {
+        assertEquals(0, BandwidthLimiter.parseRate("off"));
+        assertEquals(0, BandwidthLimiter.parseRate("0"));
+        assertEquals(1500, BandwidthLimiter.parseRate("1500"));
+        assertEquals(512 * 1024, BandwidthLimiter.parseRate("512K"));
+        assertEquals(10 * 1024 * 1024, BandwidthLimiter.parseRate("10m"));
+        assertEquals(1536L * 1024 * 1024, BandwidthLimiter.parseRate("1.5G"));
+
+        assertThrows(IllegalArgumentException.class, () -> BandwidthLimiter.parseRate("fast"));
+        assertThrows(IllegalArgumentException.class, () -> BandwidthLimiter.parseRate("-1M"));
+        assertThrows(IllegalArgumentException.class, () -> BandwidthLimiter.parseRate(""));
+    }
+}
@@ -0,0 +1,161 @@
+import org.junit.Test;
+import server.UploadScheduler;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class UploadSchedulerTests {
+    private static final long QUANTUM = UploadScheduler.QUANTUM;
+
+    /**
+     * Method to queue a chunk whose ticket is added to the given queue once it's granted later.
+     */
+    private static UploadScheduler.Ticket submit(UploadScheduler scheduler, String host, long bytes, Queue<UploadScheduler.Ticket> granted) {
+        var holder = new ArrayList<UploadScheduler.Ticket>();
+        var ticket = scheduler.submit(host, bytes, () -> granted.add(holder.get(0)));
+
+        holder.add(ticket);
+        return ticket;
+    }
+
+    @Test
+    public void testParseWeights() {
+        var weights = UploadScheduler.parseWeights(" 10.0.0.2=4, 10.0.0.3 = 0.5 ,,");
+
+        assertEquals(Map.of("10.0.0.2", 4.0, "10.0.0.3", 0.5), weights);
+        assertEquals(Map.of(), UploadScheduler.parseWeights(""));
+    }
+
+    @Test
+    public void testParseInvalidWeights() {
+        for (var value : new String[]{"10.0.0.2", "10.0.0.2=", "10.0.0.2=fast", "10.0.0.2=1=2"}) {
+            assertThrows(IllegalArgumentException.class, () -> UploadScheduler.parseWeights(value), value);
+        }
+    }
+
+    @Test
+    public void testParseNonPositiveAndInfiniteWeights() {
+        for (var value : new String[]{"10.0.0.2=0", "10.0.0.2=-1", "10.0.0.2=Infinity", "10.0.0.2=NaN"}) {
+            assertThrows(IllegalArgumentException.class, () -> UploadScheduler.parseWeights(value), value);
+        }
+    }
+
+    @Test
+    public void testDisabledSchedulerGrantsStraightAway() {
+        var scheduler = new UploadScheduler(0, Map.of());
+
+        for (int i = 0; i < 10; i++) {
+            assertTrue(scheduler.submit("a", QUANTUM, null).isGranted());
+        }
+
+        assertEquals("Uploads: not scheduled", scheduler.getStatusString());
+    }
+
+    @Test
+    public void testSlotsAreGrantedByWeight() {
+        var scheduler = new UploadScheduler(1, Map.of("a", 3.0));
+        Queue<UploadScheduler.Ticket> granted = new ArrayDeque<>();
+        Map<UploadScheduler.Ticket, String> hosts = new IdentityHashMap<>();
+
+        var first = submit(scheduler, "a", QUANTUM, granted);
+        assertTrue(first.isGranted());
+
+        for (int i = 0; i < 20; i++) {
+            hosts.put(submit(scheduler, "a", QUANTUM, granted), "a");
+            hosts.put(submit(scheduler, "b", QUANTUM, granted), "b");
+        }
+
+        // Every release grants the single slot to the peer with the lowest weighted count.
+        scheduler.release(first);
+
+        List<String> order = new ArrayList<>();
+
+        for (int i = 0; i < 16; i++) {
+            var ticket = granted.poll();
+
+            assertNotNull(ticket);
+            assertTrue(granted.isEmpty());
+
+            order.add(hosts.get(ticket));
+            scheduler.release(ticket);
+        }
+
+        var countA = order.stream().filter("a"::equals).count();
+
+        // Peer 'a' has three times the weight of 'b', so it gets three of every four slots.
+        assertTrue(countA >= 11 && countA <= 13, order.toString());
+    }
+
+    @Test
+    public void testPeerIsCappedAtItsShare() {
+        var scheduler = new UploadScheduler(4, Map.of());
+        Queue<UploadScheduler.Ticket> granted = new ArrayDeque<>();
+
+        var other = submit(scheduler, "b", QUANTUM, granted);
+        List<UploadScheduler.Ticket> tickets = new ArrayList<>();
+
+        for (int i = 0; i < 5; i++) {
+            tickets.add(submit(scheduler, "a", QUANTUM, granted));
+        }
+
+        // Two peers of the same weight may hold two of the four slots each, so a slot stays
+        // free whilst 'b' has nothing more to send.
+        assertTrue(other.isGranted());
+        assertEquals(2, tickets.stream().filter(UploadScheduler.Ticket::isGranted).count());
+        assertTrue(scheduler.getStatusString().startsWith("Uploads: 3 of 4 slots in use"));
+
+        // Once 'b' is done, 'a' may use every slot.
+        scheduler.release(other);
+
+        assertEquals(4, tickets.stream().filter(UploadScheduler.Ticket::isGranted).count());
+        assertEquals(2, granted.size());
+    }
+
+    @Test
+    public void testRenewKeepsTheTurnOfThePeer() {
+        var scheduler = new UploadScheduler(1, Map.of());
+        Queue<UploadScheduler.Ticket> granted = new ArrayDeque<>();
+
+        // 'b' sends a large chunk first, so it has had more than 'a' from then on.
+        var large = submit(scheduler, "b", 4 * QUANTUM, granted);
+        var chunk = submit(scheduler, "a", QUANTUM, granted);
+        var waiting = submit(scheduler, "b", QUANTUM, granted);
+
+        scheduler.release(large);
+        assertTrue(chunk.isGranted());
+        assertFalse(waiting.isGranted());
+
+        // The next chunk of 'a' is queued before the slot is given up, so it goes to 'a' again.
+        var next = scheduler.renew(chunk, QUANTUM, null);
+
+        assertTrue(next.isGranted());
+        assertFalse(waiting.isGranted());
+
+        // Without renewing, 'a' has nothing queued when the slot is given up, so it goes to 'b'.
+        scheduler.release(next);
+        assertTrue(waiting.isGranted());
+    }
+
+    @Test
+    public void testReleasingTwiceHasNoEffect() {
+        var scheduler = new UploadScheduler(1, Map.of());
+        Queue<UploadScheduler.Ticket> granted = new ArrayDeque<>();
+
+        var first = submit(scheduler, "a", QUANTUM, granted);
+        var second = submit(scheduler, "b", QUANTUM, granted);
+        var third = submit(scheduler, "c", QUANTUM, granted);
+
+        scheduler.release(first);
+        scheduler.release(first);
+
+        assertEquals(1, granted.size());
+        assertTrue(second.isGranted() ^ third.isGranted());
+        assertTrue(scheduler.getStatusString().startsWith("Uploads: 1 of 1 slots in use"));
+    }
+}